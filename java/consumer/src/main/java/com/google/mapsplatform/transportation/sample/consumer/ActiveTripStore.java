@@ -0,0 +1,65 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.mapsplatform.transportation.sample.consumer.state.ActiveTripSnapshot;
+
+/**
+ * Persists the {@link ActiveTripSnapshot} of the trip being journey shared so it survives process
+ * restarts. Writes are applied asynchronously, reads hit the disk the first time and should happen
+ * off the main thread.
+ */
+final class ActiveTripStore {
+  private static final String TAG = "ActiveTripStore";
+  private static final String SHARED_PREFS_NAME = "active_trip";
+  private static final String SNAPSHOT_KEY = "SNAPSHOT";
+
+  private final SharedPreferences sharedPrefs;
+  private final Gson gson = new Gson();
+
+  ActiveTripStore(Context context) {
+    sharedPrefs = context.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE);
+  }
+
+  /** Returns the persisted snapshot, or null if there is no active trip. */
+  @Nullable
+  ActiveTripSnapshot load() {
+    String json = sharedPrefs.getString(SNAPSHOT_KEY, null);
+    if (json == null) {
+      return null;
+    }
+    try {
+      return gson.fromJson(json, ActiveTripSnapshot.class);
+    } catch (JsonParseException e) {
+      Log.e(TAG, "Discarding unreadable active trip snapshot.", e);
+      clear();
+      return null;
+    }
+  }
+
+  void save(ActiveTripSnapshot snapshot) {
+    sharedPrefs.edit().putString(SNAPSHOT_KEY, gson.toJson(snapshot)).apply();
+  }
+
+  void clear() {
+    sharedPrefs.edit().remove(SNAPSHOT_KEY).apply();
+  }
+}
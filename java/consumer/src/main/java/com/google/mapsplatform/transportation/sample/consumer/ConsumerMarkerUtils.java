@@ -31,6 +31,9 @@ import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.MarkerType;
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerController;
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerMapStyle;
+import com.google.common.collect.ImmutableList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /** Marker util class to get the correct image based on the marker types. */
 public final class ConsumerMarkerUtils {
@@ -38,6 +41,19 @@ public final class ConsumerMarkerUtils {
   /** Anchor value for the markers to display on the map. */
   private static final float ANCHOR_VALUE = 0.5f;
 
+  /** Drawables used as marker icons by this app. */
+  private static final ImmutableList<Integer> MARKER_DRAWABLES =
+      ImmutableList.of(
+          R.drawable.ic_custom_pickup,
+          R.drawable.ic_custom_dropoff,
+          R.drawable.ic_intermediate_waypoint,
+          R.drawable.ic_intermediate_destination,
+          R.drawable.ic_custommarker_pickup,
+          R.drawable.ic_custommarker_destination);
+
+  /** Rasterized marker icons by drawable resource id. */
+  private static final Map<Integer, Bitmap> markerBitmaps = new ConcurrentHashMap<>();
+
   /**
    * Baseed on ConsumerMarkerType, get the MarkerOptions to display on the map with the
    * corresponding images.
@@ -67,8 +83,34 @@ public final class ConsumerMarkerUtils {
     }
   }
 
+  /**
+   * Rasterizes the marker icons ahead of time so building marker options once the map is ready
+   * does not have to. Safe to call from a background thread.
+   */
+  public static void prewarmMarkerBitmaps(Context context) {
+    for (int resourceId : MARKER_DRAWABLES) {
+      getBitmap(context, resourceId);
+    }
+  }
+
   /** Convert a vector drawable to a bitmap descriptor. */
   public static BitmapDescriptor toBitmapDescriptor(Context context, @DrawableRes int resourceId) {
+    return BitmapDescriptorFactory.fromBitmap(getBitmap(context, resourceId));
+  }
+
+  private static Bitmap getBitmap(Context context, @DrawableRes int resourceId) {
+    Bitmap bitmap = markerBitmaps.get(resourceId);
+    if (bitmap == null) {
+      bitmap = toBitmap(context, resourceId);
+      Bitmap existing = markerBitmaps.putIfAbsent(resourceId, bitmap);
+      if (existing != null) {
+        bitmap = existing;
+      }
+    }
+    return bitmap;
+  }
+
+  private static Bitmap toBitmap(Context context, @DrawableRes int resourceId) {
     Drawable vectorDrawable = AppCompatResources.getDrawable(context, resourceId);
     Bitmap bitmap =
         Bitmap.createBitmap(
@@ -78,7 +120,7 @@ public final class ConsumerMarkerUtils {
     Canvas canvas = new Canvas(bitmap);
     vectorDrawable.setBounds(0, 0, canvas.getWidth(), canvas.getHeight());
     vectorDrawable.draw(canvas);
-    return BitmapDescriptorFactory.fromBitmap(bitmap);
+    return bitmap;
   }
 
   /** Customize the pickup and drop-off markers. */
@@ -0,0 +1,142 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import android.app.Application;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import com.google.android.gms.tasks.Task;
+import com.google.android.libraries.mapsplatform.transportation.consumer.ConsumerApi;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.consumer.provider.ProviderUtils;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Runs the parts of the Consumer SDK setup that do not need the map, once per process: token
+ * factory construction, {@link ConsumerApi} initialization and marker icon rasterization. Started
+ * from the splash screen so they overlap with the map loading in {@link SampleAppActivity}.
+ */
+final class ConsumerStartup {
+  private static final String TAG = "ConsumerStartup";
+
+  // Startup phases.
+  static final String PHASE_TOKEN_FACTORY = "token_factory";
+  static final String PHASE_CONSUMER_API = "consumer_api_init";
+  static final String PHASE_MARKERS = "marker_prewarm";
+  static final String PHASE_MAP = "map_ready";
+  static final String PHASE_READY = "consumer_ready";
+
+  private static ConsumerStartup instance;
+
+  private final StartupTimer startupTimer = new StartupTimer(Ticker.systemTicker());
+  private final ExecutorService executor = AppExecutors.getInstance().io();
+  private final ListenableFuture<ConsumerApi> consumerApiFuture;
+  private final ListenableFuture<?> markersFuture;
+
+  // Set once initialization failed, the next start() tries again.
+  private volatile boolean failed;
+
+  // Phase timings are only reported for the first activity.
+  private boolean reported;
+
+  /** Starts the setup if it is not already running (or failed) and returns it. */
+  static synchronized ConsumerStartup start(Application application) {
+    if (instance == null || instance.failed) {
+      instance = new ConsumerStartup(application);
+    }
+    return instance;
+  }
+
+  private ConsumerStartup(Application application) {
+    ListenableFuture<TripAuthTokenFactory> tokenFactoryFuture =
+        startupTimer.time(
+            PHASE_TOKEN_FACTORY,
+            Futures.submit(() -> TripAuthTokenFactory.getInstance(application), executor));
+    consumerApiFuture =
+        startupTimer.time(
+            PHASE_CONSUMER_API,
+            Futures.transformAsync(
+                tokenFactoryFuture,
+                tokenFactory -> initializeConsumerApi(application, tokenFactory),
+                ContextCompat.getMainExecutor(application)));
+    markersFuture =
+        startupTimer.time(
+            PHASE_MARKERS,
+            Futures.submit(() -> ConsumerMarkerUtils.prewarmMarkerBitmaps(application), executor));
+
+    Futures.addCallback(
+        consumerApiFuture,
+        new FutureCallback<ConsumerApi>() {
+          @Override
+          public void onSuccess(ConsumerApi consumerApi) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            failed = true;
+            Log.e(TAG, "ConsumerApi Initialization Error.", t);
+          }
+        },
+        executor);
+  }
+
+  /** Returns the initialized {@link ConsumerApi}. */
+  ListenableFuture<ConsumerApi> getConsumerApi() {
+    return consumerApiFuture;
+  }
+
+  /** Completes once the marker icons are rasterized. */
+  ListenableFuture<?> getMarkers() {
+    return markersFuture;
+  }
+
+  /** Records that the map finished loading. Must be called on the main thread. */
+  void onMapReady() {
+    if (!reported) {
+      startupTimer.mark(PHASE_MAP);
+    }
+  }
+
+  /**
+   * Records that journey sharing can start and logs the startup phases. Must be called on the main
+   * thread.
+   */
+  void onReady() {
+    if (reported) {
+      return;
+    }
+    reported = true;
+    startupTimer.mark(PHASE_READY);
+    Log.i(TAG, "Startup phases:\n" + startupTimer.summary());
+  }
+
+  private static ListenableFuture<ConsumerApi> initializeConsumerApi(
+      Application application, TripAuthTokenFactory tokenFactory) {
+    Task<ConsumerApi> cachedTask = ConsumerApi.getInstance();
+    Task<ConsumerApi> consumerApiTask =
+        cachedTask != null && cachedTask.isSuccessful()
+            ? cachedTask
+            : ConsumerApi.initialize(
+                application, ProviderUtils.getProviderId(application), tokenFactory);
+
+    SettableFuture<ConsumerApi> consumerApiFuture = SettableFuture.create();
+    consumerApiTask.addOnSuccessListener(consumerApiFuture::set);
+    consumerApiTask.addOnFailureListener(consumerApiFuture::setException);
+    return consumerApiFuture;
+  }
+}
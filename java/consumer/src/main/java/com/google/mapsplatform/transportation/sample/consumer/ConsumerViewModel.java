@@ -15,8 +15,12 @@
 package com.google.mapsplatform.transportation.sample.consumer;
 
 import android.app.Application;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.AndroidViewModel;
 import androidx.lifecycle.LiveData;
@@ -25,7 +29,6 @@ import com.google.android.gms.maps.model.LatLng;
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
-import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.VehicleLocation;
 import com.google.common.base.Strings;
@@ -33,23 +36,29 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.mapsplatform.transportation.sample.consumer.provider.ProviderUtils;
 import com.google.mapsplatform.transportation.sample.consumer.provider.model.CreateTripRequest;
 import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripData;
 import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripStatus;
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.WaypointResponse;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.CircuitBreaker;
 import com.google.mapsplatform.transportation.sample.consumer.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.RestProvider;
+import com.google.mapsplatform.transportation.sample.consumer.state.ActiveTripSnapshot;
 import com.google.mapsplatform.transportation.sample.consumer.state.AppStates;
 import java.lang.ref.WeakReference;
 import java.net.ConnectException;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ViewModel for the Consumer Sample application. It provides observables for the current
@@ -62,8 +71,26 @@ public class ConsumerViewModel extends AndroidViewModel {
   /** Amount of time until an idle state reset should be delayed before applying changes. */
   private static final int IDLE_STATE_RESET_DELAY_SECONDS = 3;
 
+  /** Minimum time between two writes of the active trip snapshot caused by progress updates. */
+  private static final long ACTIVE_TRIP_SAVE_INTERVAL_MILLIS = 5_000;
+
+  /** Persisted trips older than this are considered over and are not restored. */
+  private static final long MAX_RESTORED_TRIP_AGE_MILLIS = TimeUnit.HOURS.toMillis(6);
+
   interface JourneySharingListener {
 
+    /**
+     * Called as soon as the trip is created, while it still waits to be matched, so expensive
+     * journey sharing setup (trip model, auth token) can run concurrently with matching.
+     */
+    void prepareJourneySharing(String tripName);
+
+    /**
+     * Renders a trip persisted by a previous process before journey sharing resumes, centering on
+     * the last known vehicle location if any.
+     */
+    void showRestoredTrip(TripData tripData, @Nullable LatLng vehicleLocation);
+
     /** Starts journey sharing rendering and return that {@link TripModel}. */
     TripModel startJourneySharing(TripData tripData);
 
@@ -119,27 +146,133 @@ public class ConsumerViewModel extends AndroidViewModel {
   private final SingleLiveEvent<Integer> errorMessage = new SingleLiveEvent<>();
 
   private final LocalProviderService providerService;
-  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final CircuitBreaker.Listener circuitBreakerListener =
+      this::onProviderCircuitStateChanged;
+  private final ActiveTripStore activeTripStore;
+  private final ExecutorService executor = AppExecutors.getInstance().io();
+  // Background stage computing state derived from trip callbacks, in callback order.
+  private final Executor tripCallbackExecutor = MoreExecutors.newSequentialExecutor(executor);
+  private final TripCallbackProcessor tripCallbackProcessor = new TripCallbackProcessor();
+  // Identifies the latest remaining waypoints update, older results are not published.
+  private final AtomicLong remainingWaypointsVersion = new AtomicLong();
   private final Executor mainExecutor;
   private final ScheduledExecutorService scheduledExecutor =
-      Executors.newSingleThreadScheduledExecutor();
+      AppExecutors.getInstance().scheduler();
 
   private WeakReference<JourneySharingListener> journeySharingListener = new WeakReference<>(null);
 
+  // Trip creation and matching in progress, cancelled when no longer needed.
+  @Nullable private ListenableFuture<TripData> pendingTripFuture;
+
+  // Delayed reset to INITIALIZED after journey sharing stopped.
+  @Nullable private ScheduledFuture<?> pendingStateReset;
+
+  // Last known state of the journey shared trip, persisted to restore it on the next launch.
+  @Nullable private ActiveTripSnapshot activeTripSnapshot;
+
+  // Trip restored from a previous process, waiting for the SDK to resume journey sharing.
+  @Nullable private TripData restoredTripData;
+
+  // Whether the listener is able to start journey sharing (SDK initialized).
+  private boolean journeySharingReady;
+
+  // Cold start timings of a restored trip, -1 until measured.
+  private long coldStartToTripVisibleMillis = -1;
+  private long coldStartToVehicleVisibleMillis = -1;
+
   /**
    * Initializes the ConsumerApi and if successful initiates TripManager configuration.
    *
    * @param application Application context.
    */
   public ConsumerViewModel(Application application) {
+    this(
+        application,
+        LocalProviderService.createRestProvider(
+            ProviderUtils.getProviderBaseUrl(application),
+            ProviderUtils.getHttpClient(application)));
+  }
+
+  @VisibleForTesting
+  ConsumerViewModel(Application application, RestProvider restProvider) {
     super(application);
     providerService =
         new LocalProviderService(
-            LocalProviderService.createRestProvider(ProviderUtils.getProviderBaseUrl(application)),
+            restProvider,
             executor,
-            scheduledExecutor);
+            scheduledExecutor,
+            ProviderUtils.getNetworkQualityEstimator());
+    activeTripStore = new ActiveTripStore(application);
     appState.setValue(AppStates.UNINITIALIZED);
     mainExecutor = ContextCompat.getMainExecutor(application);
+    providerService.addCircuitBreakerListener(circuitBreakerListener);
+    restoreActiveTrip();
+  }
+
+  /** Loads the trip persisted by a previous process off the main thread and renders it. */
+  private void restoreActiveTrip() {
+    try {
+      executor.execute(
+          () -> {
+            ActiveTripSnapshot snapshot = activeTripStore.load();
+            if (snapshot != null) {
+              mainExecutor.execute(() -> showRestoredTrip(snapshot));
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Skipped restoring the active trip, the I/O pool is saturated.", e);
+    }
+  }
+
+  private void showRestoredTrip(ActiveTripSnapshot snapshot) {
+    if (appState.getValue() != AppStates.UNINITIALIZED) {
+      // The user already started something else.
+      return;
+    }
+    if (System.currentTimeMillis() - snapshot.getUpdatedAtMillis() > MAX_RESTORED_TRIP_AGE_MILLIS) {
+      Log.i(TAG, String.format("Discarding stale trip %s.", snapshot.getTripName()));
+      activeTripStore.clear();
+      return;
+    }
+    activeTripSnapshot = snapshot;
+    restoredTripData = snapshot.toTripData();
+    tripId.setValue(snapshot.getTripId());
+    tripStatus.setValue(snapshot.getTripStatus());
+    remainingDistanceMeters.setValue(snapshot.getRemainingDistanceMeters());
+    nextWaypointEta.setValue(snapshot.getNextWaypointEtaMillis());
+    appState.setValue(AppStates.JOURNEY_SHARING);
+
+    JourneySharingListener listener = journeySharingListener.get();
+    if (listener != null) {
+      listener.showRestoredTrip(restoredTripData, snapshot.getVehicleLocation());
+    }
+    coldStartToTripVisibleMillis = millisSinceProcessStart();
+    Log.i(
+        TAG,
+        String.format(
+            "Restored trip %s visible %d ms after process start.",
+            snapshot.getTripName(), coldStartToTripVisibleMillis));
+    maybeResumeJourneySharing();
+  }
+
+  /**
+   * Called once the listener is able to start journey sharing. Resumes journey sharing of a
+   * restored trip, if any.
+   */
+  public void onJourneySharingReady() {
+    journeySharingReady = true;
+    maybeResumeJourneySharing();
+  }
+
+  private void maybeResumeJourneySharing() {
+    if (!journeySharingReady || restoredTripData == null) {
+      return;
+    }
+    TripData tripData = restoredTripData;
+    restoredTripData = null;
+    if (appState.getValue() == AppStates.JOURNEY_SHARING) {
+      beginJourneySharing(tripData);
+    }
   }
 
   /** Creates a trip in the sample provider. */
@@ -154,30 +287,29 @@ public class ConsumerViewModel extends AndroidViewModel {
     request.setIntermediateDestinations(intermediateDestinations.getValue());
     request.setTripType(tripType);
 
+    cancelPendingTrip();
     ListenableFuture<TripResponse> tripResponseFuture = providerService.createTrip(request);
 
-    handleCreateTripResponse(tripResponseFuture);
+    pendingTripFuture = handleCreateTripResponse(tripResponseFuture);
+    handleFetchMatchedTripResponse(pendingTripFuture);
   }
 
-  private void handleCreateTripResponse(ListenableFuture<TripResponse> tripResponseFuture) {
-    Futures.addCallback(
+  /**
+   * Chains matching polling to trip creation. Once the trip name is known journey sharing setup is
+   * started on the main thread in parallel with matching. Cancelling the returned future cancels
+   * whichever step is in progress, including pending matching retries.
+   */
+  private ListenableFuture<TripData> handleCreateTripResponse(
+      ListenableFuture<TripResponse> tripResponseFuture) {
+    return Futures.transformAsync(
         tripResponseFuture,
-        new FutureCallback<TripResponse>() {
-          @Override
-          public void onSuccess(TripResponse result) {
-            Log.i(TAG, String.format("Successfully created trip %s.", result.getTripName()));
-            tripStatus.postValue(TripStatus.parse(result.getTripStatus()));
-
-            ListenableFuture<TripData> tripDataFuture =
-                providerService.fetchMatchedTrip(result.getTripName());
-            handleFetchMatchedTripResponse(tripDataFuture);
-          }
+        result -> {
+          Log.i(TAG, String.format("Successfully created trip %s.", result.getTripName()));
+          tripStatus.postValue(TripStatus.parse(result.getTripStatus()));
 
-          @Override
-          public void onFailure(Throwable e) {
-            Log.e(TAG, "Failed to create trip.", e);
-            setErrorMessage(e);
-          }
+          String tripName = result.getTripName();
+          mainExecutor.execute(() -> prepareJourneySharing(tripName));
+          return providerService.fetchMatchedTrip(tripName);
         },
         executor);
   }
@@ -188,19 +320,40 @@ public class ConsumerViewModel extends AndroidViewModel {
         new FutureCallback<TripData>() {
           @Override
           public void onSuccess(TripData tripData) {
-            mainExecutor.execute(() -> startJourneySharing(tripData));
+            startJourneySharing(tripData);
           }
 
           @Override
           public void onFailure(Throwable e) {
-            Log.e(TAG, "Failed to match trip with a driver.", e);
+            if (e instanceof CancellationException) {
+              Log.i(TAG, "Trip matching cancelled.");
+              return;
+            }
+            Log.e(TAG, "Failed to create trip or match it with a driver.", e);
             setErrorMessage(e);
           }
         },
-        executor);
+        mainExecutor);
+  }
+
+  /** Stops trip creation and matching polling, if any is in progress. */
+  public void cancelPendingTrip() {
+    if (pendingTripFuture != null) {
+      pendingTripFuture.cancel(true);
+      pendingTripFuture = null;
+    }
+  }
+
+  private void prepareJourneySharing(String tripName) {
+    JourneySharingListener listener = journeySharingListener.get();
+    if (pendingTripFuture == null || listener == null) {
+      return;
+    }
+    listener.prepareJourneySharing(tripName);
   }
 
   public void startJourneySharing(TripData tripData) {
+    pendingTripFuture = null;
     if (appState.getValue() != AppStates.CONFIRMING_TRIP) {
       Log.e(
           TAG,
@@ -210,16 +363,25 @@ public class ConsumerViewModel extends AndroidViewModel {
               appState.getValue()));
       return;
     }
+    if (beginJourneySharing(tripData)) {
+      activeTripSnapshot = ActiveTripSnapshot.create(tripData, System.currentTimeMillis());
+      activeTripStore.save(activeTripSnapshot);
+    }
+  }
+
+  /** Starts journey sharing of the given trip, returns false if it cannot be started. */
+  private boolean beginJourneySharing(TripData tripData) {
     List<WaypointResponse> waypoints = tripData.waypoints();
     JourneySharingListener listener = journeySharingListener.get();
 
     if (waypoints.size() < 2 || listener == null) {
-      return;
+      return false;
     }
     TripModel tripModel = listener.startJourneySharing(tripData);
     trip.setValue(tripModel);
     appState.setValue(AppStates.JOURNEY_SHARING);
     tripModel.registerTripCallback(tripCallback);
+    return true;
   }
 
   /**
@@ -231,9 +393,36 @@ public class ConsumerViewModel extends AndroidViewModel {
     if (status == TripInfo.TripStatus.COMPLETE
         || status == TripInfo.TripStatus.CANCELED
         || status == TripInfo.TripStatus.UNKNOWN_TRIP_STATUS) {
+      clearActiveTrip();
       stopJourneySharing();
       intermediateDestinations.setValue(ImmutableList.of());
+    } else if (activeTripSnapshot != null) {
+      activeTripSnapshot.setTripStatus(status);
+      saveActiveTripSnapshot(/* force= */ true);
+    }
+  }
+
+  /**
+   * Persists the active trip snapshot. Unless forced, progress updates are written at most once
+   * per {@link #ACTIVE_TRIP_SAVE_INTERVAL_MILLIS}.
+   */
+  private void saveActiveTripSnapshot(boolean force) {
+    if (activeTripSnapshot == null) {
+      return;
+    }
+    long nowMillis = System.currentTimeMillis();
+    if (!force
+        && nowMillis - activeTripSnapshot.getUpdatedAtMillis() < ACTIVE_TRIP_SAVE_INTERVAL_MILLIS) {
+      return;
     }
+    activeTripSnapshot.setUpdatedAtMillis(nowMillis);
+    activeTripStore.save(activeTripSnapshot);
+  }
+
+  private void clearActiveTrip() {
+    activeTripSnapshot = null;
+    restoredTripData = null;
+    activeTripStore.clear();
   }
 
   private void stopJourneySharing() {
@@ -242,15 +431,33 @@ public class ConsumerViewModel extends AndroidViewModel {
     if (listener != null) {
       listener.stopJourneySharing();
     }
-    ScheduledFuture<?> unused =
+    pendingStateReset =
         scheduledExecutor.schedule(
             () -> mainExecutor.execute(() -> appState.setValue(AppStates.INITIALIZED)),
             IDLE_STATE_RESET_DELAY_SECONDS,
             TimeUnit.SECONDS);
   }
 
+  /**
+   * Releases everything tied to this ViewModel: cancels trip matching and pending state resets,
+   * and unregisters trip callbacks. The executors are shared by the app and stay up.
+   */
+  @Override
+  protected void onCleared() {
+    cancelPendingTrip();
+    if (pendingStateReset != null) {
+      pendingStateReset.cancel(false);
+      pendingStateReset = null;
+    }
+    unregisterTripCallback();
+    providerService.removeCircuitBreakerListener(circuitBreakerListener);
+    journeySharingListener.clear();
+    super.onCleared();
+  }
+
   /** Unregisters callback as part of cleanup. */
   public void unregisterTripCallback() {
+    remainingWaypointsVersion.incrementAndGet();
     TripModel tripModel = trip.getValue();
     if (tripModel != null) {
       tripModel.unregisterTripCallback(tripCallback);
@@ -258,6 +465,27 @@ public class ConsumerViewModel extends AndroidViewModel {
     tripInfo.setValue(null);
   }
 
+  /** Time from process start until a restored trip was rendered, or -1 if none was restored. */
+  public long getColdStartToTripVisibleMillis() {
+    return coldStartToTripVisibleMillis;
+  }
+
+  /**
+   * Time from process start until the first live vehicle location of a restored trip, or -1 if it
+   * was not received yet.
+   */
+  public long getColdStartToVehicleVisibleMillis() {
+    return coldStartToVehicleVisibleMillis;
+  }
+
+  /** Milliseconds since the process started, or -1 when the platform does not report it. */
+  private static long millisSinceProcessStart() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+      return -1;
+    }
+    return SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+  }
+
   public void setJourneySharingListener(JourneySharingListener journeySharingListener) {
     this.journeySharingListener = new WeakReference<>(journeySharingListener);
   }
@@ -266,8 +494,11 @@ public class ConsumerViewModel extends AndroidViewModel {
     isSharedTripType.setValue(isShared);
   }
 
-  /** Set the app state. */
+  /** Set the app state. Leaving trip confirmation stops any trip matching still in progress. */
   public void setState(@AppStates int state) {
+    if (state != AppStates.CONFIRMING_TRIP) {
+      cancelPendingTrip();
+    }
     appState.setValue(state);
   }
 
@@ -397,6 +628,15 @@ public class ConsumerViewModel extends AndroidViewModel {
   private void setErrorMessage(Throwable e) {
     if (e instanceof ConnectException) {
       mainExecutor.execute(() -> errorMessage.setValue(R.string.msg_provider_connection_error));
+    } else if (e instanceof CircuitBreaker.OpenException) {
+      mainExecutor.execute(() -> errorMessage.setValue(R.string.msg_provider_unavailable));
+    }
+  }
+
+  /** Tells the rider the provider is unavailable when the circuit of an endpoint opens. */
+  private void onProviderCircuitStateChanged(String endpoint, CircuitBreaker.State state) {
+    if (state == CircuitBreaker.State.OPEN) {
+      mainExecutor.execute(() -> errorMessage.setValue(R.string.msg_provider_unavailable));
     }
   }
 
@@ -407,12 +647,25 @@ public class ConsumerViewModel extends AndroidViewModel {
         public void onTripActiveRouteRemainingDistanceUpdated(
             TripInfo tripInfo, @Nullable Integer distanceMeters) {
           remainingDistanceMeters.setValue(distanceMeters);
+          if (activeTripSnapshot != null) {
+            activeTripSnapshot.setRemainingDistanceMeters(distanceMeters);
+            saveActiveTripSnapshot(/* force= */ false);
+          }
         }
 
         @Override
         public void onTripUpdated(TripInfo tripInfo) {
           ConsumerViewModel.this.tripInfo.setValue(tripInfo);
-          tripId.setValue(TripName.create(tripInfo.getTripName()).getTripId());
+          String currentTripId = tripCallbackProcessor.getTripId(tripInfo.getTripName());
+          if (!currentTripId.equals(tripId.getValue())) {
+            tripId.setValue(currentTripId);
+          }
+          if (activeTripSnapshot != null
+              && !Strings.nullToEmpty(tripInfo.getVehicleId())
+                  .equals(Strings.nullToEmpty(activeTripSnapshot.getVehicleId()))) {
+            activeTripSnapshot.setVehicleId(tripInfo.getVehicleId());
+            saveActiveTripSnapshot(/* force= */ true);
+          }
         }
 
         @Override
@@ -424,6 +677,10 @@ public class ConsumerViewModel extends AndroidViewModel {
         public void onTripETAToNextWaypointUpdated(
             TripInfo tripInfo, @Nullable Long timestampMillis) {
           nextWaypointEta.setValue(timestampMillis);
+          if (activeTripSnapshot != null) {
+            activeTripSnapshot.setNextWaypointEtaMillis(timestampMillis);
+            saveActiveTripSnapshot(/* force= */ false);
+          }
         }
 
         @Override
@@ -435,23 +692,30 @@ public class ConsumerViewModel extends AndroidViewModel {
         @Override
         public void onTripRemainingWaypointsUpdated(
             TripInfo tripInfo, List<TripWaypoint> waypointList) {
-          ImmutableList.Builder<TripWaypoint> otherTripWaypointsBuilder =
-              new ImmutableList.Builder<>();
-
-          String currentTripId = TripName.create(tripInfo.getTripName()).getTripId();
-
-          for (TripWaypoint tripWaypoint : waypointList) {
-            if (tripWaypoint.getTripId().equals(currentTripId)) {
-              break;
-            }
-
-            otherTripWaypointsBuilder.add(tripWaypoint);
+          long version = remainingWaypointsVersion.incrementAndGet();
+          String tripName = tripInfo.getTripName();
+          try {
+            tripCallbackExecutor.execute(
+                () -> {
+                  ImmutableList<TripWaypoint> waypoints =
+                      tripCallbackProcessor.getOtherTripWaypoints(tripName, waypointList);
+                  mainExecutor.execute(() -> publishOtherTripWaypoints(version, waypoints));
+                });
+          } catch (RejectedExecutionException e) {
+            // The shared pool is saturated or shut down, a later update supersedes this one.
           }
-
-          otherTripWaypoints.setValue(otherTripWaypointsBuilder.build());
         }
       };
 
+  /** Publishes the computed waypoints unless a newer update superseded them. */
+  private void publishOtherTripWaypoints(long version, ImmutableList<TripWaypoint> waypoints) {
+    if (version != remainingWaypointsVersion.get()
+        || waypoints.equals(otherTripWaypoints.getValue())) {
+      return;
+    }
+    otherTripWaypoints.setValue(waypoints);
+  }
+
   private void maybeUpdateCurrentLocation(@Nullable VehicleLocation vehicleLocation) {
     JourneySharingListener listener = journeySharingListener.get();
     if (appState.getValue() == AppStates.JOURNEY_SHARING
@@ -459,5 +723,18 @@ public class ConsumerViewModel extends AndroidViewModel {
         && vehicleLocation != null) {
       listener.updateCurrentLocation(vehicleLocation.getLatLng());
     }
+    if (vehicleLocation == null || activeTripSnapshot == null) {
+      return;
+    }
+    if (coldStartToTripVisibleMillis >= 0 && coldStartToVehicleVisibleMillis < 0) {
+      coldStartToVehicleVisibleMillis = millisSinceProcessStart();
+      Log.i(
+          TAG,
+          String.format(
+              "Restored trip vehicle visible %d ms after process start.",
+              coldStartToVehicleVisibleMillis));
+    }
+    activeTripSnapshot.setVehicleLocation(vehicleLocation.getLatLng());
+    saveActiveTripSnapshot(/* force= */ false);
   }
 }
@@ -0,0 +1,250 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import androidx.annotation.Nullable;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripModelOptions;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.VehicleLocation;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.consumer.state.MonitoredTripState;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Monitors several trips at once (e.g. for dispatch staff) by registering a callback on each of
+ * their {@link TripModel}s. The latest state of each trip is kept in a table of immutable {@link
+ * MonitoredTripState} rows and only rows that actually changed are published.
+ *
+ * <p>One trip can be focused: its model refreshes at the default rate and its changes are
+ * published right away. Background trips refresh less often and their changes are published at
+ * most once per {@code backgroundPublishIntervalMillis}, the remainder being delivered by {@link
+ * #publishPendingUpdates()}.
+ *
+ * <p>Not thread safe, meant to be used from the main thread where trip callbacks are delivered.
+ */
+final class MultiTripMonitor {
+
+  /** Receives the rows that changed since they were last published. */
+  interface Listener {
+    void onTripStatesChanged(ImmutableList<MonitoredTripState> changedStates);
+  }
+
+  /** Model refresh interval for the focused trip. */
+  static final long FOCUSED_REFRESH_INTERVAL_MILLIS = 5_000;
+
+  /** Model refresh interval for trips monitored in the background. */
+  static final long BACKGROUND_REFRESH_INTERVAL_MILLIS = 30_000;
+
+  private final Map<String, MonitoredTrip> monitoredTrips = new LinkedHashMap<>();
+  private final LongSupplier clock;
+  private final long backgroundPublishIntervalMillis;
+  private final Listener listener;
+
+  @Nullable private String focusedTripName;
+
+  MultiTripMonitor(LongSupplier clock, long backgroundPublishIntervalMillis, Listener listener) {
+    this.clock = clock;
+    this.backgroundPublishIntervalMillis = backgroundPublishIntervalMillis;
+    this.listener = listener;
+  }
+
+  /** Starts monitoring the trip, as a background trip unless it is the focused one. */
+  void startMonitoring(String tripName, TripModel tripModel) {
+    if (monitoredTrips.containsKey(tripName)) {
+      return;
+    }
+    MonitoredTrip trip = new MonitoredTrip(tripName, tripModel);
+    monitoredTrips.put(tripName, trip);
+    applyRefreshInterval(trip);
+    tripModel.registerTripCallback(trip);
+  }
+
+  /** Stops monitoring the trip and unregisters its callback. */
+  void stopMonitoring(String tripName) {
+    MonitoredTrip trip = monitoredTrips.remove(tripName);
+    if (trip != null) {
+      trip.tripModel.unregisterTripCallback(trip);
+    }
+    if (tripName.equals(focusedTripName)) {
+      focusedTripName = null;
+    }
+  }
+
+  /** Stops monitoring every trip. */
+  void stopAll() {
+    for (MonitoredTrip trip : monitoredTrips.values()) {
+      trip.tripModel.unregisterTripCallback(trip);
+    }
+    monitoredTrips.clear();
+    focusedTripName = null;
+  }
+
+  /**
+   * Focuses the given trip (or none if null). The previously focused trip goes back to the
+   * background refresh rate while the new one gets the focused rate and its pending change, if
+   * any, is published right away.
+   */
+  void setFocusedTrip(@Nullable String tripName) {
+    MonitoredTrip previous = focusedTripName != null ? monitoredTrips.get(focusedTripName) : null;
+    focusedTripName = tripName;
+    if (previous != null) {
+      applyRefreshInterval(previous);
+    }
+
+    MonitoredTrip focused = tripName != null ? monitoredTrips.get(tripName) : null;
+    if (focused != null) {
+      applyRefreshInterval(focused);
+      if (focused.hasPendingState()) {
+        publish(ImmutableList.of(focused.takePendingState(clock.getAsLong())));
+      }
+    }
+  }
+
+  /** Publishes background changes that were held back and whose interval has elapsed. */
+  void publishPendingUpdates() {
+    long now = clock.getAsLong();
+    List<MonitoredTripState> changedStates = new ArrayList<>();
+    for (MonitoredTrip trip : monitoredTrips.values()) {
+      if (trip.hasPendingState() && canPublishBackgroundState(trip, now)) {
+        changedStates.add(trip.takePendingState(now));
+      }
+    }
+    if (!changedStates.isEmpty()) {
+      publish(ImmutableList.copyOf(changedStates));
+    }
+  }
+
+  /** Returns the latest state of every monitored trip, published or not. */
+  ImmutableList<MonitoredTripState> getTripStates() {
+    ImmutableList.Builder<MonitoredTripState> states =
+        ImmutableList.builderWithExpectedSize(monitoredTrips.size());
+    for (MonitoredTrip trip : monitoredTrips.values()) {
+      states.add(trip.state);
+    }
+    return states.build();
+  }
+
+  int getMonitoredTripCount() {
+    return monitoredTrips.size();
+  }
+
+  private boolean isFocused(MonitoredTrip trip) {
+    return trip.tripName.equals(focusedTripName);
+  }
+
+  private boolean canPublishBackgroundState(MonitoredTrip trip, long now) {
+    return now - trip.lastPublishedMillis >= backgroundPublishIntervalMillis;
+  }
+
+  private void applyRefreshInterval(MonitoredTrip trip) {
+    trip.tripModel.setTripModelOptions(
+        TripModelOptions.builder()
+            .setRefreshIntervalMillis(
+                isFocused(trip)
+                    ? FOCUSED_REFRESH_INTERVAL_MILLIS
+                    : BACKGROUND_REFRESH_INTERVAL_MILLIS)
+            .build());
+  }
+
+  /** Records a new state for the trip and publishes it unless it is throttled. */
+  private void onStateChanged(MonitoredTrip trip, MonitoredTripState newState) {
+    if (newState.equals(trip.state)) {
+      return;
+    }
+    trip.state = newState;
+
+    long now = clock.getAsLong();
+    if (isFocused(trip) || canPublishBackgroundState(trip, now)) {
+      publish(ImmutableList.of(trip.takePendingState(now)));
+    }
+  }
+
+  private void publish(ImmutableList<MonitoredTripState> changedStates) {
+    listener.onTripStatesChanged(changedStates);
+  }
+
+  /** A monitored trip: its model, callback and state row. */
+  private final class MonitoredTrip extends TripModelCallback {
+    private final String tripName;
+    private final TripModel tripModel;
+    private MonitoredTripState state;
+    @Nullable private MonitoredTripState publishedState;
+    private long lastPublishedMillis = Long.MIN_VALUE / 2;
+
+    MonitoredTrip(String tripName, TripModel tripModel) {
+      this.tripName = tripName;
+      this.tripModel = tripModel;
+      // Parsed once per trip instead of on every callback.
+      this.state =
+          MonitoredTripState.newBuilder()
+              .setTripName(tripName)
+              .setTripId(TripName.create(tripName).getTripId())
+              .build();
+    }
+
+    boolean hasPendingState() {
+      return !state.equals(publishedState);
+    }
+
+    MonitoredTripState takePendingState(long now) {
+      publishedState = state;
+      lastPublishedMillis = now;
+      return state;
+    }
+
+    @Override
+    public void onTripUpdated(TripInfo tripInfo) {
+      onStateChanged(
+          this,
+          state.toBuilder()
+              .setTripStatus(tripInfo.getCurrentTripStatus())
+              .setVehicleId(tripInfo.getVehicleId())
+              .build());
+    }
+
+    @Override
+    public void onTripStatusUpdate(TripInfo tripInfo, @TripInfo.TripStatus int status) {
+      onStateChanged(this, state.toBuilder().setTripStatus(status).build());
+    }
+
+    @Override
+    public void onTripActiveRouteRemainingDistanceUpdated(
+        TripInfo tripInfo, @Nullable Integer distanceMeters) {
+      onStateChanged(this, state.toBuilder().setRemainingDistanceMeters(distanceMeters).build());
+    }
+
+    @Override
+    public void onTripETAToNextWaypointUpdated(TripInfo tripInfo, @Nullable Long timestampMillis) {
+      onStateChanged(this, state.toBuilder().setNextWaypointEtaMillis(timestampMillis).build());
+    }
+
+    @Override
+    public void onTripVehicleLocationUpdated(
+        TripInfo tripInfo, @Nullable VehicleLocation vehicleLocation) {
+      onStateChanged(
+          this,
+          state.toBuilder()
+              .setVehicleLocation(vehicleLocation != null ? vehicleLocation.getLatLng() : null)
+              .build());
+    }
+  }
+}
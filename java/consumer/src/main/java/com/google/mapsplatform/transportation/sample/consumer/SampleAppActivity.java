@@ -47,12 +47,12 @@ import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
-import com.google.android.gms.tasks.Task;
 import com.google.android.libraries.mapsplatform.transportation.consumer.ConsumerApi;
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelManager;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TerminalLocation;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint;
 import com.google.android.libraries.mapsplatform.transportation.consumer.sessions.JourneySharingSession;
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerController;
@@ -60,8 +60,10 @@ import com.google.android.libraries.mapsplatform.transportation.consumer.view.Co
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerGoogleMap.ConsumerMapReadyCallback;
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerMapView;
 import com.google.android.material.snackbar.Snackbar;
-import com.google.mapsplatform.transportation.sample.consumer.provider.ProviderUtils;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripData;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.WaypointResponse;
 import com.google.mapsplatform.transportation.sample.consumer.state.AppStates;
 import java.util.ArrayList;
 import java.util.Date;
@@ -158,27 +160,35 @@ public class SampleAppActivity extends AppCompatActivity
   private void initializeSdk() {
     showStartupLocation();
 
+    // Usually already started by the splash screen, ConsumerApi initialization and marker
+    // rasterization run concurrently with the map loading.
+    ConsumerStartup consumerStartup = ConsumerStartup.start(getApplication());
+
     consumerMapView.getConsumerGoogleMapAsync(
         new ConsumerMapReadyCallback() {
           @Override
           public void onConsumerMapReady(ConsumerGoogleMap consumerGoogleMap) {
+            consumerStartup.onMapReady();
             // Safe to do so as controller will only be nullified during consumerMap's onDestroy()
             consumerController = requireNonNull(consumerGoogleMap.getConsumerController());
 
-            Task<ConsumerApi> cachedTask = ConsumerApi.getInstance();
-            Task<ConsumerApi> consumerApiTask =
-                cachedTask != null && cachedTask.isSuccessful()
-                    ? cachedTask
-                    : ConsumerApi.initialize(
-                        SampleAppActivity.this,
-                        ProviderUtils.getProviderId(SampleAppActivity.this),
-                        new TripAuthTokenFactory(getApplication()));
-
-            consumerApiTask.addOnSuccessListener(
-                consumerApi ->
-                    tripModelManager = requireNonNull(consumerApi.getTripModelManager()));
-            consumerApiTask.addOnFailureListener(
-                task -> Log.e(TAG, "ConsumerApi Initialization Error:\n" + task.getMessage()));
+            Futures.addCallback(
+                consumerStartup.getConsumerApi(),
+                new FutureCallback<ConsumerApi>() {
+                  @Override
+                  public void onSuccess(ConsumerApi consumerApi) {
+                    tripModelManager = requireNonNull(consumerApi.getTripModelManager());
+                    consumerViewModel.onJourneySharingReady();
+                    consumerStartup.onReady();
+                  }
+
+                  @Override
+                  public void onFailure(Throwable t) {
+                    Log.e(TAG, "ConsumerApi Initialization Error:\n" + t.getMessage());
+                  }
+                },
+                ContextCompat.getMainExecutor(SampleAppActivity.this));
+            // Uses the icons rasterized by the startup if ready, rasterizes them otherwise.
             ConsumerMarkerUtils.setCustomMarkers(consumerController, SampleAppActivity.this);
             PolylineStyles.enableTrafficAwarePolyline(consumerController.getConsumerMapStyle());
             setupViewBindings();
@@ -191,6 +201,28 @@ public class SampleAppActivity extends AppCompatActivity
         /* googleMapOptions= */ null);
   }
 
+  @Override
+  public void prepareJourneySharing(String tripName) {
+    TripAuthTokenFactory.getInstance(getApplication())
+        .prefetchToken(TripName.create(tripName).getTripId());
+    if (tripModelManager != null) {
+      TripModel unused = tripModelManager.getTripModel(tripName);
+    }
+  }
+
+  @Override
+  public void showRestoredTrip(TripData tripData, @Nullable LatLng vehicleLocation) {
+    if (vehicleLocation != null) {
+      lastLocation = vehicleLocation;
+    } else {
+      WaypointResponse.Point pickup = tripData.waypoints().get(0).getLocation().getPoint();
+      lastLocation = new LatLng(pickup.getLatitude(), pickup.getLongitude());
+    }
+    if (googleMap != null) {
+      centerCameraToLastLocation();
+    }
+  }
+
   @Override
   public TripModel startJourneySharing(TripData tripData) {
     TripModel trip = requireNonNull(tripModelManager).getTripModel(tripData.tripName());
@@ -236,6 +268,10 @@ public class SampleAppActivity extends AppCompatActivity
         .getLastLocation()
         .addOnCompleteListener(
             task -> {
+              if (consumerViewModel.getAppState().getValue() == JOURNEY_SHARING) {
+                // Already centered on the restored trip.
+                return;
+              }
               if (task.isSuccessful() && task.getResult() != null) {
                 Location location = task.getResult();
                 lastLocation = new LatLng(location.getLatitude(), location.getLongitude());
@@ -31,6 +31,9 @@ public class SplashScreenActivity extends AppCompatActivity {
   protected void onCreate(@Nullable Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
 
+    // Map independent SDK setup runs while permissions are checked and the map loads.
+    ConsumerStartup.start(getApplication());
+
     // Check for location permissions, prompting if not granted.
     if (!PermissionUtils.hasRequiredRuntimePermissions(this)) {
       ActivityCompat.requestPermissions(
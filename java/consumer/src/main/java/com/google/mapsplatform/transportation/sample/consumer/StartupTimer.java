@@ -0,0 +1,86 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Measures the phases of the app startup. Phases may overlap, each one records its own duration
+ * and the time it ended at relative to the startup begin.
+ */
+final class StartupTimer {
+  private final Ticker ticker;
+  private final long startNanos;
+
+  // Guarded by this.
+  private final Map<String, Long> phaseDurationsMillis = new LinkedHashMap<>();
+  private final Map<String, Long> phaseEndsMillis = new LinkedHashMap<>();
+
+  StartupTimer(Ticker ticker) {
+    this.ticker = ticker;
+    startNanos = ticker.read();
+  }
+
+  /** Records the duration of the phase ending when the given future completes. */
+  <T> ListenableFuture<T> time(String phase, ListenableFuture<T> future) {
+    long phaseStartNanos = ticker.read();
+    future.addListener(() -> record(phase, phaseStartNanos), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /** Records a phase that started with the startup and ends now. */
+  void mark(String phase) {
+    record(phase, startNanos);
+  }
+
+  /** Returns the duration of each finished phase in milliseconds, in completion order. */
+  synchronized ImmutableMap<String, Long> getPhaseDurationsMillis() {
+    return ImmutableMap.copyOf(phaseDurationsMillis);
+  }
+
+  /** Returns when each finished phase ended in milliseconds since the startup began. */
+  synchronized ImmutableMap<String, Long> getPhaseEndsMillis() {
+    return ImmutableMap.copyOf(phaseEndsMillis);
+  }
+
+  /** Returns a human readable line per finished phase, meant for logging. */
+  synchronized String summary() {
+    StringBuilder summary = new StringBuilder();
+    for (Map.Entry<String, Long> phase : phaseDurationsMillis.entrySet()) {
+      summary.append(
+          String.format(
+              "%s: %d ms (done at %d ms)%n",
+              phase.getKey(), phase.getValue(), phaseEndsMillis.get(phase.getKey())));
+    }
+    return summary.toString();
+  }
+
+  private void record(String phase, long phaseStartNanos) {
+    long endNanos = ticker.read();
+    long durationMillis = NANOSECONDS.toMillis(endNanos - phaseStartNanos);
+    long endMillis = NANOSECONDS.toMillis(endNanos - startNanos);
+    synchronized (this) {
+      phaseDurationsMillis.put(phase, durationMillis);
+      phaseEndsMillis.put(phase, endMillis);
+    }
+  }
+}
@@ -17,53 +17,111 @@ package com.google.mapsplatform.transportation.sample.consumer;
 import static java.util.Objects.requireNonNull;
 
 import android.app.Application;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import com.google.android.libraries.mapsplatform.transportation.consumer.auth.AuthTokenContext;
 import com.google.android.libraries.mapsplatform.transportation.consumer.auth.AuthTokenFactory;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mapsplatform.transportation.sample.consumer.provider.ProviderUtils;
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.TokenResponse;
 import com.google.mapsplatform.transportation.sample.consumer.provider.service.LocalProviderService;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 
-/** A factory for returning auth tokens for the currently assigned trip */
+/**
+ * A factory for returning auth tokens for the currently assigned trip.
+ *
+ * <p>The token for a trip can be prefetched with {@link #prefetchToken(String)} as soon as the trip
+ * is known, so the blocking {@link #getToken(AuthTokenContext)} call made by the SDK when journey
+ * sharing starts is served without a provider round trip.
+ */
 class TripAuthTokenFactory implements AuthTokenFactory {
+  @Nullable private static TripAuthTokenFactory instance;
+
   private String token;
   private long expiryTimeMs = 0;
   private String tripId;
+
+  // Token request started ahead of `getToken` and the trip it was requested for.
+  @Nullable private ListenableFuture<TokenResponse> pendingTokenResponse;
+  @Nullable private String pendingTripId;
+
   private final LocalProviderService providerService;
 
-  public TripAuthTokenFactory(Application application) {
-    ExecutorService executor = Executors.newCachedThreadPool();
-    ScheduledExecutorService scheduledExecutor = Executors.newSingleThreadScheduledExecutor();
+  /**
+   * Returns the factory shared by the process. {@link
+   * com.google.android.libraries.mapsplatform.transportation.consumer.ConsumerApi} keeps the
+   * factory it was initialized with, so prefetching must go through that same instance.
+   */
+  static synchronized TripAuthTokenFactory getInstance(Application application) {
+    if (instance == null) {
+      instance = new TripAuthTokenFactory(application);
+    }
+    return instance;
+  }
 
+  private TripAuthTokenFactory(Application application) {
+    AppExecutors executors = AppExecutors.getInstance();
     providerService =
         new LocalProviderService(
-            LocalProviderService.createRestProvider(ProviderUtils.getProviderBaseUrl(application)),
-            executor,
-            scheduledExecutor);
+            LocalProviderService.createRestProvider(
+                ProviderUtils.getProviderBaseUrl(application),
+                ProviderUtils.getHttpClient(application)),
+            executors.io(),
+            executors.scheduler());
+  }
+
+  @VisibleForTesting
+  TripAuthTokenFactory(LocalProviderService providerService) {
+    this.providerService = providerService;
   }
 
   @Override
   public String getToken(AuthTokenContext context) {
     String tripId = requireNonNull(context.getTripId());
-    if (System.currentTimeMillis() > expiryTimeMs || !tripId.equals(this.tripId)) {
-      fetchNewToken(tripId);
+    synchronized (this) {
+      if (hasValidToken(tripId)) {
+        return token;
+      }
+    }
+    return fetchNewToken(tripId);
+  }
+
+  /** Starts fetching the token for the given trip unless a valid one is cached or in flight. */
+  public synchronized void prefetchToken(String tripId) {
+    if (hasValidToken(tripId) || tripId.equals(pendingTripId)) {
+      return;
     }
-    return token;
+    pendingTokenResponse = providerService.fetchAuthToken(tripId);
+    pendingTripId = tripId;
+  }
+
+  private boolean hasValidToken(String tripId) {
+    return System.currentTimeMillis() <= expiryTimeMs && tripId.equals(this.tripId);
+  }
+
+  /** Returns the prefetched token request for the trip if any, otherwise starts a new one. */
+  private synchronized ListenableFuture<TokenResponse> takeTokenResponse(String tripId) {
+    ListenableFuture<TokenResponse> tokenResponse =
+        tripId.equals(pendingTripId) ? pendingTokenResponse : null;
+    pendingTokenResponse = null;
+    pendingTripId = null;
+    return tokenResponse != null ? tokenResponse : providerService.fetchAuthToken(tripId);
   }
 
-  private void fetchNewToken(String tripId) {
+  private String fetchNewToken(String tripId) {
     try {
-      TokenResponse tokenResponse = providerService.fetchAuthToken(tripId).get();
-      token = requireNonNull(tokenResponse.getToken());
+      TokenResponse tokenResponse = takeTokenResponse(tripId).get();
+      String newToken = requireNonNull(tokenResponse.getToken());
 
       // The expiry time could be an hour from now, but just to try and avoid
       // passing expired tokens, we subtract 10 minutes from that time.
       long tenMinutesInMillis = 10 * 60 * 1000;
-      expiryTimeMs = tokenResponse.getExpirationTimestamp().getMillis() - tenMinutesInMillis;
-      this.tripId = tripId;
+      synchronized (this) {
+        token = newToken;
+        expiryTimeMs = tokenResponse.getExpirationTimestamp().getMillis() - tenMinutesInMillis;
+        this.tripId = tripId;
+      }
+      return newToken;
     } catch (InterruptedException | ExecutionException e) {
       throw new RuntimeException("Could not get auth token", e);
     }
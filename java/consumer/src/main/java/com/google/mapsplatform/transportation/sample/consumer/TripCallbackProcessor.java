@@ -0,0 +1,87 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import java.util.List;
+
+/**
+ * Computes state derived from trip callbacks (current trip id, waypoints of other trips ahead of
+ * the current one). Safe to use from a background thread.
+ *
+ * <p>Trip name parsing is memoized: callbacks for the same trip repeat the same trip name, so only
+ * the first one pays for {@link TripName#create(String)}.
+ */
+final class TripCallbackProcessor {
+
+  /** Last parsed trip name and its id, replaced together. */
+  private static final class ParsedTripName {
+    final String tripName;
+    final String tripId;
+
+    ParsedTripName(String tripName, String tripId) {
+      this.tripName = tripName;
+      this.tripId = tripId;
+    }
+  }
+
+  private final Function<String, String> tripIdParser;
+  @Nullable private volatile ParsedTripName lastParsedTripName;
+
+  TripCallbackProcessor() {
+    this(tripName -> TripName.create(tripName).getTripId());
+  }
+
+  @VisibleForTesting
+  TripCallbackProcessor(Function<String, String> tripIdParser) {
+    this.tripIdParser = tripIdParser;
+  }
+
+  /** Returns the trip id for the given trip name, parsing it only when the name changed. */
+  String getTripId(String tripName) {
+    ParsedTripName parsed = lastParsedTripName;
+    if (parsed == null || !parsed.tripName.equals(tripName)) {
+      parsed = new ParsedTripName(tripName, tripIdParser.apply(tripName));
+      lastParsedTripName = parsed;
+    }
+    return parsed.tripId;
+  }
+
+  /**
+   * Returns the waypoints the driver goes through before reaching the next waypoint of the given
+   * trip (B2B or Shared pool).
+   */
+  ImmutableList<TripWaypoint> getOtherTripWaypoints(
+      String tripName, List<TripWaypoint> waypointList) {
+    String currentTripId = getTripId(tripName);
+
+    int otherTripWaypointCount = 0;
+    for (TripWaypoint tripWaypoint : waypointList) {
+      if (tripWaypoint.getTripId().equals(currentTripId)) {
+        break;
+      }
+      otherTripWaypointCount++;
+    }
+
+    return otherTripWaypointCount == 0
+        ? ImmutableList.of()
+        : ImmutableList.copyOf(waypointList.subList(0, otherTripWaypointCount));
+  }
+}
@@ -0,0 +1,234 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static java.util.Objects.requireNonNull;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+import androidx.annotation.Nullable;
+import androidx.annotation.StringRes;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.ViewModelProviders;
+import com.google.android.libraries.mapsplatform.transportation.consumer.ConsumerApi;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelManager;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.mapsplatform.transportation.sample.consumer.provider.ProviderUtils;
+import com.google.mapsplatform.transportation.sample.consumer.state.MonitoredTripState;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dispatch screen following many trips at once. Trips are added by id. Tapping a trip focuses it,
+ * so it refreshes at the journey sharing rate while the others are throttled, and a long press
+ * stops monitoring it.
+ */
+public class TripMonitorActivity extends AppCompatActivity {
+  private static final String TAG = "TripMonitorActivity";
+
+  private TripMonitorViewModel tripMonitorViewModel;
+  private TripStateAdapter tripStateAdapter;
+  private EditText tripIdInput;
+  private Button monitorButton;
+  private ListView tripList;
+  private String providerId;
+
+  @Nullable private TripModelManager tripModelManager;
+
+  @Override
+  protected void onCreate(Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    setContentView(R.layout.trip_monitor);
+    tripIdInput = findViewById(R.id.monitorTripIdInput);
+    monitorButton = findViewById(R.id.monitorTripButton);
+    tripList = findViewById(R.id.monitoredTripList);
+    providerId = ProviderUtils.getProviderId(this);
+
+    tripMonitorViewModel = ViewModelProviders.of(this).get(TripMonitorViewModel.class);
+    tripStateAdapter = new TripStateAdapter(this);
+    tripStateAdapter.setStates(tripMonitorViewModel.getTripStates());
+    tripList.setAdapter(tripStateAdapter);
+    tripList.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+    tripList.setOnItemClickListener(
+        (parent, view, position, id) ->
+            tripMonitorViewModel.setFocusedTrip(tripStateAdapter.getItem(position).tripName()));
+    tripList.setOnItemLongClickListener(
+        (parent, view, position, id) -> {
+          stopMonitoring(tripStateAdapter.getItem(position).tripName());
+          return true;
+        });
+    tripMonitorViewModel.getTripUpdates().observe(this, tripStateAdapter::updateStates);
+
+    monitorButton.setEnabled(false);
+    monitorButton.setOnClickListener(view -> startMonitoring());
+    Futures.addCallback(
+        ConsumerStartup.start(getApplication()).getConsumerApi(),
+        new FutureCallback<ConsumerApi>() {
+          @Override
+          public void onSuccess(ConsumerApi consumerApi) {
+            tripModelManager = requireNonNull(consumerApi.getTripModelManager());
+            monitorButton.setEnabled(true);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            Log.e(TAG, "ConsumerApi Initialization Error:\n" + t.getMessage());
+          }
+        },
+        ContextCompat.getMainExecutor(this));
+  }
+
+  private void startMonitoring() {
+    String tripId = tripIdInput.getText().toString().trim();
+    if (tripId.isEmpty()) {
+      return;
+    }
+    String tripName = String.format("providers/%s/trips/%s", providerId, tripId);
+    tripMonitorViewModel.startMonitoring(
+        tripName, requireNonNull(tripModelManager).getTripModel(tripName));
+    tripStateAdapter.setStates(tripMonitorViewModel.getTripStates());
+    tripIdInput.setText("");
+  }
+
+  private void stopMonitoring(String tripName) {
+    tripMonitorViewModel.stopMonitoring(tripName);
+    tripList.clearChoices();
+    tripStateAdapter.setStates(tripMonitorViewModel.getTripStates());
+  }
+
+  @StringRes
+  private static int getTripStatusTitle(@TripInfo.TripStatus int tripStatus) {
+    switch (tripStatus) {
+      case TripInfo.TripStatus.NEW:
+        return R.string.state_new;
+      case TripInfo.TripStatus.ENROUTE_TO_PICKUP:
+        return R.string.state_enroute_to_pickup;
+      case TripInfo.TripStatus.ARRIVED_AT_PICKUP:
+        return R.string.state_arrived_at_pickup;
+      case TripInfo.TripStatus.ENROUTE_TO_INTERMEDIATE_DESTINATION:
+        return R.string.state_enroute_to_intermediate_destination;
+      case TripInfo.TripStatus.ARRIVED_AT_INTERMEDIATE_DESTINATION:
+        return R.string.state_arrived_at_intermediate_destination;
+      case TripInfo.TripStatus.ENROUTE_TO_DROPOFF:
+        return R.string.state_enroute_to_dropoff;
+      case TripInfo.TripStatus.COMPLETE:
+      case TripInfo.TripStatus.CANCELED:
+        return R.string.state_end_of_trip;
+      default:
+        return R.string.state_initial;
+    }
+  }
+
+  /** One row per monitored trip, changed rows are replaced in place. */
+  private static final class TripStateAdapter extends BaseAdapter {
+    private final Context context;
+    private final LayoutInflater inflater;
+    private final List<MonitoredTripState> states = new ArrayList<>();
+    private final Map<String, Integer> positionsByTripName = new HashMap<>();
+
+    TripStateAdapter(Context context) {
+      this.context = context;
+      inflater = LayoutInflater.from(context);
+    }
+
+    /** Replaces every row, after trips were added or removed. */
+    void setStates(ImmutableList<MonitoredTripState> newStates) {
+      states.clear();
+      positionsByTripName.clear();
+      for (MonitoredTripState state : newStates) {
+        positionsByTripName.put(state.tripName(), states.size());
+        states.add(state);
+      }
+      notifyDataSetChanged();
+    }
+
+    /** Replaces the rows of the changed trips, ignoring trips no longer monitored. */
+    void updateStates(ImmutableList<MonitoredTripState> changedStates) {
+      boolean changed = false;
+      for (MonitoredTripState state : changedStates) {
+        Integer position = positionsByTripName.get(state.tripName());
+        if (position != null) {
+          states.set(position, state);
+          changed = true;
+        }
+      }
+      if (changed) {
+        notifyDataSetChanged();
+      }
+    }
+
+    @Override
+    public int getCount() {
+      return states.size();
+    }
+
+    @Override
+    public MonitoredTripState getItem(int position) {
+      return states.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+      return position;
+    }
+
+    @Override
+    public View getView(int position, @Nullable View convertView, ViewGroup parent) {
+      View view =
+          convertView != null
+              ? convertView
+              : inflater.inflate(android.R.layout.simple_list_item_activated_2, parent, false);
+      MonitoredTripState state = getItem(position);
+
+      TextView title = view.findViewById(android.R.id.text1);
+      title.setText(
+          context.getString(
+              R.string.monitored_trip_title,
+              state.tripId(),
+              context.getString(getTripStatusTitle(state.tripStatus()))));
+
+      TextView details = view.findViewById(android.R.id.text2);
+      String vehicle =
+          state.vehicleId() != null
+              ? context.getString(R.string.vehicle_id_label, state.vehicleId())
+              : "";
+      Integer remainingDistanceMeters = state.remainingDistanceMeters();
+      details.setText(
+          remainingDistanceMeters != null
+              ? context.getString(
+                  R.string.monitored_trip_details,
+                  vehicle,
+                  context.getString(
+                      R.string.distance_format_string_km, remainingDistanceMeters / 1000.0))
+              : vehicle);
+      return view;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import android.app.Application;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.AndroidViewModel;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.consumer.state.MonitoredTripState;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/** ViewModel of {@link TripMonitorActivity}, which keeps the trips monitored across rotations. */
+public class TripMonitorViewModel extends AndroidViewModel {
+
+  /** Minimum time between two published updates of a trip monitored in the background. */
+  private static final long BACKGROUND_TRIP_PUBLISH_INTERVAL_MILLIS = 10_000;
+
+  // Monitored trip rows changed by the latest update.
+  private final MutableLiveData<ImmutableList<MonitoredTripState>> tripUpdates =
+      new MutableLiveData<>(ImmutableList.of());
+
+  private final MultiTripMonitor multiTripMonitor =
+      new MultiTripMonitor(
+          System::currentTimeMillis,
+          BACKGROUND_TRIP_PUBLISH_INTERVAL_MILLIS,
+          tripUpdates::setValue);
+
+  private final Executor mainExecutor;
+  private final ScheduledExecutorService scheduledExecutor =
+      AppExecutors.getInstance().scheduler();
+
+  // Periodic delivery of throttled background trip updates while trips are monitored.
+  @Nullable private ScheduledFuture<?> pendingUpdatesFlush;
+
+  public TripMonitorViewModel(Application application) {
+    super(application);
+    mainExecutor = ContextCompat.getMainExecutor(application);
+  }
+
+  /**
+   * Starts monitoring an additional trip alongside any others already monitored. Changes are
+   * delivered through {@link #getTripUpdates()}.
+   */
+  public void startMonitoring(String tripName, TripModel tripModel) {
+    multiTripMonitor.startMonitoring(tripName, tripModel);
+    if (pendingUpdatesFlush == null) {
+      pendingUpdatesFlush =
+          scheduledExecutor.scheduleWithFixedDelay(
+              () -> mainExecutor.execute(multiTripMonitor::publishPendingUpdates),
+              BACKGROUND_TRIP_PUBLISH_INTERVAL_MILLIS,
+              BACKGROUND_TRIP_PUBLISH_INTERVAL_MILLIS,
+              TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Stops monitoring the given trip. */
+  public void stopMonitoring(String tripName) {
+    multiTripMonitor.stopMonitoring(tripName);
+    if (multiTripMonitor.getMonitoredTripCount() == 0) {
+      stopMonitoringAll();
+    }
+  }
+
+  /** Gives the trip the focused refresh rate, other monitored trips are throttled. */
+  public void setFocusedTrip(@Nullable String tripName) {
+    multiTripMonitor.setFocusedTrip(tripName);
+  }
+
+  /** Returns the latest state of every monitored trip. */
+  public ImmutableList<MonitoredTripState> getTripStates() {
+    return multiTripMonitor.getTripStates();
+  }
+
+  /** Returns the monitored trip rows that changed with each published update. */
+  public LiveData<ImmutableList<MonitoredTripState>> getTripUpdates() {
+    return tripUpdates;
+  }
+
+  @Override
+  protected void onCleared() {
+    stopMonitoringAll();
+    super.onCleared();
+  }
+
+  private void stopMonitoringAll() {
+    multiTripMonitor.stopAll();
+    if (pendingUpdatesFlush != null) {
+      pendingUpdatesFlush.cancel(false);
+      pendingUpdatesFlush = null;
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.common.base.Predicate;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mapsplatform.transportation.sample.logging.AppLog;
+import com.google.mapsplatform.transportation.sample.logging.LogSite;
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Fails the calls to a provider endpoint right away while the endpoint keeps failing, so that an
+ * overloaded provider isn't sent more requests than it can answer.
+ *
+ * <ul>
+ *   <li>{@link State#CLOSED}: calls go through. Once the latest 20 calls hold 10 or more, and half
+ *       of them failed or took 3 s or more, the circuit opens.
+ *   <li>{@link State#OPEN}: calls fail with an {@link OpenException} without being sent. The
+ *       circuit is half-open 15 s later.
+ *   <li>{@link State#HALF_OPEN}: 2 probe calls at a time go through, the others fail fast. 2
+ *       successful probes close the circuit, a failed or slow one opens it again.
+ * </ul>
+ *
+ * <p>Only the failures matching the failure predicate count, a 404 is an answer of a healthy
+ * provider. Cancelled calls don't count.
+ */
+public final class CircuitBreaker {
+  private static final String TAG = "CircuitBreaker";
+  private static final LogSite STATE_CHANGED_LOG = LogSite.create(TAG, AppLog.WARN);
+
+  /** States of the circuit, from healthy to failing. */
+  public enum State {
+    CLOSED,
+    HALF_OPEN,
+    OPEN
+  }
+
+  /** Receives the state changes, under the lock of the breaker so it must return quickly. */
+  public interface Listener {
+    void onStateChanged(String endpoint, State state);
+  }
+
+  /** Failure of a call that wasn't sent because the circuit of its endpoint is open. */
+  public static final class OpenException extends IOException {
+    OpenException(String endpoint) {
+      super(String.format("Circuit of %s is open.", endpoint));
+    }
+  }
+
+  static final int WINDOW_SIZE = 20;
+  static final int MIN_CALLS = 10;
+  static final double FAILURE_RATE_THRESHOLD = 0.5;
+  static final long SLOW_CALL_MILLIS = 3_000;
+  static final long OPEN_MILLIS = 15_000;
+  static final int HALF_OPEN_PROBES = 2;
+
+  private final String endpoint;
+  private final Predicate<Throwable> isFailure;
+  private final Listener listener;
+  private final Ticker ticker;
+
+  // Outcomes of the latest calls while closed.
+  private final boolean[] failed = new boolean[WINDOW_SIZE];
+  private final boolean[] slow = new boolean[WINDOW_SIZE];
+  private int callCount;
+  private int nextCall;
+  private int failedCount;
+  private int slowCount;
+
+  private State state = State.CLOSED;
+  private long openedNanos;
+  private int probesInFlight;
+  private int successfulProbes;
+
+  /**
+   * @param endpoint name of the endpoint in the logs.
+   * @param isFailure whether a failure of a call means the provider is failing.
+   */
+  public CircuitBreaker(String endpoint, Predicate<Throwable> isFailure, Listener listener) {
+    this(endpoint, isFailure, listener, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  CircuitBreaker(
+      String endpoint, Predicate<Throwable> isFailure, Listener listener, Ticker ticker) {
+    this.endpoint = endpoint;
+    this.isFailure = isFailure;
+    this.listener = listener;
+    this.ticker = ticker;
+  }
+
+  /** Returns the state of the circuit, an open circuit becomes half-open once its time is up. */
+  public synchronized State getState() {
+    if (state == State.OPEN
+        && ticker.read() - openedNanos >= MILLISECONDS.toNanos(OPEN_MILLIS)) {
+      setState(State.HALF_OPEN);
+    }
+    return state;
+  }
+
+  /** Sends {@code call} unless the circuit is open, and records its outcome. */
+  public <T> ListenableFuture<T> call(AsyncCallable<T> call) {
+    State acquiredState = acquire();
+    if (acquiredState == null) {
+      return Futures.immediateFailedFuture(new OpenException(endpoint));
+    }
+
+    long startNanos = ticker.read();
+    ListenableFuture<T> future;
+    try {
+      future = call.call();
+    } catch (Exception e) {
+      future = Futures.immediateFailedFuture(e);
+    }
+    ListenableFuture<T> sentFuture = future;
+    sentFuture.addListener(
+        () -> onDone(sentFuture, acquiredState, startNanos), directExecutor());
+    return sentFuture;
+  }
+
+  // Returns the state the call is sent in, null if it may not be sent.
+  @Nullable
+  private synchronized State acquire() {
+    switch (getState()) {
+      case CLOSED:
+        return State.CLOSED;
+      case HALF_OPEN:
+        if (probesInFlight < HALF_OPEN_PROBES) {
+          probesInFlight++;
+          return State.HALF_OPEN;
+        }
+        return null;
+      default:
+        return null;
+    }
+  }
+
+  private void onDone(ListenableFuture<?> future, State acquiredState, long startNanos) {
+    boolean slowCall = ticker.read() - startNanos >= MILLISECONDS.toNanos(SLOW_CALL_MILLIS);
+    boolean cancelled = false;
+    boolean failedCall = false;
+    try {
+      Futures.getDone(future);
+    } catch (ExecutionException e) {
+      failedCall = isFailure.apply(e.getCause());
+    } catch (CancellationException e) {
+      cancelled = true;
+    }
+
+    synchronized (this) {
+      if (acquiredState == State.HALF_OPEN) {
+        // A probe of an earlier half-open period, the counts were reset since.
+        if (state != State.HALF_OPEN) {
+          return;
+        }
+        probesInFlight--;
+        if (cancelled) {
+          return;
+        }
+        if (failedCall || slowCall) {
+          open();
+        } else if (++successfulProbes >= HALF_OPEN_PROBES) {
+          close();
+        }
+      } else if (state == State.CLOSED && !cancelled) {
+        record(failedCall, slowCall);
+        if (callCount >= MIN_CALLS
+            && (failedCount >= FAILURE_RATE_THRESHOLD * callCount
+                || slowCount >= FAILURE_RATE_THRESHOLD * callCount)) {
+          open();
+        }
+      }
+    }
+  }
+
+  private void record(boolean failedCall, boolean slowCall) {
+    if (callCount == WINDOW_SIZE) {
+      failedCount -= failed[nextCall] ? 1 : 0;
+      slowCount -= slow[nextCall] ? 1 : 0;
+    } else {
+      callCount++;
+    }
+    failed[nextCall] = failedCall;
+    slow[nextCall] = slowCall;
+    failedCount += failedCall ? 1 : 0;
+    slowCount += slowCall ? 1 : 0;
+    nextCall = (nextCall + 1) % WINDOW_SIZE;
+  }
+
+  private void open() {
+    openedNanos = ticker.read();
+    setState(State.OPEN);
+  }
+
+  private void close() {
+    callCount = 0;
+    nextCall = 0;
+    failedCount = 0;
+    slowCount = 0;
+    setState(State.CLOSED);
+  }
+
+  private void setState(State updatedState) {
+    STATE_CHANGED_LOG
+        .event()
+        .with("endpoint", endpoint)
+        .with("from", state)
+        .with("to", updatedState)
+        .log("Circuit state");
+    state = updatedState;
+    probesInFlight = 0;
+    successfulProbes = 0;
+    listener.onStateChanged(endpoint, updatedState);
+  }
+}
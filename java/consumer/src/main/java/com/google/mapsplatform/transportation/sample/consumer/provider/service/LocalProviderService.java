@@ -14,6 +14,7 @@
  */
 package com.google.mapsplatform.transportation.sample.consumer.provider.service;
 
+import androidx.annotation.VisibleForTesting;
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
@@ -24,8 +25,13 @@ import com.google.mapsplatform.transportation.sample.consumer.provider.model.Tri
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.GetTripResponse;
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.TokenResponse;
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.OkHttpClient;
+import retrofit2.HttpException;
 import retrofit2.Retrofit;
 import retrofit2.adapter.guava.GuavaCallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
@@ -34,31 +40,83 @@ import retrofit2.converter.gson.GsonConverterFactory;
  * Provider service for a locally hosted Sample Journeysharing provider.
  *
  * <p>Default base URL: http://10.0.2.2:8888/
+ *
+ * <p>Every endpoint has its own {@link CircuitBreaker}. While an endpoint keeps failing its calls
+ * fail fast with a {@link CircuitBreaker.OpenException}, so that the trip polling of every rider
+ * doesn't keep an overloaded provider from recovering.
  */
 public class LocalProviderService {
 
   private static final String TAG = "LocalProviderService";
 
   public static final int GET_TRIP_RETRY_INTERVAL_MILLIS = 5000;
+  private static final int CREATE_TRIP_RETRIES = 4;
+  private static final long CREATE_TRIP_RETRY_INITIAL_DELAY_MILLIS = 200;
+  private static final long CREATE_TRIP_RETRY_MAX_DELAY_MILLIS = 3_000;
   /** Time between attempts of a trip polling routine. */
   private final RestProvider provider;
 
   private final Executor executor;
   private final ScheduledExecutorService scheduledExecutor;
+  private final NetworkQualityEstimator networkQuality;
+  private final CopyOnWriteArrayList<CircuitBreaker.Listener> circuitBreakerListeners =
+      new CopyOnWriteArrayList<>();
+  private final CircuitBreaker createTripBreaker = createCircuitBreaker("create_trip");
+  private final CircuitBreaker getTripBreaker = createCircuitBreaker("get_trip");
+  private final CircuitBreaker getConsumerTokenBreaker =
+      createCircuitBreaker("get_consumer_token");
 
   public LocalProviderService(
       RestProvider provider, Executor executor, ScheduledExecutorService scheduledExecutor) {
+    this(provider, executor, scheduledExecutor, new NetworkQualityEstimator());
+  }
+
+  /**
+   * @param networkQuality measures the traffic of {@code provider}, the trip polling backs off on a
+   *     degraded link.
+   */
+  public LocalProviderService(
+      RestProvider provider,
+      Executor executor,
+      ScheduledExecutorService scheduledExecutor,
+      NetworkQualityEstimator networkQuality) {
     this.provider = provider;
     this.executor = executor;
     this.scheduledExecutor = scheduledExecutor;
+    this.networkQuality = networkQuality;
+  }
+
+  /** Adds a listener of the state changes of the circuit breakers of every endpoint. */
+  public void addCircuitBreakerListener(CircuitBreaker.Listener listener) {
+    circuitBreakerListeners.add(listener);
   }
 
+  public void removeCircuitBreakerListener(CircuitBreaker.Listener listener) {
+    circuitBreakerListeners.remove(listener);
+  }
+
+  /**
+   * Creates a trip with a new idempotency key, and sends it again with the same key while it fails
+   * with a provider failure, so that the provider creates it at most once. It fails right away once
+   * its circuit is open.
+   */
   public ListenableFuture<TripResponse> createTrip(CreateTripRequest createTripRequest) {
-    return provider.createTrip(createTripRequest);
+    String idempotencyKey = UUID.randomUUID().toString();
+    return new RetryingFuture(scheduledExecutor, networkQuality)
+        .runWithBackoff(
+            () ->
+                createTripBreaker.call(
+                    () -> provider.createTrip(createTripRequest, idempotencyKey)),
+            CREATE_TRIP_RETRIES,
+            CREATE_TRIP_RETRY_INITIAL_DELAY_MILLIS,
+            CREATE_TRIP_RETRY_MAX_DELAY_MILLIS,
+            // A call rejected by an open circuit wasn't sent, and its retries would be rejected
+            // too until it closes.
+            t -> isProviderFailure(t) && !(t instanceof CircuitBreaker.OpenException));
   }
 
   public ListenableFuture<TokenResponse> fetchAuthToken(String tripId) {
-    return provider.getConsumerToken(tripId);
+    return getConsumerTokenBreaker.call(() -> provider.getConsumerToken(tripId));
   }
 
   public ListenableFuture<TripData> fetchMatchedTrip(String tripName) {
@@ -80,9 +138,9 @@ public class LocalProviderService {
   }
 
   private ListenableFuture<GetTripResponse> fetchMatchedTripWithRetries(String tripId) {
-    return new RetryingFuture(scheduledExecutor)
+    return new RetryingFuture(scheduledExecutor, networkQuality)
         .runWithRetries(
-            () -> provider.getTrip(tripId),
+            () -> getTripBreaker.call(() -> provider.getTrip(tripId)),
             RetryingFuture.RUN_FOREVER,
             GET_TRIP_RETRY_INTERVAL_MILLIS,
             LocalProviderService::isTripValid);
@@ -95,11 +153,43 @@ public class LocalProviderService {
         && !response.getTrip().getVehicleId().isEmpty();
   }
 
-  /** Gets a Retrofit implementation of the Journey Sharing REST provider. */
-  public static RestProvider createRestProvider(String baseUrl) {
+  private CircuitBreaker createCircuitBreaker(String endpoint) {
+    return new CircuitBreaker(
+        endpoint,
+        LocalProviderService::isProviderFailure,
+        (breakerEndpoint, state) -> {
+          for (CircuitBreaker.Listener listener : circuitBreakerListeners) {
+            listener.onStateChanged(breakerEndpoint, state);
+          }
+        });
+  }
+
+  /**
+   * Network errors, timeouts included, and server errors mean the provider is failing, client
+   * errors are answers of a healthy provider.
+   */
+  @VisibleForTesting
+  static boolean isProviderFailure(Throwable t) {
+    if (t instanceof IOException) {
+      return true;
+    }
+    if (t instanceof HttpException) {
+      int code = ((HttpException) t).code();
+      return code >= 500 || code == 408 || code == 429;
+    }
+    return false;
+  }
+
+  /**
+   * Gets a Retrofit implementation of the Journey Sharing REST provider.
+   *
+   * @param httpClient client sending the requests, shared to reuse its connections.
+   */
+  public static RestProvider createRestProvider(String baseUrl, OkHttpClient httpClient) {
     Retrofit retrofit =
         new Retrofit.Builder()
             .baseUrl(baseUrl)
+            .client(httpClient)
             .addCallAdapterFactory(GuavaCallAdapterFactory.create())
             .addConverterFactory(GsonConverterFactory.create())
             .build();
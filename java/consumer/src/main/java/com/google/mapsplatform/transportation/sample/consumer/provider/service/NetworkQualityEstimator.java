@@ -0,0 +1,227 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.mapsplatform.transportation.sample.logging.AppLog;
+import com.google.mapsplatform.transportation.sample.logging.LogSite;
+import java.io.IOException;
+import java.util.Arrays;
+import okhttp3.Call;
+import okhttp3.EventListener;
+
+/**
+ * Classifies the link to the provider from the requests already sent to it, so that the trip
+ * polling backs off on a degraded link instead of adding to its load.
+ *
+ * <p>Every call sent by an {@link okhttp3.OkHttpClient} built with {@link #eventListenerFactory}
+ * gives a round trip sample, from its request headers to its response headers, and a throughput
+ * sample when its response body is large enough to measure. The quality follows the median of the
+ * latest samples. Consecutive network failures mean the provider is unreachable.
+ *
+ * <p>Until a measure has a few samples the link is assumed to be good, a single slow response on
+ * a cold connection is no estimate.
+ */
+public final class NetworkQualityEstimator {
+  private static final String TAG = "NetworkQualityEstimator";
+
+  // The quality is updated by every call, so a link on the edge of two classes logs at most
+  // every 10 seconds.
+  private static final LogSite QUALITY_CHANGED_LOG =
+      LogSite.rateLimited(TAG, AppLog.INFO, 10, SECONDS);
+
+  /** Quality classes of the link, from best to worst. */
+  public enum Quality {
+    /** Typical round trips under 300 ms. */
+    GOOD,
+    /** Typical round trips under 1 s, or a throughput under 500 kbps. */
+    MODERATE,
+    /** Slower round trips, or a throughput under 100 kbps. */
+    POOR,
+    /** The latest requests all failed without reaching the provider. */
+    OFFLINE
+  }
+
+  static final int WINDOW_SIZE = 20;
+  static final int MIN_SAMPLES = 5;
+  static final long GOOD_ROUND_TRIP_MILLIS = 300;
+  static final long MODERATE_ROUND_TRIP_MILLIS = 1_000;
+  static final long MODERATE_THROUGHPUT_KBPS = 500;
+  static final long POOR_THROUGHPUT_KBPS = 100;
+  static final int OFFLINE_CONSECUTIVE_FAILURES = 3;
+  // Smaller bodies arrive in one read, their transfer time is mostly noise.
+  static final long MIN_THROUGHPUT_SAMPLE_BYTES = 16 * 1024;
+
+  private final SampleWindow roundTripMillis = new SampleWindow();
+  private final SampleWindow throughputKbps = new SampleWindow();
+  private int consecutiveFailures;
+  private Quality quality = Quality.GOOD;
+
+  /** Returns the latest classification of the link. */
+  public synchronized Quality getQuality() {
+    return quality;
+  }
+
+  /** Median of the latest round trip samples, 0 without samples. */
+  public synchronized long getRoundTripMillis() {
+    return roundTripMillis.median();
+  }
+
+  /** Median of the latest throughput samples, 0 without samples. */
+  public synchronized long getThroughputKbps() {
+    return throughputKbps.median();
+  }
+
+  /** Returns a factory of listeners measuring the calls of an {@link okhttp3.OkHttpClient}. */
+  public EventListener.Factory eventListenerFactory() {
+    return call -> new CallListener();
+  }
+
+  /** Records the time between sending a request and receiving the headers of its response. */
+  @VisibleForTesting
+  synchronized void onRoundTrip(long millis) {
+    roundTripMillis.add(millis);
+    consecutiveFailures = 0;
+    update();
+  }
+
+  /** Records the transfer of a response body. */
+  @VisibleForTesting
+  synchronized void onResponseBody(long bytes, long millis) {
+    if (bytes < MIN_THROUGHPUT_SAMPLE_BYTES) {
+      return;
+    }
+    // Bits per millisecond are kilobits per second.
+    throughputKbps.add(bytes * 8 / Math.max(1, millis));
+    update();
+  }
+
+  /** Records a call that failed before a response was received. */
+  @VisibleForTesting
+  synchronized void onNetworkFailure() {
+    consecutiveFailures++;
+    update();
+  }
+
+  private void update() {
+    Quality updatedQuality = classify();
+    if (updatedQuality != quality) {
+      QUALITY_CHANGED_LOG
+          .event()
+          .with("from", quality)
+          .with("to", updatedQuality)
+          .log("Network quality");
+      quality = updatedQuality;
+    }
+  }
+
+  private Quality classify() {
+    if (consecutiveFailures >= OFFLINE_CONSECUTIVE_FAILURES) {
+      return Quality.OFFLINE;
+    }
+    Quality byRoundTrip = Quality.GOOD;
+    if (roundTripMillis.hasEstimate()) {
+      long roundTrip = roundTripMillis.median();
+      if (roundTrip >= MODERATE_ROUND_TRIP_MILLIS) {
+        byRoundTrip = Quality.POOR;
+      } else if (roundTrip >= GOOD_ROUND_TRIP_MILLIS) {
+        byRoundTrip = Quality.MODERATE;
+      }
+    }
+    Quality byThroughput = Quality.GOOD;
+    if (throughputKbps.hasEstimate()) {
+      long throughput = throughputKbps.median();
+      if (throughput < POOR_THROUGHPUT_KBPS) {
+        byThroughput = Quality.POOR;
+      } else if (throughput < MODERATE_THROUGHPUT_KBPS) {
+        byThroughput = Quality.MODERATE;
+      }
+    }
+    return byRoundTrip.compareTo(byThroughput) >= 0 ? byRoundTrip : byThroughput;
+  }
+
+  /** The latest {@link #WINDOW_SIZE} samples of a measure. */
+  private static final class SampleWindow {
+    private final long[] samples = new long[WINDOW_SIZE];
+    private final long[] sorted = new long[WINDOW_SIZE];
+    private int count;
+    private int next;
+
+    void add(long sample) {
+      samples[next] = sample;
+      next = (next + 1) % WINDOW_SIZE;
+      count = Math.min(count + 1, WINDOW_SIZE);
+    }
+
+    boolean hasEstimate() {
+      return count >= MIN_SAMPLES;
+    }
+
+    long median() {
+      if (count == 0) {
+        return 0;
+      }
+      System.arraycopy(samples, 0, sorted, 0, count);
+      Arrays.sort(sorted, 0, count);
+      return sorted[count / 2];
+    }
+  }
+
+  /** Times one call, OkHttp creates a listener per call and calls it from one thread at a time. */
+  private final class CallListener extends EventListener {
+    private long requestStartNanos;
+    private long responseStartNanos;
+    private boolean responded;
+
+    @Override
+    public void requestHeadersStart(Call call) {
+      requestStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+      responseStartNanos = System.nanoTime();
+      responded = true;
+      onRoundTrip(NANOSECONDS.toMillis(responseStartNanos - requestStartNanos));
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      onResponseBody(byteCount, NANOSECONDS.toMillis(System.nanoTime() - responseStartNanos));
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      if (responded) {
+        return;
+      }
+      if (!call.isCanceled()) {
+        onNetworkFailure();
+        return;
+      }
+      // Calls are cancelled past their deadline, after waiting at least that long for a response.
+      // A short wait was cut short by a superseding request instead, and says nothing.
+      if (requestStartNanos != 0) {
+        long waitedMillis = NANOSECONDS.toMillis(System.nanoTime() - requestStartNanos);
+        if (waitedMillis >= MODERATE_ROUND_TRIP_MILLIS) {
+          onRoundTrip(waitedMillis);
+        }
+      }
+    }
+  }
+}
@@ -21,14 +21,24 @@ import com.google.mapsplatform.transportation.sample.consumer.provider.response.
 import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.POST;
 import retrofit2.http.Path;
 
-/** Abstraction of expected REST endpoints implemented by a Provider. */
-interface RestProvider {
+/**
+ * Abstraction of expected REST endpoints implemented by a Provider.
+ *
+ * <p>Creating a trip takes a client generated idempotency key. The provider creates one trip per
+ * key and answers repeats with the first response, so resending a request whose response was lost
+ * doesn't create a second trip.
+ */
+public interface RestProvider {
+  String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
 
   @POST("trip/new")
-  ListenableFuture<TripResponse> createTrip(@Body CreateTripRequest createTripRequest);
+  ListenableFuture<TripResponse> createTrip(
+      @Body CreateTripRequest createTripRequest,
+      @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey);
 
   @GET("trip/{tripId}")
   ListenableFuture<GetTripResponse> getTrip(@Path("tripId") String tripId);
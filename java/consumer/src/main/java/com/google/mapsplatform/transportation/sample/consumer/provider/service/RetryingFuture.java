@@ -16,24 +16,61 @@ package com.google.mapsplatform.transportation.sample.consumer.provider.service;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import androidx.annotation.Nullable;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
 
-/** Retries getting Future if exception is thrown or certain criteria is not met. */
+/**
+ * Retries getting Future if exception is thrown or certain criteria is not met.
+ *
+ * <p>Cancelling the returned future stops any further attempts and cancels the attempt or retry
+ * that is currently pending.
+ */
 public final class RetryingFuture {
   static int RUN_FOREVER = Integer.MIN_VALUE;
 
   private final ScheduledExecutorService executor;
+  @Nullable private final NetworkQualityEstimator networkQuality;
 
   public RetryingFuture(ScheduledExecutorService executor) {
+    this(executor, /* networkQuality= */ null);
+  }
+
+  /**
+   * @param networkQuality estimate of the link the futures use, the retry interval grows on a
+   *     degraded link, see {@link #getDelayMultiplier}. Null keeps it unchanged.
+   */
+  public RetryingFuture(
+      ScheduledExecutorService executor, @Nullable NetworkQualityEstimator networkQuality) {
     this.executor = executor;
+    this.networkQuality = networkQuality;
+  }
+
+  /**
+   * Returns the factor of the retry interval on a link of the given quality. A poor link needs time
+   * to drain the requests already in flight, and an unreachable provider is not worth waking the
+   * radio for as often.
+   */
+  static int getDelayMultiplier(NetworkQualityEstimator.Quality quality) {
+    switch (quality) {
+      case POOR:
+        return 2;
+      case OFFLINE:
+        return 4;
+      default:
+        return 1;
+    }
   }
 
   /**
@@ -46,74 +83,168 @@ public final class RetryingFuture {
    * @param successCondition if evaluates to true return future, otherwise retry until condition is
    *     met or retry count exhausted.
    * @param <T> return type.
-   * @return valid result of type T.
+   * @return valid result of type T, cancel it to stop retrying.
    */
   public <T> ListenableFuture<T> runWithRetries(
       Supplier<ListenableFuture<T>> futureSupplier,
       int retries,
       long intervalMillis,
       Predicate<T> successCondition) {
-    SettableFuture<T> resultFuture = SettableFuture.create();
-    runWithRetriesInternal(resultFuture, futureSupplier, retries, intervalMillis, successCondition);
-    return resultFuture;
+    return new Retry<>(
+            futureSupplier,
+            retries,
+            intervalMillis,
+            intervalMillis,
+            successCondition,
+            Predicates.alwaysTrue())
+        .start();
   }
 
-  private <T> void runWithRetriesInternal(
-      final SettableFuture<T> future,
-      final Supplier<ListenableFuture<T>> futureSupplier,
-      final int retries,
-      final long intervalMillis,
-      final Predicate<T> successCondition) {
-    ListenableFuture<T> immediateFuture;
-    try {
-      immediateFuture = futureSupplier.get();
-    } catch (Exception e) {
-      handleFailure(future, futureSupplier, retries, intervalMillis, successCondition, e);
-      return;
+  /**
+   * Retries getting Future while it fails with a retryable exception, doubling the delay after
+   * every attempt. Each delay is randomized between half and all of its value so that clients
+   * failing together don't retry in lockstep.
+   *
+   * @param futureSupplier entity that can create the target future, must be safe to call again
+   *     after a failure.
+   * @param retries number of retries after the first attempt.
+   * @param initialDelayMillis delay before the first retry.
+   * @param maxDelayMillis cap of the doubled delays, before the network quality factor.
+   * @param retryableFailure if evaluates to false the failure is returned without retrying.
+   * @return result of the first successful attempt, cancel it to stop retrying.
+   */
+  public <T> ListenableFuture<T> runWithBackoff(
+      Supplier<ListenableFuture<T>> futureSupplier,
+      int retries,
+      long initialDelayMillis,
+      long maxDelayMillis,
+      Predicate<Throwable> retryableFailure) {
+    return new Retry<>(
+            futureSupplier,
+            retries,
+            initialDelayMillis,
+            maxDelayMillis,
+            Predicates.alwaysTrue(),
+            retryableFailure)
+        .start();
+  }
+
+  /** State of one retried operation, the delay doubles up to the max delay after every attempt. */
+  private final class Retry<T> {
+    private final SettableFuture<T> future = SettableFuture.create();
+    private final AtomicReference<Future<?>> pendingFuture = new AtomicReference<>();
+    private final Supplier<ListenableFuture<T>> futureSupplier;
+    private final long maxDelayMillis;
+    private final Predicate<T> successCondition;
+    private final Predicate<Throwable> retryableFailure;
+    private final boolean randomizeDelay;
+    private int retries;
+    private long delayMillis;
+
+    Retry(
+        Supplier<ListenableFuture<T>> futureSupplier,
+        int retries,
+        long initialDelayMillis,
+        long maxDelayMillis,
+        Predicate<T> successCondition,
+        Predicate<Throwable> retryableFailure) {
+      this.futureSupplier = futureSupplier;
+      this.retries = retries;
+      this.delayMillis = initialDelayMillis;
+      this.maxDelayMillis = maxDelayMillis;
+      this.successCondition = successCondition;
+      this.retryableFailure = retryableFailure;
+      // A fixed interval stays fixed.
+      randomizeDelay = maxDelayMillis > initialDelayMillis;
+    }
+
+    ListenableFuture<T> start() {
+      future.addListener(
+          () -> {
+            Future<?> pending = pendingFuture.getAndSet(null);
+            if (future.isCancelled() && pending != null) {
+              pending.cancel(true);
+            }
+          },
+          MoreExecutors.directExecutor());
+      attempt();
+      return future;
     }
 
-    Futures.addCallback(
-        immediateFuture,
-        new FutureCallback<T>() {
-          @Override
-          public void onSuccess(T result) {
-            if (successCondition.apply(result)) {
-              future.set(result);
-            } else {
-              RuntimeException exception =
-                  new RuntimeException("Success condition not met, retrying.");
-              handleFailure(
-                  future, futureSupplier, retries, intervalMillis, successCondition, exception);
+    private void attempt() {
+      if (future.isDone()) {
+        return;
+      }
+
+      ListenableFuture<T> immediateFuture;
+      try {
+        immediateFuture = futureSupplier.get();
+      } catch (Exception e) {
+        handleFailure(e);
+        return;
+      }
+      setPendingFuture(future, pendingFuture, immediateFuture);
+
+      Futures.addCallback(
+          immediateFuture,
+          new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+              if (successCondition.apply(result)) {
+                future.set(result);
+              } else {
+                handleFailure(new RuntimeException("Success condition not met, retrying."));
+              }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              handleFailure(t);
             }
-          }
-
-          @Override
-          public void onFailure(Throwable t) {
-            handleFailure(future, futureSupplier, retries, intervalMillis, successCondition, t);
-          }
-        },
-        MoreExecutors.directExecutor());
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    private void handleFailure(Throwable t) {
+      if (future.isDone()) {
+        return;
+      }
+      if ((retries == RUN_FOREVER || retries > 0) && retryableFailure.apply(t)) {
+        if (retries != RUN_FOREVER) {
+          retries--;
+        }
+        long scheduledDelayMillis =
+            randomizeDelay
+                ? delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1)
+                : delayMillis;
+        delayMillis = Math.min(maxDelayMillis, delayMillis * 2);
+        if (networkQuality != null) {
+          scheduledDelayMillis *= getDelayMultiplier(networkQuality.getQuality());
+        }
+        try {
+          setPendingFuture(
+              future,
+              pendingFuture,
+              executor.schedule(this::attempt, scheduledDelayMillis, MILLISECONDS));
+        } catch (RejectedExecutionException e) {
+          // Executor was shut down by its owner, no more retries can be scheduled.
+          future.setException(e);
+        }
+      } else {
+        future.setException(t);
+      }
+    }
   }
 
-  private <T> void handleFailure(
-      SettableFuture<T> future,
-      Supplier<ListenableFuture<T>> futureSupplier,
-      int retries,
-      long delayInMillis,
-      Predicate<T> successCondition,
-      Throwable t) {
-    if (retries == RUN_FOREVER || retries > 0) {
-      ScheduledFuture<?> unused =
-          executor.schedule(
-              () -> {
-                int newRetriesCount = retries == RUN_FOREVER ? RUN_FOREVER : retries - 1;
-                runWithRetriesInternal(
-                    future, futureSupplier, newRetriesCount, delayInMillis, successCondition);
-              },
-              delayInMillis,
-              MILLISECONDS);
-    } else {
-      future.setException(t);
+  /**
+   * Tracks the attempt or scheduled retry currently in flight so it can be cancelled together with
+   * the result future. Cancels it right away if the result future was cancelled in the meantime.
+   */
+  private static void setPendingFuture(
+      SettableFuture<?> future, AtomicReference<Future<?>> pendingFuture, Future<?> pending) {
+    pendingFuture.set(pending);
+    if (future.isCancelled()) {
+      pending.cancel(true);
     }
   }
 }
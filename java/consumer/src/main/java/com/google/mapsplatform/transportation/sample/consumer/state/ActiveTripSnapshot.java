@@ -0,0 +1,152 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.state;
+
+import androidx.annotation.Nullable;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.gson.annotations.SerializedName;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripData;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.WaypointResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persisted snapshot of the trip being journey shared: the {@link TripData} it was started with and
+ * the last known values reported by its {@code TripInfo}. Used to render the trip right away after
+ * a process restart while journey sharing resumes in the background.
+ */
+public final class ActiveTripSnapshot {
+
+  @SerializedName("tripName")
+  private String tripName;
+
+  @SerializedName("tripId")
+  private String tripId;
+
+  @SerializedName("vehicleId")
+  private String vehicleId;
+
+  @SerializedName("tripStatus")
+  private int tripStatus;
+
+  @SerializedName("waypoints")
+  private List<WaypointResponse> waypoints;
+
+  @SerializedName("remainingDistanceMeters")
+  @Nullable
+  private Integer remainingDistanceMeters;
+
+  @SerializedName("nextWaypointEtaMillis")
+  @Nullable
+  private Long nextWaypointEtaMillis;
+
+  @SerializedName("vehicleLatitude")
+  @Nullable
+  private Double vehicleLatitude;
+
+  @SerializedName("vehicleLongitude")
+  @Nullable
+  private Double vehicleLongitude;
+
+  @SerializedName("updatedAtMillis")
+  private long updatedAtMillis;
+
+  /** Creates a snapshot of a trip for which journey sharing just started. */
+  public static ActiveTripSnapshot create(TripData tripData, long nowMillis) {
+    ActiveTripSnapshot snapshot = new ActiveTripSnapshot();
+    snapshot.tripName = tripData.tripName();
+    snapshot.tripId = tripData.tripId();
+    snapshot.vehicleId = tripData.vehicleId();
+    snapshot.tripStatus = tripData.tripStatus();
+    snapshot.waypoints = new ArrayList<>(tripData.waypoints());
+    snapshot.updatedAtMillis = nowMillis;
+    return snapshot;
+  }
+
+  /** Returns the trip data journey sharing was started with. */
+  public TripData toTripData() {
+    return TripData.newBuilder()
+        .setTripName(tripName)
+        .setTripId(tripId)
+        .setVehicleId(vehicleId)
+        .setTripStatus(tripStatus)
+        .setWaypoints(waypoints)
+        .build();
+  }
+
+  public String getTripName() {
+    return tripName;
+  }
+
+  public String getTripId() {
+    return tripId;
+  }
+
+  public int getTripStatus() {
+    return tripStatus;
+  }
+
+  public void setTripStatus(int tripStatus) {
+    this.tripStatus = tripStatus;
+  }
+
+  @Nullable
+  public String getVehicleId() {
+    return vehicleId;
+  }
+
+  public void setVehicleId(@Nullable String vehicleId) {
+    this.vehicleId = vehicleId;
+  }
+
+  @Nullable
+  public Integer getRemainingDistanceMeters() {
+    return remainingDistanceMeters;
+  }
+
+  public void setRemainingDistanceMeters(@Nullable Integer remainingDistanceMeters) {
+    this.remainingDistanceMeters = remainingDistanceMeters;
+  }
+
+  @Nullable
+  public Long getNextWaypointEtaMillis() {
+    return nextWaypointEtaMillis;
+  }
+
+  public void setNextWaypointEtaMillis(@Nullable Long nextWaypointEtaMillis) {
+    this.nextWaypointEtaMillis = nextWaypointEtaMillis;
+  }
+
+  @Nullable
+  public LatLng getVehicleLocation() {
+    if (vehicleLatitude == null || vehicleLongitude == null) {
+      return null;
+    }
+    return new LatLng(vehicleLatitude, vehicleLongitude);
+  }
+
+  public void setVehicleLocation(@Nullable LatLng vehicleLocation) {
+    vehicleLatitude = vehicleLocation != null ? vehicleLocation.latitude : null;
+    vehicleLongitude = vehicleLocation != null ? vehicleLocation.longitude : null;
+  }
+
+  public long getUpdatedAtMillis() {
+    return updatedAtMillis;
+  }
+
+  public void setUpdatedAtMillis(long updatedAtMillis) {
+    this.updatedAtMillis = updatedAtMillis;
+  }
+}
@@ -0,0 +1,76 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.state;
+
+import androidx.annotation.Nullable;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.auto.value.AutoValue;
+
+/**
+ * One row of the multi-trip monitoring table: the latest known state of a monitored trip. Rows are
+ * immutable so a changed row can be detected with {@link #equals(Object)}.
+ */
+@AutoValue
+public abstract class MonitoredTripState {
+
+  public abstract String tripName();
+
+  public abstract String tripId();
+
+  @TripInfo.TripStatus
+  public abstract int tripStatus();
+
+  @Nullable
+  public abstract String vehicleId();
+
+  @Nullable
+  public abstract Integer remainingDistanceMeters();
+
+  /** ETA to the next waypoint as a timestamp in milliseconds. */
+  @Nullable
+  public abstract Long nextWaypointEtaMillis();
+
+  @Nullable
+  public abstract LatLng vehicleLocation();
+
+  public abstract Builder toBuilder();
+
+  public static Builder newBuilder() {
+    return new AutoValue_MonitoredTripState.Builder()
+        .setTripStatus(TripInfo.TripStatus.UNKNOWN_TRIP_STATUS);
+  }
+
+  /** Builder for MonitoredTripState. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+
+    public abstract Builder setTripName(String tripName);
+
+    public abstract Builder setTripId(String tripId);
+
+    public abstract Builder setTripStatus(@TripInfo.TripStatus int tripStatus);
+
+    public abstract Builder setVehicleId(@Nullable String vehicleId);
+
+    public abstract Builder setRemainingDistanceMeters(@Nullable Integer remainingDistanceMeters);
+
+    public abstract Builder setNextWaypointEtaMillis(@Nullable Long nextWaypointEtaMillis);
+
+    public abstract Builder setVehicleLocation(@Nullable LatLng vehicleLocation);
+
+    public abstract MonitoredTripState build();
+  }
+}
@@ -0,0 +1,112 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.mapsplatform.transportation.sample.consumer.AppExecutors.PoolMetrics;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link AppExecutors}. */
+@RunWith(JUnit4.class)
+public final class AppExecutorsTest {
+  private static final int IO_THREADS = 4;
+  private static final int IO_QUEUE_CAPACITY = 16;
+
+  private final AppExecutors executors =
+      new AppExecutors(
+          IO_THREADS,
+          IO_QUEUE_CAPACITY,
+          /* computeThreads= */ 2,
+          /* computeQueueCapacity= */ 8,
+          /* schedulerThreads= */ 1);
+
+  @After
+  public void tearDown() {
+    executors.io().shutdownNow();
+    executors.compute().shutdownNow();
+    executors.scheduler().shutdownNow();
+  }
+
+  @Test
+  public void io_underLoad_threadCountStaysBoundedAndOverflowIsRejected() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(IO_THREADS + IO_QUEUE_CAPACITY);
+    Set<Thread> workers = ConcurrentHashMap.newKeySet();
+    ExecutorService io = executors.io();
+
+    for (int i = 0; i < IO_THREADS + IO_QUEUE_CAPACITY; i++) {
+      io.execute(
+          () -> {
+            workers.add(Thread.currentThread());
+            awaitUninterruptibly(release);
+            done.countDown();
+          });
+    }
+
+    assertThrows(RejectedExecutionException.class, () -> io.execute(() -> {}));
+    PoolMetrics busy = getMetrics("io");
+    assertThat(busy.poolSize()).isEqualTo(IO_THREADS);
+    assertThat(busy.queueDepth()).isEqualTo(IO_QUEUE_CAPACITY);
+    assertThat(busy.rejectedTasks()).isEqualTo(1);
+
+    release.countDown();
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(workers).hasSize(IO_THREADS);
+    for (Thread worker : workers) {
+      assertThat(worker.getName()).startsWith("io-");
+    }
+    assertThat(getMetrics("io").largestPoolSize()).isEqualTo(IO_THREADS);
+  }
+
+  @Test
+  public void scheduler_cancelledTaskLeavesQueue() {
+    ScheduledFuture<?> future = executors.scheduler().schedule(() -> {}, 1, TimeUnit.HOURS);
+    assertThat(getMetrics("scheduler").queueDepth()).isEqualTo(1);
+
+    future.cancel(false);
+
+    assertThat(getMetrics("scheduler").queueDepth()).isEqualTo(0);
+  }
+
+  private PoolMetrics getMetrics(String name) {
+    for (PoolMetrics metrics : executors.getMetrics()) {
+      if (metrics.name().equals(name)) {
+        return metrics;
+      }
+    }
+    throw new AssertionError("No pool named " + name);
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,344 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Application;
+import androidx.annotation.Nullable;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.libraries.mapsplatform.transportation.consumer.auth.AuthTokenContext;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripData;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.FakeRestProvider;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.consumer.state.ActiveTripSnapshot;
+import com.google.mapsplatform.transportation.sample.consumer.state.AppStates;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.robolectric.shadows.ShadowLooper;
+
+/** Unit tests for {@link ConsumerViewModel}. */
+@RunWith(AndroidJUnit4.class)
+public final class ConsumerViewModelTest {
+  private static final int ITERATIONS = 1000;
+  private static final int WARM_UP_ITERATIONS = 50;
+  private static final int MAX_THREAD_GROWTH = 4;
+  private static final long MAX_HEAP_GROWTH_BYTES = 16 * 1024 * 1024;
+  private static final long THREAD_TERMINATION_TIMEOUT_MILLIS = 10_000;
+  private static final long CREATE_TRIP_DELAY_MILLIS = 300;
+  private static final long MATCH_DELAY_MILLIS = 600;
+  private static final long TOKEN_DELAY_MILLIS = 600;
+  private static final long POLL_MARGIN_MILLIS = 1_000;
+
+  private final Application application = ApplicationProvider.getApplicationContext();
+  private final ScheduledExecutorService tokenExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+
+  @After
+  public void tearDown() {
+    tokenExecutor.shutdownNow();
+  }
+
+  @Test
+  public void createTrip_fetchesTokenWhileMatching() throws Exception {
+    FakeRestProvider restProvider =
+        new FakeRestProvider()
+            .setCreateTripDelayMillis(CREATE_TRIP_DELAY_MILLIS)
+            .setMatchDelayMillis(MATCH_DELAY_MILLIS)
+            .setTokenDelayMillis(TOKEN_DELAY_MILLIS);
+    TripAuthTokenFactory tokenFactory =
+        new TripAuthTokenFactory(
+            new LocalProviderService(restProvider, tokenExecutor, tokenExecutor));
+    RecordingJourneySharingListener listener = new RecordingJourneySharingListener(tokenFactory);
+    ConsumerViewModel viewModel = new ConsumerViewModel(application, restProvider);
+    viewModel.setJourneySharingListener(listener);
+    viewModel.setState(AppStates.CONFIRMING_TRIP);
+
+    long startMillis = System.currentTimeMillis();
+    viewModel.createTrip();
+    long deadline = startMillis + THREAD_TERMINATION_TIMEOUT_MILLIS;
+    while (listener.startedTripData == null && System.currentTimeMillis() < deadline) {
+      ShadowLooper.idleMainLooper();
+      Thread.sleep(5);
+    }
+    // What the SDK does right after journey sharing starts.
+    String token =
+        tokenFactory.getToken(
+            AuthTokenContext.builder().setTripId(FakeRestProvider.TRIP_ID).build());
+    long visibleAfterMillis = System.currentTimeMillis() - startMillis;
+
+    assertThat(listener.startedTripData).isNotNull();
+    assertThat(token).isEqualTo(FakeRestProvider.TOKEN);
+    assertThat(restProvider.getConsumerTokenCount()).isEqualTo(1);
+    // Sequential create -> match -> token would take the sum of all three delays.
+    assertThat(visibleAfterMillis)
+        .isLessThan(CREATE_TRIP_DELAY_MILLIS + MATCH_DELAY_MILLIS + TOKEN_DELAY_MILLIS / 2);
+    viewModel.onCleared();
+  }
+
+  @Test
+  public void persistedTrip_isRenderedThenResumed() throws Exception {
+    ActiveTripSnapshot snapshot = ActiveTripSnapshot.create(createTripData(), now());
+    snapshot.setRemainingDistanceMeters(1200);
+    snapshot.setVehicleLocation(new LatLng(37.42, -122.08));
+    new ActiveTripStore(application).save(snapshot);
+    RecordingJourneySharingListener listener = new RecordingJourneySharingListener(null);
+
+    ConsumerViewModel viewModel = new ConsumerViewModel(application, new FakeRestProvider());
+    viewModel.setJourneySharingListener(listener);
+    awaitAppState(viewModel, AppStates.JOURNEY_SHARING);
+
+    // Rendered from the snapshot before the SDK is ready.
+    assertThat(listener.restoredTripData.tripName()).isEqualTo(FakeRestProvider.TRIP_NAME);
+    assertThat(listener.restoredTripData.waypoints()).hasSize(2);
+    assertThat(listener.restoredVehicleLocation).isEqualTo(new LatLng(37.42, -122.08));
+    assertThat(viewModel.getTripId().getValue()).isEqualTo(FakeRestProvider.TRIP_ID);
+    assertThat(viewModel.getRemainingDistanceMeters().getValue()).isEqualTo(1200);
+    assertThat(listener.startedTripData).isNull();
+
+    viewModel.onJourneySharingReady();
+
+    assertThat(listener.startedTripData.tripName()).isEqualTo(FakeRestProvider.TRIP_NAME);
+    verify(listener.startedTripModel).registerTripCallback(any());
+    viewModel.onCleared();
+  }
+
+  @Test
+  public void staleTrip_isNotRestored() throws Exception {
+    new ActiveTripStore(application)
+        .save(ActiveTripSnapshot.create(createTripData(), now() - TimeUnit.DAYS.toMillis(1)));
+    RecordingJourneySharingListener listener = new RecordingJourneySharingListener(null);
+
+    ConsumerViewModel viewModel = new ConsumerViewModel(application, new FakeRestProvider());
+    viewModel.setJourneySharingListener(listener);
+    awaitStoreCleared();
+
+    assertThat(viewModel.getAppState().getValue()).isEqualTo(AppStates.UNINITIALIZED);
+    assertThat(listener.restoredTripData).isNull();
+    viewModel.onCleared();
+  }
+
+  @Test
+  public void completedTrip_clearsPersistedTrip() throws Exception {
+    RecordingJourneySharingListener listener = new RecordingJourneySharingListener(null);
+    ConsumerViewModel viewModel = new ConsumerViewModel(application, new FakeRestProvider());
+    viewModel.setJourneySharingListener(listener);
+    viewModel.setState(AppStates.CONFIRMING_TRIP);
+
+    viewModel.startJourneySharing(createTripData());
+    assertThat(new ActiveTripStore(application).load()).isNotNull();
+
+    ArgumentCaptor<TripModelCallback> callback = ArgumentCaptor.forClass(TripModelCallback.class);
+    verify(listener.startedTripModel).registerTripCallback(callback.capture());
+    TripInfo tripInfo = mock(TripInfo.class);
+    when(tripInfo.getCurrentTripStatus()).thenReturn(TripInfo.TripStatus.COMPLETE);
+    callback.getValue().onTripStatusUpdate(tripInfo, TripInfo.TripStatus.COMPLETE);
+
+    assertThat(new ActiveTripStore(application).load()).isNull();
+    viewModel.onCleared();
+  }
+
+  @Test
+  public void onCleared_cancelsTripMatching() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider();
+    ConsumerViewModel viewModel = createMatchingViewModel(restProvider);
+
+    waitForFirstPoll(restProvider);
+    viewModel.onCleared();
+    int pollCount = restProvider.getTripCount();
+    ShadowLooper.idleMainLooper();
+
+    assertThat(restProvider.getTripCount()).isEqualTo(pollCount);
+    assertThat(viewModel.getErrorMessage().getValue()).isNull();
+  }
+
+  @Test
+  public void setState_leavingConfirmation_cancelsTripMatching() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider();
+    ConsumerViewModel viewModel = createMatchingViewModel(restProvider);
+
+    waitForFirstPoll(restProvider);
+    viewModel.setState(AppStates.INITIALIZED);
+    int pollCount = restProvider.getTripCount();
+    // A poll still running would retry after one interval.
+    Thread.sleep(LocalProviderService.GET_TRIP_RETRY_INTERVAL_MILLIS + POLL_MARGIN_MILLIS);
+    ShadowLooper.idleMainLooper();
+
+    assertThat(restProvider.getTripCount()).isEqualTo(pollCount);
+    assertThat(viewModel.getAppState().getValue()).isEqualTo(AppStates.INITIALIZED);
+    assertThat(viewModel.getErrorMessage().getValue()).isNull();
+    viewModel.onCleared();
+  }
+
+  @Test
+  public void createAndClear_doesNotLeakThreadsOrHeap() throws Exception {
+    runCreateAndClear(WARM_UP_ITERATIONS);
+    int baselineThreads = awaitThreadCountAtMost(Integer.MAX_VALUE);
+    long baselineHeap = usedHeapAfterGc();
+
+    runCreateAndClear(ITERATIONS);
+
+    assertThat(awaitThreadCountAtMost(baselineThreads + MAX_THREAD_GROWTH))
+        .isAtMost(baselineThreads + MAX_THREAD_GROWTH);
+    assertThat(usedHeapAfterGc() - baselineHeap).isLessThan(MAX_HEAP_GROWTH_BYTES);
+  }
+
+  private void runCreateAndClear(int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      ConsumerViewModel viewModel = createMatchingViewModel(new FakeRestProvider());
+      viewModel.onCleared();
+      ShadowLooper.idleMainLooper();
+    }
+  }
+
+  /** Creates a ViewModel that has requested a trip and is polling for it to be matched. */
+  private ConsumerViewModel createMatchingViewModel(FakeRestProvider restProvider) {
+    ConsumerViewModel viewModel = new ConsumerViewModel(application, restProvider);
+    viewModel.setPickupLocation(new LatLng(37.423061, -122.084051));
+    viewModel.setDropoffLocation(new LatLng(37.411895, -122.094247));
+    viewModel.setState(AppStates.CONFIRMING_TRIP);
+    viewModel.createTrip();
+    return viewModel;
+  }
+
+  /** Prefetches the token like the activity does and records when journey sharing starts. */
+  private static final class RecordingJourneySharingListener
+      implements ConsumerViewModel.JourneySharingListener {
+    @Nullable private final TripAuthTokenFactory tokenFactory;
+    private TripData restoredTripData;
+    private LatLng restoredVehicleLocation;
+    private TripData startedTripData;
+    private TripModel startedTripModel;
+
+    RecordingJourneySharingListener(@Nullable TripAuthTokenFactory tokenFactory) {
+      this.tokenFactory = tokenFactory;
+    }
+
+    @Override
+    public void prepareJourneySharing(String tripName) {
+      if (tokenFactory != null) {
+        tokenFactory.prefetchToken(TripName.create(tripName).getTripId());
+      }
+    }
+
+    @Override
+    public void showRestoredTrip(TripData tripData, @Nullable LatLng vehicleLocation) {
+      restoredTripData = tripData;
+      restoredVehicleLocation = vehicleLocation;
+    }
+
+    @Override
+    public TripModel startJourneySharing(TripData tripData) {
+      startedTripData = tripData;
+      startedTripModel = mock(TripModel.class);
+      return startedTripModel;
+    }
+
+    @Override
+    public void stopJourneySharing() {}
+
+    @Override
+    public void updateCurrentLocation(LatLng latLang) {}
+  }
+
+  private static TripData createTripData() {
+    return TripData.newBuilder()
+        .setTripName(FakeRestProvider.TRIP_NAME)
+        .setTripId(FakeRestProvider.TRIP_ID)
+        .setVehicleId(FakeRestProvider.VEHICLE_ID)
+        .setTripStatus(TripInfo.TripStatus.ENROUTE_TO_PICKUP)
+        .setWaypoints(
+            ImmutableList.of(
+                FakeRestProvider.createWaypoint(37.423061, -122.084051),
+                FakeRestProvider.createWaypoint(37.411895, -122.094247)))
+        .build();
+  }
+
+  private static long now() {
+    return System.currentTimeMillis();
+  }
+
+  /** Runs main thread tasks posted by the ViewModel's background restore until the state is set. */
+  private static void awaitAppState(ConsumerViewModel viewModel, @AppStates int state)
+      throws InterruptedException {
+    long deadline = now() + THREAD_TERMINATION_TIMEOUT_MILLIS;
+    while (viewModel.getAppState().getValue() != state && now() < deadline) {
+      ShadowLooper.idleMainLooper();
+      Thread.sleep(5);
+    }
+    assertThat(viewModel.getAppState().getValue()).isEqualTo(state);
+  }
+
+  private void awaitStoreCleared() throws InterruptedException {
+    ActiveTripStore store = new ActiveTripStore(application);
+    long deadline = now() + THREAD_TERMINATION_TIMEOUT_MILLIS;
+    while (store.load() != null && now() < deadline) {
+      ShadowLooper.idleMainLooper();
+      Thread.sleep(5);
+    }
+    assertThat(store.load()).isNull();
+  }
+
+  private static void waitForFirstPoll(FakeRestProvider restProvider)
+      throws InterruptedException {
+    long deadline = System.currentTimeMillis() + THREAD_TERMINATION_TIMEOUT_MILLIS;
+    while (restProvider.getTripCount() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(restProvider.getTripCount()).isGreaterThan(0);
+  }
+
+  /**
+   * Waits for executor threads released by cleared ViewModels to terminate, returning the live
+   * thread count once it drops to {@code expected} or the timeout expires.
+   */
+  private static int awaitThreadCountAtMost(int expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + THREAD_TERMINATION_TIMEOUT_MILLIS;
+    int threadCount = Thread.activeCount();
+    int previousThreadCount = -1;
+    while (System.currentTimeMillis() < deadline
+        && (threadCount > expected || threadCount != previousThreadCount)) {
+      Thread.sleep(50);
+      previousThreadCount = threadCount;
+      threadCount = Thread.activeCount();
+    }
+    return threadCount;
+  }
+
+  private static long usedHeapAfterGc() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -0,0 +1,198 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel;
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripModelOptions;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.consumer.state.MonitoredTripState;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+/** Unit tests for {@link MultiTripMonitor}. */
+@RunWith(JUnit4.class)
+public final class MultiTripMonitorTest {
+  private static final int TRIP_COUNT = 200;
+  private static final long PUBLISH_INTERVAL_MILLIS = 10_000;
+
+  private final List<ImmutableList<MonitoredTripState>> publishedUpdates = new ArrayList<>();
+  private final List<TripModel> tripModels = new ArrayList<>();
+  private final List<TripModelCallback> callbacks = new ArrayList<>();
+  private long nowMillis = 1_000_000;
+
+  private final MultiTripMonitor monitor =
+      new MultiTripMonitor(() -> nowMillis, PUBLISH_INTERVAL_MILLIS, publishedUpdates::add);
+
+  @Before
+  public void setUp() {
+    for (int i = 0; i < TRIP_COUNT; i++) {
+      TripModel tripModel = mock(TripModel.class);
+      monitor.startMonitoring(tripName(i), tripModel);
+
+      ArgumentCaptor<TripModelCallback> callback = ArgumentCaptor.forClass(TripModelCallback.class);
+      verify(tripModel).registerTripCallback(callback.capture());
+      tripModels.add(tripModel);
+      callbacks.add(callback.getValue());
+    }
+  }
+
+  @Test
+  public void startMonitoring_tracksEveryTrip() {
+    ImmutableList<MonitoredTripState> states = monitor.getTripStates();
+
+    assertThat(states).hasSize(TRIP_COUNT);
+    assertThat(states.get(42).tripId()).isEqualTo(tripId(42));
+    assertThat(states.get(42).tripStatus()).isEqualTo(TripInfo.TripStatus.UNKNOWN_TRIP_STATUS);
+  }
+
+  @Test
+  public void startMonitoring_setsBackgroundRefreshInterval() {
+    ArgumentCaptor<TripModelOptions> options = ArgumentCaptor.forClass(TripModelOptions.class);
+    verify(tripModels.get(0)).setTripModelOptions(options.capture());
+
+    assertThat(options.getValue().getRefreshIntervalMillis())
+        .isEqualTo(MultiTripMonitor.BACKGROUND_REFRESH_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void setFocusedTrip_switchesRefreshIntervals() {
+    monitor.setFocusedTrip(tripName(1));
+    monitor.setFocusedTrip(tripName(2));
+
+    ArgumentCaptor<TripModelOptions> options = ArgumentCaptor.forClass(TripModelOptions.class);
+    verify(tripModels.get(1), times(3)).setTripModelOptions(options.capture());
+    assertThat(options.getAllValues().get(1).getRefreshIntervalMillis())
+        .isEqualTo(MultiTripMonitor.FOCUSED_REFRESH_INTERVAL_MILLIS);
+    assertThat(options.getAllValues().get(2).getRefreshIntervalMillis())
+        .isEqualTo(MultiTripMonitor.BACKGROUND_REFRESH_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void updates_publishOnlyChangedRows() {
+    for (int i = 0; i < TRIP_COUNT; i++) {
+      callbacks.get(i).onTripStatusUpdate(mock(TripInfo.class), TripInfo.TripStatus.NEW);
+    }
+    publishedUpdates.clear();
+
+    callbacks.get(7).onTripStatusUpdate(mock(TripInfo.class), TripInfo.TripStatus.NEW);
+    nowMillis += PUBLISH_INTERVAL_MILLIS;
+    callbacks
+        .get(8)
+        .onTripStatusUpdate(mock(TripInfo.class), TripInfo.TripStatus.ENROUTE_TO_PICKUP);
+
+    assertThat(publishedUpdates).hasSize(1);
+    assertThat(publishedUpdates.get(0)).hasSize(1);
+    assertThat(publishedUpdates.get(0).get(0).tripId()).isEqualTo(tripId(8));
+  }
+
+  @Test
+  public void backgroundUpdates_areThrottled() {
+    TripModelCallback callback = callbacks.get(3);
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 1000);
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 900);
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 800);
+
+    assertThat(publishedUpdates).hasSize(1);
+
+    nowMillis += PUBLISH_INTERVAL_MILLIS;
+    monitor.publishPendingUpdates();
+
+    assertThat(publishedUpdates).hasSize(2);
+    assertThat(publishedUpdates.get(1).get(0).remainingDistanceMeters()).isEqualTo(800);
+  }
+
+  @Test
+  public void focusedUpdates_areNotThrottled() {
+    monitor.setFocusedTrip(tripName(5));
+    TripModelCallback callback = callbacks.get(5);
+
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 1000);
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 900);
+    callback.onTripActiveRouteRemainingDistanceUpdated(mock(TripInfo.class), 800);
+
+    assertThat(publishedUpdates).hasSize(3);
+  }
+
+  @Test
+  public void publishPendingUpdates_batchesEveryDueTrip() {
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < TRIP_COUNT; i++) {
+        callbacks.get(i).onTripETAToNextWaypointUpdated(mock(TripInfo.class), nowMillis + round);
+      }
+    }
+    publishedUpdates.clear();
+
+    nowMillis += PUBLISH_INTERVAL_MILLIS;
+    monitor.publishPendingUpdates();
+
+    assertThat(publishedUpdates).hasSize(1);
+    assertThat(publishedUpdates.get(0)).hasSize(TRIP_COUNT);
+  }
+
+  @Test
+  public void onTripUpdated_recordsVehicleAssignment() {
+    TripInfo tripInfo = mock(TripInfo.class);
+    when(tripInfo.getVehicleId()).thenReturn("vehicle");
+    when(tripInfo.getCurrentTripStatus()).thenReturn(TripInfo.TripStatus.ENROUTE_TO_PICKUP);
+
+    callbacks.get(0).onTripUpdated(tripInfo);
+
+    MonitoredTripState state = monitor.getTripStates().get(0);
+    assertThat(state.vehicleId()).isEqualTo("vehicle");
+    assertThat(state.tripStatus()).isEqualTo(TripInfo.TripStatus.ENROUTE_TO_PICKUP);
+  }
+
+  @Test
+  public void stopAll_unregistersEveryCallback() {
+    monitor.stopAll();
+
+    for (int i = 0; i < TRIP_COUNT; i++) {
+      verify(tripModels.get(i)).unregisterTripCallback(callbacks.get(i));
+    }
+    assertThat(monitor.getMonitoredTripCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void stopMonitoring_removesOnlyThatTrip() {
+    monitor.stopMonitoring(tripName(0));
+
+    verify(tripModels.get(0)).unregisterTripCallback(callbacks.get(0));
+    verify(tripModels.get(1), never()).unregisterTripCallback(any());
+    assertThat(monitor.getTripStates()).hasSize(TRIP_COUNT - 1);
+  }
+
+  private static String tripName(int index) {
+    return "providers/test-provider/trips/" + tripId(index);
+  }
+
+  private static String tripId(int index) {
+    return "trip-" + index;
+  }
+}
@@ -0,0 +1,83 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.android.libraries.mapsplatform.transportation.consumer.auth.AuthTokenContext;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.FakeRestProvider;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.LocalProviderService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TripAuthTokenFactory}. */
+@RunWith(JUnit4.class)
+public final class TripAuthTokenFactoryTest {
+  private static final AuthTokenContext AUTH_TOKEN_CONTEXT =
+      AuthTokenContext.builder().setTripId(FakeRestProvider.TRIP_ID).build();
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final FakeRestProvider restProvider = new FakeRestProvider();
+  private final TripAuthTokenFactory tripAuthTokenFactory =
+      new TripAuthTokenFactory(new LocalProviderService(restProvider, executor, executor));
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void getToken_returnsFetchedToken() {
+    assertThat(tripAuthTokenFactory.getToken(AUTH_TOKEN_CONTEXT)).isEqualTo(FakeRestProvider.TOKEN);
+  }
+
+  @Test
+  public void getToken_usesPrefetchedRequest() {
+    tripAuthTokenFactory.prefetchToken(FakeRestProvider.TRIP_ID);
+
+    tripAuthTokenFactory.getToken(AUTH_TOKEN_CONTEXT);
+
+    assertThat(restProvider.getConsumerTokenCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void prefetchToken_ignoresRepeatedCallsForSameTrip() {
+    tripAuthTokenFactory.prefetchToken(FakeRestProvider.TRIP_ID);
+    tripAuthTokenFactory.prefetchToken(FakeRestProvider.TRIP_ID);
+
+    assertThat(restProvider.getConsumerTokenCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void getToken_ignoresPrefetchForOtherTrip() {
+    tripAuthTokenFactory.prefetchToken("other-trip");
+
+    tripAuthTokenFactory.getToken(AUTH_TOKEN_CONTEXT);
+
+    assertThat(restProvider.getConsumerTokenCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void getToken_throwsWithoutTripId() {
+    assertThrows(
+        NullPointerException.class,
+        () -> tripAuthTokenFactory.getToken(AuthTokenContext.builder().build()));
+  }
+}
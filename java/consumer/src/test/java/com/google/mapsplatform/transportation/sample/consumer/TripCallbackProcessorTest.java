@@ -0,0 +1,119 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TripCallbackProcessor}. */
+@RunWith(JUnit4.class)
+public final class TripCallbackProcessorTest {
+  private static final String TRIP_ID = "current-trip";
+  private static final String TRIP_NAME = "providers/test-provider/trips/" + TRIP_ID;
+
+  private static final int SHARED_TRIP_WAYPOINT_COUNT = 50;
+  private static final int UPDATES = 100;
+
+  private final TripCallbackProcessor processor = new TripCallbackProcessor();
+  private int tripNameParses;
+
+  @Test
+  public void getTripId_parsesTripName() {
+    assertThat(processor.getTripId(TRIP_NAME)).isEqualTo(TRIP_ID);
+  }
+
+  @Test
+  public void getTripId_followsTripNameChanges() {
+    processor.getTripId(TRIP_NAME);
+
+    assertThat(processor.getTripId("providers/test-provider/trips/other")).isEqualTo("other");
+  }
+
+  @Test
+  public void getOtherTripWaypoints_returnsWaypointsBeforeCurrentTrip() {
+    List<TripWaypoint> waypoints = createSharedTripWaypoints(/* otherTripWaypointCount= */ 3);
+
+    ImmutableList<TripWaypoint> otherTripWaypoints =
+        processor.getOtherTripWaypoints(TRIP_NAME, waypoints);
+
+    assertThat(otherTripWaypoints).containsExactlyElementsIn(waypoints.subList(0, 3)).inOrder();
+  }
+
+  @Test
+  public void getOtherTripWaypoints_returnsEmptyWhenCurrentTripIsNext() {
+    List<TripWaypoint> waypoints = createSharedTripWaypoints(/* otherTripWaypointCount= */ 0);
+
+    assertThat(processor.getOtherTripWaypoints(TRIP_NAME, waypoints)).isEmpty();
+  }
+
+  /**
+   * Replays the callbacks of a 50-waypoint shared trip: the trip name is parsed once for all of
+   * them and each scan stops at the first waypoint of the current trip.
+   */
+  @Test
+  public void getOtherTripWaypoints_sharedTripWith50Waypoints_parsesTripNameOnce() {
+    TripCallbackProcessor countingProcessor =
+        new TripCallbackProcessor(
+            tripName -> {
+              tripNameParses++;
+              return TripName.create(tripName).getTripId();
+            });
+    List<TripWaypoint> waypoints =
+        createSharedTripWaypoints(/* otherTripWaypointCount= */ SHARED_TRIP_WAYPOINT_COUNT - 2);
+
+    for (int i = 0; i < UPDATES; i++) {
+      assertThat(countingProcessor.getOtherTripWaypoints(TRIP_NAME, waypoints))
+          .hasSize(SHARED_TRIP_WAYPOINT_COUNT - 2);
+    }
+
+    assertThat(tripNameParses).isEqualTo(1);
+    verify(waypoints.get(0), times(UPDATES)).getTripId();
+    verify(waypoints.get(SHARED_TRIP_WAYPOINT_COUNT - 2), times(UPDATES)).getTripId();
+    verify(waypoints.get(SHARED_TRIP_WAYPOINT_COUNT - 1), never()).getTripId();
+  }
+
+  /**
+   * Creates the waypoint list of a shared trip: waypoints of other trips first, followed by the
+   * pickup and dropoff of the current trip.
+   */
+  private static List<TripWaypoint> createSharedTripWaypoints(int otherTripWaypointCount) {
+    List<TripWaypoint> waypoints = new ArrayList<>();
+    for (int i = 0; i < otherTripWaypointCount; i++) {
+      waypoints.add(createWaypoint("other-trip-" + (i / 2)));
+    }
+    waypoints.add(createWaypoint(TRIP_ID));
+    waypoints.add(createWaypoint(TRIP_ID));
+    return waypoints;
+  }
+
+  private static TripWaypoint createWaypoint(String tripId) {
+    TripWaypoint waypoint = mock(TripWaypoint.class);
+    when(waypoint.getTripId()).thenReturn(tripId);
+    return waypoint;
+  }
+}
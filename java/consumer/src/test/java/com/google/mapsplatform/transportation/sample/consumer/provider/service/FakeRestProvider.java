@@ -0,0 +1,170 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.CreateTripRequest;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.GetTripResponse;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.TokenResponse;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.WaypointResponse;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * In-memory {@link RestProvider} for unit tests with injectable response delays. Creates a single
+ * trip which, by default, is never assigned a vehicle so matching keeps polling until it is
+ * cancelled.
+ */
+public final class FakeRestProvider implements RestProvider {
+  public static final String TRIP_ID = "test-trip";
+  public static final String TRIP_NAME = "providers/test-provider/trips/" + TRIP_ID;
+  public static final String VEHICLE_ID = "test-vehicle";
+  public static final String TOKEN = "test-token";
+  public static final long NEVER_MATCH = -1;
+
+  // Shared by all instances so short lived providers don't add threads of their own.
+  private static final ScheduledExecutorService delayExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("fake-provider-%d").setDaemon(true).build());
+
+  private final AtomicInteger getTripCount = new AtomicInteger();
+  private final AtomicInteger getConsumerTokenCount = new AtomicInteger();
+
+  private long createTripDelayMillis = 0;
+  private long tokenDelayMillis = 0;
+  private long matchDelayMillis = NEVER_MATCH;
+  private volatile long tripCreatedAtMillis;
+
+  /** Delays the `POST trip/new` response. */
+  public FakeRestProvider setCreateTripDelayMillis(long createTripDelayMillis) {
+    this.createTripDelayMillis = createTripDelayMillis;
+    return this;
+  }
+
+  /** Delays the `GET token/consumer/{tripId}` response. */
+  public FakeRestProvider setTokenDelayMillis(long tokenDelayMillis) {
+    this.tokenDelayMillis = tokenDelayMillis;
+    return this;
+  }
+
+  /**
+   * Assigns a vehicle to the trip this long after it was created. Trip requests made before then
+   * are held until the match happens, like a long polling provider would.
+   */
+  public FakeRestProvider setMatchDelayMillis(long matchDelayMillis) {
+    this.matchDelayMillis = matchDelayMillis;
+    return this;
+  }
+
+  @Override
+  public ListenableFuture<TripResponse> createTrip(
+      CreateTripRequest createTripRequest, String idempotencyKey) {
+    return respondAfter(
+        createTripDelayMillis,
+        () -> {
+          tripCreatedAtMillis = System.currentTimeMillis();
+          return createTripResponse(/* isMatched= */ false);
+        });
+  }
+
+  @Override
+  public ListenableFuture<GetTripResponse> getTrip(String tripId) {
+    getTripCount.incrementAndGet();
+
+    long delayMillis = 0;
+    if (matchDelayMillis != NEVER_MATCH) {
+      long matchedAtMillis = tripCreatedAtMillis + matchDelayMillis;
+      delayMillis = Math.max(0, matchedAtMillis - System.currentTimeMillis());
+    }
+
+    return respondAfter(
+        delayMillis,
+        () -> {
+          GetTripResponse response = new GetTripResponse();
+          response.setTrip(createTripResponse(/* isMatched= */ matchDelayMillis != NEVER_MATCH));
+          return response;
+        });
+  }
+
+  @Override
+  public ListenableFuture<TokenResponse> getConsumerToken(String tripId) {
+    getConsumerTokenCount.incrementAndGet();
+
+    return respondAfter(
+        tokenDelayMillis,
+        () -> {
+          TokenResponse response = new TokenResponse();
+          response.setToken(TOKEN);
+          return response;
+        });
+  }
+
+  /** Number of `GET trip/{tripId}` requests received so far. */
+  public int getTripCount() {
+    return getTripCount.get();
+  }
+
+  /** Number of `GET token/consumer/{tripId}` requests received so far. */
+  public int getConsumerTokenCount() {
+    return getConsumerTokenCount.get();
+  }
+
+  private static <T> ListenableFuture<T> respondAfter(long delayMillis, Supplier<T> response) {
+    if (delayMillis <= 0) {
+      return Futures.immediateFuture(response.get());
+    }
+
+    SettableFuture<T> future = SettableFuture.create();
+    ScheduledFuture<?> scheduled =
+        delayExecutor.schedule(() -> future.set(response.get()), delayMillis, MILLISECONDS);
+    future.addListener(() -> scheduled.cancel(false), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  private static TripResponse createTripResponse(boolean isMatched) {
+    TripResponse trip = new TripResponse();
+    trip.setTripName(TRIP_NAME);
+    trip.setTripStatus("NEW");
+    if (isMatched) {
+      trip.setVehicleId(VEHICLE_ID);
+      trip.setWaypoints(
+          new WaypointResponse[] {
+            createWaypoint(37.423061, -122.084051), createWaypoint(37.411895, -122.094247)
+          });
+    }
+    return trip;
+  }
+
+  public static WaypointResponse createWaypoint(double latitude, double longitude) {
+    WaypointResponse.Point point = new WaypointResponse.Point();
+    point.setLatitude(latitude);
+    point.setLongitude(longitude);
+    WaypointResponse.Location location = new WaypointResponse.Location();
+    location.setPoint(point);
+    WaypointResponse waypoint = new WaypointResponse();
+    waypoint.setLocation(location);
+    return waypoint;
+  }
+}
@@ -0,0 +1,130 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.mapsplatform.transportation.sample.consumer.provider.service.NetworkQualityEstimator.Quality;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link NetworkQualityEstimator}. */
+@RunWith(AndroidJUnit4.class)
+public final class NetworkQualityEstimatorTest {
+  private final NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+  private final MockWebServer server = new MockWebServer();
+  private final OkHttpClient httpClient =
+      new OkHttpClient.Builder().eventListenerFactory(estimator.eventListenerFactory()).build();
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void getQuality_fewSlowSamples_isGood() {
+    for (int i = 1; i < NetworkQualityEstimator.MIN_SAMPLES; i++) {
+      estimator.onRoundTrip(3_000);
+    }
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    estimator.onRoundTrip(3_000);
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.POOR);
+  }
+
+  @Test
+  public void getQuality_classifiesMedianRoundTrip() {
+    feedRoundTrips(/* millis= */ 500, NetworkQualityEstimator.WINDOW_SIZE);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.MODERATE);
+
+    // A minority of stalls doesn't move the median.
+    feedRoundTrips(/* millis= */ 3_000, NetworkQualityEstimator.WINDOW_SIZE / 2 - 1);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.MODERATE);
+    feedRoundTrips(/* millis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    assertThat(estimator.getRoundTripMillis()).isEqualTo(80);
+  }
+
+  @Test
+  public void getQuality_lowThroughput_downgradesGoodRoundTrips() {
+    feedRoundTrips(/* millis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+
+    // 64 KiB in 10 s, 52 kbps.
+    for (int i = 0; i < NetworkQualityEstimator.MIN_SAMPLES; i++) {
+      estimator.onResponseBody(/* bytes= */ 64 * 1024, /* millis= */ 10_000);
+    }
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.POOR);
+  }
+
+  @Test
+  public void getQuality_consecutiveFailures_isOfflineUntilResponse() {
+    for (int i = 1; i < NetworkQualityEstimator.OFFLINE_CONSECUTIVE_FAILURES; i++) {
+      estimator.onNetworkFailure();
+    }
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    estimator.onNetworkFailure();
+    assertThat(estimator.getQuality()).isEqualTo(Quality.OFFLINE);
+    estimator.onRoundTrip(80);
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+  }
+
+  @Test
+  public void eventListener_measuresRoundTripOfCalls() throws Exception {
+    server.enqueue(new MockResponse().setHeadersDelay(400, MILLISECONDS).setBody("{}"));
+
+    try (Response response = execute()) {
+      assertThat(response.code()).isEqualTo(200);
+    }
+
+    assertThat(estimator.getRoundTripMillis()).isAtLeast(400);
+  }
+
+  @Test
+  public void eventListener_unreachableServer_isOffline() throws Exception {
+    server.start();
+    server.shutdown();
+
+    for (int i = 0; i < NetworkQualityEstimator.OFFLINE_CONSECUTIVE_FAILURES; i++) {
+      assertThrows(IOException.class, this::execute);
+    }
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.OFFLINE);
+  }
+
+  private Response execute() throws IOException {
+    return httpClient
+        .newCall(new Request.Builder().url(server.url("/trip/1")).build())
+        .execute();
+  }
+
+  private void feedRoundTrips(long millis, int count) {
+    for (int i = 0; i < count; i++) {
+      estimator.onRoundTrip(millis);
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.CreateTripRequest;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripStatus;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture.Exchange;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficRecorder;
+import com.google.mapsplatform.transportation.sample.testing.ProviderTrafficReplayServer;
+import com.google.mapsplatform.transportation.sample.testing.ProviderTrafficReplayServer.RecordedResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link ProviderTrafficRecorder} and {@link ProviderTrafficReplayServer}, with the
+ * captures in {@code src/test/resources/captures} as regression fixtures.
+ */
+@RunWith(JUnit4.class)
+public final class ProviderTrafficReplayTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final String TOKEN_RESPONSE =
+      "{\"jwt\":\"test-token\",\"creationTimestamp\":1,\"expirationTimestamp\":2}";
+
+  private final Gson gson = new Gson();
+  private final OkHttpClient httpClient = new OkHttpClient();
+  private ProviderTrafficReplayServer replayServer;
+
+  @After
+  public void tearDown() throws Exception {
+    if (replayServer != null) {
+      replayServer.close();
+    }
+  }
+
+  @Test
+  public void recorder_recordsRequestsAndResponses() throws Exception {
+    File capture = temporaryFolder.newFile();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().setBody(TOKEN_RESPONSE));
+      server.start();
+      RestProvider provider =
+          LocalProviderService.createRestProvider(
+              server.url("/").toString(),
+              httpClient
+                  .newBuilder()
+                  .addInterceptor(new ProviderTrafficRecorder(capture, directExecutor()))
+                  .build());
+
+      provider.getConsumerToken("trip_1").get();
+    }
+
+    ImmutableList<Exchange> exchanges;
+    try (Reader reader = Files.newReader(capture, StandardCharsets.UTF_8)) {
+      exchanges = ProviderTrafficCapture.read(reader);
+    }
+    assertThat(exchanges).hasSize(1);
+    Exchange exchange = exchanges.get(0);
+    assertThat(exchange.method()).isEqualTo("GET");
+    assertThat(exchange.path()).isEqualTo("/token/consumer/trip_1");
+    assertThat(exchange.code()).isEqualTo(200);
+    assertThat(exchange.requestBody()).isEmpty();
+    assertThat(exchange.responseBody()).isEqualTo(TOKEN_RESPONSE);
+  }
+
+  @Test
+  public void replay_idle_neverMatchesTrip() throws Exception {
+    TripResponse trip = replay("captures/idle.capture");
+
+    assertThat(trip.getVehicleId()).isEmpty();
+  }
+
+  @Test
+  public void replay_singleTrip_matchesVehicle() throws Exception {
+    TripResponse trip = replay("captures/single_trip.capture");
+
+    assertThat(trip.getVehicleId()).isEqualTo("vehicle_1");
+    assertThat(TripStatus.parse(trip.getTripStatus())).isEqualTo(TripStatus.NEW.getCode());
+    assertThat(trip.getWaypoints()).hasLength(2);
+  }
+
+  @Test
+  public void replay_backToBack_matchesVehicleOnFirstPoll() throws Exception {
+    TripResponse trip = replay("captures/back_to_back.capture");
+
+    assertThat(trip.getVehicleId()).isEqualTo("vehicle_1");
+  }
+
+  @Test
+  public void replay_sharedPool_matchesTripWithIntermediateStop() throws Exception {
+    TripResponse trip = replay("captures/shared_pool.capture");
+
+    assertThat(trip.getVehicleId()).isEqualTo("vehicle_1");
+    assertThat(trip.getWaypoints()).hasLength(3);
+  }
+
+  /**
+   * Sends the recorded requests of a capture through {@link RestProvider}, in their original
+   * order, and returns the trip of the last poll.
+   */
+  private TripResponse replay(String captureName) throws Exception {
+    ImmutableList<Exchange> exchanges = loadCapture(captureName);
+    replayServer =
+        new ProviderTrafficReplayServer(toRecordedResponses(exchanges), /* timeScale= */ 0);
+    replayServer.start();
+    RestProvider provider =
+        LocalProviderService.createRestProvider(replayServer.getBaseUrl(), httpClient);
+    TripResponse lastTrip = null;
+
+    for (Exchange exchange : exchanges) {
+      String id = exchange.path().substring(exchange.path().lastIndexOf('/') + 1);
+      if (exchange.path().equals("/trip/new")) {
+        // The provider stand-in ignores the body, only the trip type is kept.
+        CreateTripRequest request = new CreateTripRequest();
+        request.setTripType(
+            gson.fromJson(exchange.requestBody(), JsonObject.class).get("tripType").getAsString());
+        assertThat(provider.createTrip(request, "create_trip_1").get().getTripName())
+            .endsWith("/trip_1");
+      } else if (exchange.path().startsWith("/token/consumer/")) {
+        assertThat(provider.getConsumerToken(id).get().getToken()).isNotEmpty();
+      } else if (exchange.path().startsWith("/trip/")) {
+        lastTrip = provider.getTrip(id).get().getTrip();
+      }
+    }
+
+    assertThat(replayServer.getRequestCount()).isEqualTo(exchanges.size());
+    return lastTrip;
+  }
+
+  /** Reads a capture from the test resources. */
+  private static ImmutableList<Exchange> loadCapture(String resourceName) throws IOException {
+    InputStream stream =
+        ProviderTrafficReplayTest.class.getClassLoader().getResourceAsStream(resourceName);
+    if (stream == null) {
+      throw new IOException("Missing capture " + resourceName);
+    }
+    try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+      return ProviderTrafficCapture.read(reader);
+    }
+  }
+
+  private static ImmutableList<RecordedResponse> toRecordedResponses(
+      ImmutableList<Exchange> exchanges) {
+    ImmutableList.Builder<RecordedResponse> responses = ImmutableList.builder();
+    for (Exchange exchange : exchanges) {
+      responses.add(
+          new RecordedResponse(
+              exchange.method(),
+              exchange.path(),
+              exchange.code(),
+              exchange.responseBody(),
+              exchange.latencyMillis()));
+    }
+    return responses.build();
+  }
+}
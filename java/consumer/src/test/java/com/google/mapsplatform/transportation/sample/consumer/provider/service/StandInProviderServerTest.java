@@ -0,0 +1,125 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.consumer.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.CreateTripRequest;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripData;
+import com.google.mapsplatform.transportation.sample.consumer.provider.model.TripStatus;
+import com.google.mapsplatform.transportation.sample.consumer.provider.response.TripResponse;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer.Endpoint;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer.Faults;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.OkHttpClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import retrofit2.HttpException;
+
+/** Unit tests for {@link StandInProviderServer}, through {@link LocalProviderService}. */
+@RunWith(JUnit4.class)
+public final class StandInProviderServerTest {
+  private static final String VEHICLE_ID = "vehicle_1";
+
+  private final StandInProviderServer server = new StandInProviderServer(new Random(0));
+  private final ScheduledExecutorService retryExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private LocalProviderService providerService;
+
+  @Before
+  public void setUp() throws IOException {
+    server.start();
+    providerService =
+        new LocalProviderService(
+            LocalProviderService.createRestProvider(server.getBaseUrl(), new OkHttpClient()),
+            Executors.newSingleThreadExecutor(),
+            retryExecutor);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    retryExecutor.shutdownNow();
+    server.close();
+  }
+
+  @Test
+  public void createdTrip_isMatchedOnceVehicleIsOnline() throws Exception {
+    TripResponse trip = createTrip();
+    String tripId = TripName.create(trip.getTripName()).getTripId();
+    assertThat(providerService.fetchAuthToken(tripId).get(5, SECONDS).getToken()).isNotEmpty();
+
+    server.addVehicle(VEHICLE_ID, /* backToBackEnabled= */ false);
+    TripData matchedTrip = providerService.fetchMatchedTrip(trip.getTripName()).get(10, SECONDS);
+
+    assertThat(matchedTrip.vehicleId()).isEqualTo(VEHICLE_ID);
+    assertThat(matchedTrip.tripStatus()).isEqualTo(TripStatus.NEW.getCode());
+    assertThat(server.getTripStatus(tripId)).isEqualTo("NEW");
+  }
+
+  @Test
+  public void connectionReset_retriesWithSameKeyAndCreatesTripOnce() throws Exception {
+    server.setFaults(Endpoint.CREATE_TRIP, new Faults().setConnectionResetRate(1));
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> createTrip());
+
+    assertThat(thrown).hasCauseThat().isInstanceOf(IOException.class);
+    assertThat(server.getAppliedMutationCount()).isEqualTo(1);
+    // Every retry was answered from the first request.
+    assertThat(server.getRequestCount(Endpoint.CREATE_TRIP)).isGreaterThan(1);
+    assertThat(server.getDeduplicatedMutationCount())
+        .isEqualTo(server.getRequestCount(Endpoint.CREATE_TRIP) - 1);
+  }
+
+  @Test
+  public void createTrip_repeatedIdempotencyKey_createsOneTrip() throws Exception {
+    RestProvider restProvider =
+        LocalProviderService.createRestProvider(server.getBaseUrl(), new OkHttpClient());
+    CreateTripRequest request = new CreateTripRequest();
+    request.setTripType("EXCLUSIVE");
+
+    TripResponse first = restProvider.createTrip(request, "key_1").get(10, SECONDS);
+    TripResponse repeated = restProvider.createTrip(request, "key_1").get(10, SECONDS);
+
+    assertThat(repeated.getTripName()).isEqualTo(first.getTripName());
+    assertThat(server.getAppliedMutationCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void unknownTrip_isNotFound() {
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class,
+            () -> providerService.fetchAuthToken("unknown").get(5, SECONDS));
+
+    assertThat(((HttpException) thrown.getCause()).code()).isEqualTo(404);
+  }
+
+  private TripResponse createTrip() throws Exception {
+    CreateTripRequest request = new CreateTripRequest();
+    request.setTripType("EXCLUSIVE");
+    return providerService.createTrip(request).get(10, SECONDS);
+  }
+}
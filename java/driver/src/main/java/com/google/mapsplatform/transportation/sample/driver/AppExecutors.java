@@ -0,0 +1,183 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import androidx.annotation.VisibleForTesting;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread pools shared by the whole app, which owns them for the lifetime of the process.
+ *
+ * <ul>
+ *   <li>{@link #io()}: blocking work such as network calls and disk reads.
+ *   <li>{@link #compute()}: CPU bound work such as parsing or bitmap rasterization.
+ *   <li>{@link #scheduler()}: delayed and periodic tasks, which should hand off anything long to
+ *       the other pools.
+ * </ul>
+ *
+ * <p>Every pool is bounded and its threads are named after it. Idle threads time out, so an idle
+ * app holds no pool threads. Once a queue is full, tasks are rejected with a {@link
+ * RejectedExecutionException} and counted in {@link #getMetrics()}. Fire-and-forget hand-offs, such
+ * as the ones made from periodic tasks or listeners, catch it and drop the task.
+ */
+public final class AppExecutors {
+  private static final int IO_THREADS = 8;
+  private static final int IO_QUEUE_CAPACITY = 256;
+  private static final int COMPUTE_THREADS =
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int COMPUTE_QUEUE_CAPACITY = 128;
+  private static final int SCHEDULER_THREADS = 2;
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  private static AppExecutors instance;
+
+  private final ThreadPoolExecutor io;
+  private final ThreadPoolExecutor compute;
+  private final ScheduledThreadPoolExecutor scheduler;
+
+  /** Returns the pools shared by the app. */
+  public static synchronized AppExecutors getInstance() {
+    if (instance == null) {
+      instance =
+          new AppExecutors(
+              IO_THREADS,
+              IO_QUEUE_CAPACITY,
+              COMPUTE_THREADS,
+              COMPUTE_QUEUE_CAPACITY,
+              SCHEDULER_THREADS);
+    }
+    return instance;
+  }
+
+  @VisibleForTesting
+  AppExecutors(
+      int ioThreads,
+      int ioQueueCapacity,
+      int computeThreads,
+      int computeQueueCapacity,
+      int schedulerThreads) {
+    io = newBoundedPool("io", ioThreads, ioQueueCapacity);
+    compute = newBoundedPool("compute", computeThreads, computeQueueCapacity);
+    scheduler =
+        new ScheduledThreadPoolExecutor(
+            schedulerThreads, newThreadFactory("scheduler"), new CountingAbortPolicy());
+    scheduler.setKeepAliveTime(KEEP_ALIVE_SECONDS, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+    // Cancelled retries and timeouts should not linger in the queue until their delay expires.
+    scheduler.setRemoveOnCancelPolicy(true);
+  }
+
+  /** Pool for blocking work such as network calls and disk reads. */
+  public ExecutorService io() {
+    return io;
+  }
+
+  /** Pool for CPU bound work. */
+  public ExecutorService compute() {
+    return compute;
+  }
+
+  /** Pool for delayed and periodic tasks. */
+  public ScheduledExecutorService scheduler() {
+    return scheduler;
+  }
+
+  /** Returns a snapshot of the usage of every pool. */
+  public ImmutableList<PoolMetrics> getMetrics() {
+    return ImmutableList.of(
+        PoolMetrics.of("io", io),
+        PoolMetrics.of("compute", compute),
+        PoolMetrics.of("scheduler", scheduler));
+  }
+
+  private static ThreadPoolExecutor newBoundedPool(String name, int threads, int queueCapacity) {
+    // Core size equals max size: a ThreadPoolExecutor only grows past its core size once the queue
+    // is full, which would leave a single thread busy while the queue fills up.
+    ThreadPoolExecutor pool =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(queueCapacity),
+            newThreadFactory(name),
+            new CountingAbortPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  private static ThreadFactory newThreadFactory(String name) {
+    return new ThreadFactoryBuilder().setNameFormat(name + "-%d").build();
+  }
+
+  /** Rejects tasks like {@link ThreadPoolExecutor.AbortPolicy} and counts them. */
+  private static final class CountingAbortPolicy implements RejectedExecutionHandler {
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @Override
+    public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+      rejectedCount.incrementAndGet();
+      throw new RejectedExecutionException(
+          String.format(
+              "Task rejected, queue depth %d, shut down: %b",
+              executor.getQueue().size(), executor.isShutdown()));
+    }
+  }
+
+  /** Usage of a pool at the time {@link #getMetrics()} was called. */
+  @AutoValue
+  public abstract static class PoolMetrics {
+    public abstract String name();
+
+    /** Threads currently running a task. */
+    public abstract int activeThreads();
+
+    /** Threads currently alive, busy or idle. */
+    public abstract int poolSize();
+
+    /** Most threads ever alive at the same time. */
+    public abstract int largestPoolSize();
+
+    /** Tasks waiting for a thread. */
+    public abstract int queueDepth();
+
+    public abstract long completedTasks();
+
+    public abstract long rejectedTasks();
+
+    static PoolMetrics of(String name, ThreadPoolExecutor pool) {
+      return new AutoValue_AppExecutors_PoolMetrics(
+          name,
+          pool.getActiveCount(),
+          pool.getPoolSize(),
+          pool.getLargestPoolSize(),
+          pool.getQueue().size(),
+          pool.getCompletedTaskCount(),
+          ((CountingAbortPolicy) pool.getRejectedExecutionHandler()).rejectedCount.get());
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import com.google.auto.value.AutoValue;
+
+/** Snapshot of the settings kept by {@link LocalSettings}. */
+@AutoValue
+public abstract class DriverSettings {
+  static final String DEFAULT_VEHICLE_ID = "Vehicle_1";
+  static final boolean DEFAULT_IS_SIMULATION_ENABLED = true;
+
+  /** Settings used until the user or the provider changes them. */
+  public static final DriverSettings DEFAULT =
+      create(DEFAULT_VEHICLE_ID, DEFAULT_IS_SIMULATION_ENABLED);
+
+  public abstract String vehicleId();
+
+  public abstract boolean isSimulationEnabled();
+
+  public static DriverSettings create(String vehicleId, boolean isSimulationEnabled) {
+    return new AutoValue_DriverSettings(vehicleId, isSimulationEnabled);
+  }
+
+  public DriverSettings withVehicleId(String vehicleId) {
+    return create(vehicleId, isSimulationEnabled());
+  }
+
+  public DriverSettings withSimulationEnabled(boolean isSimulationEnabled) {
+    return create(vehicleId(), isSimulationEnabled);
+  }
+}
@@ -15,28 +15,89 @@
 package com.google.mapsplatform.transportation.sample.driver;
 
 import android.content.Context;
-import android.content.SharedPreferences;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-/** Manages application settings that can persist across sessions. */
+/**
+ * Manages application settings that can persist across sessions.
+ *
+ * <p>Reads and saves only touch an in-memory snapshot, so they are safe on the main thread. The
+ * file is read once in the background and saved behind the snapshot: saves made before a pending
+ * write ran are folded into that write.
+ */
 public final class LocalSettings {
+  private static final String TAG = LocalSettings.class.getName();
 
-  private static final String KEY_VEHICLE_ID = "VEHICLE_ID";
-  private static final String DEFAULT_VEHICLE_ID = "Vehicle_1";
+  /** Gets notified whenever the settings change. */
+  public interface Listener {
+    void onSettingsChanged(DriverSettings settings);
+  }
 
-  private static final String KEY_IS_SIMULATION_ENABLED = "IS_SIMULATION_ENABLED";
-  private static final boolean DEFAULT_IS_SIMULATION_ENABLED = true;
+  private final SettingsFile settingsFile;
+  // Runs the file reads and writes one at a time, in order.
+  private final Executor fileExecutor;
+  private final SettableFuture<DriverSettings> loadedSettings = SettableFuture.create();
+  private final AtomicBoolean writeScheduled = new AtomicBoolean();
+  private final CopyOnWriteArrayList<ListenerRegistration> listeners =
+      new CopyOnWriteArrayList<>();
 
-  private final SharedPreferences sharedPrefs;
+  private DriverSettings settings = DriverSettings.DEFAULT;
+  // Set when settings were saved before the file was read, they then win over the file.
+  private boolean savedBeforeLoad;
 
   /**
    * Default constructor for {@link LocalSettings}.
    *
-   * @param context the activity context which will be used to access preferences.
+   * @param context the activity context which will be used to access the settings file.
    */
   public LocalSettings(Context context) {
-    sharedPrefs =
-        context.getSharedPreferences(
-            context.getString(R.string.shared_preference_key), Context.MODE_PRIVATE);
+    this(new SettingsFile(context.getApplicationContext()), AppExecutors.getInstance().io());
+  }
+
+  @VisibleForTesting
+  LocalSettings(SettingsFile settingsFile, Executor ioExecutor) {
+    this.settingsFile = settingsFile;
+    fileExecutor = MoreExecutors.newSequentialExecutor(ioExecutor);
+    fileExecutor.execute(this::load);
+  }
+
+  /** Completes with the settings once the stored ones were read. */
+  public ListenableFuture<DriverSettings> whenLoaded() {
+    return Futures.nonCancellationPropagating(loadedSettings);
+  }
+
+  /**
+   * Registers a listener called on {@code executor} with the stored settings once they are read
+   * (right away if they already are) and with the new settings after every change.
+   */
+  public void addListener(Listener listener, Executor executor) {
+    listeners.add(new ListenerRegistration(listener, executor));
+    if (loadedSettings.isDone()) {
+      executor.execute(() -> listener.onSettingsChanged(getSettings()));
+    }
+  }
+
+  public void removeListener(Listener listener) {
+    for (ListenerRegistration registration : listeners) {
+      if (registration.listener == listener) {
+        listeners.remove(registration);
+      }
+    }
+  }
+
+  /** Returns the current settings, defaults until the stored ones were read. */
+  public synchronized DriverSettings getSettings() {
+    return settings;
   }
 
   /**
@@ -45,12 +106,12 @@ public final class LocalSettings {
    * @param vehicleId the value of "vehicleId" to store.
    */
   public void saveVehicleId(String vehicleId) {
-    sharedPrefs.edit().putString(KEY_VEHICLE_ID, vehicleId).commit();
+    update(current -> current.withVehicleId(vehicleId));
   }
 
   /** Gets the stored "vehicleId" setting. In case there is not one, it returns a default. */
   public String getVehicleId() {
-    return sharedPrefs.getString(KEY_VEHICLE_ID, DEFAULT_VEHICLE_ID);
+    return getSettings().vehicleId();
   }
 
   /**
@@ -59,7 +120,7 @@ public final class LocalSettings {
    * @param isSimulationEnabled the value of "is simulation enabled" to store.
    */
   public void saveIsSimulationEnabled(boolean isSimulationEnabled) {
-    sharedPrefs.edit().putBoolean(KEY_IS_SIMULATION_ENABLED, isSimulationEnabled).commit();
+    update(current -> current.withSimulationEnabled(isSimulationEnabled));
   }
 
   /**
@@ -67,6 +128,81 @@ public final class LocalSettings {
    * default.
    */
   public boolean getIsSimulationEnabled() {
-    return sharedPrefs.getBoolean(KEY_IS_SIMULATION_ENABLED, DEFAULT_IS_SIMULATION_ENABLED);
+    return getSettings().isSimulationEnabled();
+  }
+
+  /** Completes once every save made so far reached the disk. */
+  public ListenableFuture<Void> flush() {
+    return Futures.submit(() -> null, fileExecutor);
+  }
+
+  private void update(Function<DriverSettings, DriverSettings> change) {
+    DriverSettings updated;
+    synchronized (this) {
+      updated = change.apply(settings);
+      if (updated.equals(settings)) {
+        return;
+      }
+      settings = updated;
+      savedBeforeLoad |= !loadedSettings.isDone();
+    }
+    notifyListeners(updated);
+    scheduleWrite();
+  }
+
+  private void scheduleWrite() {
+    if (!writeScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      fileExecutor.execute(
+          () -> {
+            writeScheduled.set(false);
+            try {
+              settingsFile.write(getSettings());
+            } catch (IOException e) {
+              Log.e(TAG, "Failed to save the settings.", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The next change saves these settings along.
+      writeScheduled.set(false);
+      Log.e(TAG, "Failed to schedule saving the settings.", e);
+    }
+  }
+
+  private void load() {
+    DriverSettings stored = null;
+    try {
+      stored = settingsFile.read();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to read the settings, using defaults.", e);
+    }
+
+    DriverSettings loaded;
+    synchronized (this) {
+      if (stored != null && !savedBeforeLoad) {
+        settings = stored;
+      }
+      loaded = settings;
+    }
+    loadedSettings.set(loaded);
+    notifyListeners(loaded);
+  }
+
+  private void notifyListeners(DriverSettings settings) {
+    for (ListenerRegistration registration : listeners) {
+      registration.executor.execute(() -> registration.listener.onSettingsChanged(settings));
+    }
+  }
+
+  private static final class ListenerRegistration {
+    final Listener listener;
+    final Executor executor;
+
+    ListenerRegistration(Listener listener, Executor executor) {
+      this.listener = listener;
+      this.executor = executor;
+    }
   }
 }
@@ -14,6 +14,8 @@
  */
 package com.google.mapsplatform.transportation.sample.driver;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import android.annotation.SuppressLint;
 import android.os.Bundle;
 import android.util.Log;
@@ -25,6 +27,7 @@ import androidx.annotation.Nullable;
 import androidx.annotation.StringRes;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
+import androidx.core.content.ContextCompat;
 import com.google.android.gms.maps.GoogleMap.CameraPerspective;
 import com.google.android.libraries.mapsplatform.transportation.driver.api.ridesharing.RidesharingDriverApi;
 import com.google.android.libraries.navigation.NavigationApi;
@@ -32,18 +35,31 @@ import com.google.android.libraries.navigation.Navigator;
 import com.google.android.libraries.navigation.SupportNavigationFragment;
 import com.google.android.material.snackbar.Snackbar;
 import com.google.common.base.Joiner;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.mapsplatform.transportation.sample.driver.dialog.VehicleDialogFragment;
+import com.google.mapsplatform.transportation.sample.driver.metrics.MetricsFileExporter;
+import com.google.mapsplatform.transportation.sample.driver.metrics.MetricsRegistry;
 import com.google.mapsplatform.transportation.sample.driver.provider.ProviderUtils;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.CircuitBreaker;
 import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.ProviderRequestScheduler;
 import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.tracing.SpanData;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Tracer;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.net.ConnectException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /*
  * NOTE: BEFORE BUILDING THIS APPLICATION YOU MUST COPY THE GOOGLE NAVIGATION API
@@ -56,7 +72,19 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
   private static final String TAG = "MainActivity";
   private static final int TRIP_VIEW_INITIAL_STATE = View.GONE;
 
-  private final ExecutorService executor = Executors.newCachedThreadPool();
+  // Startup phases, see initializeSDKs().
+  private static final String PHASE_NAVIGATOR = "navigator_init";
+  private static final String PHASE_PROVIDER_SETUP = "provider_setup";
+  private static final String PHASE_VEHICLE_REGISTRATION = "vehicle_registration";
+  private static final String PHASE_FIRST_TOKEN = "first_token";
+  private static final String PHASE_DRIVER_API_READY = "driver_api_ready";
+
+  private static final String METRICS_FILE_NAME = "metrics.txt";
+  private static final long METRICS_EXPORT_PERIOD_SECONDS = 60;
+  // Leaves a slot for a trip update while a poll or a token fetch is in flight.
+  private static final int MAX_PROVIDER_REQUESTS_IN_FLIGHT = 2;
+
+  private final ExecutorService executor = AppExecutors.getInstance().io();
 
   private LocalSettings localSettings;
   private SupportNavigationFragment navFragment;
@@ -68,18 +96,20 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
   private CardView tripCard;
   private VehicleController vehicleController;
   private LocalProviderService localProviderService;
+  private MetricsFileExporter metricsFileExporter;
+  // Endpoints whose circuit breaker isn't closed, accessed on the main thread.
+  private final Set<String> unavailableEndpoints = new HashSet<>();
+  @Nullable private Snackbar providerUnavailableSnackbar;
+  private final CircuitBreaker.Listener circuitBreakerListener =
+      (endpoint, state) ->
+          ContextCompat.getMainExecutor(this)
+              .execute(() -> onProviderCircuitStateChanged(endpoint, state));
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
 
-    localProviderService =
-        new LocalProviderService(
-            LocalProviderService.createRestProvider(
-                ProviderUtils.getProviderBaseUrl(getApplication())),
-            executor);
-
     localSettings = new LocalSettings(this);
     simulationStatusText = findViewById(R.id.simulation_status);
     actionButton = findViewById(R.id.action_button);
@@ -89,7 +119,9 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
     tripIdText = findViewById(R.id.trip_id_label);
     matchedTripIdsText = findViewById(R.id.matched_trip_ids_label);
     textVehicleId = findViewById(R.id.menu_vehicle_id);
-    textVehicleId.setText(localSettings.getVehicleId());
+    localSettings.addListener(
+        settings -> textVehicleId.setText(settings.vehicleId()),
+        ContextCompat.getMainExecutor(this));
     setupNavFragment();
     updateActionButton(TRIP_VIEW_INITIAL_STATE, null);
     actionButton.setOnClickListener(this::onActionButtonClicked);
@@ -102,29 +134,145 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
 
     initializeSDKs();
 
+    metricsFileExporter =
+        new MetricsFileExporter(
+            MetricsRegistry.getInstance(), new File(getFilesDir(), METRICS_FILE_NAME), executor);
+    metricsFileExporter.start(
+        AppExecutors.getInstance().scheduler(), METRICS_EXPORT_PERIOD_SECONDS, SECONDS);
+
     Log.i(TAG, "Driver SDK version: " + RidesharingDriverApi.getDriverSdkVersion());
     Log.i(TAG, "Navigation SDK version: " + NavigationApi.getNavSDKVersion());
   }
 
+  /**
+   * Starts the independent parts of the startup concurrently: Navigator initialization on one side,
+   * provider setup followed by vehicle registration and the first token fetch on the other. They
+   * are only joined to create the Driver API, which needs both the Navigator and the vehicle.
+   */
   private void initializeSDKs() {
+    StartupTimer startupTimer = new StartupTimer(Ticker.systemTicker());
+
+    // The settings are read in the background, alongside the other setup.
+    ListenableFuture<DriverSettings> settingsFuture = localSettings.whenLoaded();
+    ListenableFuture<Navigator> navigatorFuture =
+        startupTimer.time(PHASE_NAVIGATOR, getNavigator());
+    ListenableFuture<LocalProviderService> providerServiceFuture =
+        startupTimer.time(
+            PHASE_PROVIDER_SETUP, Futures.submit(this::createLocalProviderService, executor));
+    ListenableFuture<VehicleModel> registerVehicleFuture =
+        startupTimer.time(
+            PHASE_VEHICLE_REGISTRATION,
+            Futures.whenAllSucceed(providerServiceFuture, settingsFuture)
+                .callAsync(
+                    () ->
+                        VehicleController.registerVehicle(
+                            Futures.getDone(providerServiceFuture), localSettings, executor),
+                    executor));
+    ListenableFuture<TripAuthTokenFactory> authTokenFactoryFuture =
+        Futures.transform(providerServiceFuture, TripAuthTokenFactory::new, executor);
+    ListenableFuture<Boolean> prefetchTokenFuture =
+        startupTimer.time(
+            PHASE_FIRST_TOKEN,
+            Futures.whenAllSucceed(authTokenFactoryFuture, settingsFuture)
+                .callAsync(
+                    () ->
+                        Futures.getDone(authTokenFactoryFuture)
+                            .prefetchToken(Futures.getDone(settingsFuture).vehicleId()),
+                    executor));
+    logFailure(prefetchTokenFuture, "First token fetch failed, it will be retried on demand.");
+
+    ListenableFuture<Boolean> startupFuture =
+        Futures.whenAllSucceed(navigatorFuture, authTokenFactoryFuture, settingsFuture)
+            .callAsync(
+                () -> {
+                  localProviderService = Futures.getDone(providerServiceFuture);
+                  vehicleController =
+                      new VehicleController(
+                          Futures.getDone(navigatorFuture),
+                          executor,
+                          MainActivity.this,
+                          localProviderService,
+                          localSettings,
+                          Futures.getDone(authTokenFactoryFuture));
+                  vehicleController.setPresenter(MainActivity.this);
+                  return vehicleController.initVehicleAndReporter(
+                      getApplication(), registerVehicleFuture);
+                },
+                ContextCompat.getMainExecutor(this));
+
+    Futures.addCallback(
+        startupFuture,
+        new FutureCallback<Boolean>() {
+          @Override
+          public void onSuccess(Boolean result) {
+            startupTimer.mark(PHASE_DRIVER_API_READY);
+            Log.i(TAG, "Startup phases:\n" + startupTimer.summary());
+          }
+
+          @Override
+          public void onFailure(Throwable e) {
+            if (vehicleController != null) {
+              showProviderConnectionError(e);
+            }
+          }
+        },
+        executor);
+  }
+
+  private LocalProviderService createLocalProviderService() {
+    LocalProviderService service =
+        new LocalProviderService(
+            LocalProviderService.createRestProvider(
+                ProviderUtils.getProviderBaseUrl(getApplication()),
+                ProviderUtils.getHttpClient(getApplication())),
+            executor,
+            AppExecutors.getInstance().scheduler(),
+            ProviderUtils.getNetworkQualityEstimator(),
+            new ProviderRequestScheduler(
+                MAX_PROVIDER_REQUESTS_IN_FLIGHT, AppExecutors.getInstance().scheduler()));
+    service.addCircuitBreakerListener(circuitBreakerListener);
+    return service;
+  }
+
+  /** Tells the driver the provider is unavailable while the circuit of any endpoint is open. */
+  private void onProviderCircuitStateChanged(String endpoint, CircuitBreaker.State state) {
+    if (state == CircuitBreaker.State.CLOSED) {
+      unavailableEndpoints.remove(endpoint);
+    } else {
+      unavailableEndpoints.add(endpoint);
+    }
+
+    if (unavailableEndpoints.isEmpty()) {
+      if (providerUnavailableSnackbar != null) {
+        providerUnavailableSnackbar.dismiss();
+        providerUnavailableSnackbar = null;
+      }
+    } else if (providerUnavailableSnackbar == null) {
+      providerUnavailableSnackbar =
+          Snackbar.make(tripCard, R.string.msg_provider_unavailable, Snackbar.LENGTH_INDEFINITE);
+      providerUnavailableSnackbar.show();
+    }
+  }
+
+  /** Wraps the Navigator initialization callbacks into a future. */
+  private ListenableFuture<Navigator> getNavigator() {
+    SettableFuture<Navigator> navigatorFuture = SettableFuture.create();
     NavigationApi.getNavigator(
         this,
         new NavigationApi.NavigatorListener() {
           @Override
           public void onNavigatorReady(Navigator navigator) {
-            vehicleController =
-                new VehicleController(
-                    navigator, executor, MainActivity.this, localProviderService, localSettings);
-
-            vehicleController.setPresenter(MainActivity.this);
-            initVehicleAndPollTrip();
+            navigatorFuture.set(navigator);
           }
 
           @Override
           public void onError(@NavigationApi.ErrorCode int errorCode) {
             logNavigationApiInitError(errorCode);
+            navigatorFuture.setException(
+                new IllegalStateException("Navigation API error: " + errorCode));
           }
         });
+    return navigatorFuture;
   }
 
   private void initVehicleAndPollTrip() {
@@ -138,12 +286,30 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
 
           @Override
           public void onFailure(Throwable e) {
-            if (e instanceof ConnectException) {
-              Snackbar.make(
-                      tripCard, R.string.msg_provider_connection_error, Snackbar.LENGTH_INDEFINITE)
-                  .setAction(R.string.button_retry, view -> initVehicleAndPollTrip())
-                  .show();
-            }
+            showProviderConnectionError(e);
+          }
+        },
+        executor);
+  }
+
+  private void showProviderConnectionError(Throwable e) {
+    if (e instanceof ConnectException) {
+      Snackbar.make(tripCard, R.string.msg_provider_connection_error, Snackbar.LENGTH_INDEFINITE)
+          .setAction(R.string.button_retry, view -> initVehicleAndPollTrip())
+          .show();
+    }
+  }
+
+  private void logFailure(ListenableFuture<?> future, String message) {
+    Futures.addCallback(
+        future,
+        new FutureCallback<Object>() {
+          @Override
+          public void onSuccess(Object result) {}
+
+          @Override
+          public void onFailure(Throwable t) {
+            Log.w(TAG, message, t);
           }
         },
         executor);
@@ -303,6 +469,11 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
     actionButton.setEnabled(enabled);
   }
 
+  @Override
+  public void showTripUpdateRejected(TripStatus restoredStatus) {
+    Snackbar.make(tripCard, R.string.msg_trip_update_rejected, Snackbar.LENGTH_LONG).show();
+  }
+
   private static void logNavigationApiInitError(int errorCode) {
     switch (errorCode) {
       case NavigationApi.ErrorCode.NOT_AUTHORIZED:
@@ -322,9 +493,34 @@ public final class MainActivity extends AppCompatActivity implements Presenter {
     }
   }
 
+  /**
+   * Appends the metrics and the recent spans, see {@code adb shell dumpsys activity
+   * <package>/.MainActivity}.
+   */
+  @Override
+  public void dump(
+      String prefix, @Nullable FileDescriptor fd, PrintWriter writer, @Nullable String[] args) {
+    super.dump(prefix, fd, writer, args);
+    writer.print(prefix);
+    writer.println("Metrics:");
+    writer.print(MetricsRegistry.getInstance().exportOpenMetrics());
+    writer.print(prefix);
+    writer.println("Recent spans:");
+    for (SpanData span : Tracer.getInstance().getRingBuffer().getSpans()) {
+      writer.print(prefix);
+      writer.println(span.format());
+    }
+  }
+
   @Override
   protected void onDestroy() {
-    vehicleController.cleanUp();
+    if (vehicleController != null) {
+      vehicleController.cleanUp();
+    }
+    if (localProviderService != null) {
+      localProviderService.removeCircuitBreakerListener(circuitBreakerListener);
+    }
+    metricsFileExporter.stop();
 
     super.onDestroy();
   }
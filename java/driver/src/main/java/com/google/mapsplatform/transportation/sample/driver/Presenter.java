@@ -31,4 +31,7 @@ public interface Presenter {
 
   /** Enable/disable action button. */
   void enableActionButton(boolean enabled);
+
+  /** Tell the driver the provider rejected a trip update and the trip went back to a status. */
+  void showTripUpdateRejected(TripStatus restoredStatus);
 }
@@ -0,0 +1,144 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * JSON file holding the {@link DriverSettings}. Every method does disk I/O and must be called off
+ * the main thread.
+ *
+ * <p>Writes go to a temporary file that then replaces the settings file, so a crash mid-write
+ * leaves the previous settings intact.
+ */
+class SettingsFile {
+  private static final String FILE_NAME = "driver_settings.json";
+
+  // Keys used when the settings were kept in SharedPreferences.
+  private static final String LEGACY_KEY_VEHICLE_ID = "VEHICLE_ID";
+  private static final String LEGACY_KEY_IS_SIMULATION_ENABLED = "IS_SIMULATION_ENABLED";
+
+  private final Gson gson = new Gson();
+  @Nullable private final Context context;
+  private File file;
+
+  /** Resolves its file lazily, since looking up the files directory is disk I/O too. */
+  SettingsFile(Context context) {
+    this.context = context;
+  }
+
+  @VisibleForTesting
+  SettingsFile(File file) {
+    this.context = null;
+    this.file = file;
+  }
+
+  /**
+   * Reads the settings. Settings written by previous versions of the app to SharedPreferences are
+   * migrated on first read.
+   *
+   * @return the stored settings or null if there are none.
+   */
+  @Nullable
+  synchronized DriverSettings read() throws IOException {
+    File file = getFile();
+    if (!file.exists()) {
+      DriverSettings legacySettings = readLegacySettings();
+      if (legacySettings != null) {
+        write(legacySettings);
+      }
+      return legacySettings;
+    }
+
+    StoredSettings stored;
+    try {
+      stored =
+          gson.fromJson(
+              new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8),
+              StoredSettings.class);
+    } catch (JsonParseException e) {
+      throw new IOException("Malformed settings file " + file, e);
+    }
+    if (stored == null) {
+      return null;
+    }
+    return DriverSettings.create(
+        stored.vehicleId != null ? stored.vehicleId : DriverSettings.DEFAULT_VEHICLE_ID,
+        stored.isSimulationEnabled != null
+            ? stored.isSimulationEnabled
+            : DriverSettings.DEFAULT_IS_SIMULATION_ENABLED);
+  }
+
+  /** Atomically replaces the stored settings. */
+  synchronized void write(DriverSettings settings) throws IOException {
+    StoredSettings stored = new StoredSettings();
+    stored.vehicleId = settings.vehicleId();
+    stored.isSimulationEnabled = settings.isSimulationEnabled();
+
+    File file = getFile();
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (FileOutputStream out = new FileOutputStream(tempFile)) {
+      out.write(gson.toJson(stored).getBytes(StandardCharsets.UTF_8));
+      out.getFD().sync();
+    }
+    Files.move(
+        tempFile.toPath(),
+        file.toPath(),
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private File getFile() {
+    if (file == null) {
+      file = new File(context.getFilesDir(), FILE_NAME);
+    }
+    return file;
+  }
+
+  @Nullable
+  private DriverSettings readLegacySettings() {
+    if (context == null) {
+      return null;
+    }
+    SharedPreferences sharedPrefs =
+        context.getSharedPreferences(
+            context.getString(R.string.shared_preference_key), Context.MODE_PRIVATE);
+    if (!sharedPrefs.contains(LEGACY_KEY_VEHICLE_ID)
+        && !sharedPrefs.contains(LEGACY_KEY_IS_SIMULATION_ENABLED)) {
+      return null;
+    }
+    return DriverSettings.create(
+        sharedPrefs.getString(LEGACY_KEY_VEHICLE_ID, DriverSettings.DEFAULT_VEHICLE_ID),
+        sharedPrefs.getBoolean(
+            LEGACY_KEY_IS_SIMULATION_ENABLED, DriverSettings.DEFAULT_IS_SIMULATION_ENABLED));
+  }
+
+  /** Serialized form of {@link DriverSettings}. */
+  private static final class StoredSettings {
+    String vehicleId;
+    Boolean isSimulationEnabled;
+  }
+}
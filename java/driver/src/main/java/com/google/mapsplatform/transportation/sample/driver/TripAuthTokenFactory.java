@@ -18,42 +18,109 @@ import static java.util.Objects.requireNonNull;
 
 import com.google.android.libraries.mapsplatform.transportation.driver.api.base.data.AuthTokenContext;
 import com.google.android.libraries.mapsplatform.transportation.driver.api.base.data.AuthTokenContext.AuthTokenFactory;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.TokenResponse;
 import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
 
 class TripAuthTokenFactory implements AuthTokenFactory {
+  // The expiry time could be an hour from now, but just to try and avoid passing expired tokens,
+  // we subtract 10 minutes from that time.
+  private static final long EXPIRY_MARGIN_MILLIS = 10 * 60 * 1000;
+
   private String token;
   private long expiryTimeMs = 0;
   private String vehicleId;
 
+  // Token request in flight and the vehicle it was made for, shared by the prefetch and getToken.
+  @Nullable private ListenableFuture<TokenResponse> pendingTokenResponse;
+  @Nullable private String pendingVehicleId;
+
   private final LocalProviderService providerService;
 
   TripAuthTokenFactory(LocalProviderService providerService) {
     this.providerService = providerService;
   }
 
+  /**
+   * Returns the cached token, otherwise waits for the token request in flight or a new one. The
+   * wait happens outside the lock, so prefetches and other callers are not blocked meanwhile.
+   */
   @Override
   public String getToken(AuthTokenContext context) {
     String vehicleId = requireNonNull(context.getVehicleId());
-    if (System.currentTimeMillis() > expiryTimeMs || !vehicleId.equals(this.vehicleId)) {
-      fetchNewToken(vehicleId);
+    ListenableFuture<TokenResponse> tokenResponse;
+    synchronized (this) {
+      if (hasValidToken(vehicleId)) {
+        return token;
+      }
+      tokenResponse = fetchToken(vehicleId);
     }
-    return token;
-  }
-
-  private void fetchNewToken(String vehicleId) {
     try {
-      TokenResponse tokenResponse = providerService.fetchAuthToken(vehicleId).get();
-      token = requireNonNull(tokenResponse.getToken());
-
-      // The expiry time could be an hour from now, but just to try and avoid
-      // passing expired tokens, we subtract 10 minutes from that time.
-      long tenMinutesInMillis = 10 * 60 * 1000;
-      expiryTimeMs = tokenResponse.getExpirationTimestamp().getMillis() - tenMinutesInMillis;
-      this.vehicleId = vehicleId;
+      return requireNonNull(tokenResponse.get().getToken());
     } catch (InterruptedException | ExecutionException e) {
       throw new RuntimeException("Could not get auth token", e);
     }
   }
+
+  /**
+   * Fetches a token for the given vehicle without blocking, so it is already cached when the Driver
+   * SDK first asks for one.
+   *
+   * @return a signal that the token is cached, the value can be ignored.
+   */
+  ListenableFuture<Boolean> prefetchToken(String vehicleId) {
+    ListenableFuture<TokenResponse> tokenResponse;
+    synchronized (this) {
+      if (hasValidToken(vehicleId)) {
+        return Futures.immediateFuture(true);
+      }
+      tokenResponse = fetchToken(vehicleId);
+    }
+    return Futures.transform(tokenResponse, unused -> true, MoreExecutors.directExecutor());
+  }
+
+  private boolean hasValidToken(String vehicleId) {
+    return token != null
+        && System.currentTimeMillis() <= expiryTimeMs
+        && vehicleId.equals(this.vehicleId);
+  }
+
+  /**
+   * Returns the token request in flight for the vehicle, starting one if there is none. Called with
+   * the lock held.
+   */
+  private ListenableFuture<TokenResponse> fetchToken(String vehicleId) {
+    if (pendingTokenResponse != null && vehicleId.equals(pendingVehicleId)) {
+      return pendingTokenResponse;
+    }
+    ListenableFuture<TokenResponse> tokenResponse = providerService.fetchAuthToken(vehicleId);
+    pendingTokenResponse = tokenResponse;
+    pendingVehicleId = vehicleId;
+    tokenResponse.addListener(
+        () -> onTokenFetched(vehicleId, tokenResponse), MoreExecutors.directExecutor());
+    return tokenResponse;
+  }
+
+  private synchronized void onTokenFetched(
+      String vehicleId, ListenableFuture<TokenResponse> tokenResponse) {
+    if (pendingTokenResponse == tokenResponse) {
+      pendingTokenResponse = null;
+      pendingVehicleId = null;
+    }
+    TokenResponse response;
+    try {
+      response = Futures.getDone(tokenResponse);
+    } catch (ExecutionException | CancellationException e) {
+      // The next getToken or prefetch asks again.
+      return;
+    }
+    token = requireNonNull(response.getToken());
+    expiryTimeMs = response.getExpirationTimestamp().getMillis() - EXPIRY_MARGIN_MILLIS;
+    this.vehicleId = vehicleId;
+  }
 }
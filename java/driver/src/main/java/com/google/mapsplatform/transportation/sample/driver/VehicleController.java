@@ -15,11 +15,19 @@
 package com.google.mapsplatform.transportation.sample.driver;
 
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
 import android.util.Log;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.content.ContextCompat;
 import com.google.android.libraries.mapsplatform.transportation.driver.api.base.data.DriverContext;
 import com.google.android.libraries.mapsplatform.transportation.driver.api.base.data.DriverContext.DriverStatusListener.StatusCode;
@@ -30,29 +38,42 @@ import com.google.android.libraries.mapsplatform.transportation.driver.api.rides
 import com.google.android.libraries.navigation.ListenableResultFuture;
 import com.google.android.libraries.navigation.NavigationApi;
 import com.google.android.libraries.navigation.Navigator;
+import com.google.android.libraries.navigation.RoadSnappedLocationProvider;
+import com.google.common.base.Stopwatch;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.mapsplatform.transportation.sample.driver.metrics.DriverMetrics;
 import com.google.mapsplatform.transportation.sample.driver.provider.ProviderUtils;
 import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
-import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
 import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator;
 import com.google.mapsplatform.transportation.sample.driver.provider.service.VehicleStateService;
+import com.google.mapsplatform.transportation.sample.driver.reporting.LocationReportingPolicy;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceReader;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceRecorder;
+import com.google.mapsplatform.transportation.sample.driver.simulation.Route;
+import com.google.mapsplatform.transportation.sample.driver.state.TripProgress;
 import com.google.mapsplatform.transportation.sample.driver.state.TripState;
 import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.state.TripUpdateQueue;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Span;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Tracer;
 import com.google.mapsplatform.transportation.sample.driver.utils.TripUtils;
+import com.google.mapsplatform.transportation.sample.logging.AppLog;
+import com.google.mapsplatform.transportation.sample.logging.LogEvent;
+import com.google.mapsplatform.transportation.sample.logging.LogSite;
+import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import javax.annotation.Nullable;
@@ -64,9 +85,6 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
   // Controls the relative speed of the simulator.
   private static final float SIMULATOR_SPEED_MULTIPLIER = 5.0f;
 
-  // Faster location update interval during journey sharing.
-  private static final long JOURNEY_SHARING_LOCATION_UPDATE_INTERVAL_SECONDS = 5;
-
   // Pattern of a FleetEngine full qualified a vehicle name.
   private static final Pattern VEHICLE_NAME_FORMAT =
       Pattern.compile("providers/(.*)/vehicles/(.*)");
@@ -78,10 +96,15 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
 
   private static final int ON_TRIP_FINISHED_DELAY_SECONDS = 5;
 
+  // Taps closer than this to the previous one are taken as a double tap and ignored.
+  private static final long DOUBLE_TAP_WINDOW_MILLIS = 500;
+
   private static final String TAG = "VehicleController";
 
-  // Location update interval when the vehicle is waiting for a trip match.
-  private static final long DEFAULT_LOCATION_UPDATE_INTERVAL_SECONDS = 10;
+  // Waypoints are logged on every poll, so at most every 30 seconds.
+  private static final LogSite WAYPOINTS_LOG = LogSite.rateLimited(TAG, AppLog.DEBUG, 30, SECONDS);
+
+  private static final String LOCATION_TRACE_FILE_NAME = "locations.trace";
 
   private final Navigator navigator;
   private final LocalProviderService providerService;
@@ -89,8 +112,6 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
 
   private final ExecutorService executor;
   private final Executor mainExecutor;
-  private final ScheduledExecutorService scheduledExecutor =
-      Executors.newSingleThreadScheduledExecutor();
   private final Executor sequentialExecutor;
   private final VehicleSimulator vehicleSimulator;
   private final LocalSettings localSettings;
@@ -100,16 +121,49 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
   private WeakReference<Presenter> presenterRef = new WeakReference<>(null);
 
   private @MonotonicNonNull RidesharingVehicleReporter vehicleReporter;
-  private @MonotonicNonNull VehicleSettings vehicleSettings;
-
-  private @Nullable Waypoint currentWaypoint;
-  private @Nullable Waypoint nextWaypoint;
-  private @Nullable Waypoint nextWaypointOfCurrentTrip;
-
-  private List<Waypoint> waypoints = ImmutableList.of();
-  private List<String> matchedTripIds = ImmutableList.of();
+  private volatile @MonotonicNonNull VehicleSettings vehicleSettings;
+  // Measures how long location reporting stops while the reporter is replaced.
+  private @Nullable Stopwatch reportingGap;
+
+  private @Nullable LocationTraceRecorder locationTraceRecorder;
+
+  // Start of the offline simulation when the Navigator can't calculate a route.
+  private volatile @Nullable Location lastRoadSnappedLocation;
+
+  // Picks the location reporting interval, fed by the listeners below and the trip progress.
+  private final LocationReportingPolicy reportingPolicy =
+      new LocationReportingPolicy(this::setLocationReportingInterval);
+  private final RoadSnappedLocationProvider.LocationListener reportingLocationListener =
+      location -> {
+        lastRoadSnappedLocation = location;
+        reportingPolicy.onLocation(
+            location.getLatitude(),
+            location.getLongitude(),
+            NANOSECONDS.toMillis(location.getElapsedRealtimeNanos()));
+      };
+  private final BroadcastReceiver batteryReceiver =
+      new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+          int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+          int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+          int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+          if (level >= 0 && scale > 0) {
+            reportingPolicy.setBattery(
+                level * 100 / scale,
+                status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL);
+          }
+        }
+      };
+  private final NetworkQualityEstimator.Listener networkQualityListener =
+      reportingPolicy::setNetworkQuality;
+  private @Nullable Application reportingInputsApplication;
 
-  private Map<String, TripState> tripStates = new HashMap<>();
+  private final TripProgress tripProgress = new TripProgress();
+  private final TripUpdateQueue tripUpdateQueue;
+  // Only used on the main thread, by processNextState().
+  private final Stopwatch sinceLastTap;
 
   /**
    * Default constructor for {@link VehicleController}.
@@ -128,69 +182,132 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
       Context context,
       LocalProviderService providerService,
       LocalSettings localSettings) {
+    this(
+        navigator,
+        executor,
+        context,
+        providerService,
+        localSettings,
+        new TripAuthTokenFactory(providerService));
+  }
+
+  /**
+   * Constructor reusing a {@link TripAuthTokenFactory} created earlier, for instance to fetch the
+   * first token while the {@link Navigator} was initializing.
+   */
+  VehicleController(
+      Navigator navigator,
+      ExecutorService executor,
+      Context context,
+      LocalProviderService providerService,
+      LocalSettings localSettings,
+      TripAuthTokenFactory authTokenFactory) {
+    this(
+        navigator,
+        executor,
+        ContextCompat.getMainExecutor(context),
+        Ticker.systemTicker(),
+        providerService,
+        localSettings,
+        authTokenFactory);
+  }
+
+  /**
+   * Constructor for JVM tests such as the fleet simulator, which run the presenter callbacks on
+   * {@code mainExecutor} and time the double tap window with {@code ticker}.
+   */
+  @VisibleForTesting
+  public VehicleController(
+      Navigator navigator,
+      ExecutorService executor,
+      Executor mainExecutor,
+      Ticker ticker,
+      LocalProviderService providerService,
+      LocalSettings localSettings) {
+    this(
+        navigator,
+        executor,
+        mainExecutor,
+        ticker,
+        providerService,
+        localSettings,
+        new TripAuthTokenFactory(providerService));
+  }
+
+  private VehicleController(
+      Navigator navigator,
+      ExecutorService executor,
+      Executor mainExecutor,
+      Ticker ticker,
+      LocalProviderService providerService,
+      LocalSettings localSettings,
+      TripAuthTokenFactory authTokenFactory) {
     this.navigator = navigator;
     this.providerService = providerService;
     this.localSettings = localSettings;
     this.executor = executor;
-
-    vehicleSimulator = new VehicleSimulator(navigator.getSimulator(), localSettings);
+    this.mainExecutor = mainExecutor;
+    this.authTokenFactory = authTokenFactory;
+
+    vehicleSimulator =
+        new VehicleSimulator(
+            navigator.getSimulator(),
+            localSettings,
+            AppExecutors.getInstance().scheduler(),
+            mainExecutor);
     sequentialExecutor = MoreExecutors.newSequentialExecutor(executor);
-    mainExecutor = ContextCompat.getMainExecutor(context);
-    authTokenFactory = new TripAuthTokenFactory(providerService);
+    sinceLastTap = Stopwatch.createUnstarted(ticker);
+    tripUpdateQueue =
+        new TripUpdateQueue(
+            tripProgress, providerService::updateTripStatus, executor, this::onTripUpdateRejected);
   }
 
   @Override
-  public void onVehicleStateUpdate(VehicleModel updatedVehicle) {
-    waypoints = updatedVehicle.getWaypoints();
-    matchedTripIds = updatedVehicle.getCurrentTripsIds();
-
-    // Reset and recalculate waypoints every server state update.
-    currentWaypoint = null;
-    nextWaypoint = null;
-    nextWaypointOfCurrentTrip = null;
-
-    if (!waypoints.isEmpty()) {
-      Waypoint updatedNextWaypointOfCurrentTrip = null;
-
-      for (int index = 0; index < waypoints.size(); index++) {
-        Waypoint waypoint = waypoints.get(index);
-
-        Log.i(TAG, String.format("%s %s", waypoint.getTripId(), waypoint.getWaypointType()));
+  public void onVehicleStateUpdate(VehicleModel updatedVehicle, long revision) {
+    try (Span span = Tracer.getInstance().startSpan("VehicleController.onVehicleStateUpdate");
+        Span.Scope scope = span.makeCurrent()) {
+      // A poll sent before a trip update was answered holds the waypoints from before it, applying
+      // them would flip the UI back and re-route the navigator until the next poll.
+      if (tripUpdateQueue.isStale(revision)) {
+        DriverMetrics.STALE_VEHICLE_POLLS.increment();
+        span.setAttribute("stale", true);
+        return;
+      }
+      applyVehicleState(updatedVehicle);
+    }
+  }
 
-        if (!tripStates.containsKey(waypoint.getTripId())) {
-          acceptTrip(waypoint);
+  @Override
+  public long getRevision() {
+    return tripUpdateQueue.getAnsweredRevision();
+  }
 
-          if (currentWaypoint == null) {
-            updateUiForWaypoint(waypoint);
-            setWaypointDestination(waypoint);
-          }
-        }
+  private void applyVehicleState(VehicleModel updatedVehicle) {
+    ImmutableList<TripState> acceptedTrips = tripProgress.onVehicleStateUpdate(updatedVehicle);
+    LogEvent waypointsLog = WAYPOINTS_LOG.event();
+    if (waypointsLog.isEnabled()) {
+      for (Waypoint waypoint : tripProgress.getWaypoints()) {
+        waypointsLog.with(waypoint.getTripId(), waypoint.getWaypointType());
+      }
+      waypointsLog.log("Waypoints");
+    }
 
-        /**
-         * When 'Vehicle' state is updated from the 'Provider', the client needs to update the
-         * current waypoint pointer so the UI can be refreshed accordingly. It also keeps track of
-         * the second/next waypoint for convenience, this is utilized at the moment where the
-         * current waypoint status changes to 'ARRIVED/COMPLETE'.
-         */
-        if (index == 0) {
-          currentWaypoint = waypoint;
-        } else if (index == 1) {
-          nextWaypoint = waypoint;
-        }
+    Waypoint currentWaypoint = tripProgress.getCurrentWaypoint();
+    for (TripState acceptedTrip : acceptedTrips) {
+      updateTripStatusInServer(acceptedTrip);
 
-        if (index > 0
-            && updatedNextWaypointOfCurrentTrip == null
-            && currentWaypoint.getTripId().equals(waypoint.getTripId())) {
-          updatedNextWaypointOfCurrentTrip = waypoint;
-        }
+      if (acceptedTrip.tripId().equals(currentWaypoint.getTripId())) {
+        updateUiForWaypoint(currentWaypoint);
+        setWaypointDestination(currentWaypoint);
       }
+    }
 
-      nextWaypointOfCurrentTrip = updatedNextWaypointOfCurrentTrip;
-    } else {
+    if (currentWaypoint == null) {
       stopJourneySharing();
     }
 
     updateUiForWaypoint(currentWaypoint);
+    updateReportingConditions();
     enableActionButton(true);
   }
 
@@ -201,55 +318,93 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
    * @return a signal that the async initialization is done, the boolean value can be ignored.
    */
   public ListenableFuture<Boolean> initVehicleAndReporter(Application application) {
-    ListenableFuture<VehicleModel> registerVehicleFuture = initVehicle();
+    ListenableFuture<VehicleModel> registerVehicleFuture =
+        registerVehicle(providerService, localSettings, executor);
     return initializeApi(application, registerVehicleFuture);
   }
 
   /**
-   * Updates the stored vehicle settings. In case vehicle is updated, a new reporter has to be
-   * instantiated.
+   * Initialize the {@link RidesharingVehicleReporter} for a vehicle whose registration was started
+   * before this controller existed, see {@link #registerVehicle}.
    *
    * @param application Application instance.
-   * @param vehicleSettings the updated vehicle settings.
+   * @param registerVehicleFuture pending vehicle registration.
    * @return a signal that the async initialization is done, the boolean value can be ignored.
    */
+  public ListenableFuture<Boolean> initVehicleAndReporter(
+      Application application, ListenableFuture<VehicleModel> registerVehicleFuture) {
+    return initializeApi(application, registerVehicleFuture);
+  }
+
+  /**
+   * Updates the stored vehicle settings. Only a change of vehicle ID needs a new reporter, other
+   * changes are applied on the provider while location reporting and polling keep running.
+   *
+   * @param application Application instance.
+   * @param updatedSettings the updated vehicle settings.
+   * @return a signal that the async update is done, the boolean value can be ignored.
+   */
   public ListenableFuture<Boolean> updateVehicleSettings(
-      Application application, VehicleSettings vehicleSettings) {
-    ListenableFuture<VehicleModel> updateVehicleFuture = updateVehicle(vehicleSettings);
-    return initializeApi(application, updateVehicleFuture);
+      Application application, VehicleSettings updatedSettings) {
+    VehicleSettings previousSettings = vehicleSettings;
+    if (updatedSettings.equals(previousSettings)) {
+      return Futures.immediateFuture(true);
+    }
+
+    ListenableFuture<VehicleModel> updateVehicleFuture = updateVehicle(updatedSettings);
+    if (requiresNewDriverApi(previousSettings, updatedSettings)) {
+      return initializeApi(application, updateVehicleFuture);
+    }
+
+    return Futures.transform(
+        updateVehicleFuture,
+        vehicleModel -> {
+          vehicleSettings = toVehicleSettings(vehicleModel);
+          Log.i(TAG, "Vehicle settings updated without interrupting location reporting.");
+          return true;
+        },
+        executor);
+  }
+
+  /**
+   * Whether moving from {@code previousSettings} to {@code updatedSettings} needs a new {@link
+   * RidesharingDriverApi} instance, which is bound to a single vehicle ID.
+   */
+  static boolean requiresNewDriverApi(
+      @Nullable VehicleSettings previousSettings, VehicleSettings updatedSettings) {
+    return previousSettings == null
+        || !previousSettings.getVehicleId().equals(updatedSettings.getVehicleId());
   }
 
   private ListenableFuture<Boolean> initializeApi(
       Application application, ListenableFuture<VehicleModel> vehicleFuture) {
-    // If there is a previous instance RidesharingDriverApi (we're updating vehicleId), we clear it
-    // to get a fresh one for the new vehicle.
-    if (RidesharingDriverApi.getInstance() != null) {
-      RidesharingDriverApi.clearInstance();
-    }
-
     ListenableFuture<Boolean> future =
         Futures.transform(
             vehicleFuture,
             vehicleModel -> {
+              // If there is a previous instance RidesharingDriverApi (we're updating vehicleId), we
+              // clear it to get a fresh one for the new vehicle. It reports locations until then.
+              if (RidesharingDriverApi.getInstance() != null) {
+                reportingGap = Stopwatch.createStarted();
+                RidesharingDriverApi.clearInstance();
+              }
+
               vehicleReporter =
                   RidesharingDriverApi.createInstance(
                           DriverContext.builder(application)
                               .setNavigator(requireNonNull(navigator))
                               .setProviderId(ProviderUtils.getProviderId(application))
-                              .setVehicleId(localSettings.getVehicleId())
+                              .setVehicleId(extractVehicleId(vehicleModel.getName()))
                               .setAuthTokenFactory(authTokenFactory)
                               .setRoadSnappedLocationProvider(
                                   NavigationApi.getRoadSnappedLocationProvider(application))
                               .setDriverStatusListener(VehicleController::logLocationUpdate)
                               .build())
                       .getRidesharingVehicleReporter();
+              startLocationTrace(application);
+              startReportingPolicyInputs(application);
 
-              vehicleSettings =
-                  new VehicleSettings(
-                      extractVehicleId(vehicleModel.getName()),
-                      vehicleModel.getBackToBackEnabled(),
-                      vehicleModel.getMaximumCapacity(),
-                      vehicleModel.getSupportedTripTypes());
+              vehicleSettings = toVehicleSettings(vehicleModel);
 
               return true;
             },
@@ -262,6 +417,14 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
           public void onSuccess(Boolean result) {
             setVehicleOnline();
             startVehiclePeriodicUpdate();
+            if (reportingGap != null) {
+              Log.i(
+                  TAG,
+                  String.format(
+                      "Location reporting resumed after %d ms.",
+                      reportingGap.elapsed(MILLISECONDS)));
+              reportingGap = null;
+            }
           }
 
           @Override
@@ -274,6 +437,14 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     return future;
   }
 
+  private static VehicleSettings toVehicleSettings(VehicleModel vehicleModel) {
+    return new VehicleSettings(
+        extractVehicleId(vehicleModel.getName()),
+        vehicleModel.getBackToBackEnabled(),
+        vehicleModel.getMaximumCapacity(),
+        vehicleModel.getSupportedTripTypes());
+  }
+
   /** Returns the settings for the active 'Vehicle'. */
   public VehicleSettings getVehicleSettings() {
     return requireNonNull(vehicleSettings);
@@ -302,16 +473,92 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     return vehicleModelFuture;
   }
 
-  private void acceptTrip(Waypoint tripWaypoint) {
-    updateTripStatusInServer(TripUtils.getInitialTripState(tripWaypoint.getTripId()));
-  }
-
   /** Cleans up active resources prior to activity onDestroy, mainly to prevent memory leaks. */
   public void cleanUp() {
     stopVehiclePeriodicUpdate();
 
     /** Clear existing API instance once we know it won't be needed. */
     RidesharingDriverApi.clearInstance();
+
+    if (locationTraceRecorder != null) {
+      locationTraceRecorder.stop();
+    }
+    stopReportingPolicyInputs();
+  }
+
+  // Replays the trace recorded in the app files directory through the simulator, or records the
+  // road-snapped locations into it, as enabled in the manifest. A replay records nothing, so that
+  // the trace can be replayed again.
+  private void startLocationTrace(Application application) {
+    File traceFile = new File(application.getFilesDir(), LOCATION_TRACE_FILE_NAME);
+    if (ProviderUtils.isLocationTraceReplayEnabled(application)) {
+      try {
+        vehicleSimulator.startTraceReplay(
+            LocationTraceReader.open(traceFile), SIMULATOR_SPEED_MULTIPLIER);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to open the location trace: " + e.getMessage());
+      }
+      return;
+    }
+    if (locationTraceRecorder != null
+        || !ProviderUtils.isLocationTraceRecordingEnabled(application)) {
+      return;
+    }
+    locationTraceRecorder = new LocationTraceRecorder(traceFile, AppExecutors.getInstance().io());
+    locationTraceRecorder.start(NavigationApi.getRoadSnappedLocationProvider(application));
+  }
+
+  // Feeds the locations, the battery state and the network quality to the reporting policy, once
+  // per controller.
+  private synchronized void startReportingPolicyInputs(Application application) {
+    if (reportingInputsApplication != null) {
+      return;
+    }
+    reportingInputsApplication = application;
+    // Pushed by the estimator, the polls that could read it stop completing once offline.
+    NetworkQualityEstimator networkQuality = providerService.getNetworkQuality();
+    networkQuality.addListener(networkQualityListener);
+    reportingPolicy.setNetworkQuality(networkQuality.getQuality());
+    NavigationApi.getRoadSnappedLocationProvider(application)
+        .addLocationListener(reportingLocationListener);
+    // The battery state is sticky, the receiver gets the current one right away.
+    application.registerReceiver(
+        batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+  }
+
+  private synchronized void stopReportingPolicyInputs() {
+    if (reportingInputsApplication == null) {
+      return;
+    }
+    RoadSnappedLocationProvider locationProvider =
+        NavigationApi.getRoadSnappedLocationProvider(reportingInputsApplication);
+    if (locationProvider != null) {
+      locationProvider.removeLocationListener(reportingLocationListener);
+    }
+    reportingInputsApplication.unregisterReceiver(batteryReceiver);
+    providerService.getNetworkQuality().removeListener(networkQualityListener);
+    reportingInputsApplication = null;
+  }
+
+  private void setLocationReportingInterval(long intervalSeconds) {
+    Log.i(TAG, String.format("Location reporting interval: %d s", intervalSeconds));
+    if (vehicleReporter != null) {
+      vehicleReporter.setLocationReportingInterval(intervalSeconds, SECONDS);
+    }
+  }
+
+  // The reporting interval follows the trip of the current waypoint and the distance to it.
+  private void updateReportingConditions() {
+    Waypoint waypoint = tripProgress.getCurrentWaypoint();
+    if (waypoint == null) {
+      reportingPolicy.setTrip(null, Double.NaN, Double.NaN);
+      return;
+    }
+    Waypoint.Point point = waypoint.getLocation().getPoint();
+    reportingPolicy.setTrip(
+        tripProgress.getTripState(waypoint.getTripId()).tripStatus(),
+        point.getLatitude(),
+        point.getLongitude());
   }
 
   private void startVehiclePeriodicUpdate() {
@@ -320,7 +567,11 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     }
 
     vehicleStateService =
-        new VehicleStateService(providerService, localSettings.getVehicleId(), this);
+        new VehicleStateService(
+            providerService,
+            localSettings.getVehicleId(),
+            this,
+            AppExecutors.getInstance().scheduler());
 
     vehicleStateService.startAsync();
   }
@@ -331,8 +582,12 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     }
   }
 
-  /** Initialize a vehicle. */
-  private ListenableFuture<VehicleModel> initVehicle() {
+  /**
+   * Registers the vehicle stored in the local settings, it does not depend on the {@link Navigator}
+   * so it can start while the Navigation SDK initializes.
+   */
+  static ListenableFuture<VehicleModel> registerVehicle(
+      LocalProviderService providerService, LocalSettings localSettings, Executor executor) {
     ListenableFuture<VehicleModel> vehicleModelFuture =
         providerService.registerVehicle(localSettings.getVehicleId());
 
@@ -346,7 +601,7 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
 
           @Override
           public void onFailure(Throwable t) {
-            Log.e(TAG, "initVehicle() failed.", t);
+            Log.e(TAG, "registerVehicle() failed.", t);
           }
         },
         executor);
@@ -355,63 +610,94 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
   }
 
   private void setVehicleOnline() {
-    vehicleReporter.setLocationReportingInterval(DEFAULT_LOCATION_UPDATE_INTERVAL_SECONDS, SECONDS);
+    vehicleReporter.setLocationReportingInterval(reportingPolicy.getIntervalSeconds(), SECONDS);
 
     // enableLocationTracking() must be called before setting state to Online.
     vehicleReporter.enableLocationTracking();
     vehicleReporter.setVehicleState(VehicleState.ONLINE);
   }
 
-  /** Updates {@link TripStatus} to the controller. */
+  /**
+   * Moves the current trip to its next {@link TripStatus}. The UI and the navigator follow the new
+   * status right away while the provider is updated in the background, see {@link
+   * TripUpdateQueue}.
+   */
   public void processNextState() {
+    if (sinceLastTap.isRunning() && sinceLastTap.elapsed(MILLISECONDS) < DOUBLE_TAP_WINDOW_MILLIS) {
+      return;
+    }
+    sinceLastTap.reset().start();
+
+    // The trace starts on the tap, so it includes the wait for the sequential executor.
+    Span span = Tracer.getInstance().startTrace("VehicleController.processNextState");
+
     // Use Guava's SequentialExecutor to change the internal state because it is
     // accessed in multiple threads.
-    sequentialExecutor.execute(
-        () -> {
-          String tripId = currentWaypoint.getTripId();
-
-          TripState previousTripState = tripStates.get(tripId);
-          TripState updatedTripState =
-              TripUtils.getNextTripState(previousTripState, nextWaypointOfCurrentTrip);
-
-          TripStatus updatedTripStatus = updatedTripState.tripStatus();
-
-          Futures.addCallback(
-              updateTripStatusInServer(updatedTripState),
-              new FutureCallback<TripModel>() {
-                @Override
-                public void onSuccess(TripModel tripModel) {
-                  if (nextWaypoint != null && TripUtils.isTripStatusArrived(updatedTripStatus)) {
-                    advanceNextWaypointOnArrival(nextWaypoint);
-                  }
-                }
-
-                @Override
-                public void onFailure(Throwable t) {}
-              },
-              executor);
-
-          updateNavigationForWaypoints(updatedTripState);
-          enableActionButton(false);
-
-          Log.i(
-              TAG,
-              String.format(
-                  "Previous trip status: %s Current trip status: %s",
-                  previousTripState.tripStatus(), updatedTripStatus));
-        });
+    try {
+      sequentialExecutor.execute(
+          () -> {
+            try (Span.Scope scope = span.makeCurrent()) {
+              moveCurrentTripToNextState(span);
+            } finally {
+              span.end();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The shared pool is saturated, let the driver tap again right away.
+      Log.w(TAG, "Dropped a tap on the action button.", e);
+      sinceLastTap.reset();
+      span.end();
+    }
+  }
+
+  private void moveCurrentTripToNextState(Span span) {
+    String tripId = tripProgress.getCurrentWaypoint().getTripId();
+
+    TripState previousTripState = tripProgress.getTripState(tripId);
+    TripState updatedTripState = tripProgress.getNextStateOfCurrentTrip();
+
+    TripStatus updatedTripStatus = updatedTripState.tripStatus();
+    span.setAttribute("tripId", tripId).setAttribute("status", updatedTripStatus);
+    if (updatedTripStatus == TripStatus.UNKNOWN_TRIP_STATUS) {
+      return;
+    }
+
+    Futures.addCallback(
+        updateTripStatusInServer(updatedTripState),
+        new FutureCallback<Void>() {
+          @Override
+          public void onSuccess(Void result) {
+            if (TripUtils.isTripStatusArrived(updatedTripStatus)) {
+              advanceNextWaypointOnArrival();
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {}
+        },
+        span.wrap(executor));
+
+    updateUiForWaypoint(tripProgress.getCurrentWaypoint());
+    updateNavigationForWaypoints(updatedTripState);
+    updateReportingConditions();
+
+    Log.i(
+        TAG,
+        String.format(
+            "Previous trip status: %s Current trip status: %s",
+            previousTripState.tripStatus(), updatedTripStatus));
   }
 
   private void updateNavigationForWaypoints(TripState updatedCurrentTripState) {
     switch (updatedCurrentTripState.tripStatus()) {
       case ENROUTE_TO_PICKUP:
-        startJourneySharing();
-        navigateToWaypoint(currentWaypoint);
+        navigateToWaypoint(tripProgress.getCurrentWaypoint());
         break;
 
       case ARRIVED_AT_PICKUP:
       case ARRIVED_AT_INTERMEDIATE_DESTINATION:
       case COMPLETE:
+        Waypoint nextWaypoint = tripProgress.getNextWaypoint();
         if (nextWaypoint != null) {
           navigateToWaypoint(nextWaypoint);
         }
@@ -421,19 +707,52 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     }
   }
 
-  private void advanceNextWaypointOnArrival(Waypoint nextWaypoint) {
-    TripState updatedStateForNextWaypoint =
-        TripUtils.getEnrouteStateForWaypoint(
-            nextWaypoint, tripStates.get(nextWaypoint.getTripId()));
+  private void advanceNextWaypointOnArrival() {
+    TripState updatedStateForNextWaypoint = tripProgress.getEnrouteStateOfNextWaypoint();
+
+    // The driver may have moved the trip on already, its updates are queued after this one.
+    if (updatedStateForNextWaypoint != null
+        && !tripUpdateQueue.hasPendingUpdates(updatedStateForNextWaypoint.tripId())) {
+      updateTripStatusInServer(updatedStateForNextWaypoint);
+    }
+  }
+
+  // Puts the UI and the navigation back to the state of the trip the provider agrees with.
+  private void onTripUpdateRejected(
+      TripState rejectedState, TripState restoredState, Throwable cause) {
+    Log.w(
+        TAG,
+        String.format(
+            "Provider rejected trip status %s, restored %s",
+            rejectedState.tripStatus(), restoredState.tripStatus()),
+        cause);
+
+    Waypoint currentWaypoint = tripProgress.getCurrentWaypoint();
+    if (currentWaypoint == null || !currentWaypoint.getTripId().equals(restoredState.tripId())) {
+      return;
+    }
+
+    // Arriving moved the navigation on to the next waypoint, going back to 'ENROUTE' resumes it.
+    if (TripUtils.isTripStatusArrived(rejectedState.tripStatus())
+        && TripUtils.isTripStatusEnroute(restoredState.tripStatus())) {
+      navigateToWaypoint(currentWaypoint);
+    }
+    updateUiForWaypoint(currentWaypoint);
+    updateReportingConditions();
 
-    updateTripStatusInServer(updatedStateForNextWaypoint);
+    Presenter presenter = presenterRef.get();
+    if (presenter != null) {
+      mainExecutor.execute(() -> presenter.showTripUpdateRejected(restoredState.tripStatus()));
+    }
   }
 
   private void enableActionButton(boolean enabled) {
     Presenter presenter = presenterRef.get();
 
     if (presenter != null) {
-      mainExecutor.execute(() -> presenter.enableActionButton(enabled));
+      mainExecutor.execute(
+          Tracer.getInstance()
+              .wrap("Presenter.enableActionButton", () -> presenter.enableActionButton(enabled)));
     }
   }
 
@@ -442,33 +761,35 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
 
     if (presenter != null) {
       mainExecutor.execute(
-          () -> {
-            if (waypoint == null) {
-              presenter.showTripId(NO_TRIP_ID);
-              presenter.showTripStatus(TripStatus.UNKNOWN_TRIP_STATUS);
-              presenter.showMatchedTripIds(ImmutableList.of());
-              return;
-            }
-
-            TripState tripState = tripStates.get(waypoint.getTripId());
-
-            presenter.showTripId(tripState.tripId());
-            presenter.showTripStatus(tripState.tripStatus());
-            presenter.showMatchedTripIds(matchedTripIds);
-          });
+          Tracer.getInstance()
+              .wrap(
+                  "Presenter.showWaypoint",
+                  () -> {
+                    if (waypoint == null) {
+                      presenter.showTripId(NO_TRIP_ID);
+                      presenter.showTripStatus(TripStatus.UNKNOWN_TRIP_STATUS);
+                      presenter.showMatchedTripIds(ImmutableList.of());
+                      return;
+                    }
+
+                    TripState tripState = tripProgress.getTripState(waypoint.getTripId());
+
+                    presenter.showTripId(tripState.tripId());
+                    presenter.showTripStatus(tripState.tripStatus());
+                    presenter.showMatchedTripIds(tripProgress.getMatchedTripIds());
+                  }));
     }
   }
 
-  private ListenableFuture<TripModel> updateTripStatusInServer(TripState updatedState) {
-    tripStates.put(updatedState.tripId(), updatedState);
-
+  private ListenableFuture<Void> updateTripStatusInServer(TripState updatedState) {
     TripStatus updatedStatus = updatedState.tripStatus();
 
     if (updatedStatus == TripStatus.UNKNOWN_TRIP_STATUS) {
+      tripProgress.putTripState(updatedState);
       return Futures.immediateFailedFuture(new IllegalStateException("Invalid trip status"));
     }
 
-    return providerService.updateTripStatus(updatedState);
+    return tripUpdateQueue.submit(updatedState);
   }
 
   /** Sets presenter to the controller so it can invokes UI related callbacks. */
@@ -476,17 +797,9 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
     presenterRef = new WeakReference<>(presenter);
   }
 
-  // Starts simulating journey sharing. Reduces the update interval.
-  private void startJourneySharing() {
-    requireNonNull(vehicleReporter)
-        .setLocationReportingInterval(JOURNEY_SHARING_LOCATION_UPDATE_INTERVAL_SECONDS, SECONDS);
-  }
-
-  // Stops journey sharing by turning off guidance and reducing the location reporting frequency.
+  // Stops journey sharing by turning off guidance, the reporting policy relaxes the location
+  // reporting frequency.
   private void stopJourneySharing() {
-    requireNonNull(vehicleReporter)
-        .setLocationReportingInterval(DEFAULT_LOCATION_UPDATE_INTERVAL_SECONDS, SECONDS);
-
     // The following two are the only required methods to clean up navigator state in between stops.
     navigator.stopGuidance();
     navigator.clearDestinations();
@@ -518,6 +831,11 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
       return;
     }
 
+    // Spans the route calculation, from the request to its result.
+    Span routeSpan =
+        Tracer.getInstance()
+            .startSpan("VehicleController.navigateToWaypoint")
+            .setAttribute("waypointType", waypoint.getWaypointType());
     ListenableResultFuture<Navigator.RouteStatus> pendingRoute =
         navigator.setDestination(
             com.google.android.libraries.navigation.Waypoint.builder()
@@ -531,33 +849,56 @@ public class VehicleController implements VehicleStateService.VehicleStateListen
         new ListenableResultFuture.OnResultListener<Navigator.RouteStatus>() {
           @Override
           public void onResult(Navigator.RouteStatus code) {
-            switch (code) {
-              case OK:
-                navigator.startGuidance();
-                vehicleSimulator.start(SIMULATOR_SPEED_MULTIPLIER);
-                break;
-
-              case NO_ROUTE_FOUND:
-              case NETWORK_ERROR:
-              case ROUTE_CANCELED:
-              default:
-                Log.e(TAG, "Failed to set a route to next waypoint");
-                break;
+            routeSpan.setAttribute("routeStatus", code);
+            try (Span.Scope scope = routeSpan.makeCurrent()) {
+              switch (code) {
+                case OK:
+                  navigator.startGuidance();
+                  vehicleSimulator.start(SIMULATOR_SPEED_MULTIPLIER);
+                  break;
+
+                case NETWORK_ERROR:
+                  simulateOfflineDrive(waypoint);
+                  break;
+
+                case NO_ROUTE_FOUND:
+                case ROUTE_CANCELED:
+                default:
+                  Log.e(TAG, "Failed to set a route to next waypoint");
+                  break;
+              }
+            } finally {
+              routeSpan.end();
             }
           }
         });
   }
 
+  // Without network the Navigator can't route, so a simulated vehicle drives straight to the
+  // waypoint instead of staying where it is until the network comes back.
+  private void simulateOfflineDrive(Waypoint waypoint) {
+    Location location = lastRoadSnappedLocation;
+    if (location == null) {
+      Log.e(TAG, "Failed to set a route to next waypoint");
+      return;
+    }
+    Log.w(TAG, "No network to route to next waypoint, simulating a straight drive");
+    Waypoint.Point start = new Waypoint.Point();
+    start.setLatitude(location.getLatitude());
+    start.setLongitude(location.getLongitude());
+    vehicleSimulator.startAlongRoute(
+        Route.fromPoints(ImmutableList.of(start, waypoint.getLocation().getPoint())),
+        SIMULATOR_SPEED_MULTIPLIER);
+  }
+
   // Returns true if current trip has intermediate destinations (multi-destination support).
   public boolean isNextCurrentTripWaypointIntermediate() {
-    return nextWaypointOfCurrentTrip != null
-        && nextWaypointOfCurrentTrip
-            .getWaypointType()
-            .equals(TripUtils.INTERMEDIATE_DESTINATION_WAYPOINT_TYPE);
+    return tripProgress.isNextWaypointOfCurrentTripIntermediate();
   }
 
   private static void logLocationUpdate(
       StatusLevel statusLevel, StatusCode statusCode, String statusMsg, @Nullable Throwable cause) {
+    DriverMetrics.onDriverStatus(statusLevel.name(), statusCode.name());
     String message = "Location update: " + statusLevel + " " + statusCode + ": " + statusMsg;
 
     if (statusLevel == StatusLevel.ERROR) {
@@ -19,15 +19,30 @@ import com.google.android.libraries.navigation.Navigator;
 import com.google.android.libraries.navigation.SimulationOptions;
 import com.google.android.libraries.navigation.Simulator;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceReader;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceRecorder;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceReplay;
+import com.google.mapsplatform.transportation.sample.driver.simulation.Route;
+import com.google.mapsplatform.transportation.sample.driver.simulation.RouteSimulation;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import javax.annotation.Nullable;
 
 /**
  * Commands to simulate the vehicle driving along a route. It interacts with the {@link Navigator}
  * to make the vehicle move along its route to a specified location.
  */
 class VehicleSimulator {
+  // Standard deviation of the noise added to locations simulated without the Navigator.
+  private static final double ROUTE_SIMULATION_GPS_NOISE_METERS = 4;
 
   private final Simulator simulator;
   private final LocalSettings localSettings;
+  private final ScheduledExecutorService scheduler;
+  private final Executor mainExecutor;
+  private final SimulatedLocationSetter simulatedLocationSetter = new SimulatedLocationSetter();
+  @Nullable private RouteSimulation routeSimulation;
+  @Nullable private LocationTraceReplay traceReplay;
 
   /**
    * Default constructor for {@link VehicleSimulator}.
@@ -35,10 +50,18 @@ class VehicleSimulator {
    * @param simulator the actual simulator object obtained from {@link Navigator} that will update
    *     locations.
    * @param localSettings settings that are aware of the simulation enabling.
+   * @param scheduler runs the simulations that don't use the {@link Navigator}.
+   * @param mainExecutor the thread the simulated locations are set on.
    */
-  VehicleSimulator(Simulator simulator, LocalSettings localSettings) {
+  VehicleSimulator(
+      Simulator simulator,
+      LocalSettings localSettings,
+      ScheduledExecutorService scheduler,
+      Executor mainExecutor) {
     this.simulator = simulator;
     this.localSettings = localSettings;
+    this.scheduler = scheduler;
+    this.mainExecutor = mainExecutor;
   }
 
   /** Sets the user location to be used for simulation. */
@@ -52,20 +75,110 @@ class VehicleSimulator {
    * Starts a simulation to the location defined by {@link #setLocation(Waypoint.Point)} along a
    * route calculated by the {@link Navigator}.
    */
-  void start(float speedMultiplier) {
-    if (localSettings.getIsSimulationEnabled()) {
+  synchronized void start(float speedMultiplier) {
+    if (localSettings.getIsSimulationEnabled() && !isReplayingTrace()) {
+      stopSimulations();
       simulator.simulateLocationsAlongExistingRoute(
           new SimulationOptions().speedMultiplier(speedMultiplier));
     }
   }
 
+  /**
+   * Starts a simulation along {@code route} that does not need the {@link Navigator} to compute a
+   * route, so it also works offline. Locations get a few meters of GPS noise.
+   *
+   * <p>Apart from the {@link LatLng} the {@link Simulator} takes, ticks allocate nothing, and a
+   * busy main thread skips to the latest location instead of queuing the ones it missed.
+   */
+  synchronized void startAlongRoute(Route route, float speedMultiplier) {
+    if (!localSettings.getIsSimulationEnabled() || isReplayingTrace()) {
+      return;
+    }
+    stopSimulations();
+    routeSimulation =
+        RouteSimulation.builder(route)
+            .setSpeedMultiplier(speedMultiplier)
+            .setGpsNoiseMeters(ROUTE_SIMULATION_GPS_NOISE_METERS)
+            .build(simulatedLocationSetter::set);
+    routeSimulation.start(scheduler);
+  }
+
+  /**
+   * Replays a trace recorded by {@link LocationTraceRecorder}, {@code timeCompression} times faster
+   * than it was recorded. Like {@link #startAlongRoute}, locations reach the {@link Simulator}
+   * without a task per location.
+   *
+   * <p>The trace drives the vehicle across trips until it ends, the other simulations don't start
+   * in the meantime and the {@link Navigator} only guides.
+   */
+  synchronized void startTraceReplay(LocationTraceReader trace, float timeCompression) {
+    if (!localSettings.getIsSimulationEnabled()) {
+      return;
+    }
+    stopSimulations();
+    traceReplay = new LocationTraceReplay(trace, timeCompression, simulatedLocationSetter::set);
+    traceReplay.start(scheduler);
+  }
+
   /** Pauses a simulation that can later be resumed. */
-  void pause() {
+  synchronized void pause() {
+    if (routeSimulation != null) {
+      routeSimulation.stop();
+    }
+    if (traceReplay != null) {
+      traceReplay.stop();
+    }
     simulator.pause();
   }
 
   /** Resets the position of the {@link Navigator} and pauses navigation. */
-  void unsetLocation() {
+  synchronized void unsetLocation() {
+    if (isReplayingTrace()) {
+      return;
+    }
+    stopSimulations();
     simulator.unsetUserLocation();
   }
+
+  private boolean isReplayingTrace() {
+    return traceReplay != null && !traceReplay.isComplete();
+  }
+
+  private void stopSimulations() {
+    if (routeSimulation != null) {
+      routeSimulation.stop();
+      routeSimulation = null;
+    }
+    if (traceReplay != null) {
+      traceReplay.stop();
+      traceReplay = null;
+    }
+  }
+
+  // Hands the latest simulated location to the main thread. It is only posted again once the
+  // previous post ran, so ticks reuse it instead of allocating a task each.
+  private final class SimulatedLocationSetter implements Runnable {
+    private double latitude;
+    private double longitude;
+    private boolean posted;
+
+    synchronized void set(double latitude, double longitude) {
+      this.latitude = latitude;
+      this.longitude = longitude;
+      if (!posted) {
+        posted = true;
+        mainExecutor.execute(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      LatLng location;
+      synchronized (this) {
+        posted = false;
+        location = new LatLng(latitude, longitude);
+      }
+      simulator.setUserLocation(location);
+    }
+  }
 }
@@ -0,0 +1,170 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Metrics of the provider calls and location reporting, see {@link MetricsRegistry}. */
+public final class DriverMetrics {
+  private static final MetricsRegistry registry = MetricsRegistry.getInstance();
+  private static final double NANOS_PER_SECOND = 1e9;
+
+  public static final LatencyHistogram VEHICLE_POLL_LATENCY =
+      registry.histogram(
+          "driver_vehicle_poll_latency_seconds", "Latency of the vehicle state polls.");
+  public static final Counter VEHICLE_POLL_FAILURES =
+      registry.counter("driver_vehicle_poll_failures", "Vehicle state polls that failed.");
+  public static final Counter STALE_VEHICLE_POLLS =
+      registry.counter(
+          "driver_stale_vehicle_polls",
+          "Vehicle state polls discarded because they predate local trip updates.");
+  public static final LatencyHistogram TRIP_UPDATE_LATENCY =
+      registry.histogram("driver_trip_update_latency_seconds", "Latency of the trip updates.");
+  public static final Counter TRIP_UPDATE_FAILURES =
+      registry.counter("driver_trip_update_failures", "Trip updates that failed.");
+  public static final Counter MUTATION_RETRIES =
+      registry.counter(
+          "driver_mutation_retries", "Provider mutations sent again after a retryable error.");
+  public static final LatencyHistogram TOKEN_FETCH_LATENCY =
+      registry.histogram("driver_token_fetch_latency_seconds", "Latency of the token fetches.");
+
+  private static final ConcurrentMap<String, AtomicInteger> circuitStates =
+      new ConcurrentHashMap<>();
+  // Driver SDK status counters by level and code.
+  private static final ConcurrentMap<String, ConcurrentMap<String, Counter>> driverStatusCounters =
+      new ConcurrentHashMap<>();
+
+  // System.nanoTime() of the last vehicle state received, 0 until then.
+  private static volatile long lastVehicleStateNanos;
+
+  static {
+    registry.gauge(
+        "driver_vehicle_state_staleness_seconds",
+        "Time since the last vehicle state was received, NaN until the first one.",
+        () -> {
+          long lastNanos = lastVehicleStateNanos;
+          return lastNanos == 0 ? Double.NaN : (System.nanoTime() - lastNanos) / NANOS_PER_SECOND;
+        });
+  }
+
+  /** Records that a poll returned the vehicle state. */
+  public static void onVehicleStateReceived() {
+    lastVehicleStateNanos = System.nanoTime();
+  }
+
+  /**
+   * Counts a status reported by the Driver SDK for location updates. Statuses come with every
+   * location update, so their counters are looked up without allocating once created.
+   */
+  public static void onDriverStatus(String statusLevel, String statusCode) {
+    ConcurrentMap<String, Counter> levelCounters = driverStatusCounters.get(statusLevel);
+    if (levelCounters == null) {
+      levelCounters =
+          driverStatusCounters.computeIfAbsent(statusLevel, level -> new ConcurrentHashMap<>());
+    }
+    Counter counter = levelCounters.get(statusCode);
+    if (counter == null) {
+      counter =
+          levelCounters.computeIfAbsent(
+              statusCode,
+              code ->
+                  registry.counter(
+                      "driver_sdk_status",
+                      "Location update statuses reported by the Driver SDK.",
+                      "level",
+                      statusLevel,
+                      "code",
+                      code));
+    }
+    counter.increment();
+  }
+
+  /** Returns the histogram of the time provider requests of a priority class were queued. */
+  public static LatencyHistogram providerQueueDelay(String priority) {
+    return registry.histogram(
+        "driver_provider_queue_delay_seconds",
+        "Time provider requests waited for the request scheduler, by priority class.",
+        "priority",
+        priority);
+  }
+
+  /**
+   * Returns the counter of the provider requests of a priority class dropped by the request
+   * scheduler, because their deadline passed or a mutation superseded them.
+   */
+  public static Counter providerRequestsDropped(String priority, String reason) {
+    return registry.counter(
+        "driver_provider_requests_dropped",
+        "Provider requests dropped by the request scheduler.",
+        "priority",
+        priority,
+        "reason",
+        reason);
+  }
+
+  /** Returns the counter of the times the network quality estimate changed to a quality class. */
+  public static Counter networkQualityChanges(String quality) {
+    return registry.counter(
+        "driver_network_quality_changes",
+        "Changes of the estimated network quality, by new quality class.",
+        "quality",
+        quality);
+  }
+
+  /**
+   * Returns the state of the circuit breaker of a provider endpoint, exported as a gauge of its
+   * ordinal. The gauge is registered once per endpoint and holds no breaker, so the breakers of
+   * every provider service of the endpoint set the same state.
+   */
+  public static AtomicInteger providerCircuitState(String endpoint) {
+    return circuitStates.computeIfAbsent(
+        endpoint,
+        key -> {
+          AtomicInteger state = new AtomicInteger();
+          registry.gauge(
+              "driver_provider_circuit_state",
+              "State of the circuit breaker of a provider endpoint as of its last change: 0 closed,"
+                  + " 1 half-open, 2 open.",
+              state::get,
+              "endpoint",
+              key);
+          return state;
+        });
+  }
+
+  /** Returns the counter of the times the circuit breaker of an endpoint changed to a state. */
+  public static Counter providerCircuitTransitions(String endpoint, String state) {
+    return registry.counter(
+        "driver_provider_circuit_transitions",
+        "State changes of the provider circuit breakers, by endpoint and new state.",
+        "endpoint",
+        endpoint,
+        "state",
+        state);
+  }
+
+  /** Returns the counter of the calls to an endpoint failed fast by its open circuit breaker. */
+  public static Counter providerCallsRejected(String endpoint) {
+    return registry.counter(
+        "driver_provider_calls_rejected",
+        "Provider calls failed without being sent because the circuit of their endpoint is open.",
+        "endpoint",
+        endpoint);
+  }
+
+  private DriverMetrics() {}
+}
@@ -0,0 +1,123 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of latencies in fixed log-linear buckets, like an HDR histogram: every power of two
+ * of microseconds is split into 16 linear buckets, so quantiles are within 1/16 of the recorded
+ * values. Recording is lock-free and allocates nothing.
+ */
+public final class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  // Longer latencies, past 71 minutes, are recorded as this.
+  private static final long MAX_MICROS = (1L << 32) - 1;
+  private static final int BUCKET_COUNT = bucketIndex(MAX_MICROS) + 1;
+
+  private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong count = new AtomicLong();
+  private final AtomicLong sumMicros = new AtomicLong();
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  LatencyHistogram() {}
+
+  public void record(long duration, TimeUnit unit) {
+    recordMicros(unit.toMicros(duration));
+  }
+
+  /** Records the latency from {@code startNanos}, a {@link System#nanoTime} reading, to now. */
+  public void recordSince(long startNanos) {
+    recordMicros(NANOSECONDS.toMicros(System.nanoTime() - startNanos));
+  }
+
+  /** Records the time from now until {@code future} completes, whether it succeeds or not. */
+  public <T> ListenableFuture<T> time(ListenableFuture<T> future) {
+    long startNanos = System.nanoTime();
+    future.addListener(() -> recordSince(startNanos), MoreExecutors.directExecutor());
+    return future;
+  }
+
+  public long getCount() {
+    return count.get();
+  }
+
+  public long getSumMicros() {
+    return sumMicros.get();
+  }
+
+  public long getMaxMicros() {
+    return maxMicros.get();
+  }
+
+  /**
+   * Returns the latency in microseconds that {@code quantile} of the recorded latencies are at or
+   * below, or 0 if nothing was recorded. Recordings made meanwhile may or may not be included.
+   */
+  public long getQuantileMicros(double quantile) {
+    long total = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      total += bucketCounts.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += bucketCounts.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), maxMicros.get());
+      }
+    }
+    return maxMicros.get();
+  }
+
+  private void recordMicros(long micros) {
+    micros = Math.max(0, Math.min(micros, MAX_MICROS));
+    bucketCounts.incrementAndGet(bucketIndex(micros));
+    count.incrementAndGet();
+    sumMicros.addAndGet(micros);
+    long max;
+    do {
+      max = maxMicros.get();
+    } while (micros > max && !maxMicros.compareAndSet(max, micros));
+  }
+
+  private static int bucketIndex(long micros) {
+    if (micros < SUB_BUCKET_COUNT) {
+      return (int) micros;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKET_COUNT + (int) ((micros >>> shift) - SUB_BUCKET_COUNT);
+  }
+
+  private static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKET_COUNT - 1;
+    long subBucket = index % SUB_BUCKET_COUNT;
+    return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+  }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically writes {@link MetricsRegistry#exportOpenMetrics} into a file, for instance to pull
+ * it with {@code adb}. The file is replaced at once, so it is never read half written.
+ */
+public final class MetricsFileExporter {
+  private static final String TAG = "MetricsFileExporter";
+
+  private final MetricsRegistry registry;
+  private final File file;
+  // Runs the exports one at a time.
+  private final Executor fileExecutor;
+  @Nullable private ScheduledFuture<?> exportFuture;
+
+  public MetricsFileExporter(MetricsRegistry registry, File file, Executor ioExecutor) {
+    this.registry = registry;
+    this.file = file;
+    fileExecutor = MoreExecutors.newSequentialExecutor(ioExecutor);
+  }
+
+  /** Exports every {@code period} on {@code scheduler}, which hands the writes off to I/O. */
+  public synchronized void start(ScheduledExecutorService scheduler, long period, TimeUnit unit) {
+    stop();
+    exportFuture = scheduler.scheduleWithFixedDelay(this::scheduleExport, 0, period, unit);
+  }
+
+  public synchronized void stop() {
+    if (exportFuture != null) {
+      exportFuture.cancel(false);
+      exportFuture = null;
+    }
+  }
+
+  // Runs on the scheduler, which would cancel the periodic exports if this threw.
+  private void scheduleExport() {
+    try {
+      fileExecutor.execute(this::export);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Skipped a metrics export, the I/O pool is saturated.", e);
+    }
+  }
+
+  @VisibleForTesting
+  void export() {
+    File temporaryFile = new File(file.getPath() + ".tmp");
+    try {
+      try (Writer writer =
+          new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8)) {
+        writer.write(registry.exportOpenMetrics());
+      }
+      if (!temporaryFile.renameTo(file)) {
+        throw new IOException("Cannot rename " + temporaryFile + " to " + file);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to export the metrics.", e);
+    }
+  }
+}
@@ -0,0 +1,182 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import androidx.annotation.VisibleForTesting;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Counters, gauges and latency histograms of the app, exported in the OpenMetrics text format.
+ *
+ * <p>Metrics are looked up or created by name and labels, callers on a hot path should keep the
+ * returned metric rather than look it up every time. Recording never takes a lock.
+ */
+public final class MetricsRegistry {
+  private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+  private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+  private static final double MICROS_PER_SECOND = 1e6;
+
+  private enum Type {
+    COUNTER,
+    GAUGE,
+    SUMMARY
+  }
+
+  // Sorted by name, so the export is stable.
+  private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<>();
+
+  /** Returns the registry shared by the app. */
+  public static MetricsRegistry getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  MetricsRegistry() {}
+
+  /**
+   * Returns the counter with the given name and labels, creating it on first use.
+   *
+   * @param labels label names and values, alternating.
+   * @throws IllegalArgumentException if the name is already used by another type of metric.
+   */
+  public Counter counter(String name, String help, String... labels) {
+    Family family = family(name, help, Type.COUNTER);
+    return (Counter) family.metrics.computeIfAbsent(formatLabels(labels), k -> new Counter());
+  }
+
+  /**
+   * Registers a gauge whose value is read from {@code value} at export time, replacing any previous
+   * gauge with that name and labels.
+   *
+   * @param labels label names and values, alternating.
+   */
+  public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+    family(name, help, Type.GAUGE).metrics.put(formatLabels(labels), value);
+  }
+
+  /**
+   * Returns the latency histogram with the given name and labels, creating it on first use.
+   *
+   * @param labels label names and values, alternating.
+   */
+  public LatencyHistogram histogram(String name, String help, String... labels) {
+    Family family = family(name, help, Type.SUMMARY);
+    return (LatencyHistogram)
+        family.metrics.computeIfAbsent(formatLabels(labels), k -> new LatencyHistogram());
+  }
+
+  /**
+   * Returns every metric in the OpenMetrics text format. Counters get a {@code _total} suffix and
+   * histograms are exported as summaries in seconds.
+   */
+  public String exportOpenMetrics() {
+    StringBuilder out = new StringBuilder();
+    for (Family family : families.values()) {
+      out.append("# TYPE ")
+          .append(family.name)
+          .append(' ')
+          .append(family.type.name().toLowerCase(Locale.ROOT))
+          .append('\n');
+      out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+      for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+        String labels = metric.getKey();
+        switch (family.type) {
+          case COUNTER:
+            appendSample(out, family.name + "_total", labels, ((Counter) metric.getValue()).get());
+            break;
+          case GAUGE:
+            appendSample(
+                out, family.name, labels, ((DoubleSupplier) metric.getValue()).getAsDouble());
+            break;
+          case SUMMARY:
+            appendSummary(out, family.name, labels, (LatencyHistogram) metric.getValue());
+            break;
+        }
+      }
+    }
+    return out.append("# EOF\n").toString();
+  }
+
+  private Family family(String name, String help, Type type) {
+    Family family = families.computeIfAbsent(name, k -> new Family(name, help, type));
+    checkArgument(family.type == type, "%s is already a %s.", name, family.type);
+    return family;
+  }
+
+  private static void appendSummary(
+      StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+    // The quantile label goes after the labels of the histogram.
+    String quantilePrefix =
+        labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+    for (double quantile : QUANTILES) {
+      appendSample(
+          out,
+          name,
+          quantilePrefix + "quantile=\"" + quantile + "\"}",
+          histogram.getQuantileMicros(quantile) / MICROS_PER_SECOND);
+    }
+    appendSample(out, name + "_count", labels, histogram.getCount());
+    appendSample(out, name + "_sum", labels, histogram.getSumMicros() / MICROS_PER_SECOND);
+  }
+
+  private static void appendSample(StringBuilder out, String name, String labels, Object value) {
+    out.append(name).append(labels).append(' ').append(value).append('\n');
+  }
+
+  private static String formatLabels(String... labels) {
+    checkArgument(labels.length % 2 == 0, "Labels must be name and value pairs.");
+    if (labels.length == 0) {
+      return "";
+    }
+    StringBuilder formatted = new StringBuilder("{");
+    for (int i = 0; i < labels.length; i += 2) {
+      if (i > 0) {
+        formatted.append(',');
+      }
+      formatted.append(labels[i]).append("=\"");
+      for (char c : labels[i + 1].toCharArray()) {
+        if (c == '\\' || c == '"') {
+          formatted.append('\\').append(c);
+        } else if (c == '\n') {
+          formatted.append("\\n");
+        } else {
+          formatted.append(c);
+        }
+      }
+      formatted.append('"');
+    }
+    return formatted.append('}').toString();
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final Type type;
+    // Metrics by their formatted labels.
+    final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+}
@@ -22,12 +22,27 @@ import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Bundle;
 import android.util.Log;
+import com.google.mapsplatform.transportation.sample.driver.AppExecutors;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficRecorder;
+import java.io.File;
+import okhttp3.OkHttpClient;
 
 /** Provides local provider related utilities. */
 public class ProviderUtils {
   private static final String TAG = "ProviderUtils";
   private static final String PROVIDER_ID_KEY = "com.example.driver.sampleapp.provider_id";
   private static final String PROVIDER_URL_KEY = "com.example.driver.sampleapp.provider_url";
+  private static final String RECORD_PROVIDER_TRAFFIC_KEY =
+      "com.example.driver.sampleapp.record_provider_traffic";
+  private static final String RECORD_LOCATION_TRACE_KEY =
+      "com.example.driver.sampleapp.record_location_trace";
+  private static final String REPLAY_LOCATION_TRACE_KEY =
+      "com.example.driver.sampleapp.replay_location_trace";
+  private static final String PROVIDER_TRAFFIC_FILE_NAME = "provider_traffic.capture";
+
+  private static OkHttpClient httpClient;
+  private static NetworkQualityEstimator networkQualityEstimator;
 
   /**
    * Gets provider Id to communicate to provider server.
@@ -62,6 +77,45 @@ public class ProviderUtils {
     return requireNonNull(metadata.getString(PROVIDER_URL_KEY));
   }
 
+  /**
+   * Gets the HTTP client shared by every request to the provider. Its calls are measured by {@link
+   * #getNetworkQualityEstimator}. When enabled in the manifest, it records the provider traffic
+   * into the app files directory, see {@link ProviderTrafficRecorder}.
+   */
+  public static synchronized OkHttpClient getHttpClient(Context context) {
+    if (httpClient == null) {
+      OkHttpClient.Builder builder =
+          new OkHttpClient.Builder()
+              .eventListenerFactory(getNetworkQualityEstimator().eventListenerFactory());
+      if (getAppMetadata(context).getBoolean(RECORD_PROVIDER_TRAFFIC_KEY, false)) {
+        builder.addInterceptor(
+            new ProviderTrafficRecorder(
+                new File(context.getFilesDir(), PROVIDER_TRAFFIC_FILE_NAME),
+                AppExecutors.getInstance().io()));
+      }
+      httpClient = builder.build();
+    }
+    return httpClient;
+  }
+
+  /** Gets the estimate of the quality of the link to the provider, shared with the HTTP client. */
+  public static synchronized NetworkQualityEstimator getNetworkQualityEstimator() {
+    if (networkQualityEstimator == null) {
+      networkQualityEstimator = new NetworkQualityEstimator();
+    }
+    return networkQualityEstimator;
+  }
+
+  /** Whether the manifest enables recording the road-snapped locations into a trace file. */
+  public static boolean isLocationTraceRecordingEnabled(Context context) {
+    return getAppMetadata(context).getBoolean(RECORD_LOCATION_TRACE_KEY, false);
+  }
+
+  /** Whether the manifest enables replaying the recorded location trace through the simulator. */
+  public static boolean isLocationTraceReplayEnabled(Context context) {
+    return getAppMetadata(context).getBoolean(REPLAY_LOCATION_TRACE_KEY, false);
+  }
+
   private static Bundle getAppMetadata(Context context) {
     String packageName = context.getPackageName();
     ApplicationInfo applicationInfo;
@@ -15,6 +15,7 @@
 package com.google.mapsplatform.transportation.sample.driver.provider.request;
 
 import java.util.List;
+import java.util.Objects;
 
 /** Body object for vehicle settings. It is used for creating/updating vehicle. */
 public class VehicleSettings {
@@ -68,4 +69,24 @@ public class VehicleSettings {
   public void setMaximumCapacity(int maximumCapacity) {
     this.maximumCapacity = maximumCapacity;
   }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof VehicleSettings)) {
+      return false;
+    }
+    VehicleSettings that = (VehicleSettings) o;
+    return maximumCapacity == that.maximumCapacity
+        && Objects.equals(vehicleId, that.vehicleId)
+        && Objects.equals(backToBackEnabled, that.backToBackEnabled)
+        && Objects.equals(supportedTripTypes, that.supportedTripTypes);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(vehicleId, backToBackEnabled, maximumCapacity, supportedTripTypes);
+  }
 }
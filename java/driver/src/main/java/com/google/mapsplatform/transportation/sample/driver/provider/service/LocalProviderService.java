@@ -17,38 +17,151 @@ package com.google.mapsplatform.transportation.sample.driver.provider.service;
 import static com.google.mapsplatform.transportation.sample.driver.utils.VehicleUtils.DEFAULT_MAXIMUM_CAPACITY;
 import static com.google.mapsplatform.transportation.sample.driver.utils.VehicleUtils.DEFAULT_SUPPORTED_TRIP_TYPES;
 
-import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.AsyncCallable;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mapsplatform.transportation.sample.driver.metrics.DriverMetrics;
 import com.google.mapsplatform.transportation.sample.driver.provider.request.TripUpdateBody;
 import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.TokenResponse;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.ProviderRequestScheduler.Priority;
 import com.google.mapsplatform.transportation.sample.driver.state.TripState;
 import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Span;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Tracer;
+import com.google.mapsplatform.transportation.sample.logging.AppLog;
+import com.google.mapsplatform.transportation.sample.logging.LogSite;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.OkHttpClient;
 import retrofit2.HttpException;
 import retrofit2.Retrofit;
 import retrofit2.adapter.guava.GuavaCallAdapterFactory;
 import retrofit2.converter.gson.GsonConverterFactory;
 
-/** Communicates with stub local provider. */
+/**
+ * Communicates with stub local provider.
+ *
+ * <p>Every mutation gets its own idempotency key, see {@link RestProvider}, and keeps it while it
+ * is retried with exponential backoff after network errors and server errors.
+ *
+ * <p>Every endpoint has its own {@link CircuitBreaker}. While an endpoint keeps failing its calls
+ * fail fast with a {@link CircuitBreaker.OpenException}, the retries of a mutation included, so
+ * that an overloaded provider gets time to recover.
+ */
 public class LocalProviderService {
   private static final String TAG = "LocalProviderService";
+  private static final int MUTATION_RETRIES = 4;
+  private static final long MUTATION_RETRY_INITIAL_DELAY_MILLIS = 200;
+  private static final long MUTATION_RETRY_MAX_DELAY_MILLIS = 3_000;
+  // A poll is obsolete once the next one is due.
+  private static final long POLL_DEADLINE_MILLIS = 3_000;
+  // Leaves time to open a cold connection, which OkHttp allows 10 s.
+  private static final long REGISTRATION_DEADLINE_MILLIS = 15_000;
+  private static final long TOKEN_DEADLINE_MILLIS = 10_000;
+  // Short enough for a failed attempt to leave time for retries while the driver waits.
+  private static final long MUTATION_DEADLINE_MILLIS = 5_000;
+  private static final LogSite TRIP_UPDATED_LOG = LogSite.create(TAG, AppLog.INFO);
+  private static final LogSite TRIP_UPDATE_FAILED_LOG = LogSite.create(TAG, AppLog.ERROR);
 
   private final RestProvider restProvider;
   private final Executor executor;
+  private final NetworkQualityEstimator networkQuality;
+  @Nullable private final RetryingFuture retryingFuture;
+  @Nullable private final ProviderRequestScheduler scheduler;
+  private final CopyOnWriteArrayList<CircuitBreaker.Listener> circuitBreakerListeners =
+      new CopyOnWriteArrayList<>();
+  private final CircuitBreaker getVehicleBreaker = createCircuitBreaker("get_vehicle");
+  private final CircuitBreaker createVehicleBreaker = createCircuitBreaker("create_vehicle");
+  private final CircuitBreaker updateVehicleBreaker = createCircuitBreaker("update_vehicle");
+  private final CircuitBreaker updateTripBreaker = createCircuitBreaker("update_trip");
+  private final CircuitBreaker getAuthTokenBreaker = createCircuitBreaker("get_auth_token");
 
+  /** Creates a service that doesn't retry failed mutations. */
   public LocalProviderService(RestProvider restProvider, Executor executor) {
+    this(restProvider, executor, /* retryExecutor= */ null);
+  }
+
+  /**
+   * Creates a service whose network quality estimate stays good, for a {@code restProvider} whose
+   * traffic isn't measured.
+   *
+   * @param retryExecutor schedules the retries of failed mutations, null to never retry them.
+   */
+  public LocalProviderService(
+      RestProvider restProvider,
+      Executor executor,
+      @Nullable ScheduledExecutorService retryExecutor) {
+    this(restProvider, executor, retryExecutor, new NetworkQualityEstimator());
+  }
+
+  /**
+   * Creates a service sending its requests right away.
+   *
+   * @param retryExecutor schedules the retries of failed mutations, null to never retry them.
+   * @param networkQuality measures the traffic of {@code restProvider}, the retries back off
+   *     further on a degraded link.
+   */
+  public LocalProviderService(
+      RestProvider restProvider,
+      Executor executor,
+      @Nullable ScheduledExecutorService retryExecutor,
+      NetworkQualityEstimator networkQuality) {
+    this(restProvider, executor, retryExecutor, networkQuality, /* scheduler= */ null);
+  }
+
+  /**
+   * @param retryExecutor schedules the retries of failed mutations, null to never retry them.
+   * @param networkQuality measures the traffic of {@code restProvider}, the retries back off
+   *     further on a degraded link.
+   * @param scheduler sends the requests by priority and with deadlines, null to send them right
+   *     away.
+   */
+  public LocalProviderService(
+      RestProvider restProvider,
+      Executor executor,
+      @Nullable ScheduledExecutorService retryExecutor,
+      NetworkQualityEstimator networkQuality,
+      @Nullable ProviderRequestScheduler scheduler) {
     this.restProvider = restProvider;
     this.executor = executor;
+    this.networkQuality = networkQuality;
+    this.scheduler = scheduler;
+    retryingFuture =
+        retryExecutor == null ? null : new RetryingFuture(retryExecutor, networkQuality);
+  }
+
+  /** Returns the estimate of the quality of the link to the provider. */
+  public NetworkQualityEstimator getNetworkQuality() {
+    return networkQuality;
+  }
+
+  /** Adds a listener of the state changes of the circuit breakers of every endpoint. */
+  public void addCircuitBreakerListener(CircuitBreaker.Listener listener) {
+    circuitBreakerListeners.add(listener);
+  }
+
+  public void removeCircuitBreakerListener(CircuitBreaker.Listener listener) {
+    circuitBreakerListeners.remove(listener);
   }
 
   /** Fetch JWT token from provider. */
   public ListenableFuture<TokenResponse> fetchAuthToken(String vehicleId) {
-    return restProvider.getAuthToken(vehicleId);
+    return DriverMetrics.TOKEN_FETCH_LATENCY.time(
+        send(
+            getAuthTokenBreaker,
+            Priority.TOKEN,
+            TOKEN_DEADLINE_MILLIS,
+            () -> restProvider.getAuthToken(vehicleId)));
   }
 
   /**
@@ -59,16 +172,23 @@ public class LocalProviderService {
    */
   public ListenableFuture<VehicleModel> registerVehicle(String vehicleId) {
     return Futures.catchingAsync(
-        restProvider.getVehicle(vehicleId),
+        // Unlike a poll, the lookup has a registration deadline and isn't superseded by mutations.
+        send(
+            getVehicleBreaker,
+            Priority.REGISTRATION,
+            REGISTRATION_DEADLINE_MILLIS,
+            () -> restProvider.getVehicle(vehicleId)),
         HttpException.class,
         (exception) -> {
           if (isNotFoundHttpException(exception)) {
-            return restProvider.createVehicle(
+            VehicleSettings settings =
                 new VehicleSettings(
                     vehicleId,
                     /* backToBackEnabled= */ false,
                     DEFAULT_MAXIMUM_CAPACITY,
-                    DEFAULT_SUPPORTED_TRIP_TYPES));
+                    DEFAULT_SUPPORTED_TRIP_TYPES);
+            return mutate(
+                createVehicleBreaker, key -> restProvider.createVehicle(settings, key));
 
           } else {
             return Futures.immediateFailedFuture(exception);
@@ -105,11 +225,15 @@ public class LocalProviderService {
    */
   public ListenableFuture<VehicleModel> createOrUpdateVehicle(VehicleSettings vehicleSettings) {
     return Futures.catchingAsync(
-        restProvider.updateVehicle(vehicleSettings.getVehicleId(), vehicleSettings),
+        mutate(
+            updateVehicleBreaker,
+            key ->
+                restProvider.updateVehicle(vehicleSettings.getVehicleId(), vehicleSettings, key)),
         HttpException.class,
         (exception) -> {
           if (isNotFoundHttpException(exception)) {
-            return restProvider.createVehicle(vehicleSettings);
+            return mutate(
+                createVehicleBreaker, key -> restProvider.createVehicle(vehicleSettings, key));
 
           } else {
             return Futures.immediateFailedFuture(exception);
@@ -119,25 +243,39 @@ public class LocalProviderService {
   }
 
   private ListenableFuture<TripModel> updateTrip(String tripId, TripUpdateBody updateBody) {
-    ListenableFuture<TripModel> future = restProvider.updateTrip(tripId, updateBody);
+    Span span =
+        Tracer.getInstance()
+            .startSpan("LocalProviderService.updateTrip")
+            .setAttribute("tripId", tripId)
+            .setAttribute("status", updateBody.getStatus());
+    ListenableFuture<TripModel> future =
+        span.endWhenDone(
+            DriverMetrics.TRIP_UPDATE_LATENCY.time(
+                mutate(
+                    updateTripBreaker, key -> restProvider.updateTrip(tripId, updateBody, key))));
 
     Futures.addCallback(
         future,
         new FutureCallback<TripModel>() {
           @Override
           public void onSuccess(TripModel tripModel) {
-            Log.i(
-                TAG,
-                String.format(
-                    "Successfully updated trip %s with %s.", tripId, updateBody.toString()));
+            TRIP_UPDATED_LOG
+                .event()
+                .with("tripId", tripId)
+                .with("update", updateBody)
+                .log("Updated trip");
           }
 
           @Override
           public void onFailure(Throwable t) {
-            Log.e(
-                TAG,
-                String.format("Error updating trip %s with %s.", tripId, updateBody.toString()),
-                t);
+            DriverMetrics.TRIP_UPDATE_FAILURES.increment();
+            TRIP_UPDATE_FAILED_LOG
+                .event()
+                .with("tripId", tripId)
+                .with("update", updateBody)
+                .with("traceId", span.getTraceId())
+                .withCause(t)
+                .log("Error updating trip");
           }
         },
         executor);
@@ -145,16 +283,109 @@ public class LocalProviderService {
     return future;
   }
 
-  /** Fetches a vehicle identified by 'vehicleId' from the sample provider service. */
+  /**
+   * Fetches a vehicle identified by 'vehicleId' from the sample provider service. Its span covers
+   * the request and the parsing of the response.
+   */
   public ListenableFuture<VehicleModel> fetchVehicle(String vehicleId) {
-    return restProvider.getVehicle(vehicleId);
+    return Tracer.getInstance()
+        .startSpan("LocalProviderService.fetchVehicle")
+        .endWhenDone(
+            send(
+                getVehicleBreaker,
+                Priority.POLL,
+                POLL_DEADLINE_MILLIS,
+                () -> restProvider.getVehicle(vehicleId)));
   }
 
-  /** Gets a Retrofit implementation of the Journey Sharing REST provider. */
-  public static RestProvider createRestProvider(String baseUrl) {
+  /**
+   * Sends {@code call} through the circuit breaker of its endpoint, and through the scheduler if
+   * any. The breaker is inside the scheduled request, so it only times the call once it is sent: a
+   * request waiting in the queue isn't a slow provider, and one whose deadline passes in the queue
+   * isn't a failed one.
+   */
+  private <T> ListenableFuture<T> send(
+      CircuitBreaker breaker, Priority priority, long deadlineMillis, AsyncCallable<T> call) {
+    if (scheduler == null) {
+      return breaker.call(call);
+    }
+    return scheduler.submit(priority, deadlineMillis, () -> breaker.call(call));
+  }
+
+  private CircuitBreaker createCircuitBreaker(String endpoint) {
+    return new CircuitBreaker(
+        endpoint,
+        LocalProviderService::isRetryable,
+        (breakerEndpoint, state) -> {
+          for (CircuitBreaker.Listener listener : circuitBreakerListeners) {
+            listener.onStateChanged(breakerEndpoint, state);
+          }
+        });
+  }
+
+  /**
+   * Sends a mutation with a new idempotency key, and sends it again with the same key while it
+   * fails with a retryable error. It fails right away once its circuit is open.
+   */
+  private <T> ListenableFuture<T> mutate(CircuitBreaker breaker, Mutation<T> mutation) {
+    String idempotencyKey = UUID.randomUUID().toString();
+    Supplier<ListenableFuture<T>> attempt =
+        () ->
+            send(
+                breaker,
+                Priority.MUTATION,
+                MUTATION_DEADLINE_MILLIS,
+                () -> mutation.send(idempotencyKey));
+    if (retryingFuture == null) {
+      return attempt.get();
+    }
+    return retryingFuture.runWithBackoff(
+        attempt,
+        MUTATION_RETRIES,
+        MUTATION_RETRY_INITIAL_DELAY_MILLIS,
+        MUTATION_RETRY_MAX_DELAY_MILLIS,
+        t -> {
+          // Only asked while retries are left, so this counts the retries. A call rejected by an
+          // open circuit wasn't sent, and its retries would be rejected too until it closes.
+          boolean retryable = isRetryable(t) && !(t instanceof CircuitBreaker.OpenException);
+          if (retryable) {
+            DriverMetrics.MUTATION_RETRIES.increment();
+          }
+          return retryable;
+        });
+  }
+
+  /**
+   * Network errors, timeouts included, and server errors may be transient, client errors are not.
+   * The circuit breakers count the same errors as failures of the provider.
+   */
+  @VisibleForTesting
+  static boolean isRetryable(Throwable t) {
+    if (t instanceof IOException) {
+      return true;
+    }
+    if (t instanceof HttpException) {
+      int code = ((HttpException) t).code();
+      return code >= 500 || code == 408 || code == 429;
+    }
+    return false;
+  }
+
+  /** A mutating call of {@link RestProvider}. */
+  private interface Mutation<T> {
+    ListenableFuture<T> send(String idempotencyKey);
+  }
+
+  /**
+   * Gets a Retrofit implementation of the Journey Sharing REST provider.
+   *
+   * @param httpClient client sending the requests, shared to reuse its connections.
+   */
+  public static RestProvider createRestProvider(String baseUrl, OkHttpClient httpClient) {
     Retrofit retrofit =
         new Retrofit.Builder()
             .baseUrl(baseUrl)
+            .client(httpClient)
             .addCallAdapterFactory(GuavaCallAdapterFactory.create())
             .addConverterFactory(GsonConverterFactory.create())
             .build();
@@ -0,0 +1,254 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.annotation.Nullable;
+import com.google.common.util.concurrent.AsyncCallable;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.metrics.Counter;
+import com.google.mapsplatform.transportation.sample.driver.metrics.DriverMetrics;
+import com.google.mapsplatform.transportation.sample.driver.metrics.LatencyHistogram;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Sends provider requests by priority class with a bounded number in flight, so a background poll
+ * can't delay a trip update tapped by the driver.
+ *
+ * <ul>
+ *   <li>Queued requests start by {@link Priority}, then in submission order.
+ *   <li>Every request has a deadline covering its time in the queue and in flight. Past it, the
+ *       request fails with an {@link InterruptedIOException}, like an OkHttp call timeout, and is
+ *       cancelled if it already started.
+ *   <li>A mutation supersedes the polls queued or in flight, and polls submitted while it is
+ *       pending: their response would predate the mutation, so they are cancelled.
+ * </ul>
+ *
+ * <p>Cancelling a returned future cancels the request, a Retrofit call included.
+ */
+public final class ProviderRequestScheduler {
+  /** Priority classes of the provider requests, in the order they are sent. */
+  public enum Priority {
+    /** Changes initiated by the driver, such as a trip status update. */
+    MUTATION,
+    /** Vehicle lookups registering the vehicle at startup, which the driver waits for. */
+    REGISTRATION,
+    /** Auth tokens, which the Driver SDK waits for. */
+    TOKEN,
+    /** Background vehicle state polls. */
+    POLL;
+
+    final LatencyHistogram queueDelay =
+        DriverMetrics.providerQueueDelay(name().toLowerCase(Locale.ROOT));
+    final Counter deadlineExceeded =
+        DriverMetrics.providerRequestsDropped(name().toLowerCase(Locale.ROOT), "deadline");
+    final Counter superseded =
+        DriverMetrics.providerRequestsDropped(name().toLowerCase(Locale.ROOT), "superseded");
+  }
+
+  private final int maxInFlight;
+  private final ScheduledExecutorService deadlineExecutor;
+  private final PriorityQueue<Request<?>> queue = new PriorityQueue<>();
+  private final Set<Request<?>> inFlight = new HashSet<>();
+
+  private long nextSequence;
+  // Mutations queued or in flight.
+  private int pendingMutations;
+
+  /**
+   * @param maxInFlight most requests sent at the same time.
+   * @param deadlineExecutor fails the requests whose deadline passed.
+   */
+  public ProviderRequestScheduler(int maxInFlight, ScheduledExecutorService deadlineExecutor) {
+    checkArgument(maxInFlight > 0, "maxInFlight must be positive");
+    this.maxInFlight = maxInFlight;
+    this.deadlineExecutor = deadlineExecutor;
+  }
+
+  /**
+   * Queues a request, {@code call} is invoked once the request may be sent.
+   *
+   * @param deadlineMillis time after which the request fails, counted from now.
+   */
+  public <T> ListenableFuture<T> submit(
+      Priority priority, long deadlineMillis, AsyncCallable<T> call) {
+    Request<T> request = new Request<>(priority, call);
+    List<Request<?>> superseded = new ArrayList<>();
+    synchronized (this) {
+      request.sequence = nextSequence++;
+      if (priority == Priority.POLL && pendingMutations > 0) {
+        superseded.add(request);
+      } else {
+        queue.add(request);
+      }
+      if (priority == Priority.MUTATION) {
+        pendingMutations++;
+        addPolls(queue, superseded);
+        addPolls(inFlight, superseded);
+      }
+    }
+
+    request.result.addListener(() -> onDone(request), directExecutor());
+    if (!request.result.isDone()) {
+      ScheduledFuture<?> deadline =
+          deadlineExecutor.schedule(
+              () -> {
+                if (request.result.setException(
+                    new InterruptedIOException(
+                        String.format("Deadline of %d ms exceeded.", deadlineMillis)))) {
+                  priority.deadlineExceeded.increment();
+                }
+              },
+              deadlineMillis,
+              MILLISECONDS);
+      request.result.addListener(() -> deadline.cancel(false), directExecutor());
+    }
+    for (Request<?> poll : superseded) {
+      if (poll.result.cancel(false)) {
+        poll.priority.superseded.increment();
+      }
+    }
+    dispatch();
+    return request.result;
+  }
+
+  /** Number of requests waiting to be sent. */
+  public synchronized int getQueuedCount() {
+    return queue.size();
+  }
+
+  /** Number of requests sent and not answered yet. */
+  public synchronized int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  private static void addPolls(Iterable<Request<?>> requests, List<Request<?>> polls) {
+    for (Request<?> request : requests) {
+      if (request.priority == Priority.POLL) {
+        polls.add(request);
+      }
+    }
+  }
+
+  // Starts queued requests while slots are free. They start outside the lock, since a request
+  // completing right away calls back into the scheduler and into the listeners of its result.
+  private void dispatch() {
+    List<Request<?>> started = new ArrayList<>();
+    synchronized (this) {
+      while (inFlight.size() < maxInFlight && !queue.isEmpty()) {
+        Request<?> request = queue.poll();
+        inFlight.add(request);
+        started.add(request);
+      }
+    }
+    for (Request<?> request : started) {
+      request.start();
+    }
+  }
+
+  private void onDone(Request<?> request) {
+    synchronized (this) {
+      if (!queue.remove(request)) {
+        inFlight.remove(request);
+      }
+      if (request.priority == Priority.MUTATION) {
+        pendingMutations--;
+      }
+    }
+    request.cancelCall();
+    dispatch();
+  }
+
+  /** A request from its submission until its result is set. */
+  private static final class Request<T> implements Comparable<Request<?>> {
+    final Priority priority;
+    final AsyncCallable<T> call;
+    final SettableFuture<T> result = SettableFuture.create();
+    final long submittedNanos = System.nanoTime();
+    long sequence;
+    @Nullable private volatile ListenableFuture<T> callFuture;
+
+    Request(Priority priority, AsyncCallable<T> call) {
+      this.priority = priority;
+      this.call = call;
+    }
+
+    void start() {
+      if (result.isDone()) {
+        return;
+      }
+      priority.queueDelay.recordSince(submittedNanos);
+
+      ListenableFuture<T> future;
+      try {
+        future = call.call();
+      } catch (Exception e) {
+        future = Futures.immediateFailedFuture(e);
+      }
+      callFuture = future;
+      Futures.addCallback(
+          future,
+          new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T value) {
+              result.set(value);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              if (t instanceof CancellationException) {
+                result.cancel(false);
+              } else {
+                result.setException(t);
+              }
+            }
+          },
+          directExecutor());
+      // The deadline may have passed while the call was created.
+      if (result.isDone()) {
+        cancelCall();
+      }
+    }
+
+    // Aborts the call once nobody waits for its response.
+    void cancelCall() {
+      ListenableFuture<T> future = callFuture;
+      if (future != null && !future.isDone()) {
+        future.cancel(true);
+      }
+    }
+
+    @Override
+    public int compareTo(Request<?> other) {
+      int byPriority = priority.compareTo(other.priority);
+      return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+    }
+  }
+}
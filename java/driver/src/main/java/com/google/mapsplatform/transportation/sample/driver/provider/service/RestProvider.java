@@ -22,11 +22,21 @@ import com.google.mapsplatform.transportation.sample.driver.provider.response.Tr
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
 import retrofit2.http.POST;
 import retrofit2.http.PUT;
 import retrofit2.http.Path;
 
+/**
+ * REST API of the sample provider.
+ *
+ * <p>Mutating calls take a client generated idempotency key, which stays the same when a call is
+ * retried. The provider applies a key once and answers repeats with the first response, so a retry
+ * after a lost response can't apply a transition twice. A null key sends no header.
+ */
 interface RestProvider {
+  String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
   @GET("vehicle/{id}")
   ListenableFuture<VehicleModel> getVehicle(@Path("id") String vehicle);
 
@@ -34,11 +44,18 @@ interface RestProvider {
   ListenableFuture<TokenResponse> getAuthToken(@Path("vehicleId") String vehicleId);
 
   @POST("vehicle/new")
-  ListenableFuture<VehicleModel> createVehicle(@Body VehicleSettings body);
+  ListenableFuture<VehicleModel> createVehicle(
+      @Body VehicleSettings body, @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey);
 
   @PUT("vehicle/{id}")
-  ListenableFuture<VehicleModel> updateVehicle(@Path("id") String id, @Body VehicleSettings body);
+  ListenableFuture<VehicleModel> updateVehicle(
+      @Path("id") String id,
+      @Body VehicleSettings body,
+      @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey);
 
   @PUT("trip/{id}")
-  ListenableFuture<TripModel> updateTrip(@Path("id") String id, @Body TripUpdateBody body);
+  ListenableFuture<TripModel> updateTrip(
+      @Path("id") String id,
+      @Body TripUpdateBody body,
+      @Header(IDEMPOTENCY_KEY_HEADER) String idempotencyKey);
 }
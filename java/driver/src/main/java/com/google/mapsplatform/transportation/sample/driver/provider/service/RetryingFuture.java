@@ -16,24 +16,55 @@ package com.google.mapsplatform.transportation.sample.driver.provider.service;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
+import androidx.annotation.Nullable;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 /** Retries getting Future if exception is thrown or certain criteria is not met. */
 public final class RetryingFuture {
   static int RUN_FOREVER = Integer.MIN_VALUE;
 
   private final ScheduledExecutorService executor;
+  @Nullable private final NetworkQualityEstimator networkQuality;
 
   public RetryingFuture(ScheduledExecutorService executor) {
+    this(executor, /* networkQuality= */ null);
+  }
+
+  /**
+   * @param networkQuality estimate of the link the futures use, the delays between attempts grow
+   *     on a degraded link, see {@link #getDelayMultiplier}. Null keeps them unchanged.
+   */
+  public RetryingFuture(
+      ScheduledExecutorService executor, @Nullable NetworkQualityEstimator networkQuality) {
     this.executor = executor;
+    this.networkQuality = networkQuality;
+  }
+
+  /**
+   * Returns the factor of the delays between attempts on a link of the given quality. A poor link
+   * needs time to drain the requests already in flight, and an unreachable provider is not worth
+   * waking the radio for as often.
+   */
+  static int getDelayMultiplier(NetworkQualityEstimator.Quality quality) {
+    switch (quality) {
+      case POOR:
+        return 2;
+      case OFFLINE:
+        return 4;
+      default:
+        return 1;
+    }
   }
 
   /**
@@ -53,67 +84,133 @@ public final class RetryingFuture {
       int retries,
       long intervalMillis,
       Predicate<T> successCondition) {
-    SettableFuture<T> resultFuture = SettableFuture.create();
-    runWithRetriesInternal(resultFuture, futureSupplier, retries, intervalMillis, successCondition);
-    return resultFuture;
+    return new Retry<>(
+            futureSupplier,
+            retries,
+            intervalMillis,
+            intervalMillis,
+            successCondition,
+            Predicates.alwaysTrue())
+        .start();
+  }
+
+  /**
+   * Retries getting Future while it fails with a retryable exception, doubling the delay after
+   * every attempt. Each delay is randomized between half and all of its value so that clients
+   * failing together don't retry in lockstep.
+   *
+   * @param futureSupplier entity that can create the target future, must be safe to call again
+   *     after a failure.
+   * @param retries number of retries after the first attempt.
+   * @param initialDelayMillis delay before the first retry.
+   * @param maxDelayMillis cap of the doubled delays, before the network quality factor.
+   * @param retryableFailure if evaluates to false the failure is returned without retrying.
+   */
+  public <T> ListenableFuture<T> runWithBackoff(
+      Supplier<ListenableFuture<T>> futureSupplier,
+      int retries,
+      long initialDelayMillis,
+      long maxDelayMillis,
+      Predicate<Throwable> retryableFailure) {
+    return new Retry<>(
+            futureSupplier,
+            retries,
+            initialDelayMillis,
+            maxDelayMillis,
+            Predicates.alwaysTrue(),
+            retryableFailure)
+        .start();
   }
 
-  private <T> void runWithRetriesInternal(
-      final SettableFuture<T> future,
-      final Supplier<ListenableFuture<T>> futureSupplier,
-      final int retries,
-      final long intervalMillis,
-      final Predicate<T> successCondition) {
-    ListenableFuture<T> immediateFuture;
-    try {
-      immediateFuture = futureSupplier.get();
-    } catch (Exception e) {
-      handleFailure(future, futureSupplier, retries, intervalMillis, successCondition, e);
-      return;
+  /** State of one retried operation, the delay doubles up to the max delay after every attempt. */
+  private final class Retry<T> {
+    private final SettableFuture<T> future = SettableFuture.create();
+    private final Supplier<ListenableFuture<T>> futureSupplier;
+    private final long maxDelayMillis;
+    private final Predicate<T> successCondition;
+    private final Predicate<Throwable> retryableFailure;
+    private final boolean randomizeDelay;
+    private int retries;
+    private long delayMillis;
+
+    Retry(
+        Supplier<ListenableFuture<T>> futureSupplier,
+        int retries,
+        long initialDelayMillis,
+        long maxDelayMillis,
+        Predicate<T> successCondition,
+        Predicate<Throwable> retryableFailure) {
+      this.futureSupplier = futureSupplier;
+      this.retries = retries;
+      this.delayMillis = initialDelayMillis;
+      this.maxDelayMillis = maxDelayMillis;
+      this.successCondition = successCondition;
+      this.retryableFailure = retryableFailure;
+      // A fixed interval stays fixed.
+      randomizeDelay = maxDelayMillis > initialDelayMillis;
     }
 
-    Futures.addCallback(
-        immediateFuture,
-        new FutureCallback<T>() {
-          @Override
-          public void onSuccess(T result) {
-            if (successCondition.apply(result)) {
-              future.set(result);
-            } else {
-              RuntimeException exception =
-                  new RuntimeException("Success condition not met, retrying.");
-              handleFailure(
-                  future, futureSupplier, retries, intervalMillis, successCondition, exception);
+    ListenableFuture<T> start() {
+      attempt();
+      return future;
+    }
+
+    private void attempt() {
+      ListenableFuture<T> immediateFuture;
+      try {
+        immediateFuture = futureSupplier.get();
+      } catch (Exception e) {
+        handleFailure(e);
+        return;
+      }
+
+      Futures.addCallback(
+          immediateFuture,
+          new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+              if (successCondition.apply(result)) {
+                future.set(result);
+              } else {
+                handleFailure(new RuntimeException("Success condition not met, retrying."));
+              }
             }
-          }
-
-          @Override
-          public void onFailure(Throwable t) {
-            handleFailure(future, futureSupplier, retries, intervalMillis, successCondition, t);
-          }
-        },
-        MoreExecutors.directExecutor());
-  }
 
-  private <T> void handleFailure(
-      SettableFuture<T> future,
-      Supplier<ListenableFuture<T>> futureSupplier,
-      int retries,
-      long delayInMillis,
-      Predicate<T> successCondition,
-      Throwable t) {
-    if (retries == RUN_FOREVER || retries > 0) {
-      ScheduledFuture<?> unused =
-          executor.schedule(
-              () -> {
-                int newRetriesCount = retries == RUN_FOREVER ? RUN_FOREVER : retries - 1;
-                runWithRetriesInternal(
-                    future, futureSupplier, newRetriesCount, delayInMillis, successCondition);
-              },
-              delayInMillis,
-              MILLISECONDS);
-    } else {
-      future.setException(t);
+            @Override
+            public void onFailure(Throwable t) {
+              handleFailure(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+
+    private void handleFailure(Throwable t) {
+      // Nobody waits for the result of a cancelled future anymore.
+      if (future.isDone()) {
+        return;
+      }
+      if ((retries == RUN_FOREVER || retries > 0) && retryableFailure.apply(t)) {
+        if (retries != RUN_FOREVER) {
+          retries--;
+        }
+        long scheduledDelayMillis =
+            randomizeDelay
+                ? delayMillis / 2 + ThreadLocalRandom.current().nextLong(delayMillis / 2 + 1)
+                : delayMillis;
+        delayMillis = Math.min(maxDelayMillis, delayMillis * 2);
+        if (networkQuality != null) {
+          scheduledDelayMillis *= getDelayMultiplier(networkQuality.getQuality());
+        }
+        try {
+          ScheduledFuture<?> unused =
+              executor.schedule(this::attempt, scheduledDelayMillis, MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+          // Executor was shut down by its owner, no more retries can be scheduled.
+          future.setException(e);
+        }
+      } else {
+        future.setException(t);
+      }
     }
   }
 }
@@ -14,85 +14,186 @@
  */
 package com.google.mapsplatform.transportation.sample.driver.provider.service;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import android.util.Log;
+import androidx.annotation.VisibleForTesting;
 import com.google.common.util.concurrent.AbstractScheduledService;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mapsplatform.transportation.sample.driver.metrics.DriverMetrics;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Span;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Tracer;
+import com.google.mapsplatform.transportation.sample.logging.AppLog;
+import com.google.mapsplatform.transportation.sample.logging.LogSite;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Service that polls the 'Vehicle' state when its been started. It pushes the response via the
  * 'VehicleStateListener' listener.
+ *
+ * <p>Polls run every 3 seconds, less often on a degraded link to the provider, see {@link
+ * #getPollDelayMillis}.
  */
 public final class VehicleStateService extends AbstractScheduledService {
+  private static final String TAG = "VehicleStateService";
+
+  // Polls run every 3 seconds, their logs at most every 30 seconds.
+  private static final LogSite POLL_LOG =
+      LogSite.rateLimited(TAG, AppLog.DEBUG, 30, TimeUnit.SECONDS);
+  private static final LogSite TRIP_IDS_LOG =
+      LogSite.rateLimited(TAG, AppLog.DEBUG, 30, TimeUnit.SECONDS);
+  private static final LogSite POLL_FAILED_LOG =
+      LogSite.rateLimited(TAG, AppLog.WARN, 30, TimeUnit.SECONDS);
 
   /** Listener for state updates. */
   public interface VehicleStateListener {
-    void onVehicleStateUpdate(VehicleModel vehicleModel);
+    /** @param revision value of {@link #getRevision} when the poll was sent. */
+    void onVehicleStateUpdate(VehicleModel vehicleModel, long revision);
+
+    /**
+     * Returns the revision of the local state, handed back with the response of a poll sent now so
+     * the listener can tell whether it predates local changes.
+     */
+    default long getRevision() {
+      return 0;
+    }
   }
 
   private final LocalProviderService localProviderService;
   private final String vehicleId;
   private final WeakReference<VehicleStateListener> listenerRef;
+  private final ScheduledExecutorService executor;
 
+  /**
+   * @param executor runs the polling and its callbacks. It is not shut down with the service.
+   */
   public VehicleStateService(
-      LocalProviderService localProviderService, String vehicleId, VehicleStateListener listener) {
+      LocalProviderService localProviderService,
+      String vehicleId,
+      VehicleStateListener listener,
+      ScheduledExecutorService executor) {
     this.localProviderService = localProviderService;
     this.vehicleId = vehicleId;
     this.listenerRef = new WeakReference<VehicleStateListener>(listener);
+    this.executor = executor;
   }
 
   @Override
   protected void startUp() {
-    Log.i("VehicleStateService", "startUp");
+    Log.i(TAG, "startUp");
   }
 
   @Override
   protected void shutDown() {
-    Log.i("VehicleStateService", "shutDown");
+    Log.i(TAG, "shutDown");
   }
 
   @Override
   protected void runOneIteration() {
-    Log.i("VehicleStateService", "runOneIteration start");
+    POLL_LOG.event().with("vehicleId", vehicleId).log("runOneIteration");
 
-    ListenableFuture<VehicleModel> responseFuture = localProviderService.fetchVehicle(vehicleId);
+    VehicleStateListener currentListener = listenerRef.get();
+    long revision = currentListener != null ? currentListener.getRevision() : 0;
+
+    // The poll starts a trace, followed through the listener down to the UI updates.
+    Span pollSpan = Tracer.getInstance().startTrace("VehicleStateService.poll");
+    ListenableFuture<VehicleModel> responseFuture;
+    try (Span.Scope scope = pollSpan.makeCurrent()) {
+      responseFuture =
+          DriverMetrics.VEHICLE_POLL_LATENCY.time(localProviderService.fetchVehicle(vehicleId));
+    }
 
     Futures.addCallback(
         responseFuture,
         new FutureCallback<VehicleModel>() {
           @Override
           public void onSuccess(VehicleModel vehicleModel) {
-            if (!VehicleStateService.this.isRunning()) {
-              return;
+            DriverMetrics.onVehicleStateReceived();
+            try (Span.Scope scope = pollSpan.makeCurrent()) {
+              notifyListener(vehicleModel, revision);
+            } finally {
+              pollSpan.end();
             }
+          }
 
-            VehicleStateListener listener = listenerRef.get();
-
-            if (listener == null) {
+          @Override
+          public void onFailure(Throwable t) {
+            // A trip update superseded the poll, whose response would have been stale.
+            if (t instanceof CancellationException) {
+              pollSpan.setAttribute("superseded", true).end();
               return;
             }
+            DriverMetrics.VEHICLE_POLL_FAILURES.increment();
+            pollSpan.setAttribute("error", t).end();
+            POLL_FAILED_LOG
+                .event()
+                .with("vehicleId", vehicleId)
+                .with("traceId", pollSpan.getTraceId())
+                .withCause(t)
+                .log("Error polling vehicle state");
+          }
+        },
+        executor);
+  }
 
-            listener.onVehicleStateUpdate(vehicleModel);
+  private void notifyListener(VehicleModel vehicleModel, long revision) {
+    if (!isRunning()) {
+      return;
+    }
 
-            for (String tripID : vehicleModel.getCurrentTripsIds()) {
-              Log.i("VehicleStateService", String.format("runOneIteration tripId=%s", tripID));
-            }
-          }
+    VehicleStateListener listener = listenerRef.get();
 
-          @Override
-          public void onFailure(Throwable t) {}
-        },
-        this.executor());
+    if (listener == null) {
+      return;
+    }
+
+    listener.onVehicleStateUpdate(vehicleModel, revision);
 
-    Log.i("VehicleStateService", "runOneIteration end");
+    TRIP_IDS_LOG.event().with("tripIds", vehicleModel.getCurrentTripsIds()).log("runOneIteration");
+  }
+
+  // The default implementation creates a new single threaded executor on every call, which leaked a
+  // thread per iteration until the service stopped.
+  @Override
+  protected ScheduledExecutorService executor() {
+    return executor;
   }
 
   @Override
   protected Scheduler scheduler() {
-    return Scheduler.newFixedDelaySchedule(/*initialDelay=*/ 0L, /*delay=*/ 3L, TimeUnit.SECONDS);
+    return new CustomScheduler() {
+      private boolean polled;
+
+      @Override
+      protected Schedule getNextSchedule() {
+        long delayMillis =
+            polled ? getPollDelayMillis(localProviderService.getNetworkQuality().getQuality()) : 0;
+        polled = true;
+        return new Schedule(delayMillis, MILLISECONDS);
+      }
+    };
+  }
+
+  /**
+   * Returns the delay between polls on a link of the given quality. A slow poll would otherwise
+   * still be in flight when the next one is sent, and an unreachable provider is only checked for
+   * its return.
+   */
+  @VisibleForTesting
+  static long getPollDelayMillis(NetworkQualityEstimator.Quality quality) {
+    switch (quality) {
+      case POOR:
+        return 6_000;
+      case OFFLINE:
+        return 10_000;
+      default:
+        return 3_000;
+    }
   }
 }
@@ -0,0 +1,190 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.reporting;
+
+import androidx.annotation.Nullable;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator;
+import com.google.mapsplatform.transportation.sample.driver.simulation.Route;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.utils.TripUtils;
+
+/**
+ * Picks the location reporting interval of the Driver SDK from the trip phase, the distance to the
+ * next waypoint, the vehicle speed, the battery and the estimated network quality.
+ *
+ * <ul>
+ *   <li>The last 500 m before a pickup report at the 5 s minimum, the rider is watching the car
+ *       arrive.
+ *   <li>Other legs of a trip report every 10 s, or every 15 s at highway speed, where the route
+ *       leaves little to guess.
+ *   <li>A vehicle waiting at a stop reports every 10 s. Without a trip it reports every 15 s, or
+ *       every 30 s while it doesn't move.
+ *   <li>A low battery or a poor network each double the interval, and an unreachable provider
+ *       quadruples it, except on the final approach.
+ * </ul>
+ *
+ * <p>The Driver SDK doesn't report more often than every 5 s. Inputs arrive from several threads,
+ * the listener is called under the lock of the policy whenever the interval changes, so it must
+ * return quickly.
+ */
+public final class LocationReportingPolicy {
+  /** Receives the new interval whenever it changes. */
+  public interface IntervalListener {
+    void onIntervalChanged(long intervalSeconds);
+  }
+
+  static final long MIN_INTERVAL_SECONDS = 5;
+  static final long MAX_INTERVAL_SECONDS = 60;
+  static final long EN_ROUTE_INTERVAL_SECONDS = 10;
+  static final long HIGHWAY_INTERVAL_SECONDS = 15;
+  static final long AT_STOP_INTERVAL_SECONDS = 10;
+  static final long IDLE_INTERVAL_SECONDS = 15;
+  static final long PARKED_INTERVAL_SECONDS = 30;
+
+  static final double FINAL_APPROACH_METERS = 500;
+  // About 70 km/h.
+  static final double HIGHWAY_SPEED_METERS_PER_SECOND = 20;
+  static final double PARKED_SPEED_METERS_PER_SECOND = 1;
+  static final int LOW_BATTERY_PERCENT = 15;
+
+  // Weight of the latest location in the smoothed speed, GPS jitter would otherwise flip the
+  // highway and parked rules back and forth.
+  private static final double SPEED_SMOOTHING = 0.3;
+
+  private final IntervalListener listener;
+
+  @Nullable private TripStatus tripStatus;
+  private double waypointLatitude = Double.NaN;
+  private double waypointLongitude = Double.NaN;
+  private double latitude = Double.NaN;
+  private double longitude = Double.NaN;
+  private long locationMillis;
+  private double speedMetersPerSecond;
+  private int batteryPercent = 100;
+  private boolean charging;
+  private NetworkQualityEstimator.Quality networkQuality = NetworkQualityEstimator.Quality.GOOD;
+  private long intervalSeconds;
+
+  public LocationReportingPolicy(IntervalListener listener) {
+    this.listener = listener;
+    intervalSeconds = computeIntervalSeconds();
+  }
+
+  /** Returns the interval picked from the latest inputs. */
+  public synchronized long getIntervalSeconds() {
+    return intervalSeconds;
+  }
+
+  /**
+   * Sets the phase of the current trip and the waypoint it drives to.
+   *
+   * @param tripStatus null without a trip, a completed trip counts as none.
+   * @param waypointLatitude NaN without a waypoint, as is the longitude.
+   */
+  public synchronized void setTrip(
+      @Nullable TripStatus tripStatus, double waypointLatitude, double waypointLongitude) {
+    this.tripStatus = tripStatus;
+    this.waypointLatitude = waypointLatitude;
+    this.waypointLongitude = waypointLongitude;
+    update();
+  }
+
+  /**
+   * Takes a new location of the vehicle, its speed is derived from the previous one.
+   *
+   * @param elapsedMillis monotonic time of the location.
+   */
+  public synchronized void onLocation(double latitude, double longitude, long elapsedMillis) {
+    if (!Double.isNaN(this.latitude) && elapsedMillis > locationMillis) {
+      double speed =
+          Route.distanceMeters(this.latitude, this.longitude, latitude, longitude)
+              * 1000
+              / (elapsedMillis - locationMillis);
+      speedMetersPerSecond =
+          SPEED_SMOOTHING * speed + (1 - SPEED_SMOOTHING) * speedMetersPerSecond;
+    }
+    this.latitude = latitude;
+    this.longitude = longitude;
+    locationMillis = elapsedMillis;
+    update();
+  }
+
+  public synchronized void setBattery(int batteryPercent, boolean charging) {
+    this.batteryPercent = batteryPercent;
+    this.charging = charging;
+    update();
+  }
+
+  /** Sets the estimated quality of the link to the backend. */
+  public synchronized void setNetworkQuality(NetworkQualityEstimator.Quality networkQuality) {
+    this.networkQuality = networkQuality;
+    update();
+  }
+
+  /** Smoothed speed of the vehicle. */
+  synchronized double getSpeedMetersPerSecond() {
+    return speedMetersPerSecond;
+  }
+
+  private void update() {
+    long updatedIntervalSeconds = computeIntervalSeconds();
+    if (updatedIntervalSeconds != intervalSeconds) {
+      intervalSeconds = updatedIntervalSeconds;
+      listener.onIntervalChanged(updatedIntervalSeconds);
+    }
+  }
+
+  private long computeIntervalSeconds() {
+    if (tripStatus == TripStatus.ENROUTE_TO_PICKUP
+        && getDistanceToWaypointMeters() <= FINAL_APPROACH_METERS) {
+      return MIN_INTERVAL_SECONDS;
+    }
+
+    long interval;
+    if (tripStatus != null && TripUtils.isTripStatusEnroute(tripStatus)) {
+      interval =
+          speedMetersPerSecond >= HIGHWAY_SPEED_METERS_PER_SECOND
+              ? HIGHWAY_INTERVAL_SECONDS
+              : EN_ROUTE_INTERVAL_SECONDS;
+    } else if (tripStatus == TripStatus.NEW
+        || tripStatus == TripStatus.ARRIVED_AT_PICKUP
+        || tripStatus == TripStatus.ARRIVED_AT_INTERMEDIATE_DESTINATION) {
+      interval = AT_STOP_INTERVAL_SECONDS;
+    } else {
+      interval =
+          speedMetersPerSecond < PARKED_SPEED_METERS_PER_SECOND
+              ? PARKED_INTERVAL_SECONDS
+              : IDLE_INTERVAL_SECONDS;
+    }
+
+    if (batteryPercent <= LOW_BATTERY_PERCENT && !charging) {
+      interval *= 2;
+    }
+    if (networkQuality == NetworkQualityEstimator.Quality.POOR) {
+      interval *= 2;
+    } else if (networkQuality == NetworkQualityEstimator.Quality.OFFLINE) {
+      interval *= 4;
+    }
+    return Math.max(MIN_INTERVAL_SECONDS, Math.min(MAX_INTERVAL_SECONDS, interval));
+  }
+
+  // Infinite while the location or the waypoint is unknown.
+  private double getDistanceToWaypointMeters() {
+    if (Double.isNaN(latitude) || Double.isNaN(waypointLatitude)) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return Route.distanceMeters(latitude, longitude, waypointLatitude, waypointLongitude);
+  }
+}
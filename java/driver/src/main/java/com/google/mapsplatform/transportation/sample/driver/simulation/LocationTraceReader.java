@@ -0,0 +1,162 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter.BLOCK_HEADER_BYTES;
+import static com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter.E7;
+import static com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter.HEADER_BYTES;
+import static com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter.MAGIC;
+import static com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter.VERSION;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace written by {@link LocationTraceWriter}, one location at a time. Reading allocates
+ * nothing, and {@link #open} maps the file into memory so multi-hour traces are not loaded up
+ * front.
+ *
+ * <p>A truncated last block, as left by a recording that did not close its writer, is ignored.
+ */
+public final class LocationTraceReader {
+  private final ByteBuffer buffer;
+
+  private int remainingInBlock;
+  // Set when seekTo() already decoded the location the next call to next() returns.
+  private boolean pending;
+  private long timeMillis;
+  private int latE7;
+  private int lngE7;
+
+  /** Maps {@code file} read-only into memory. */
+  public static LocationTraceReader open(File file) throws IOException {
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        FileChannel channel = randomAccessFile.getChannel()) {
+      return new LocationTraceReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Reads the trace from the position to the limit of {@code buffer}.
+   *
+   * @throws IOException if the buffer does not start with a trace header.
+   */
+  public LocationTraceReader(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer.slice();
+    if (this.buffer.remaining() < HEADER_BYTES
+        || this.buffer.getInt() != MAGIC
+        || this.buffer.getInt() != VERSION) {
+      throw new IOException("Not a location trace.");
+    }
+  }
+
+  /**
+   * Moves to the next location.
+   *
+   * @return false once the end of the trace is reached.
+   */
+  public boolean next() {
+    if (pending) {
+      pending = false;
+      return true;
+    }
+    if (remainingInBlock > 0) {
+      timeMillis += unzigzag(readVarint());
+      latE7 += (int) unzigzag(readVarint());
+      lngE7 += (int) unzigzag(readVarint());
+      remainingInBlock--;
+      return true;
+    }
+
+    int blockStart = buffer.position();
+    if (!isCompleteBlock(blockStart)) {
+      return false;
+    }
+    buffer.position(blockStart + 4);
+    remainingInBlock = buffer.getInt() - 1;
+    timeMillis = buffer.getLong();
+    latE7 = buffer.getInt();
+    lngE7 = buffer.getInt();
+    return true;
+  }
+
+  /**
+   * Moves so that the next call to {@link #next} returns the first location at or after {@code
+   * targetTimeMillis}, skipping whole blocks by their header. The trace must be sorted by time.
+   *
+   * @return false if there is no such location.
+   */
+  public boolean seekTo(long targetTimeMillis) {
+    int blockStart = HEADER_BYTES;
+    while (isCompleteBlock(blockStart)) {
+      int nextBlockStart = blockStart + buffer.getInt(blockStart);
+      if (!isCompleteBlock(nextBlockStart)
+          || buffer.getLong(nextBlockStart + 8) > targetTimeMillis) {
+        break;
+      }
+      blockStart = nextBlockStart;
+    }
+
+    buffer.position(blockStart);
+    remainingInBlock = 0;
+    pending = false;
+    while (next()) {
+      if (timeMillis >= targetTimeMillis) {
+        pending = true;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public long getTimeMillis() {
+    return timeMillis;
+  }
+
+  public double getLatitude() {
+    return latE7 / E7;
+  }
+
+  public double getLongitude() {
+    return lngE7 / E7;
+  }
+
+  private boolean isCompleteBlock(int blockStart) {
+    if (buffer.limit() - blockStart < BLOCK_HEADER_BYTES) {
+      return false;
+    }
+    int byteLength = buffer.getInt(blockStart);
+    return byteLength >= BLOCK_HEADER_BYTES && byteLength <= buffer.limit() - blockStart;
+  }
+
+  private long readVarint() {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    return value;
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
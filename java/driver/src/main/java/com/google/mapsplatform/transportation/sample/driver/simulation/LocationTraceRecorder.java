@@ -0,0 +1,122 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import android.location.Location;
+import android.util.Log;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import com.google.android.libraries.navigation.RoadSnappedLocationProvider;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Records the road-snapped locations of a {@link RoadSnappedLocationProvider} into a trace that
+ * {@link LocationTraceReplay} can replay.
+ *
+ * <p>Locations are written in order on a background executor, so the listener does no disk I/O.
+ */
+public final class LocationTraceRecorder implements RoadSnappedLocationProvider.LocationListener {
+  private static final String TAG = "LocationTraceRecorder";
+
+  @Nullable private final File file;
+  private final Executor fileExecutor;
+  @Nullable private OutputStream out;
+  @Nullable private LocationTraceWriter writer;
+  private boolean failed;
+  @Nullable private RoadSnappedLocationProvider locationProvider;
+
+  /**
+   * Records into {@code file}, replacing any previous trace. The file is only opened once the first
+   * location is recorded.
+   */
+  public LocationTraceRecorder(File file, Executor ioExecutor) {
+    this.file = file;
+    fileExecutor = MoreExecutors.newSequentialExecutor(ioExecutor);
+  }
+
+  /** Records into {@code out}, which is closed by {@link #stop}. */
+  @VisibleForTesting
+  LocationTraceRecorder(OutputStream out, Executor ioExecutor) {
+    this.file = null;
+    this.out = out;
+    fileExecutor = MoreExecutors.newSequentialExecutor(ioExecutor);
+  }
+
+  /** Starts listening to {@code locationProvider}. */
+  public synchronized void start(RoadSnappedLocationProvider locationProvider) {
+    this.locationProvider = locationProvider;
+    locationProvider.addLocationListener(this);
+  }
+
+  /** Stops listening to the location provider and closes the trace. */
+  public synchronized void stop() {
+    if (locationProvider != null) {
+      locationProvider.removeLocationListener(this);
+      locationProvider = null;
+    }
+    try {
+      fileExecutor.execute(this::close);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Failed to close the location trace.", e);
+    }
+  }
+
+  @Override
+  public void onLocationChanged(Location location) {
+    long timeMillis = location.getTime();
+    double latitude = location.getLatitude();
+    double longitude = location.getLongitude();
+    try {
+      fileExecutor.execute(() -> record(timeMillis, latitude, longitude));
+    } catch (RejectedExecutionException e) {
+      // The shared pool is saturated, the trace misses this location.
+    }
+  }
+
+  private void record(long timeMillis, double latitude, double longitude) {
+    if (failed) {
+      return;
+    }
+    try {
+      if (writer == null) {
+        writer = new LocationTraceWriter(out != null ? out : new FileOutputStream(file));
+      }
+      writer.append(timeMillis, latitude, longitude);
+    } catch (IOException e) {
+      // Recording is a diagnostic, it must not disturb driving.
+      Log.w(TAG, "Stopped recording the location trace.", e);
+      failed = true;
+    }
+  }
+
+  private void close() {
+    if (writer == null) {
+      return;
+    }
+    try {
+      writer.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close the location trace.", e);
+    }
+    writer = null;
+    failed = true;
+  }
+}
@@ -0,0 +1,96 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.annotation.Nullable;
+import com.google.mapsplatform.transportation.sample.driver.simulation.RouteSimulation.LocationListener;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Replays the locations of a {@link LocationTraceReader} with their recorded spacing divided by a
+ * time compression factor, so a shift recorded over hours can be replayed in minutes.
+ */
+public final class LocationTraceReplay {
+  private final LocationTraceReader reader;
+  private final float timeCompression;
+  private final LocationListener listener;
+
+  @Nullable private ScheduledExecutorService scheduler;
+  @Nullable private ScheduledFuture<?> nextLocationFuture;
+  // Set when the reader is on a location that was not emitted yet.
+  private boolean hasLocation;
+  private boolean complete;
+
+  /**
+   * Replays {@code reader} from its next location.
+   *
+   * @param timeCompression how many times faster than recorded the locations are replayed.
+   */
+  public LocationTraceReplay(
+      LocationTraceReader reader, float timeCompression, LocationListener listener) {
+    checkArgument(timeCompression > 0, "timeCompression must be positive");
+    this.reader = reader;
+    this.timeCompression = timeCompression;
+    this.listener = listener;
+  }
+
+  /** Emits the next location right away, then the following ones on {@code scheduler}. */
+  public synchronized void start(ScheduledExecutorService scheduler) {
+    stop();
+    this.scheduler = scheduler;
+    nextLocationFuture = scheduler.schedule(this::emitLocation, 0, MILLISECONDS);
+  }
+
+  /** Stops the replay, {@link #start} resumes from the next location. */
+  public synchronized void stop() {
+    scheduler = null;
+    if (nextLocationFuture != null) {
+      nextLocationFuture.cancel(false);
+      nextLocationFuture = null;
+    }
+  }
+
+  /** Returns true once the last location of the trace was emitted. */
+  public synchronized boolean isComplete() {
+    return complete;
+  }
+
+  private synchronized void emitLocation() {
+    if (scheduler == null) {
+      return;
+    }
+    if (!hasLocation && !reader.next()) {
+      complete = true;
+      stop();
+      return;
+    }
+    listener.onLocation(reader.getLatitude(), reader.getLongitude());
+
+    long timeMillis = reader.getTimeMillis();
+    hasLocation = reader.next();
+    if (!hasLocation) {
+      complete = true;
+      stop();
+      return;
+    }
+    long delayMillis =
+        Math.max(0, Math.round((reader.getTimeMillis() - timeMillis) / timeCompression));
+    nextLocationFuture = scheduler.schedule(this::emitLocation, delayMillis, MILLISECONDS);
+  }
+}
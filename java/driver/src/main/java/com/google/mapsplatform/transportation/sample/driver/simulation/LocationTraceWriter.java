@@ -0,0 +1,128 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a binary trace of timestamped locations, read back by {@link LocationTraceReader}.
+ *
+ * <p>The trace starts with an 8 byte header (magic and version) followed by blocks of up to {@link
+ * #MAX_LOCATIONS_PER_BLOCK} locations. A block has a fixed size header with its byte length,
+ * location count and first location in full, then the following locations as zigzag varint deltas
+ * of their time in milliseconds and coordinates in 1e-7 degrees. A location one second after the
+ * previous one takes about 6 bytes. Blocks are self-contained, so a reader can skip to a time by
+ * only reading block headers, and a trace cut short by a crash loses at most its last block.
+ */
+public final class LocationTraceWriter implements Closeable, Flushable {
+  static final int MAGIC = 0x47505354; // "GPST"
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 8;
+  // Byte length, location count, time, latitude and longitude.
+  static final int BLOCK_HEADER_BYTES = 4 + 4 + 8 + 4 + 4;
+  static final int MAX_LOCATIONS_PER_BLOCK = 256;
+  static final double E7 = 1e7;
+
+  // A time delta takes at most 10 bytes and a coordinate delta 5.
+  private static final int MAX_DELTA_BYTES = 10 + 5 + 5;
+
+  private final DataOutputStream out;
+  private final byte[] deltas = new byte[MAX_LOCATIONS_PER_BLOCK * MAX_DELTA_BYTES];
+  private int deltasLength;
+  private int count;
+  private long firstTimeMillis;
+  private int firstLatE7;
+  private int firstLngE7;
+  private long lastTimeMillis;
+  private int lastLatE7;
+  private int lastLngE7;
+
+  /** Writes the trace header to {@code out}, which is closed with this writer. */
+  public LocationTraceWriter(OutputStream out) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(out));
+    this.out.writeInt(MAGIC);
+    this.out.writeInt(VERSION);
+  }
+
+  /** Appends a location, the block is written once full. */
+  public void append(long timeMillis, double latitude, double longitude) throws IOException {
+    int latE7 = (int) Math.round(latitude * E7);
+    int lngE7 = (int) Math.round(longitude * E7);
+    if (count == 0) {
+      firstTimeMillis = timeMillis;
+      firstLatE7 = latE7;
+      firstLngE7 = lngE7;
+    } else {
+      writeVarint(zigzag(timeMillis - lastTimeMillis));
+      writeVarint(zigzag(latE7 - lastLatE7));
+      writeVarint(zigzag(lngE7 - lastLngE7));
+    }
+    lastTimeMillis = timeMillis;
+    lastLatE7 = latE7;
+    lastLngE7 = lngE7;
+
+    count++;
+    if (count == MAX_LOCATIONS_PER_BLOCK) {
+      writeBlock();
+    }
+  }
+
+  /** Writes the pending locations as a shorter block, so they survive a crash. */
+  @Override
+  public void flush() throws IOException {
+    writeBlock();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeBlock();
+    } finally {
+      out.close();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    if (count == 0) {
+      return;
+    }
+    out.writeInt(BLOCK_HEADER_BYTES + deltasLength);
+    out.writeInt(count);
+    out.writeLong(firstTimeMillis);
+    out.writeInt(firstLatE7);
+    out.writeInt(firstLngE7);
+    out.write(deltas, 0, deltasLength);
+    count = 0;
+    deltasLength = 0;
+  }
+
+  private void writeVarint(long value) {
+    while ((value & ~0x7FL) != 0) {
+      deltas[deltasLength++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    deltas[deltasLength++] = (byte) value;
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+}
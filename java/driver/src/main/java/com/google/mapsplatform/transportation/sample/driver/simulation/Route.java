@@ -0,0 +1,151 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Polyline a {@link RouteSimulation} drives along. Coordinates and the distance from the start of
+ * every vertex are kept in primitive arrays, so looking up a position allocates nothing.
+ */
+public final class Route {
+  static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final double[] distancesMeters;
+
+  private Route(double[] latitudes, double[] longitudes) {
+    checkArgument(latitudes.length >= 2, "A route needs at least two points.");
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+
+    distancesMeters = new double[latitudes.length];
+    for (int i = 1; i < latitudes.length; i++) {
+      distancesMeters[i] =
+          distancesMeters[i - 1]
+              + distanceMeters(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+    }
+  }
+
+  /**
+   * Decodes a route from the encoded polyline format used by the Maps APIs.
+   *
+   * @throws IllegalArgumentException if the polyline is malformed or has less than two points.
+   */
+  public static Route fromEncodedPolyline(String encodedPolyline) {
+    double[] latitudes = new double[encodedPolyline.length() / 2 + 1];
+    double[] longitudes = new double[latitudes.length];
+    int count = 0;
+    int index = 0;
+    int latE5 = 0;
+    int lngE5 = 0;
+    int[] result = new int[1];
+    while (index < encodedPolyline.length()) {
+      index = decodeValue(encodedPolyline, index, result);
+      latE5 += result[0];
+      index = decodeValue(encodedPolyline, index, result);
+      lngE5 += result[0];
+
+      latitudes[count] = latE5 / 1e5;
+      longitudes[count] = lngE5 / 1e5;
+      count++;
+    }
+    return new Route(Arrays.copyOf(latitudes, count), Arrays.copyOf(longitudes, count));
+  }
+
+  /** Creates a route going straight from one point to the next. */
+  public static Route fromPoints(List<Waypoint.Point> points) {
+    double[] latitudes = new double[points.size()];
+    double[] longitudes = new double[points.size()];
+    for (int i = 0; i < points.size(); i++) {
+      latitudes[i] = points.get(i).getLatitude();
+      longitudes[i] = points.get(i).getLongitude();
+    }
+    return new Route(latitudes, longitudes);
+  }
+
+  public double getLengthMeters() {
+    return distancesMeters[distancesMeters.length - 1];
+  }
+
+  int getPointCount() {
+    return latitudes.length;
+  }
+
+  double getLatitude(int index) {
+    return latitudes[index];
+  }
+
+  double getLongitude(int index) {
+    return longitudes[index];
+  }
+
+  /**
+   * Writes the latitude and longitude of the point {@code distanceMeters} from the start into
+   * {@code position}. The lookup starts at {@code fromSegment}, since a simulation only moves
+   * forward.
+   *
+   * @return the segment holding the point, to pass as {@code fromSegment} on the next lookup.
+   */
+  int locate(double distanceMeters, int fromSegment, double[] position) {
+    int segment = fromSegment;
+    while (segment < latitudes.length - 2 && distancesMeters[segment + 1] < distanceMeters) {
+      segment++;
+    }
+
+    double segmentLength = distancesMeters[segment + 1] - distancesMeters[segment];
+    double fraction =
+        segmentLength == 0 ? 1 : (distanceMeters - distancesMeters[segment]) / segmentLength;
+    fraction = Math.min(1, Math.max(0, fraction));
+    position[0] = latitudes[segment] + (latitudes[segment + 1] - latitudes[segment]) * fraction;
+    position[1] = longitudes[segment] + (longitudes[segment + 1] - longitudes[segment]) * fraction;
+    return segment;
+  }
+
+  /** Great-circle distance between two points. */
+  public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2)
+                * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  // Decodes the value starting at 'index' into result[0] and returns the index after it.
+  private static int decodeValue(String encoded, int index, int[] result) {
+    int value = 0;
+    int shift = 0;
+    int chunk;
+    do {
+      checkArgument(index < encoded.length(), "Truncated polyline.");
+      chunk = encoded.charAt(index++) - 63;
+      checkArgument(chunk >= 0 && chunk < 64, "Invalid polyline character.");
+      value |= (chunk & 0x1f) << shift;
+      shift += 5;
+    } while (chunk >= 0x20);
+
+    result[0] = (value & 1) != 0 ? ~(value >> 1) : value >> 1;
+    return index;
+  }
+}
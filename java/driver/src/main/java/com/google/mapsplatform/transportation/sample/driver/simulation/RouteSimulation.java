@@ -0,0 +1,185 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import androidx.annotation.Nullable;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives along a {@link Route} at a constant speed without the Navigator, emitting an
+ * interpolated location every tick.
+ *
+ * <p>Simulated time only moves with {@link #tick()}, so tests can drive a long trip in a tight
+ * loop, while {@link #start} ticks in real time. Ticks allocate nothing, locations are handed to
+ * the listener as primitives.
+ */
+public final class RouteSimulation {
+  /** Receives the simulated locations. */
+  public interface LocationListener {
+    void onLocation(double latitude, double longitude);
+  }
+
+  // Rounding errors of the travelled distance must not add a tick at the end of the route.
+  private static final double END_OF_ROUTE_TOLERANCE_METERS = 1e-3;
+  private static final double METERS_PER_DEGREE_LATITUDE =
+      Math.PI * Route.EARTH_RADIUS_METERS / 180;
+
+  private final Route route;
+  private final LocationListener listener;
+  private final double metersPerTick;
+  private final long tickIntervalMillis;
+  private final double gpsNoiseMeters;
+  private final Random random;
+  private final double[] position = new double[2];
+
+  private double travelledMeters;
+  private int segment;
+  @Nullable private ScheduledFuture<?> tickFuture;
+
+  private RouteSimulation(Builder builder, LocationListener listener) {
+    route = builder.route;
+    this.listener = listener;
+    tickIntervalMillis = builder.tickIntervalMillis;
+    metersPerTick =
+        builder.speedMetersPerSecond * builder.speedMultiplier * tickIntervalMillis / 1000;
+    gpsNoiseMeters = builder.gpsNoiseMeters;
+    random = new Random(builder.seed);
+  }
+
+  public static Builder builder(Route route) {
+    return new Builder(route);
+  }
+
+  /**
+   * Moves one tick forward and emits the new location, the first tick emits the start of the
+   * route.
+   *
+   * @return false once the end of the route was emitted.
+   */
+  public boolean tick() {
+    segment = route.locate(travelledMeters, segment, position);
+    double latitude = position[0];
+    double longitude = position[1];
+    if (gpsNoiseMeters > 0) {
+      latitude += random.nextGaussian() * gpsNoiseMeters / METERS_PER_DEGREE_LATITUDE;
+      longitude +=
+          random.nextGaussian()
+              * gpsNoiseMeters
+              / (METERS_PER_DEGREE_LATITUDE * Math.cos(Math.toRadians(position[0])));
+    }
+    listener.onLocation(latitude, longitude);
+
+    if (isComplete()) {
+      return false;
+    }
+    travelledMeters += metersPerTick;
+    if (travelledMeters > route.getLengthMeters() - END_OF_ROUTE_TOLERANCE_METERS) {
+      travelledMeters = route.getLengthMeters();
+    }
+    return true;
+  }
+
+  /** Returns true once the end of the route was emitted. */
+  public boolean isComplete() {
+    return travelledMeters >= route.getLengthMeters();
+  }
+
+  /** Distance covered so far. */
+  public double getTravelledMeters() {
+    return travelledMeters;
+  }
+
+  /** Ticks at the tick interval on {@code scheduler} until the route is complete or stopped. */
+  public synchronized void start(ScheduledExecutorService scheduler) {
+    stop();
+    tickFuture =
+        scheduler.scheduleAtFixedRate(
+            () -> {
+              if (!tick()) {
+                stop();
+              }
+            },
+            0,
+            tickIntervalMillis,
+            TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops ticking, {@link #start} resumes from the current location. */
+  public synchronized void stop() {
+    if (tickFuture != null) {
+      tickFuture.cancel(false);
+      tickFuture = null;
+    }
+  }
+
+  /** Builder for {@link RouteSimulation}, defaults to a city driving speed with no GPS noise. */
+  public static final class Builder {
+    private final Route route;
+    private double speedMetersPerSecond = 13.9;
+    private float speedMultiplier = 1;
+    private long tickIntervalMillis = 1000;
+    private double gpsNoiseMeters = 0;
+    private long seed = System.nanoTime();
+
+    private Builder(Route route) {
+      this.route = route;
+    }
+
+    /** Speed of the vehicle before the multiplier is applied. */
+    public Builder setSpeedMetersPerSecond(double speedMetersPerSecond) {
+      checkArgument(speedMetersPerSecond > 0, "speed must be positive");
+      this.speedMetersPerSecond = speedMetersPerSecond;
+      return this;
+    }
+
+    /** Makes simulated time run faster than real time, like the Navigator simulator option. */
+    public Builder setSpeedMultiplier(float speedMultiplier) {
+      checkArgument(speedMultiplier > 0, "speedMultiplier must be positive");
+      this.speedMultiplier = speedMultiplier;
+      return this;
+    }
+
+    /** Real time between two emitted locations, at least 1 ms. */
+    public Builder setTickInterval(long interval, TimeUnit unit) {
+      long intervalMillis = unit.toMillis(interval);
+      // Checked after the conversion, which truncates sub-millisecond intervals to 0.
+      checkArgument(intervalMillis > 0, "interval must be at least 1 ms");
+      this.tickIntervalMillis = intervalMillis;
+      return this;
+    }
+
+    /** Standard deviation of the noise added to each location, 0 disables it. */
+    public Builder setGpsNoiseMeters(double gpsNoiseMeters) {
+      checkArgument(gpsNoiseMeters >= 0, "gpsNoiseMeters must not be negative");
+      this.gpsNoiseMeters = gpsNoiseMeters;
+      return this;
+    }
+
+    /** Seed of the GPS noise, for reproducible runs. */
+    public Builder setSeed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public RouteSimulation build(LocationListener listener) {
+      return new RouteSimulation(this, listener);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.state;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import com.google.mapsplatform.transportation.sample.driver.utils.TripUtils;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows the waypoints of a vehicle and the state of each of its trips, as the provider reports
+ * vehicle updates and the driver moves trips forward.
+ *
+ * <p>It does not depend on the Driver or Navigation SDKs, so the same logic runs in the app and
+ * in JVM tools such as the fleet simulator.
+ */
+public final class TripProgress {
+  private final Map<String, TripState> tripStates = new HashMap<>();
+
+  private List<Waypoint> waypoints = ImmutableList.of();
+  private List<String> matchedTripIds = ImmutableList.of();
+
+  private @Nullable Waypoint currentWaypoint;
+  private @Nullable Waypoint nextWaypoint;
+  private @Nullable Waypoint nextWaypointOfCurrentTrip;
+
+  /**
+   * Recalculates the waypoint pointers from the vehicle state reported by the provider.
+   *
+   * @return the initial state of the trips seen for the first time, in waypoint order. They are
+   *     already tracked and only need to be accepted on the provider.
+   */
+  public synchronized ImmutableList<TripState> onVehicleStateUpdate(VehicleModel vehicle) {
+    waypoints = vehicle.getWaypoints() != null ? vehicle.getWaypoints() : ImmutableList.of();
+    matchedTripIds =
+        vehicle.getCurrentTripsIds() != null ? vehicle.getCurrentTripsIds() : ImmutableList.of();
+
+    currentWaypoint = null;
+    nextWaypoint = null;
+    nextWaypointOfCurrentTrip = null;
+
+    ImmutableList.Builder<TripState> acceptedTrips = ImmutableList.builder();
+    for (int index = 0; index < waypoints.size(); index++) {
+      Waypoint waypoint = waypoints.get(index);
+
+      if (!tripStates.containsKey(waypoint.getTripId())) {
+        TripState initialState = TripUtils.getInitialTripState(waypoint.getTripId());
+        tripStates.put(initialState.tripId(), initialState);
+        acceptedTrips.add(initialState);
+      }
+
+      // The second waypoint is kept for convenience, it becomes the destination once the current
+      // waypoint status changes to 'ARRIVED/COMPLETE'.
+      if (index == 0) {
+        currentWaypoint = waypoint;
+      } else if (index == 1) {
+        nextWaypoint = waypoint;
+      }
+
+      if (index > 0
+          && nextWaypointOfCurrentTrip == null
+          && currentWaypoint.getTripId().equals(waypoint.getTripId())) {
+        nextWaypointOfCurrentTrip = waypoint;
+      }
+    }
+
+    return acceptedTrips.build();
+  }
+
+  /** Returns the state the trip of the current waypoint moves to next. */
+  public synchronized TripState getNextStateOfCurrentTrip() {
+    if (currentWaypoint == null) {
+      throw new IllegalStateException("No current waypoint.");
+    }
+    return TripUtils.getNextTripState(
+        tripStates.get(currentWaypoint.getTripId()), nextWaypointOfCurrentTrip);
+  }
+
+  /** Returns the 'ENROUTE' state heading to the next waypoint, null if there is none. */
+  @Nullable
+  public synchronized TripState getEnrouteStateOfNextWaypoint() {
+    if (nextWaypoint == null) {
+      return null;
+    }
+    return TripUtils.getEnrouteStateForWaypoint(
+        nextWaypoint, tripStates.get(nextWaypoint.getTripId()));
+  }
+
+  /** Records the latest state of a trip. */
+  public synchronized void putTripState(TripState tripState) {
+    tripStates.put(tripState.tripId(), tripState);
+  }
+
+  @Nullable
+  public synchronized TripState getTripState(String tripId) {
+    return tripStates.get(tripId);
+  }
+
+  public synchronized List<Waypoint> getWaypoints() {
+    return waypoints;
+  }
+
+  public synchronized List<String> getMatchedTripIds() {
+    return matchedTripIds;
+  }
+
+  @Nullable
+  public synchronized Waypoint getCurrentWaypoint() {
+    return currentWaypoint;
+  }
+
+  @Nullable
+  public synchronized Waypoint getNextWaypoint() {
+    return nextWaypoint;
+  }
+
+  /** Returns true if the current trip continues to an intermediate destination. */
+  public synchronized boolean isNextWaypointOfCurrentTripIntermediate() {
+    return nextWaypointOfCurrentTrip != null
+        && nextWaypointOfCurrentTrip
+            .getWaypointType()
+            .equals(TripUtils.INTERMEDIATE_DESTINATION_WAYPOINT_TYPE);
+  }
+}
@@ -0,0 +1,192 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.state;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+/**
+ * Applies trip updates to a {@link TripProgress} as soon as they are submitted, so the driver sees
+ * them right away, and sends them to the provider in the background, one at a time and in the
+ * order they were submitted.
+ *
+ * <p>If the provider rejects an update, its trip goes back to the last state the provider accepted
+ * and the updates of that trip queued after it are dropped, since they built on the rejected one.
+ *
+ * <p>Every update gets the next revision number. A vehicle poll sent once the provider answered
+ * the updates up to a revision reflects them, so comparing that revision with the latest one tells
+ * whether the poll response may predate local updates, see {@link #isStale}.
+ */
+public final class TripUpdateQueue {
+  /** Sends a trip state to the provider. */
+  public interface Sender {
+    ListenableFuture<?> send(TripState tripState);
+  }
+
+  /** Told when a trip was rolled back because the provider rejected one of its updates. */
+  public interface RollbackListener {
+    void onRollback(TripState rejectedState, TripState restoredState, Throwable cause);
+  }
+
+  // Trip with updates not answered by the provider yet.
+  private static final class PendingTrip {
+    TripState confirmedState;
+    int updateCount;
+    // Incremented on rollback, updates submitted before that are dropped.
+    int generation;
+
+    PendingTrip(TripState confirmedState) {
+      this.confirmedState = confirmedState;
+    }
+  }
+
+  private static final class Update {
+    final TripState tripState;
+    final long revision;
+    final PendingTrip trip;
+    // Generation of the trip when the update was submitted.
+    final int generation;
+
+    Update(TripState tripState, long revision, PendingTrip trip, int generation) {
+      this.tripState = tripState;
+      this.revision = revision;
+      this.trip = trip;
+      this.generation = generation;
+    }
+  }
+
+  private final TripProgress tripProgress;
+  private final Sender sender;
+  private final Executor executor;
+  private final RollbackListener rollbackListener;
+  private final Map<String, PendingTrip> pendingTrips = new HashMap<>();
+  private ListenableFuture<?> lastUpdate = Futures.immediateVoidFuture();
+  private long lastRevision;
+  private long answeredRevision;
+
+  /** @param executor runs the provider callbacks and the rollback listener. */
+  public TripUpdateQueue(
+      TripProgress tripProgress,
+      Sender sender,
+      Executor executor,
+      RollbackListener rollbackListener) {
+    this.tripProgress = tripProgress;
+    this.sender = sender;
+    this.executor = executor;
+    this.rollbackListener = rollbackListener;
+  }
+
+  /**
+   * Records {@code tripState} as the state of its trip and queues it for the provider.
+   *
+   * @return a future completing once the provider accepted the update. It fails with the error of
+   *     the provider if the update was rejected, or with a {@link CancellationException} if it was
+   *     dropped by the rollback of an earlier update.
+   */
+  public synchronized ListenableFuture<Void> submit(TripState tripState) {
+    PendingTrip trip = pendingTrips.get(tripState.tripId());
+    if (trip == null) {
+      TripState currentState = tripProgress.getTripState(tripState.tripId());
+      trip = new PendingTrip(currentState != null ? currentState : tripState);
+      pendingTrips.put(tripState.tripId(), trip);
+    }
+    trip.updateCount++;
+    tripProgress.putTripState(tripState);
+
+    Update update = new Update(tripState, ++lastRevision, trip, trip.generation);
+    SettableFuture<Void> result = SettableFuture.create();
+    lastUpdate.addListener(() -> send(update, result), directExecutor());
+    lastUpdate = result;
+    return result;
+  }
+
+  /** Returns true if updates of the trip were submitted and not answered by the provider yet. */
+  public synchronized boolean hasPendingUpdates(String tripId) {
+    return pendingTrips.containsKey(tripId);
+  }
+
+  /**
+   * Returns the revision of the last update the provider answered. A vehicle poll sent now
+   * reflects the updates up to it, so the revision is kept with the poll.
+   */
+  public synchronized long getAnsweredRevision() {
+    return answeredRevision;
+  }
+
+  /**
+   * Returns true if updates were submitted after {@code observedRevision}, the revision answered
+   * when a vehicle poll was sent. The response of that poll may then hold the provider state from
+   * before them, such as waypoints the driver already moved past.
+   */
+  public synchronized boolean isStale(long observedRevision) {
+    return observedRevision < lastRevision;
+  }
+
+  private void send(Update update, SettableFuture<Void> result) {
+    TripState tripState = update.tripState;
+    PendingTrip trip = update.trip;
+    synchronized (this) {
+      if (update.generation != trip.generation) {
+        finishUpdate(update);
+        result.cancel(false);
+        return;
+      }
+    }
+
+    Futures.addCallback(
+        sender.send(tripState),
+        new FutureCallback<Object>() {
+          @Override
+          public void onSuccess(Object response) {
+            synchronized (TripUpdateQueue.this) {
+              trip.confirmedState = tripState;
+              finishUpdate(update);
+            }
+            result.set(null);
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            TripState restoredState;
+            synchronized (TripUpdateQueue.this) {
+              restoredState = trip.confirmedState;
+              trip.generation++;
+              tripProgress.putTripState(restoredState);
+              finishUpdate(update);
+            }
+            rollbackListener.onRollback(tripState, restoredState, t);
+            result.setException(t);
+          }
+        },
+        executor);
+  }
+
+  // Updates finish in revision order, since they are sent one at a time.
+  private void finishUpdate(Update update) {
+    answeredRevision = update.revision;
+    update.trip.updateCount--;
+    if (update.trip.updateCount == 0) {
+      pendingTrips.remove(update.tripState.tripId());
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.tracing;
+
+import androidx.tracing.Trace;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A timed operation of a trace, created by {@link Tracer}. It may end on another thread than the
+ * one that started it, so it shows in system traces as an async section.
+ *
+ * <p>Spans are exported once, on the first call to {@link #end}.
+ */
+public final class Span implements AutoCloseable {
+  /** Restores the previous current span of the thread when closed. */
+  public interface Scope extends AutoCloseable {
+    @Override
+    void close();
+  }
+
+  private final Tracer tracer;
+  private final String name;
+  private final long traceId;
+  private final long spanId;
+  private final long parentSpanId;
+  private final long startNanos;
+  private final AtomicBoolean ended = new AtomicBoolean();
+  private final Map<String, String> attributes = new LinkedHashMap<>();
+
+  Span(Tracer tracer, String name, long traceId, long spanId, long parentSpanId) {
+    this.tracer = tracer;
+    this.name = name;
+    this.traceId = traceId;
+    this.spanId = spanId;
+    this.parentSpanId = parentSpanId;
+    startNanos = System.nanoTime();
+    Trace.beginAsyncSection(name, cookie());
+  }
+
+  public long getTraceId() {
+    return traceId;
+  }
+
+  public long getSpanId() {
+    return spanId;
+  }
+
+  /** Starts a span of the same trace, whose parent is this one. */
+  public Span startChild(String childName) {
+    return new Span(tracer, childName, traceId, tracer.nextId(), spanId);
+  }
+
+  /** Adds a key and value to the exported span, the last value of a key wins. */
+  public synchronized Span setAttribute(String key, Object value) {
+    attributes.put(key, String.valueOf(value));
+    return this;
+  }
+
+  /**
+   * Makes this span the parent of the spans started by {@link Tracer#startSpan} on this thread,
+   * until the scope is closed. The scope is a synchronous section of system traces.
+   */
+  public Scope makeCurrent() {
+    Span previous = tracer.setCurrentSpan(this);
+    Trace.beginSection(name);
+    return () -> {
+      Trace.endSection();
+      tracer.setCurrentSpan(previous);
+    };
+  }
+
+  /** Returns a runnable running {@code runnable} with this span current. */
+  public Runnable wrap(Runnable runnable) {
+    return () -> {
+      try (Scope scope = makeCurrent()) {
+        runnable.run();
+      }
+    };
+  }
+
+  /** Returns an executor running its tasks with this span current, for instance callbacks. */
+  public Executor wrap(Executor executor) {
+    return command -> executor.execute(wrap(command));
+  }
+
+  /** Ends the span when {@code future} completes, recording its failure if any. */
+  public <T> ListenableFuture<T> endWhenDone(ListenableFuture<T> future) {
+    future.addListener(
+        () -> {
+          try {
+            future.get();
+          } catch (ExecutionException e) {
+            setAttribute("error", e.getCause());
+          } catch (InterruptedException | RuntimeException e) {
+            setAttribute("error", e);
+          }
+          end();
+        },
+        MoreExecutors.directExecutor());
+    return future;
+  }
+
+  /** Ends the span and exports it, later calls do nothing. */
+  public void end() {
+    if (!ended.compareAndSet(false, true)) {
+      return;
+    }
+    long durationNanos = System.nanoTime() - startNanos;
+    Trace.endAsyncSection(name, cookie());
+
+    SpanData data;
+    synchronized (this) {
+      data =
+          SpanData.create(
+              traceId, spanId, parentSpanId, name, startNanos, durationNanos, attributes);
+    }
+    tracer.export(data);
+  }
+
+  @Override
+  public void close() {
+    end();
+  }
+
+  // Identifies the async section among the ones with the same name.
+  private int cookie() {
+    return (int) spanId;
+  }
+}
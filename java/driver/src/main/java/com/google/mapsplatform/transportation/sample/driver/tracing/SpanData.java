@@ -0,0 +1,75 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.tracing;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** A finished {@link Span}, as handed to the {@link SpanRingBuffer}. */
+@AutoValue
+public abstract class SpanData {
+  /** Parent span ID of the root span of a trace. */
+  public static final long NO_PARENT = 0;
+
+  public abstract long traceId();
+
+  public abstract long spanId();
+
+  public abstract long parentSpanId();
+
+  public abstract String name();
+
+  /** {@link System#nanoTime} reading when the span started. */
+  public abstract long startNanos();
+
+  public abstract long durationNanos();
+
+  public abstract ImmutableMap<String, String> attributes();
+
+  public static SpanData create(
+      long traceId,
+      long spanId,
+      long parentSpanId,
+      String name,
+      long startNanos,
+      long durationNanos,
+      Map<String, String> attributes) {
+    return new AutoValue_SpanData(
+        traceId,
+        spanId,
+        parentSpanId,
+        name,
+        startNanos,
+        durationNanos,
+        ImmutableMap.copyOf(attributes));
+  }
+
+  /** Formats the span on one line, for instance {@code 12/13<12 fetchVehicle 84.210ms}. */
+  public String format() {
+    StringBuilder line = new StringBuilder().append(traceId()).append('/').append(spanId());
+    if (parentSpanId() != NO_PARENT) {
+      line.append('<').append(parentSpanId());
+    }
+    line.append(' ')
+        .append(name())
+        .append(String.format(Locale.US, " %.3fms", durationNanos() / 1e6));
+    for (Map.Entry<String, String> attribute : attributes().entrySet()) {
+      line.append(' ').append(attribute.getKey()).append('=').append(attribute.getValue());
+    }
+    return line.toString();
+  }
+}
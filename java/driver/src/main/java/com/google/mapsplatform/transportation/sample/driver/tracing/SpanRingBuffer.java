@@ -0,0 +1,67 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.tracing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+
+/**
+ * Keeps the last finished spans in memory, overwriting the oldest ones once full. It lets tests
+ * assert on traces and {@code dumpsys} show the recent ones without any export pipeline.
+ */
+public final class SpanRingBuffer {
+  private final SpanData[] spans;
+  private int next;
+  private int size;
+
+  public SpanRingBuffer(int capacity) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    spans = new SpanData[capacity];
+  }
+
+  synchronized void add(SpanData span) {
+    spans[next] = span;
+    next = (next + 1) % spans.length;
+    size = Math.min(size + 1, spans.length);
+  }
+
+  /** Returns the spans held, in the order they finished. */
+  public synchronized ImmutableList<SpanData> getSpans() {
+    ImmutableList.Builder<SpanData> result = ImmutableList.builderWithExpectedSize(size);
+    for (int i = 0; i < size; i++) {
+      result.add(spans[(next - size + i + spans.length) % spans.length]);
+    }
+    return result.build();
+  }
+
+  /** Returns the spans held of one trace, in the order they finished. */
+  public synchronized ImmutableList<SpanData> getTrace(long traceId) {
+    ImmutableList.Builder<SpanData> result = ImmutableList.builder();
+    for (SpanData span : getSpans()) {
+      if (span.traceId() == traceId) {
+        result.add(span);
+      }
+    }
+    return result.build();
+  }
+
+  public synchronized void clear() {
+    Arrays.fill(spans, null);
+    next = 0;
+    size = 0;
+  }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.tracing;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Starts the spans of the app and keeps the finished ones in a {@link SpanRingBuffer}.
+ *
+ * <p>A trace follows one piece of work, such as a vehicle poll or a tap on the action button,
+ * across threads. Work running synchronously inherits the trace from the span made current with
+ * {@link Span#makeCurrent}; work handed to an executor or completing a future is given its span
+ * explicitly, with {@link Span#wrap} or {@link #wrap}.
+ */
+public final class Tracer {
+  private static final int RING_BUFFER_CAPACITY = 512;
+  private static final Tracer INSTANCE = new Tracer(new SpanRingBuffer(RING_BUFFER_CAPACITY));
+
+  private final SpanRingBuffer ringBuffer;
+  private final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+  private final AtomicLong lastId = new AtomicLong();
+
+  /** Returns the tracer shared by the app. */
+  public static Tracer getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  Tracer(SpanRingBuffer ringBuffer) {
+    this.ringBuffer = ringBuffer;
+  }
+
+  /** Starts the root span of a new trace. */
+  public Span startTrace(String name) {
+    long id = nextId();
+    return new Span(this, name, id, id, SpanData.NO_PARENT);
+  }
+
+  /** Starts a child of the current span of this thread, or a new trace if there is none. */
+  public Span startSpan(String name) {
+    Span parent = currentSpan.get();
+    return parent != null ? parent.startChild(name) : startTrace(name);
+  }
+
+  /** Returns the span made current on this thread, if any. */
+  @Nullable
+  public Span getCurrentSpan() {
+    return currentSpan.get();
+  }
+
+  /**
+   * Returns a runnable running {@code runnable} in a span named {@code name}, a child of the span
+   * current now rather than when it runs. Meant for work posted to another thread.
+   */
+  public Runnable wrap(String name, Runnable runnable) {
+    Span parent = currentSpan.get();
+    return () -> {
+      Span span = parent != null ? parent.startChild(name) : startTrace(name);
+      try (Span.Scope scope = span.makeCurrent()) {
+        runnable.run();
+      } finally {
+        span.end();
+      }
+    };
+  }
+
+  public SpanRingBuffer getRingBuffer() {
+    return ringBuffer;
+  }
+
+  long nextId() {
+    return lastId.incrementAndGet();
+  }
+
+  // Returns the span that was current.
+  @Nullable
+  Span setCurrentSpan(@Nullable Span span) {
+    Span previous = currentSpan.get();
+    if (span == null) {
+      currentSpan.remove();
+    } else {
+      currentSpan.set(span);
+    }
+    return previous;
+  }
+
+  void export(SpanData span) {
+    ringBuffer.add(span);
+  }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link LocalSettings}. */
+@RunWith(AndroidJUnit4.class)
+public final class LocalSettingsTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService ioExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("settings-io-%d").build());
+  private final QueueExecutor queueExecutor = new QueueExecutor();
+  private final Set<Thread> diskThreads = ConcurrentHashMap.newKeySet();
+
+  private File file;
+  private SettingsFile settingsFile;
+
+  @Before
+  public void setUp() throws Exception {
+    file = new File(temporaryFolder.getRoot(), "settings.json");
+    // Records the threads doing disk I/O, like a StrictMode disk read/write policy would.
+    settingsFile = spy(new SettingsFile(file));
+    doAnswer(
+            invocation -> {
+              diskThreads.add(Thread.currentThread());
+              return invocation.callRealMethod();
+            })
+        .when(settingsFile)
+        .read();
+    doAnswer(
+            invocation -> {
+              diskThreads.add(Thread.currentThread());
+              return invocation.callRealMethod();
+            })
+        .when(settingsFile)
+        .write(any());
+  }
+
+  @After
+  public void tearDown() {
+    ioExecutor.shutdownNow();
+  }
+
+  @Test
+  public void readsAndSaves_doNoDiskIoOnTheCallingThread() throws Exception {
+    LocalSettings localSettings = new LocalSettings(settingsFile, ioExecutor);
+
+    localSettings.getVehicleId();
+    localSettings.saveVehicleId("Vehicle_2");
+    localSettings.saveIsSimulationEnabled(false);
+    localSettings.getIsSimulationEnabled();
+    localSettings.flush().get(5, TimeUnit.SECONDS);
+
+    assertThat(diskThreads).isNotEmpty();
+    assertThat(diskThreads).doesNotContain(Thread.currentThread());
+    for (Thread thread : diskThreads) {
+      assertThat(thread.getName()).startsWith("settings-io-");
+    }
+  }
+
+  @Test
+  public void save_updatesSnapshotBeforeTheWrite() throws Exception {
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+    queueExecutor.runAll();
+
+    localSettings.saveVehicleId("Vehicle_2");
+
+    assertThat(localSettings.getVehicleId()).isEqualTo("Vehicle_2");
+    assertThat(file.exists()).isFalse();
+
+    queueExecutor.runAll();
+
+    assertThat(new SettingsFile(file).read())
+        .isEqualTo(DriverSettings.DEFAULT.withVehicleId("Vehicle_2"));
+  }
+
+  @Test
+  public void saves_areBatchedIntoOneWrite() throws Exception {
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+    queueExecutor.runAll();
+
+    localSettings.saveVehicleId("Vehicle_2");
+    localSettings.saveVehicleId("Vehicle_3");
+    localSettings.saveIsSimulationEnabled(false);
+    queueExecutor.runAll();
+
+    verify(settingsFile, times(1)).write(any());
+    assertThat(new SettingsFile(file).read()).isEqualTo(DriverSettings.create("Vehicle_3", false));
+    assertThat(temporaryFolder.getRoot().list()).asList().containsExactly("settings.json");
+  }
+
+  @Test
+  public void load_publishesStoredSettingsToListeners() throws Exception {
+    new SettingsFile(file).write(DriverSettings.create("Vehicle_7", false));
+    List<DriverSettings> notified = new ArrayList<>();
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+    localSettings.addListener(notified::add, MoreExecutors.directExecutor());
+
+    assertThat(localSettings.getSettings()).isEqualTo(DriverSettings.DEFAULT);
+    assertThat(localSettings.whenLoaded().isDone()).isFalse();
+
+    queueExecutor.runAll();
+
+    DriverSettings stored = DriverSettings.create("Vehicle_7", false);
+    assertThat(localSettings.whenLoaded().get()).isEqualTo(stored);
+    assertThat(notified).containsExactly(stored);
+  }
+
+  @Test
+  public void saveBeforeLoad_winsOverStoredSettings() throws Exception {
+    new SettingsFile(file).write(DriverSettings.create("Vehicle_7", false));
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+
+    localSettings.saveVehicleId("Vehicle_2");
+    queueExecutor.runAll();
+
+    assertThat(localSettings.getVehicleId()).isEqualTo("Vehicle_2");
+    assertThat(new SettingsFile(file).read().vehicleId()).isEqualTo("Vehicle_2");
+  }
+
+  @Test
+  public void save_sameValue_doesNotWriteOrNotify() throws Exception {
+    List<DriverSettings> notified = new ArrayList<>();
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+    queueExecutor.runAll();
+    localSettings.addListener(notified::add, MoreExecutors.directExecutor());
+    notified.clear();
+
+    localSettings.saveVehicleId(DriverSettings.DEFAULT_VEHICLE_ID);
+    queueExecutor.runAll();
+
+    verify(settingsFile, times(0)).write(any());
+    assertThat(notified).isEmpty();
+  }
+
+  @Test
+  public void save_rejectedWrite_isSavedWithTheNextChange() throws Exception {
+    LocalSettings localSettings = new LocalSettings(settingsFile, queueExecutor);
+    queueExecutor.runAll();
+
+    queueExecutor.rejectNext = true;
+    localSettings.saveVehicleId("Vehicle_2");
+    queueExecutor.runAll();
+    verify(settingsFile, times(0)).write(any());
+    localSettings.saveIsSimulationEnabled(false);
+    queueExecutor.runAll();
+
+    assertThat(new SettingsFile(file).read()).isEqualTo(DriverSettings.create("Vehicle_2", false));
+  }
+
+  /** Runs tasks only when asked to, on the test thread. */
+  private static final class QueueExecutor implements Executor {
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    // Rejects the next task like a saturated pool.
+    boolean rejectNext;
+
+    @Override
+    public void execute(Runnable task) {
+      if (rejectNext) {
+        rejectNext = false;
+        throw new RejectedExecutionException();
+      }
+      tasks.add(task);
+    }
+
+    void runAll() {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        task.run();
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StartupTimer}. */
+@RunWith(JUnit4.class)
+public final class StartupTimerTest {
+  private final FakeTicker ticker = new FakeTicker();
+  private final StartupTimer startupTimer = new StartupTimer(ticker);
+
+  @Test
+  public void time_recordsDurationWhenFutureCompletes() {
+    ticker.advanceMillis(100);
+    SettableFuture<String> future = SettableFuture.create();
+    startupTimer.time("phase", future);
+    ticker.advanceMillis(250);
+
+    assertThat(startupTimer.getPhaseDurationsMillis()).isEmpty();
+
+    future.set("done");
+
+    assertThat(startupTimer.getPhaseDurationsMillis()).containsExactly("phase", 250L);
+    assertThat(startupTimer.getPhaseEndsMillis()).containsExactly("phase", 350L);
+  }
+
+  @Test
+  public void time_overlappingPhasesEndBeforeTheSumOfTheirDurations() {
+    SettableFuture<Void> navigator = SettableFuture.create();
+    SettableFuture<Void> vehicle = SettableFuture.create();
+    startupTimer.time("navigator", navigator);
+    startupTimer.time("vehicle", vehicle);
+
+    ticker.advanceMillis(300);
+    vehicle.set(null);
+    ticker.advanceMillis(200);
+    navigator.set(null);
+    startupTimer.mark("ready");
+
+    assertThat(startupTimer.getPhaseDurationsMillis())
+        .containsExactly("vehicle", 300L, "navigator", 500L, "ready", 500L)
+        .inOrder();
+  }
+
+  @Test
+  public void time_recordsFailedPhases() {
+    SettableFuture<Void> future = SettableFuture.create();
+    startupTimer.time("phase", future);
+    ticker.advanceMillis(40);
+
+    future.setException(new IllegalStateException());
+
+    assertThat(startupTimer.getPhaseDurationsMillis()).containsExactly("phase", 40L);
+    assertThat(startupTimer.summary()).contains("phase: 40 ms");
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
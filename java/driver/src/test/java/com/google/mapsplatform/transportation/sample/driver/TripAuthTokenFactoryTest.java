@@ -0,0 +1,118 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.android.libraries.mapsplatform.transportation.driver.api.base.data.AuthTokenContext;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.gson.Gson;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TokenResponse;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TripAuthTokenFactory}. */
+@RunWith(JUnit4.class)
+public final class TripAuthTokenFactoryTest {
+  private static final String VEHICLE_ID = "vehicle_1";
+  private static final String OTHER_VEHICLE_ID = "vehicle_2";
+
+  private final ExecutorService sdkThread = Executors.newSingleThreadExecutor();
+  private final LocalProviderService providerService = mock(LocalProviderService.class);
+  private final SettableFuture<TokenResponse> tokenResponse = SettableFuture.create();
+  private final TripAuthTokenFactory tripAuthTokenFactory =
+      new TripAuthTokenFactory(providerService);
+
+  @After
+  public void tearDown() {
+    sdkThread.shutdownNow();
+  }
+
+  @Test
+  public void getToken_whilePrefetchInFlight_waitsForIt() throws Exception {
+    when(providerService.fetchAuthToken(VEHICLE_ID)).thenReturn(tokenResponse);
+    ListenableFuture<Boolean> prefetch = tripAuthTokenFactory.prefetchToken(VEHICLE_ID);
+
+    AuthTokenContext context = newContext(VEHICLE_ID);
+    Future<String> token = sdkThread.submit(() -> tripAuthTokenFactory.getToken(context));
+    tokenResponse.set(newTokenResponse("token_1"));
+
+    assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo("token_1");
+    assertThat(prefetch.get()).isTrue();
+    assertThat(getToken(VEHICLE_ID)).isEqualTo("token_1");
+    verify(providerService, times(1)).fetchAuthToken(VEHICLE_ID);
+  }
+
+  @Test
+  public void getToken_waitsWithoutHoldingTheLock() throws Exception {
+    when(providerService.fetchAuthToken(VEHICLE_ID)).thenReturn(tokenResponse);
+    when(providerService.fetchAuthToken(OTHER_VEHICLE_ID)).thenReturn(SettableFuture.create());
+    AuthTokenContext context = newContext(VEHICLE_ID);
+    Future<String> token = sdkThread.submit(() -> tripAuthTokenFactory.getToken(context));
+    verify(providerService, timeout(5_000)).fetchAuthToken(VEHICLE_ID);
+
+    // Blocks on the lock if the waiting getToken holds it.
+    tripAuthTokenFactory.prefetchToken(OTHER_VEHICLE_ID);
+
+    assertThat(token.isDone()).isFalse();
+    tokenResponse.set(newTokenResponse("token_1"));
+    assertThat(token.get(5, TimeUnit.SECONDS)).isEqualTo("token_1");
+  }
+
+  @Test
+  public void getToken_afterFailedFetch_fetchesAgain() {
+    when(providerService.fetchAuthToken(VEHICLE_ID))
+        .thenReturn(Futures.immediateFailedFuture(new IllegalStateException("Provider down")))
+        .thenReturn(tokenResponse);
+    tripAuthTokenFactory.prefetchToken(VEHICLE_ID);
+    tokenResponse.set(newTokenResponse("token_1"));
+
+    assertThat(getToken(VEHICLE_ID)).isEqualTo("token_1");
+    verify(providerService, times(2)).fetchAuthToken(VEHICLE_ID);
+  }
+
+  private String getToken(String vehicleId) {
+    return tripAuthTokenFactory.getToken(newContext(vehicleId));
+  }
+
+  private static AuthTokenContext newContext(String vehicleId) {
+    AuthTokenContext context = mock(AuthTokenContext.class);
+    when(context.getVehicleId()).thenReturn(vehicleId);
+    return context;
+  }
+
+  private static TokenResponse newTokenResponse(String token) {
+    return new Gson()
+        .fromJson(
+            String.format(
+                "{\"jwt\":\"%s\",\"expirationTimestamp\":%d}",
+                token, System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)),
+            TokenResponse.class);
+  }
+}
@@ -14,13 +14,17 @@
  */
 package com.google.mapsplatform.transportation.sample.driver;
 
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
-import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.android.libraries.navigation.Navigator;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
 import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
@@ -30,17 +34,15 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 /** Unit tests for {@link VehicleController}. */
-@RunWith(JUnit4.class)
+@RunWith(AndroidJUnit4.class)
 public final class VehicleControllerTest {
   @Rule public final MockitoRule mockito = MockitoJUnit.rule();
 
-  @Mock private Context contextMock;
   @Mock private ExecutorService executorServiceMock;
   @Mock private Navigator navigatorMock;
   @Mock private LocalProviderService localproviderServiceMock;
@@ -60,7 +62,8 @@ public final class VehicleControllerTest {
         new VehicleController(
             navigatorMock,
             executorServiceMock,
-            contextMock,
+            directExecutor(),
+            Ticker.systemTicker(),
             localproviderServiceMock,
             localSettingsMock);
 
@@ -81,7 +84,7 @@ public final class VehicleControllerTest {
 
     vehicleModel.setWaypoints(ImmutableList.of(tripWaypoint));
 
-    vehicleController.onVehicleStateUpdate(vehicleModel);
+    vehicleController.onVehicleStateUpdate(vehicleModel, vehicleController.getRevision());
 
     verify(presenterMock).showTripId(TRIP_ID);
     verify(presenterMock).showTripStatus(TripStatus.NEW);
@@ -92,10 +95,24 @@ public final class VehicleControllerTest {
   public void onVehicleStateUpdate_updatesUiForVehicleModelNoWaypoints() {
     vehicleModel.setWaypoints(ImmutableList.of());
 
-    vehicleController.onVehicleStateUpdate(vehicleModel);
+    vehicleController.onVehicleStateUpdate(vehicleModel, vehicleController.getRevision());
 
     verify(presenterMock).showTripId(VehicleController.NO_TRIP_ID);
     verify(presenterMock).showTripStatus(TripStatus.UNKNOWN_TRIP_STATUS);
     verify(presenterMock).showMatchedTripIds(currentTripIds);
   }
+
+  @Test
+  public void requiresNewDriverApi_onlyWhenVehicleIdChanges() {
+    VehicleSettings settings =
+        new VehicleSettings("Vehicle_1", false, 4, ImmutableList.of("EXCLUSIVE"));
+    VehicleSettings otherAttributes =
+        new VehicleSettings("Vehicle_1", true, 2, ImmutableList.of("SHARED"));
+    VehicleSettings otherVehicle =
+        new VehicleSettings("Vehicle_2", false, 4, ImmutableList.of("EXCLUSIVE"));
+
+    assertThat(VehicleController.requiresNewDriverApi(settings, otherAttributes)).isFalse();
+    assertThat(VehicleController.requiresNewDriverApi(settings, otherVehicle)).isTrue();
+    assertThat(VehicleController.requiresNewDriverApi(null, settings)).isTrue();
+  }
 }
@@ -14,14 +14,26 @@
  */
 package com.google.mapsplatform.transportation.sample.driver;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.refEq;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.android.gms.maps.model.LatLng;
 import com.google.android.libraries.navigation.SimulationOptions;
 import com.google.android.libraries.navigation.Simulator;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceReader;
+import com.google.mapsplatform.transportation.sample.driver.simulation.LocationTraceWriter;
+import com.google.mapsplatform.transportation.sample.driver.simulation.Route;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -40,12 +52,21 @@ public final class VehicleSimulatorTest {
   @Mock private LocalSettings localSettingsMock;
 
   private static final float SPEED_MULTIPLIER = 5.0f;
+  // About 110 meters due north.
+  private static final String ENCODED_ROUTE = "_ugcF~sfhVgE?";
 
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
   private VehicleSimulator vehicleSimulator;
 
   @Before
   public void setUp() {
-    vehicleSimulator = new VehicleSimulator(simulatorMock, localSettingsMock);
+    vehicleSimulator =
+        new VehicleSimulator(simulatorMock, localSettingsMock, scheduler, directExecutor());
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.shutdownNow();
   }
 
   @Test
@@ -67,4 +88,67 @@ public final class VehicleSimulatorTest {
 
     verify(simulatorMock, never()).simulateLocationsAlongExistingRoute(any());
   }
+
+  @Test
+  public void startAlongRoute_setsUserLocationsWhenEnabled() {
+    when(localSettingsMock.getIsSimulationEnabled()).thenReturn(true);
+
+    vehicleSimulator.startAlongRoute(
+        Route.fromEncodedPolyline(ENCODED_ROUTE), /* speedMultiplier= */ 1000);
+
+    verify(simulatorMock, timeout(1_000).atLeastOnce()).setUserLocation(any(LatLng.class));
+  }
+
+  @Test
+  public void startAlongRoute_doesNotSimulateWhenDisabled() throws Exception {
+    when(localSettingsMock.getIsSimulationEnabled()).thenReturn(false);
+
+    vehicleSimulator.startAlongRoute(
+        Route.fromEncodedPolyline(ENCODED_ROUTE), /* speedMultiplier= */ 1000);
+    Thread.sleep(50);
+
+    verify(simulatorMock, never()).setUserLocation(any());
+  }
+
+  @Test
+  public void startTraceReplay_setsUserLocationsWhenEnabled() throws Exception {
+    when(localSettingsMock.getIsSimulationEnabled()).thenReturn(true);
+
+    vehicleSimulator.startTraceReplay(traceOfTwoLocations(), /* timeCompression= */ 1000);
+
+    verify(simulatorMock, timeout(1_000)).setUserLocation(new LatLng(37.4, -122.1));
+    verify(simulatorMock, timeout(1_000)).setUserLocation(new LatLng(37.401, -122.1));
+  }
+
+  @Test
+  public void startTraceReplay_doesNotSimulateWhenDisabled() throws Exception {
+    when(localSettingsMock.getIsSimulationEnabled()).thenReturn(false);
+
+    vehicleSimulator.startTraceReplay(traceOfTwoLocations(), /* timeCompression= */ 1000);
+    Thread.sleep(50);
+
+    verify(simulatorMock, never()).setUserLocation(any());
+  }
+
+  @Test
+  public void start_whileReplayingTrace_letsTheTraceDrive() throws Exception {
+    when(localSettingsMock.getIsSimulationEnabled()).thenReturn(true);
+    vehicleSimulator.startTraceReplay(traceOfTwoLocations(), /* timeCompression= */ 1);
+
+    vehicleSimulator.start(SPEED_MULTIPLIER);
+    vehicleSimulator.unsetLocation();
+
+    verify(simulatorMock, never()).simulateLocationsAlongExistingRoute(any());
+    verify(simulatorMock, never()).unsetUserLocation();
+    verify(simulatorMock, timeout(5_000)).setUserLocation(new LatLng(37.401, -122.1));
+  }
+
+  private static LocationTraceReader traceOfTwoLocations() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LocationTraceWriter writer = new LocationTraceWriter(out)) {
+      writer.append(/* timeMillis= */ 0, 37.4, -122.1);
+      writer.append(/* timeMillis= */ 1000, 37.401, -122.1);
+    }
+    return new LocationTraceReader(ByteBuffer.wrap(out.toByteArray()));
+  }
 }
@@ -0,0 +1,49 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Load test of {@link FleetSimulator} up to 1,000 vehicles. It takes several seconds, so the unit
+ * tests skip it unless run with {@code ./gradlew :java:driver:testDebugUnitTest -PfleetLoadTest}.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class FleetLoadTest {
+  private static final Scenario FLEET =
+      Scenario.builder()
+          .runFor(1_500, MILLISECONDS)
+          .legDuration(40, MILLISECONDS)
+          .pollEvery(20, MILLISECONDS)
+          .providerLatency(2, MILLISECONDS)
+          .build();
+
+  @Test
+  public void run_scalesTo10_100And1000Vehicles() throws Exception {
+    for (int vehicles : new int[] {10, 100, 1_000}) {
+      FleetReport report =
+          FleetSimulator.run(FLEET.toBuilder().vehicles(vehicles).tripsPerSecond(vehicles).build());
+
+      assertThat(report.operations.get(VirtualDriver.OPERATION_GET_VEHICLE).calls)
+          .isAtLeast(vehicles);
+      assertThat(report.tripsCompleted).isGreaterThan(0);
+    }
+  }
+}
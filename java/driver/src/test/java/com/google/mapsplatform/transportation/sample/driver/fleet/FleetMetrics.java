@@ -0,0 +1,127 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/** Latencies and outcomes of the provider calls made by the virtual drivers. */
+final class FleetMetrics {
+  private final Map<String, OperationRecorder> recorders = new TreeMap<>();
+
+  /** Records one call of {@code operation} that took {@code nanos}. */
+  void record(String operation, long nanos, boolean succeeded) {
+    OperationRecorder recorder;
+    synchronized (recorders) {
+      recorder = recorders.get(operation);
+      if (recorder == null) {
+        recorder = new OperationRecorder();
+        recorders.put(operation, recorder);
+      }
+    }
+    recorder.record(nanos, succeeded);
+  }
+
+  /** Records the call of {@code operation} returning {@code future} once it completes. */
+  <T> ListenableFuture<T> recordWhenDone(String operation, ListenableFuture<T> future) {
+    long startNanos = System.nanoTime();
+    future.addListener(
+        () -> {
+          boolean succeeded;
+          try {
+            Futures.getDone(future);
+            succeeded = true;
+          } catch (ExecutionException | CancellationException e) {
+            succeeded = false;
+          }
+          record(operation, System.nanoTime() - startNanos, succeeded);
+        },
+        directExecutor());
+    return future;
+  }
+
+  /** Summarizes the calls of every operation. */
+  ImmutableMap<String, OperationStats> snapshot() {
+    ImmutableMap.Builder<String, OperationStats> stats = ImmutableMap.builder();
+    synchronized (recorders) {
+      for (Map.Entry<String, OperationRecorder> entry : recorders.entrySet()) {
+        stats.put(entry.getKey(), entry.getValue().stats());
+      }
+    }
+    return stats.build();
+  }
+
+  /** Call count, error count and latency percentiles of an operation. */
+  static final class OperationStats {
+    final int calls;
+    final int errors;
+    final double p50Millis;
+    final double p90Millis;
+    final double p99Millis;
+    final double maxMillis;
+
+    OperationStats(int calls, int errors, long[] sortedNanos) {
+      this.calls = calls;
+      this.errors = errors;
+      p50Millis = percentileMillis(sortedNanos, 0.50);
+      p90Millis = percentileMillis(sortedNanos, 0.90);
+      p99Millis = percentileMillis(sortedNanos, 0.99);
+      maxMillis = percentileMillis(sortedNanos, 1);
+    }
+
+    double errorRate() {
+      return calls == 0 ? 0 : (double) errors / calls;
+    }
+
+    // Nearest-rank percentile.
+    private static double percentileMillis(long[] sortedNanos, double percentile) {
+      if (sortedNanos.length == 0) {
+        return 0;
+      }
+      int rank = (int) Math.ceil(percentile * sortedNanos.length);
+      return sortedNanos[Math.max(0, rank - 1)] / 1e6;
+    }
+  }
+
+  private static final class OperationRecorder {
+    private long[] nanos = new long[1024];
+    private int calls;
+    private int errors;
+
+    synchronized void record(long latencyNanos, boolean succeeded) {
+      if (calls == nanos.length) {
+        nanos = Arrays.copyOf(nanos, calls * 2);
+      }
+      nanos[calls++] = latencyNanos;
+      if (!succeeded) {
+        errors++;
+      }
+    }
+
+    synchronized OperationStats stats() {
+      long[] sorted = Arrays.copyOf(nanos, calls);
+      Arrays.sort(sorted);
+      return new OperationStats(calls, errors, sorted);
+    }
+  }
+}
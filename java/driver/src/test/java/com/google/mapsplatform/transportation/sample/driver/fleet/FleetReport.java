@@ -0,0 +1,99 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.mapsplatform.transportation.sample.driver.fleet.FleetMetrics.OperationStats;
+import java.util.Map;
+
+/** Outcome of a {@link FleetSimulator} run. */
+public final class FleetReport {
+  final int vehicles;
+  final long elapsedMillis;
+  final int tripsDispatched;
+  final int tripsRejected;
+  final int tripsCompleted;
+  final ImmutableMap<String, OperationStats> operations;
+
+  FleetReport(
+      int vehicles,
+      long elapsedMillis,
+      int tripsDispatched,
+      int tripsRejected,
+      int tripsCompleted,
+      ImmutableMap<String, OperationStats> operations) {
+    this.vehicles = vehicles;
+    this.elapsedMillis = elapsedMillis;
+    this.tripsDispatched = tripsDispatched;
+    this.tripsRejected = tripsRejected;
+    this.tripsCompleted = tripsCompleted;
+    this.operations = operations;
+  }
+
+  int totalCalls() {
+    int calls = 0;
+    for (OperationStats stats : operations.values()) {
+      calls += stats.calls;
+    }
+    return calls;
+  }
+
+  int totalErrors() {
+    int errors = 0;
+    for (OperationStats stats : operations.values()) {
+      errors += stats.errors;
+    }
+    return errors;
+  }
+
+  /** Provider calls per second over the run. */
+  double throughput() {
+    return elapsedMillis == 0 ? 0 : totalCalls() * 1000.0 / elapsedMillis;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder report =
+        new StringBuilder(
+            String.format(
+                "%d vehicles, %d ms: %.0f calls/s, %.2f%% errors, trips %d dispatched, %d"
+                    + " rejected, %d completed%n",
+                vehicles,
+                elapsedMillis,
+                throughput(),
+                totalCalls() == 0 ? 0 : 100.0 * totalErrors() / totalCalls(),
+                tripsDispatched,
+                tripsRejected,
+                tripsCompleted));
+    report.append(
+        String.format(
+            "  %-16s %8s %8s %9s %9s %9s %9s%n",
+            "operation", "calls", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+    for (Map.Entry<String, OperationStats> entry : operations.entrySet()) {
+      OperationStats stats = entry.getValue();
+      report.append(
+          String.format(
+              "  %-16s %8d %8d %9.2f %9.2f %9.2f %9.2f%n",
+              entry.getKey(),
+              stats.calls,
+              stats.errors,
+              stats.p50Millis,
+              stats.p90Millis,
+              stats.p99Millis,
+              stats.maxMillis));
+    }
+    return report.toString();
+  }
+}
@@ -0,0 +1,187 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.android.libraries.navigation.Navigator;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.mapsplatform.transportation.sample.driver.LocalSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.FakeRestProvider;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.driver.state.TripState;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless fleet of {@link VirtualDriver}s, each driving a {@code VehicleController} against a
+ * {@link LocalProviderService} backed by a {@link FakeRestProvider}, which dispatches trips as the
+ * {@link Scenario} describes.
+ *
+ * <p>{@link FleetLoadTest} runs it at 10, 100 and 1,000 vehicles.
+ */
+public final class FleetSimulator {
+  private static final long DISPATCH_INTERVAL_MILLIS = 10;
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+  // Bound of the fallback pool when virtual threads are not available.
+  private static final int MAX_PLATFORM_DRIVER_THREADS = 256;
+
+  private final Scenario scenario;
+  private final Random random;
+  private final FakeRestProvider restProvider;
+  private final FleetMetrics metrics = new FleetMetrics();
+  private final AtomicInteger tripsDispatched = new AtomicInteger();
+  private final AtomicInteger tripsRejected = new AtomicInteger();
+  private double pendingTrips;
+
+  private FleetSimulator(Scenario scenario) {
+    this.scenario = scenario;
+    random = new Random(scenario.seed);
+    restProvider =
+        new FakeRestProvider(new Random(scenario.seed + 1))
+            .setLatencyMillis(scenario.providerLatencyMillis)
+            .setErrorRate(scenario.providerErrorRate);
+  }
+
+  /** Runs the scenario to completion and reports on it. */
+  public static FleetReport run(Scenario scenario) throws InterruptedException {
+    return new FleetSimulator(scenario).run();
+  }
+
+  private FleetReport run() throws InterruptedException {
+    ExecutorService driverExecutor = newDriverExecutor(scenario.vehicles);
+    ScheduledExecutorService scheduler =
+        Executors.newScheduledThreadPool(
+            2, new ThreadFactoryBuilder().setNameFormat("fleet-scheduler-%d").build());
+    LocalProviderService providerService = new RecordingProviderService(driverExecutor);
+    Navigator navigator = VirtualDriver.newNavigator();
+    LocalSettings localSettings = mock(LocalSettings.class, withSettings().stubOnly());
+    long startNanos = System.nanoTime();
+
+    List<VirtualDriver> drivers = new ArrayList<>();
+    for (int i = 0; i < scenario.vehicles; i++) {
+      drivers.add(
+          new VirtualDriver(
+              "vehicle_" + i,
+              providerService,
+              driverExecutor,
+              navigator,
+              localSettings,
+              metrics,
+              () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+              scenario.legMillis));
+    }
+
+    for (VirtualDriver driver : drivers) {
+      AtomicBoolean running = new AtomicBoolean();
+      scheduler.scheduleAtFixedRate(
+          () -> {
+            // A driver whose previous iteration is still waiting on the provider skips a beat,
+            // like a saturated device would.
+            if (running.compareAndSet(false, true)) {
+              driverExecutor.execute(
+                  () -> {
+                    try {
+                      driver.step();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    } finally {
+                      running.set(false);
+                    }
+                  });
+            }
+          },
+          random.nextInt((int) scenario.pollIntervalMillis),
+          scenario.pollIntervalMillis,
+          TimeUnit.MILLISECONDS);
+    }
+    scheduler.scheduleAtFixedRate(
+        this::dispatchTrips,
+        DISPATCH_INTERVAL_MILLIS,
+        DISPATCH_INTERVAL_MILLIS,
+        TimeUnit.MILLISECONDS);
+
+    Thread.sleep(scenario.durationMillis);
+
+    scheduler.shutdownNow();
+    scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    driverExecutor.shutdown();
+    driverExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    return new FleetReport(
+        scenario.vehicles,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+        tripsDispatched.get(),
+        tripsRejected.get(),
+        restProvider.getCompletedTripCount(),
+        metrics.snapshot());
+  }
+
+  private void dispatchTrips() {
+    pendingTrips += scenario.tripsPerSecond * DISPATCH_INTERVAL_MILLIS / 1000;
+    while (pendingTrips >= 1) {
+      pendingTrips--;
+      boolean backToBack = random.nextDouble() < scenario.backToBackRatio;
+      int intermediateDestinations =
+          random.nextDouble() < scenario.multiDestinationShare
+              ? 1 + random.nextInt(scenario.maxIntermediateDestinations)
+              : 0;
+      if (restProvider.dispatchTrip(intermediateDestinations, backToBack)) {
+        tripsDispatched.incrementAndGet();
+      } else {
+        tripsRejected.incrementAndGet();
+      }
+    }
+  }
+
+  /** Talks to the fake provider and records the trip updates the controllers send. */
+  private final class RecordingProviderService extends LocalProviderService {
+    RecordingProviderService(Executor executor) {
+      super(restProvider, executor);
+    }
+
+    @Override
+    public ListenableFuture<TripModel> updateTripStatus(TripState tripState) {
+      return metrics.recordWhenDone(
+          VirtualDriver.OPERATION_UPDATE_TRIP, super.updateTripStatus(tripState));
+    }
+  }
+
+  /**
+   * Returns a virtual thread per task executor when the JDK has one (21+), a bounded pool of
+   * platform threads otherwise.
+   */
+  static ExecutorService newDriverExecutor(int vehicles) {
+    try {
+      return (ExecutorService)
+          Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newFixedThreadPool(
+          Math.min(vehicles, MAX_PLATFORM_DRIVER_THREADS),
+          new ThreadFactoryBuilder().setNameFormat("fleet-driver-%d").build());
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link FleetSimulator}. */
+@RunWith(AndroidJUnit4.class)
+public final class FleetSimulatorTest {
+  private static final Scenario SMALL_FLEET =
+      Scenario.builder()
+          .vehicles(10)
+          .runFor(1_500, MILLISECONDS)
+          .tripsPerSecond(20)
+          .legDuration(40, MILLISECONDS)
+          .pollEvery(20, MILLISECONDS)
+          .build();
+
+  @Test
+  public void run_completesTripsWithoutErrors() throws Exception {
+    FleetReport report = FleetSimulator.run(SMALL_FLEET);
+
+    assertThat(report.tripsDispatched).isGreaterThan(0);
+    assertThat(report.tripsCompleted).isGreaterThan(0);
+    assertThat(report.totalErrors()).isEqualTo(0);
+    assertThat(report.operations.keySet())
+        .containsAtLeast(
+            VirtualDriver.OPERATION_REGISTER_VEHICLE,
+            VirtualDriver.OPERATION_GET_VEHICLE,
+            VirtualDriver.OPERATION_UPDATE_TRIP);
+  }
+
+  @Test
+  public void run_completesBackToBackAndMultiDestinationTrips() throws Exception {
+    FleetReport report =
+        FleetSimulator.run(
+            SMALL_FLEET.toBuilder().backToBackRatio(0.5).multiDestinationShare(1).build());
+
+    assertThat(report.tripsCompleted).isGreaterThan(0);
+    assertThat(report.totalErrors()).isEqualTo(0);
+  }
+
+  @Test
+  public void run_reportsInjectedErrorsAndKeepsCompletingTrips() throws Exception {
+    FleetReport report = FleetSimulator.run(SMALL_FLEET.toBuilder().providerErrorRate(0.1).build());
+
+    assertThat(report.totalErrors()).isGreaterThan(0);
+    assertThat(report.tripsCompleted).isGreaterThan(0);
+  }
+}
@@ -0,0 +1,175 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load profile for {@link FleetSimulator}, built with a small DSL:
+ *
+ * <pre>{@code
+ * Scenario.builder()
+ *     .vehicles(100)
+ *     .runFor(2, SECONDS)
+ *     .tripsPerSecond(50)
+ *     .backToBackRatio(0.3)
+ *     .multiDestinationShare(0.2)
+ *     .build();
+ * }</pre>
+ */
+public final class Scenario {
+  final int vehicles;
+  final long durationMillis;
+  final double tripsPerSecond;
+  final double backToBackRatio;
+  final double multiDestinationShare;
+  final int maxIntermediateDestinations;
+  final long legMillis;
+  final long pollIntervalMillis;
+  final long providerLatencyMillis;
+  final double providerErrorRate;
+  final long seed;
+
+  private Scenario(Builder builder) {
+    vehicles = builder.vehicles;
+    durationMillis = builder.durationMillis;
+    tripsPerSecond = builder.tripsPerSecond;
+    backToBackRatio = builder.backToBackRatio;
+    multiDestinationShare = builder.multiDestinationShare;
+    maxIntermediateDestinations = builder.maxIntermediateDestinations;
+    legMillis = builder.legMillis;
+    pollIntervalMillis = builder.pollIntervalMillis;
+    providerLatencyMillis = builder.providerLatencyMillis;
+    providerErrorRate = builder.providerErrorRate;
+    seed = builder.seed;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /** Returns a builder starting from this scenario. */
+  public Builder toBuilder() {
+    return builder()
+        .vehicles(vehicles)
+        .runFor(durationMillis, TimeUnit.MILLISECONDS)
+        .tripsPerSecond(tripsPerSecond)
+        .backToBackRatio(backToBackRatio)
+        .multiDestinationShare(multiDestinationShare)
+        .maxIntermediateDestinations(maxIntermediateDestinations)
+        .legDuration(legMillis, TimeUnit.MILLISECONDS)
+        .pollEvery(pollIntervalMillis, TimeUnit.MILLISECONDS)
+        .providerLatency(providerLatencyMillis, TimeUnit.MILLISECONDS)
+        .providerErrorRate(providerErrorRate)
+        .seed(seed);
+  }
+
+  /** Builder for {@link Scenario}, every setting has a default fit for a quick run. */
+  public static final class Builder {
+    private int vehicles = 10;
+    private long durationMillis = 2_000;
+    private double tripsPerSecond = 10;
+    private double backToBackRatio = 0;
+    private double multiDestinationShare = 0;
+    private int maxIntermediateDestinations = 2;
+    private long legMillis = 100;
+    private long pollIntervalMillis = 50;
+    private long providerLatencyMillis = 0;
+    private double providerErrorRate = 0;
+    private long seed = 0;
+
+    private Builder() {}
+
+    /** Number of virtual drivers. */
+    public Builder vehicles(int vehicles) {
+      checkArgument(vehicles > 0, "vehicles must be positive");
+      this.vehicles = vehicles;
+      return this;
+    }
+
+    /** How long trips are dispatched and drivers run. */
+    public Builder runFor(long duration, TimeUnit unit) {
+      this.durationMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /** Rate at which new trips arrive, spread evenly over time. */
+    public Builder tripsPerSecond(double tripsPerSecond) {
+      checkArgument(tripsPerSecond >= 0, "tripsPerSecond must not be negative");
+      this.tripsPerSecond = tripsPerSecond;
+      return this;
+    }
+
+    /** Share of the trips dispatched to a vehicle that is still busy with another trip. */
+    public Builder backToBackRatio(double backToBackRatio) {
+      checkArgument(backToBackRatio >= 0 && backToBackRatio <= 1, "ratio must be in [0, 1]");
+      this.backToBackRatio = backToBackRatio;
+      return this;
+    }
+
+    /** Share of the trips with intermediate destinations. */
+    public Builder multiDestinationShare(double multiDestinationShare) {
+      checkArgument(
+          multiDestinationShare >= 0 && multiDestinationShare <= 1, "share must be in [0, 1]");
+      this.multiDestinationShare = multiDestinationShare;
+      return this;
+    }
+
+    /** Upper bound of intermediate destinations for multi-destination trips. */
+    public Builder maxIntermediateDestinations(int maxIntermediateDestinations) {
+      checkArgument(maxIntermediateDestinations > 0, "must be positive");
+      this.maxIntermediateDestinations = maxIntermediateDestinations;
+      return this;
+    }
+
+    /** Time a driver takes to reach the next waypoint. */
+    public Builder legDuration(long duration, TimeUnit unit) {
+      this.legMillis = unit.toMillis(duration);
+      return this;
+    }
+
+    /** Interval at which every driver polls its vehicle, like {@code VehicleStateService}. */
+    public Builder pollEvery(long interval, TimeUnit unit) {
+      checkArgument(interval > 0, "interval must be positive");
+      this.pollIntervalMillis = unit.toMillis(interval);
+      return this;
+    }
+
+    /** Delay added to every provider response. */
+    public Builder providerLatency(long latency, TimeUnit unit) {
+      this.providerLatencyMillis = unit.toMillis(latency);
+      return this;
+    }
+
+    /** Share of the provider requests failing with an HTTP 503. */
+    public Builder providerErrorRate(double providerErrorRate) {
+      checkArgument(providerErrorRate >= 0 && providerErrorRate < 1, "rate must be in [0, 1)");
+      this.providerErrorRate = providerErrorRate;
+      return this;
+    }
+
+    /** Seed of the random choices, for reproducible trip mixes. */
+    public Builder seed(long seed) {
+      this.seed = seed;
+      return this;
+    }
+
+    public Scenario build() {
+      return new Scenario(this);
+    }
+  }
+}
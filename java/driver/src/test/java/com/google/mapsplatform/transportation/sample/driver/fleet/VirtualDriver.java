@@ -0,0 +1,226 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.fleet;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import com.google.android.libraries.navigation.ListenableResultFuture;
+import com.google.android.libraries.navigation.Navigator;
+import com.google.android.libraries.navigation.Simulator;
+import com.google.android.libraries.navigation.Waypoint;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.mapsplatform.transportation.sample.driver.LocalSettings;
+import com.google.mapsplatform.transportation.sample.driver.Presenter;
+import com.google.mapsplatform.transportation.sample.driver.VehicleController;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.utils.TripUtils;
+import com.google.mapsplatform.transportation.sample.driver.utils.VehicleUtils;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+import javax.annotation.Nullable;
+
+/**
+ * Drives one vehicle through a real {@link VehicleController}: hands it the polled vehicle like
+ * {@code VehicleStateService} does and taps the action button like a driver would, following the
+ * trip status the controller presents. Driving is simulated, a driver reaches its next waypoint
+ * once the leg duration elapsed and the navigator always finds a route.
+ *
+ * <p>Registration and polls block on the provider responses, which is cheap on virtual threads.
+ * Trip updates are sent by the controller in the background.
+ */
+final class VirtualDriver {
+  private static final long CALL_TIMEOUT_SECONDS = 30;
+  // A leg of several minutes takes legMillis, the double tap window of the controller shrinks along.
+  private static final long TIME_COMPRESSION = 100;
+
+  static final String OPERATION_REGISTER_VEHICLE = "registerVehicle";
+  static final String OPERATION_UPDATE_VEHICLE = "updateVehicle";
+  static final String OPERATION_GET_VEHICLE = "getVehicle";
+  static final String OPERATION_UPDATE_TRIP = "updateTrip";
+
+  private final String vehicleId;
+  private final LocalProviderService providerService;
+  private final FleetMetrics metrics;
+  private final LongSupplier clockMillis;
+  private final long legMillis;
+  private final VehicleController controller;
+  // Held here, the controller only keeps a weak reference.
+  private final DriverScreen screen = new DriverScreen();
+
+  private boolean registered;
+  private boolean backToBackEnabled;
+  // Identifies the leg being driven and when it started.
+  @Nullable private String currentLeg;
+  private long legStartedAtMillis;
+
+  VirtualDriver(
+      String vehicleId,
+      LocalProviderService providerService,
+      ExecutorService executor,
+      Navigator navigator,
+      LocalSettings localSettings,
+      FleetMetrics metrics,
+      LongSupplier clockMillis,
+      long legMillis) {
+    this.vehicleId = vehicleId;
+    this.providerService = providerService;
+    this.metrics = metrics;
+    this.clockMillis = clockMillis;
+    this.legMillis = legMillis;
+    controller =
+        new VehicleController(
+            navigator,
+            executor,
+            directExecutor(),
+            new Ticker() {
+              @Override
+              public long read() {
+                return System.nanoTime() * TIME_COMPRESSION;
+              }
+            },
+            providerService,
+            localSettings);
+    controller.setPresenter(screen);
+  }
+
+  /**
+   * Returns a navigator shared by the drivers, which finds a route to every destination right
+   * away.
+   */
+  @SuppressWarnings("unchecked")
+  static Navigator newNavigator() {
+    ListenableResultFuture<Navigator.RouteStatus> route =
+        mock(ListenableResultFuture.class, withSettings().stubOnly());
+    doAnswer(
+            invocation -> {
+              invocation
+                  .<ListenableResultFuture.OnResultListener<Navigator.RouteStatus>>getArgument(0)
+                  .onResult(Navigator.RouteStatus.OK);
+              return null;
+            })
+        .when(route)
+        .setOnResultListener(any());
+
+    Navigator navigator = mock(Navigator.class, withSettings().stubOnly());
+    when(navigator.setDestination(any(Waypoint.class))).thenReturn(route);
+    when(navigator.getSimulator()).thenReturn(mock(Simulator.class, withSettings().stubOnly()));
+    return navigator;
+  }
+
+  /** Runs one polling iteration: registers the vehicle first, then follows its trips. */
+  void step() throws InterruptedException {
+    if (!registered) {
+      registered =
+          call(OPERATION_REGISTER_VEHICLE, providerService.registerVehicle(vehicleId)) != null;
+      return;
+    }
+    if (!backToBackEnabled) {
+      VehicleSettings settings =
+          new VehicleSettings(
+              vehicleId,
+              /* backToBackEnabled= */ true,
+              VehicleUtils.DEFAULT_MAXIMUM_CAPACITY,
+              VehicleUtils.DEFAULT_SUPPORTED_TRIP_TYPES);
+      backToBackEnabled =
+          call(OPERATION_UPDATE_VEHICLE, providerService.createOrUpdateVehicle(settings)) != null;
+      return;
+    }
+
+    long revision = controller.getRevision();
+    VehicleModel vehicle = call(OPERATION_GET_VEHICLE, providerService.fetchVehicle(vehicleId));
+    if (vehicle == null) {
+      return;
+    }
+    controller.onVehicleStateUpdate(vehicle, revision);
+
+    drive();
+  }
+
+  // Taps to start a new trip and on reaching a waypoint, the controller sets off to the next
+  // waypoint by itself once the provider accepted the arrival.
+  private void drive() {
+    String tripId = screen.tripId;
+    TripStatus status = screen.status;
+    if (status == TripStatus.NEW) {
+      controller.processNextState();
+      return;
+    }
+    if (!TripUtils.isTripStatusEnroute(status)) {
+      return;
+    }
+
+    String leg = tripId + "/" + status;
+    if (!leg.equals(currentLeg)) {
+      currentLeg = leg;
+      legStartedAtMillis = clockMillis.getAsLong();
+    }
+    if (clockMillis.getAsLong() - legStartedAtMillis >= legMillis) {
+      controller.processNextState();
+    }
+  }
+
+  /** Waits for a provider call, records it and returns its result or null if it failed. */
+  @Nullable
+  private <T> T call(String operation, ListenableFuture<T> future) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    try {
+      T result = future.get(CALL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      metrics.record(operation, System.nanoTime() - startNanos, /* succeeded= */ true);
+      return result;
+    } catch (ExecutionException | TimeoutException e) {
+      future.cancel(true);
+      metrics.record(operation, System.nanoTime() - startNanos, /* succeeded= */ false);
+      return null;
+    }
+  }
+
+  /** What the driver sees of the current trip, updated from the controller threads. */
+  private static final class DriverScreen implements Presenter {
+    volatile String tripId = VehicleController.NO_TRIP_ID;
+    volatile TripStatus status = TripStatus.UNKNOWN_TRIP_STATUS;
+
+    @Override
+    public void showTripId(String tripId) {
+      this.tripId = tripId;
+    }
+
+    @Override
+    public void showMatchedTripIds(List<String> tripIds) {}
+
+    @Override
+    public void showTripStatus(TripStatus status) {
+      this.status = status;
+    }
+
+    @Override
+    public void enableActionButton(boolean enabled) {}
+
+    @Override
+    public void showTripUpdateRejected(TripStatus restoredStatus) {}
+  }
+}
@@ -0,0 +1,123 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LatencyHistogram}. */
+@RunWith(JUnit4.class)
+public final class LatencyHistogramTest {
+  private final LatencyHistogram histogram = new LatencyHistogram();
+
+  @Test
+  public void getQuantileMicros_isZeroWhenEmpty() {
+    assertThat(histogram.getQuantileMicros(0.5)).isEqualTo(0);
+  }
+
+  @Test
+  public void getQuantileMicros_isExactForSmallValues() {
+    for (int micros = 1; micros <= 10; micros++) {
+      histogram.record(micros, MICROSECONDS);
+    }
+
+    assertThat(histogram.getQuantileMicros(0.5)).isEqualTo(5);
+    assertThat(histogram.getQuantileMicros(0.9)).isEqualTo(9);
+    assertThat(histogram.getQuantileMicros(1)).isEqualTo(10);
+  }
+
+  @Test
+  public void getQuantileMicros_isWithinBucketPrecision() {
+    for (int millis = 1; millis <= 1000; millis++) {
+      histogram.record(millis, MILLISECONDS);
+    }
+
+    assertThat((double) histogram.getQuantileMicros(0.5)).isWithin(500_000 / 16.0).of(500_000);
+    assertThat((double) histogram.getQuantileMicros(0.99)).isWithin(990_000 / 16.0).of(990_000);
+    assertThat(histogram.getQuantileMicros(1)).isEqualTo(1_000_000);
+  }
+
+  @Test
+  public void record_tracksCountSumAndMax() {
+    histogram.record(2, SECONDS);
+    histogram.record(500, MILLISECONDS);
+    histogram.record(-1, MILLISECONDS);
+
+    assertThat(histogram.getCount()).isEqualTo(3);
+    assertThat(histogram.getSumMicros()).isEqualTo(2_500_000);
+    assertThat(histogram.getMaxMicros()).isEqualTo(2_000_000);
+  }
+
+  @Test
+  public void record_capsVeryLongLatencies() {
+    histogram.record(10, DAYS);
+
+    assertThat(histogram.getCount()).isEqualTo(1);
+    assertThat(histogram.getQuantileMicros(1)).isEqualTo((1L << 32) - 1);
+  }
+
+  @Test
+  public void record_countsEveryConcurrentRecording() throws Exception {
+    int threads = 4;
+    int recordingsPerThread = 100_000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<?>> futures = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < threads; i++) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  for (int j = 0; j < recordingsPerThread; j++) {
+                    histogram.record(j % 1000, MICROSECONDS);
+                  }
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    assertThat(histogram.getCount()).isEqualTo(threads * recordingsPerThread);
+    assertThat(histogram.getMaxMicros()).isEqualTo(999);
+    assertThat(histogram.getQuantileMicros(1)).isEqualTo(999);
+  }
+
+  @Test
+  public void time_recordsWhenFutureCompletes() {
+    SettableFuture<String> future = SettableFuture.create();
+
+    histogram.time(future);
+    assertThat(histogram.getCount()).isEqualTo(0);
+    future.setException(new IllegalStateException());
+
+    assertThat(histogram.getCount()).isEqualTo(1);
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.metrics;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MetricsRegistry} and {@link MetricsFileExporter}. */
+@RunWith(AndroidJUnit4.class)
+public final class MetricsRegistryTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final MetricsRegistry registry = new MetricsRegistry();
+
+  @Test
+  public void counter_returnsSameCounterForSameLabels() {
+    Counter ok = registry.counter("status", "Statuses.", "code", "OK");
+    registry.counter("status", "Statuses.", "code", "OK").increment();
+    registry.counter("status", "Statuses.", "code", "ERROR").add(2);
+
+    assertThat(ok.get()).isEqualTo(1);
+    assertThat(registry.counter("status", "Statuses.", "code", "ERROR").get()).isEqualTo(2);
+  }
+
+  @Test
+  public void counter_rejectsNegativeDelta() {
+    Counter counter = registry.counter("requests", "Requests.");
+
+    assertThrows(IllegalArgumentException.class, () -> counter.add(-1));
+  }
+
+  @Test
+  public void registration_rejectsNameOfAnotherType() {
+    registry.counter("requests", "Requests.");
+
+    assertThrows(
+        IllegalArgumentException.class, () -> registry.histogram("requests", "Requests."));
+  }
+
+  @Test
+  public void exportOpenMetrics_writesEveryMetricSortedByName() {
+    registry.counter("b_failures", "Failures.", "code", "a\"b").increment();
+    registry.gauge("c_staleness_seconds", "Staleness.", () -> 1.5);
+    LatencyHistogram histogram = registry.histogram("a_latency_seconds", "Latency.");
+    // The upper bound of its bucket, so exported exactly.
+    histogram.record(131_071, MICROSECONDS);
+    histogram.record(300, MILLISECONDS);
+
+    assertThat(registry.exportOpenMetrics())
+        .isEqualTo(
+            "# TYPE a_latency_seconds summary\n"
+                + "# HELP a_latency_seconds Latency.\n"
+                + "a_latency_seconds{quantile=\"0.5\"} 0.131071\n"
+                + "a_latency_seconds{quantile=\"0.9\"} 0.3\n"
+                + "a_latency_seconds{quantile=\"0.99\"} 0.3\n"
+                + "a_latency_seconds_count 2\n"
+                + "a_latency_seconds_sum 0.431071\n"
+                + "# TYPE b_failures counter\n"
+                + "# HELP b_failures Failures.\n"
+                + "b_failures_total{code=\"a\\\"b\"} 1\n"
+                + "# TYPE c_staleness_seconds gauge\n"
+                + "# HELP c_staleness_seconds Staleness.\n"
+                + "c_staleness_seconds 1.5\n"
+                + "# EOF\n");
+  }
+
+  @Test
+  public void exportOpenMetrics_addsQuantileToHistogramLabels() {
+    registry.histogram("delay_seconds", "Delay.", "priority", "poll").record(300, MILLISECONDS);
+
+    assertThat(registry.exportOpenMetrics())
+        .isEqualTo(
+            "# TYPE delay_seconds summary\n"
+                + "# HELP delay_seconds Delay.\n"
+                + "delay_seconds{priority=\"poll\",quantile=\"0.5\"} 0.3\n"
+                + "delay_seconds{priority=\"poll\",quantile=\"0.9\"} 0.3\n"
+                + "delay_seconds{priority=\"poll\",quantile=\"0.99\"} 0.3\n"
+                + "delay_seconds_count{priority=\"poll\"} 1\n"
+                + "delay_seconds_sum{priority=\"poll\"} 0.3\n"
+                + "# EOF\n");
+  }
+
+  @Test
+  public void gauge_sameLabels_replacesGauge() {
+    registry.gauge("circuit_state", "State.", () -> 1, "endpoint", "get_vehicle");
+    registry.gauge("circuit_state", "State.", () -> 0, "endpoint", "update_trip");
+    registry.gauge("circuit_state", "State.", () -> 2, "endpoint", "get_vehicle");
+
+    assertThat(registry.exportOpenMetrics())
+        .isEqualTo(
+            "# TYPE circuit_state gauge\n"
+                + "# HELP circuit_state State.\n"
+                + "circuit_state{endpoint=\"get_vehicle\"} 2.0\n"
+                + "circuit_state{endpoint=\"update_trip\"} 0.0\n"
+                + "# EOF\n");
+  }
+
+  @Test
+  public void export_writesMetricsFile() throws Exception {
+    registry.counter("requests", "Requests.").increment();
+    File file = new File(temporaryFolder.getRoot(), "metrics.txt");
+
+    new MetricsFileExporter(registry, file, directExecutor()).export();
+
+    assertThat(new String(Files.readAllBytes(file.toPath()), UTF_8))
+        .isEqualTo(registry.exportOpenMetrics());
+  }
+}
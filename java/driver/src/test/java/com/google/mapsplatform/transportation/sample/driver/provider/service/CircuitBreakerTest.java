@@ -0,0 +1,225 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.metrics.MetricsRegistry;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.CircuitBreaker.State;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/** Unit tests for {@link CircuitBreaker}. */
+@RunWith(AndroidJUnit4.class)
+public final class CircuitBreakerTest {
+  private static final String ENDPOINT = "test_endpoint";
+
+  private final FakeTicker ticker = new FakeTicker();
+  private final List<State> transitions = new ArrayList<>();
+  private final CircuitBreaker breaker =
+      new CircuitBreaker(
+          ENDPOINT,
+          LocalProviderService::isRetryable,
+          (endpoint, state) -> transitions.add(state),
+          ticker);
+  private int sentCalls;
+
+  @Test
+  public void call_healthyEndpoint_staysClosed() {
+    for (int i = 0; i < 3 * CircuitBreaker.WINDOW_SIZE; i++) {
+      // Failures under half of the calls.
+      send(i % 3 == 0 ? immediateFailedFuture(new IOException()) : succeeded());
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(sentCalls).isEqualTo(3 * CircuitBreaker.WINDOW_SIZE);
+    assertThat(transitions).isEmpty();
+  }
+
+  @Test
+  public void call_failingEndpoint_opensAfterMinimumCalls() {
+    for (int i = 1; i < CircuitBreaker.MIN_CALLS; i++) {
+      send(immediateFailedFuture(httpException(503)));
+    }
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    send(immediateFailedFuture(httpException(503)));
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(transitions).containsExactly(State.OPEN);
+  }
+
+  @Test
+  public void call_slowEndpoint_opens() {
+    for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+      SettableFuture<String> call = SettableFuture.create();
+      send(call);
+      ticker.advanceMillis(CircuitBreaker.SLOW_CALL_MILLIS);
+      call.set("vehicle");
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  public void call_cancelledPastSlowCallDuration_opens() {
+    for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+      ListenableFuture<String> call = send(SettableFuture.create());
+      ticker.advanceMillis(CircuitBreaker.SLOW_CALL_MILLIS);
+      // Like a call aborted at its deadline.
+      call.cancel(true);
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  @Test
+  public void call_clientErrorsAndCancellations_doNotOpen() {
+    for (int i = 0; i < CircuitBreaker.WINDOW_SIZE; i++) {
+      send(immediateFailedFuture(httpException(404)));
+      send(SettableFuture.create()).cancel(true);
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void call_open_failsFastWithoutSending() {
+    open();
+    int sentBefore = sentCalls;
+
+    ListenableFuture<String> future = send(succeeded());
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, future::get);
+    assertThat(thrown).hasCauseThat().isInstanceOf(CircuitBreaker.OpenException.class);
+    assertThat(sentCalls).isEqualTo(sentBefore);
+    assertThat(MetricsRegistry.getInstance().exportOpenMetrics())
+        .contains("driver_provider_circuit_state{endpoint=\"test_endpoint\"} 2.0");
+  }
+
+  @Test
+  public void open_otherBreakerOfEndpoint_stillExportsState() {
+    // Such as the breaker of a second provider service, which must not take over the gauge.
+    new CircuitBreaker(
+        ENDPOINT, LocalProviderService::isRetryable, (endpoint, state) -> {}, ticker);
+
+    open();
+
+    assertThat(MetricsRegistry.getInstance().exportOpenMetrics())
+        .contains("driver_provider_circuit_state{endpoint=\"test_endpoint\"} 2.0");
+  }
+
+  @Test
+  public void call_halfOpen_limitsConcurrentProbes() {
+    open();
+    ticker.advanceMillis(CircuitBreaker.OPEN_MILLIS);
+    assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+    int sentBefore = sentCalls;
+
+    for (int i = 0; i < CircuitBreaker.HALF_OPEN_PROBES; i++) {
+      send(SettableFuture.create());
+    }
+    ListenableFuture<String> rejected = send(succeeded());
+
+    assertThat(sentCalls).isEqualTo(sentBefore + CircuitBreaker.HALF_OPEN_PROBES);
+    assertThat(rejected.isDone()).isTrue();
+    assertThrows(ExecutionException.class, rejected::get);
+  }
+
+  @Test
+  public void call_successfulProbes_close() {
+    open();
+    ticker.advanceMillis(CircuitBreaker.OPEN_MILLIS);
+
+    for (int i = 0; i < CircuitBreaker.HALF_OPEN_PROBES; i++) {
+      send(succeeded());
+    }
+
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+    assertThat(transitions).containsExactly(State.OPEN, State.HALF_OPEN, State.CLOSED).inOrder();
+    // The failures before opening are forgotten.
+    send(immediateFailedFuture(new IOException()));
+    assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+  }
+
+  @Test
+  public void call_failedProbe_reopens() {
+    open();
+    ticker.advanceMillis(CircuitBreaker.OPEN_MILLIS);
+    SettableFuture<String> slowProbe = SettableFuture.create();
+    send(slowProbe);
+
+    send(immediateFailedFuture(new IOException()));
+    // Completes after the circuit reopened, too late to count.
+    slowProbe.set("vehicle");
+
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+    assertThat(transitions).containsExactly(State.OPEN, State.HALF_OPEN, State.OPEN).inOrder();
+    ticker.advanceMillis(CircuitBreaker.OPEN_MILLIS - 1);
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  private void open() {
+    for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+      send(immediateFailedFuture(new IOException()));
+    }
+    assertThat(breaker.getState()).isEqualTo(State.OPEN);
+  }
+
+  private ListenableFuture<String> send(ListenableFuture<String> response) {
+    return breaker.call(
+        () -> {
+          sentCalls++;
+          return response;
+        });
+  }
+
+  private static ListenableFuture<String> succeeded() {
+    return immediateFuture("vehicle");
+  }
+
+  private static HttpException httpException(int code) {
+    return new HttpException(
+        Response.error(code, ResponseBody.create(MediaType.parse("text/plain"), "error")));
+  }
+
+  private static final class FakeTicker extends Ticker {
+    private long nanos;
+
+    @Override
+    public long read() {
+      return nanos;
+    }
+
+    void advanceMillis(long millis) {
+      nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+  }
+}
@@ -0,0 +1,394 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.TripUpdateBody;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TokenResponse;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.utils.TripUtils;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import retrofit2.HttpException;
+import retrofit2.Response;
+
+/**
+ * In-memory {@link RestProvider} holding vehicles and the trips dispatched to them, with injectable
+ * response latency and error rate.
+ *
+ * <p>Trips follow the sample provider semantics: a vehicle lists the remaining waypoints of its
+ * trips, and a waypoint is removed once its trip moves past it.
+ *
+ * <p>Mutations are deduplicated on their idempotency key: a repeated key is answered with the
+ * response of the first request carrying it, without being applied again.
+ */
+public final class FakeRestProvider implements RestProvider {
+  public static final String PROVIDER_ID = "fake-provider";
+
+  private static final ResponseBody ERROR_BODY =
+      ResponseBody.create(MediaType.parse("text/plain"), "Fake provider error");
+
+  // Shared by all instances so short lived providers don't add threads of their own.
+  private static final ScheduledExecutorService delayExecutor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("fake-provider-%d").setDaemon(true).build());
+
+  private final Map<String, VehicleModel> vehicles = new LinkedHashMap<>();
+  private final Map<String, TripRecord> trips = new HashMap<>();
+  private final Map<String, Object> responsesByIdempotencyKey = new HashMap<>();
+  private final Random random;
+
+  private long latencyMillis = 0;
+  private double errorRate = 0;
+  private double lostResponseRate = 0;
+  private int appliedMutationCount = 0;
+  private int deduplicatedMutationCount = 0;
+  private int nextTripNumber = 0;
+  private int completedTripCount = 0;
+
+  public FakeRestProvider(Random random) {
+    this.random = random;
+  }
+
+  /** Delays every response. */
+  public FakeRestProvider setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+    return this;
+  }
+
+  /** Fails this share of the requests with an HTTP 503. */
+  public FakeRestProvider setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Applies this share of the successful mutations but fails their response with an HTTP 504, like
+   * a response lost after the provider committed the request.
+   */
+  public FakeRestProvider setLostResponseRate(double lostResponseRate) {
+    this.lostResponseRate = lostResponseRate;
+    return this;
+  }
+
+  /** Returns a {@link LocalProviderService} talking to this provider. */
+  public LocalProviderService createLocalProviderService(Executor executor) {
+    return new LocalProviderService(this, executor);
+  }
+
+  /** Returns a {@link LocalProviderService} talking to this provider and retrying mutations. */
+  public LocalProviderService createLocalProviderService(
+      Executor executor, ScheduledExecutorService retryExecutor) {
+    return new LocalProviderService(this, executor, retryExecutor);
+  }
+
+  /**
+   * Dispatches a new trip to a vehicle: an idle one or, for back-to-back trips, one busy with a
+   * single trip and allowing back-to-back.
+   *
+   * @param intermediateDestinations number of stops between pickup and drop-off.
+   * @return false if no vehicle could take the trip.
+   */
+  public synchronized boolean dispatchTrip(int intermediateDestinations, boolean backToBack) {
+    VehicleModel vehicle = findVehicle(backToBack);
+    if (vehicle == null) {
+      return false;
+    }
+
+    String tripId = "trip_" + nextTripNumber++;
+    TripRecord trip = new TripRecord(vehicle.getName());
+    trips.put(tripId, trip);
+
+    List<Waypoint> waypoints = new ArrayList<>(vehicle.getWaypoints());
+    waypoints.add(createWaypoint(tripId, TripUtils.PICKUP_WAYPOINT_TYPE));
+    for (int i = 0; i < intermediateDestinations; i++) {
+      waypoints.add(createWaypoint(tripId, TripUtils.INTERMEDIATE_DESTINATION_WAYPOINT_TYPE));
+    }
+    waypoints.add(createWaypoint(tripId, TripUtils.DROP_OFF_WAYPOINT_TYPE));
+    vehicle.setWaypoints(waypoints);
+
+    List<String> tripIds = new ArrayList<>(vehicle.getCurrentTripsIds());
+    tripIds.add(tripId);
+    vehicle.setCurrentTripsIds(tripIds);
+    return true;
+  }
+
+  public synchronized int getCompletedTripCount() {
+    return completedTripCount;
+  }
+
+  public synchronized int getDispatchedTripCount() {
+    return trips.size();
+  }
+
+  /** Mutations applied to the provider state, deduplicated ones excluded. */
+  public synchronized int getAppliedMutationCount() {
+    return appliedMutationCount;
+  }
+
+  /** Mutations answered from an earlier request with the same idempotency key. */
+  public synchronized int getDeduplicatedMutationCount() {
+    return deduplicatedMutationCount;
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> getVehicle(String vehicleId) {
+    synchronized (this) {
+      if (shouldFail()) {
+        return respond(Futures.immediateFailedFuture(httpError(503)));
+      }
+      VehicleModel vehicle = vehicles.get(vehicleId);
+      if (vehicle == null) {
+        return respond(Futures.immediateFailedFuture(httpError(404)));
+      }
+      return respond(copyOf(vehicle));
+    }
+  }
+
+  @Override
+  public ListenableFuture<TokenResponse> getAuthToken(String vehicleId) {
+    if (shouldFail()) {
+      return respond(Futures.immediateFailedFuture(httpError(503)));
+    }
+    return respond(new TokenResponse());
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> createVehicle(VehicleSettings body, String idempotencyKey) {
+    synchronized (this) {
+      if (shouldFail()) {
+        return respond(Futures.immediateFailedFuture(httpError(503)));
+      }
+      if (responsesByIdempotencyKey.containsKey(idempotencyKey)) {
+        return replay(idempotencyKey);
+      }
+      VehicleModel vehicle = new VehicleModel();
+      vehicle.setName(
+          String.format("providers/%s/vehicles/%s", PROVIDER_ID, body.getVehicleId()));
+      vehicle.setWaypoints(ImmutableList.of());
+      vehicle.setCurrentTripsIds(ImmutableList.of());
+      applySettings(vehicle, body);
+      vehicles.put(body.getVehicleId(), vehicle);
+      return respondToMutation(idempotencyKey, copyOf(vehicle));
+    }
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> updateVehicle(
+      String id, VehicleSettings body, String idempotencyKey) {
+    synchronized (this) {
+      if (shouldFail()) {
+        return respond(Futures.immediateFailedFuture(httpError(503)));
+      }
+      if (responsesByIdempotencyKey.containsKey(idempotencyKey)) {
+        return replay(idempotencyKey);
+      }
+      VehicleModel vehicle = vehicles.get(id);
+      if (vehicle == null) {
+        return respond(Futures.immediateFailedFuture(httpError(404)));
+      }
+      applySettings(vehicle, body);
+      return respondToMutation(idempotencyKey, copyOf(vehicle));
+    }
+  }
+
+  @Override
+  public ListenableFuture<TripModel> updateTrip(
+      String id, TripUpdateBody body, String idempotencyKey) {
+    synchronized (this) {
+      if (shouldFail()) {
+        return respond(Futures.immediateFailedFuture(httpError(503)));
+      }
+      if (responsesByIdempotencyKey.containsKey(idempotencyKey)) {
+        return replay(idempotencyKey);
+      }
+      TripRecord trip = trips.get(id);
+      if (trip == null) {
+        return respond(Futures.immediateFailedFuture(httpError(404)));
+      }
+
+      TripStatus status = TripStatus.valueOf(body.getStatus());
+      if (status != trip.status && movesPastWaypoint(status)) {
+        removeFirstWaypoint(vehicles.get(extractVehicleId(trip.vehicleName)), id);
+      }
+      if (status == TripStatus.COMPLETE && trip.status != TripStatus.COMPLETE) {
+        completedTripCount++;
+      }
+      trip.status = status;
+
+      TripModel tripModel = new TripModel();
+      tripModel.setName(String.format("providers/%s/trips/%s", PROVIDER_ID, id));
+      return respondToMutation(idempotencyKey, tripModel);
+    }
+  }
+
+  private synchronized boolean shouldFail() {
+    return errorRate > 0 && random.nextDouble() < errorRate;
+  }
+
+  // Remembers the response of an applied mutation, which may still get lost on its way back.
+  private <T> ListenableFuture<T> respondToMutation(@Nullable String idempotencyKey, T response) {
+    appliedMutationCount++;
+    if (idempotencyKey != null) {
+      responsesByIdempotencyKey.put(idempotencyKey, response);
+    }
+    if (lostResponseRate > 0 && random.nextDouble() < lostResponseRate) {
+      return respond(Futures.immediateFailedFuture(httpError(504)));
+    }
+    return respond(response);
+  }
+
+  @SuppressWarnings("unchecked") // A key is only ever used by one mutation.
+  private <T> ListenableFuture<T> replay(String idempotencyKey) {
+    deduplicatedMutationCount++;
+    Object response = responsesByIdempotencyKey.get(idempotencyKey);
+    if (response instanceof VehicleModel) {
+      response = copyOf((VehicleModel) response);
+    }
+    return respond((T) response);
+  }
+
+  private <T> ListenableFuture<T> respond(T response) {
+    return respond(Futures.immediateFuture(response));
+  }
+
+  private <T> ListenableFuture<T> respond(ListenableFuture<T> response) {
+    if (latencyMillis <= 0) {
+      return response;
+    }
+    SettableFuture<T> delayed = SettableFuture.create();
+    delayExecutor.schedule(() -> delayed.setFuture(response), latencyMillis, MILLISECONDS);
+    return delayed;
+  }
+
+  private VehicleModel findVehicle(boolean backToBack) {
+    List<VehicleModel> candidates = new ArrayList<>();
+    for (VehicleModel vehicle : vehicles.values()) {
+      int tripCount = countActiveTrips(vehicle);
+      if (backToBack ? tripCount == 1 && vehicle.getBackToBackEnabled() : tripCount == 0) {
+        candidates.add(vehicle);
+      }
+    }
+    return candidates.isEmpty() ? null : candidates.get(random.nextInt(candidates.size()));
+  }
+
+  private int countActiveTrips(VehicleModel vehicle) {
+    int count = 0;
+    for (String tripId : vehicle.getCurrentTripsIds()) {
+      if (trips.get(tripId).status != TripStatus.COMPLETE) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private void removeFirstWaypoint(VehicleModel vehicle, String tripId) {
+    List<Waypoint> waypoints = new ArrayList<>(vehicle.getWaypoints());
+    for (Iterator<Waypoint> iterator = waypoints.iterator(); iterator.hasNext(); ) {
+      if (iterator.next().getTripId().equals(tripId)) {
+        iterator.remove();
+        break;
+      }
+    }
+    vehicle.setWaypoints(waypoints);
+
+    boolean tripHasWaypoints = false;
+    for (Waypoint waypoint : waypoints) {
+      tripHasWaypoints |= waypoint.getTripId().equals(tripId);
+    }
+    if (!tripHasWaypoints) {
+      List<String> tripIds = new ArrayList<>(vehicle.getCurrentTripsIds());
+      tripIds.remove(tripId);
+      vehicle.setCurrentTripsIds(tripIds);
+    }
+  }
+
+  private Waypoint createWaypoint(String tripId, String waypointType) {
+    Waypoint.Point point = new Waypoint.Point();
+    point.setLatitude(37.4 + random.nextDouble() / 10);
+    point.setLongitude(-122.1 + random.nextDouble() / 10);
+    Waypoint.Location location = new Waypoint.Location();
+    location.setPoint(point);
+
+    Waypoint waypoint = new Waypoint();
+    waypoint.setTripId(tripId);
+    waypoint.setWaypointType(waypointType);
+    waypoint.setLocation(location);
+    return waypoint;
+  }
+
+  // Leaving a waypoint removes it from the vehicle.
+  private static boolean movesPastWaypoint(TripStatus status) {
+    return status == TripStatus.ENROUTE_TO_INTERMEDIATE_DESTINATION
+        || status == TripStatus.ENROUTE_TO_DROPOFF
+        || status == TripStatus.COMPLETE;
+  }
+
+  private static void applySettings(VehicleModel vehicle, VehicleSettings settings) {
+    vehicle.setBackToBackEnabled(Boolean.TRUE.equals(settings.getBackToBackEnabled()));
+    vehicle.setMaximumCapacity(settings.getMaximumCapacity());
+    vehicle.setSupportedTripTypes(settings.getSupportedTripTypes());
+  }
+
+  private static VehicleModel copyOf(VehicleModel vehicle) {
+    VehicleModel copy = new VehicleModel();
+    copy.setName(vehicle.getName());
+    copy.setBackToBackEnabled(vehicle.getBackToBackEnabled());
+    copy.setMaximumCapacity(vehicle.getMaximumCapacity());
+    copy.setSupportedTripTypes(vehicle.getSupportedTripTypes());
+    copy.setWaypoints(ImmutableList.copyOf(vehicle.getWaypoints()));
+    copy.setCurrentTripsIds(ImmutableList.copyOf(vehicle.getCurrentTripsIds()));
+    return copy;
+  }
+
+  private static String extractVehicleId(String vehicleName) {
+    return vehicleName.substring(vehicleName.lastIndexOf('/') + 1);
+  }
+
+  private static HttpException httpError(int code) {
+    return new HttpException(Response.error(code, ERROR_BODY));
+  }
+
+  /** Provider side state of a trip. */
+  private static final class TripRecord {
+    final String vehicleName;
+    TripStatus status = TripStatus.NEW;
+
+    TripRecord(String vehicleName) {
+      this.vehicleName = vehicleName;
+    }
+  }
+}
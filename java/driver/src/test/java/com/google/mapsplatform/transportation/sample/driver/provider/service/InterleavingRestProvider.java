@@ -0,0 +1,111 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.TripUpdateBody;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TokenResponse;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Forwards requests to a {@link FakeRestProvider} right away, so the provider state changes in
+ * request order, but holds the responses until the test releases them. Tests replay races between
+ * requests deterministically, such as a vehicle poll answered after a later trip update.
+ */
+public final class InterleavingRestProvider implements RestProvider {
+  public static final String GET_VEHICLE = "getVehicle";
+  public static final String GET_AUTH_TOKEN = "getAuthToken";
+  public static final String CREATE_VEHICLE = "createVehicle";
+  public static final String UPDATE_VEHICLE = "updateVehicle";
+  public static final String UPDATE_TRIP = "updateTrip";
+
+  private final FakeRestProvider delegate;
+  private final Map<String, Queue<Runnable>> heldResponses = new HashMap<>();
+
+  public InterleavingRestProvider(FakeRestProvider delegate) {
+    this.delegate = delegate;
+  }
+
+  /** Returns a {@link LocalProviderService} talking to this provider. */
+  public LocalProviderService createLocalProviderService(Executor executor) {
+    return new LocalProviderService(this, executor);
+  }
+
+  /** Returns the number of responses of a method not released yet. */
+  public synchronized int getHeldCount(String method) {
+    Queue<Runnable> responses = heldResponses.get(method);
+    return responses != null ? responses.size() : 0;
+  }
+
+  /**
+   * Completes the oldest held response of a method.
+   *
+   * @throws IllegalStateException if no response of the method is held.
+   */
+  public void release(String method) {
+    Runnable release;
+    synchronized (this) {
+      Queue<Runnable> responses = heldResponses.get(method);
+      checkState(responses != null && !responses.isEmpty(), "No %s response held.", method);
+      release = responses.remove();
+    }
+    release.run();
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> getVehicle(String vehicleId) {
+    return hold(GET_VEHICLE, delegate.getVehicle(vehicleId));
+  }
+
+  @Override
+  public ListenableFuture<TokenResponse> getAuthToken(String vehicleId) {
+    return hold(GET_AUTH_TOKEN, delegate.getAuthToken(vehicleId));
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> createVehicle(VehicleSettings body, String idempotencyKey) {
+    return hold(CREATE_VEHICLE, delegate.createVehicle(body, idempotencyKey));
+  }
+
+  @Override
+  public ListenableFuture<VehicleModel> updateVehicle(
+      String id, VehicleSettings body, String idempotencyKey) {
+    return hold(UPDATE_VEHICLE, delegate.updateVehicle(id, body, idempotencyKey));
+  }
+
+  @Override
+  public ListenableFuture<TripModel> updateTrip(
+      String id, TripUpdateBody body, String idempotencyKey) {
+    return hold(UPDATE_TRIP, delegate.updateTrip(id, body, idempotencyKey));
+  }
+
+  private synchronized <T> ListenableFuture<T> hold(String method, ListenableFuture<T> response) {
+    SettableFuture<T> heldResponse = SettableFuture.create();
+    heldResponses
+        .computeIfAbsent(method, key -> new ArrayDeque<>())
+        .add(() -> heldResponse.setFuture(response));
+    return heldResponse;
+  }
+}
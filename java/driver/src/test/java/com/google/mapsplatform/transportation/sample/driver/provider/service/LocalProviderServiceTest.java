@@ -17,30 +17,54 @@ package com.google.mapsplatform.transportation.sample.driver.provider.service;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.junit.Assert.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.metrics.DriverMetrics;
 import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.TripModel;
 import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.state.TripState;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 import retrofit2.HttpException;
 import retrofit2.Response;
 
-@RunWith(JUnit4.class)
+@RunWith(AndroidJUnit4.class)
 public final class LocalProviderServiceTest {
   @Rule public final MockitoRule mockito = MockitoJUnit.rule();
   @Mock private RestProvider restProviderMock;
@@ -57,6 +81,12 @@ public final class LocalProviderServiceTest {
   private static final HttpException HTTP_INTERNAL_SERVER_EXCEPTION_MOCK =
       new HttpException(Response.error(500, RESPONSE_ERROR_MOCK));
 
+  private static final HttpException HTTP_BAD_REQUEST_EXCEPTION_MOCK =
+      new HttpException(Response.error(400, RESPONSE_ERROR_MOCK));
+
+  private static final TripState TRIP_STATE =
+      TripState.create("trip_0", TripStatus.ENROUTE_TO_DROPOFF);
+
   private static final VehicleSettings VEHICLE_SETTINGS =
       new VehicleSettings(
           /* vehicleId= */ VEHICLE_ID,
@@ -64,12 +94,25 @@ public final class LocalProviderServiceTest {
           /* maximumCapacity= */ 5,
           /* supportedTripTypes= */ ImmutableList.of());
 
+  private final ScheduledExecutorService retryExecutor =
+      Executors.newSingleThreadScheduledExecutor();
   private LocalProviderService localProviderService;
+  private LocalProviderService retryingProviderService;
+  private final StandInProviderServer server = new StandInProviderServer(new Random(0));
 
   @Before
   public void setUp() {
     localProviderService =
         new LocalProviderService(restProviderMock, Executors.newSingleThreadExecutor());
+    retryingProviderService =
+        new LocalProviderService(
+            restProviderMock, Executors.newSingleThreadExecutor(), retryExecutor);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    retryExecutor.shutdownNow();
+    server.close();
   }
 
   @Test
@@ -90,7 +133,8 @@ public final class LocalProviderServiceTest {
 
     VehicleModel createVehicleMock = new VehicleModel();
 
-    when(restProviderMock.createVehicle(any())).thenReturn(immediateFuture(createVehicleMock));
+    when(restProviderMock.createVehicle(any(), anyString()))
+        .thenReturn(immediateFuture(createVehicleMock));
 
     VehicleModel registeredVehicle = localProviderService.registerVehicle(VEHICLE_ID).get();
 
@@ -113,11 +157,63 @@ public final class LocalProviderServiceTest {
         .contains(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK.getMessage());
   }
 
+  @Test
+  public void registerVehicle_scheduled_isNotSupersededByMutation() throws Exception {
+    SettableFuture<VehicleModel> getVehicleResponse = SettableFuture.create();
+    when(restProviderMock.getVehicle(eq(VEHICLE_ID))).thenReturn(getVehicleResponse);
+    when(restProviderMock.updateVehicle(any(), any(), anyString()))
+        .thenReturn(SettableFuture.create());
+    LocalProviderService scheduledProviderService =
+        new LocalProviderService(
+            restProviderMock,
+            Executors.newSingleThreadExecutor(),
+            /* retryExecutor= */ null,
+            new NetworkQualityEstimator(),
+            new ProviderRequestScheduler(2, retryExecutor));
+
+    ListenableFuture<VehicleModel> registeredVehicle =
+        scheduledProviderService.registerVehicle(VEHICLE_ID);
+    scheduledProviderService.createOrUpdateVehicle(VEHICLE_SETTINGS);
+    VehicleModel vehicle = new VehicleModel();
+    getVehicleResponse.set(vehicle);
+
+    assertThat(registeredVehicle.get(5, SECONDS)).isSameInstanceAs(vehicle);
+  }
+
+  @Test
+  public void fetchVehicle_scheduled_deadlinePassedInQueue_isNotProviderFailure() throws Exception {
+    // Expires every request as it is submitted, before it is sent.
+    ScheduledExecutorService expiringDeadlines = mock(ScheduledExecutorService.class);
+    when(expiringDeadlines.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class)))
+        .thenAnswer(
+            invocation -> {
+              invocation.<Runnable>getArgument(0).run();
+              return mock(ScheduledFuture.class);
+            });
+    LocalProviderService scheduledProviderService =
+        new LocalProviderService(
+            restProviderMock,
+            Executors.newSingleThreadExecutor(),
+            /* retryExecutor= */ null,
+            new NetworkQualityEstimator(),
+            new ProviderRequestScheduler(2, expiringDeadlines));
+
+    for (int i = 0; i < CircuitBreaker.WINDOW_SIZE + 1; i++) {
+      ExecutionException thrown =
+          assertThrows(
+              ExecutionException.class,
+              () -> scheduledProviderService.fetchVehicle(VEHICLE_ID).get());
+      // The circuit stays closed, an open one would fail with an OpenException.
+      assertThat(thrown).hasCauseThat().isInstanceOf(InterruptedIOException.class);
+    }
+    verify(restProviderMock, never()).getVehicle(any());
+  }
+
   @Test
   public void createOrUpdateVehicle_updatesVehicleWhenExisting() throws Exception {
     VehicleModel updatedVehicle = new VehicleModel();
 
-    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS)))
+    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS), anyString()))
         .thenReturn(immediateFuture(updatedVehicle));
 
     assertThat(localProviderService.createOrUpdateVehicle(VEHICLE_SETTINGS).get())
@@ -126,12 +222,13 @@ public final class LocalProviderServiceTest {
 
   @Test
   public void createOrUpdateVehicle_createsVehicleWhenNotExisting() throws Exception {
-    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS)))
+    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS), anyString()))
         .thenReturn(immediateFailedFuture(HTTP_NOT_FOUND_EXCEPTION_MOCK));
 
     VehicleModel createdVehicle = new VehicleModel();
 
-    when(restProviderMock.createVehicle(any())).thenReturn(immediateFuture(createdVehicle));
+    when(restProviderMock.createVehicle(any(), anyString()))
+        .thenReturn(immediateFuture(createdVehicle));
 
     assertThat(localProviderService.createOrUpdateVehicle(VEHICLE_SETTINGS).get())
         .isEqualTo(createdVehicle);
@@ -139,7 +236,7 @@ public final class LocalProviderServiceTest {
 
   @Test
   public void createOrUpdateVehicle_surfacesExceptionWhenUnknown() throws Exception {
-    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS)))
+    when(restProviderMock.updateVehicle(eq(VEHICLE_ID), eq(VEHICLE_SETTINGS), anyString()))
         .thenReturn(immediateFailedFuture(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK));
 
     ExecutionException thrown =
@@ -153,4 +250,149 @@ public final class LocalProviderServiceTest {
         .hasMessageThat()
         .contains(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK.getMessage());
   }
+
+  @Test
+  public void updateTripStatus_retriesServerErrorWithSameIdempotencyKey() throws Exception {
+    TripModel trip = new TripModel();
+    when(restProviderMock.updateTrip(eq("trip_0"), any(), anyString()))
+        .thenReturn(
+            immediateFailedFuture(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK),
+            immediateFailedFuture(new IOException("timeout")),
+            immediateFuture(trip));
+
+    assertThat(retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS))
+        .isEqualTo(trip);
+
+    ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+    verify(restProviderMock, times(3)).updateTrip(eq("trip_0"), any(), keys.capture());
+    assertThat(keys.getAllValues().get(0)).isNotEmpty();
+    assertThat(keys.getAllValues())
+        .containsExactly(keys.getValue(), keys.getValue(), keys.getValue());
+  }
+
+  @Test
+  public void updateTripStatus_usesNewIdempotencyKeyPerUpdate() throws Exception {
+    when(restProviderMock.updateTrip(eq("trip_0"), any(), anyString()))
+        .thenReturn(immediateFuture(new TripModel()));
+
+    retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS);
+    retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS);
+
+    ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+    verify(restProviderMock, times(2)).updateTrip(eq("trip_0"), any(), keys.capture());
+    assertThat(keys.getAllValues()).containsNoDuplicates();
+  }
+
+  @Test
+  public void updateTripStatus_doesNotRetryClientError() throws Exception {
+    when(restProviderMock.updateTrip(eq("trip_0"), any(), anyString()))
+        .thenReturn(immediateFailedFuture(HTTP_BAD_REQUEST_EXCEPTION_MOCK));
+
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class,
+            () -> retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS));
+
+    assertThat(thrown).hasCauseThat().isEqualTo(HTTP_BAD_REQUEST_EXCEPTION_MOCK);
+    verify(restProviderMock, times(1)).updateTrip(eq("trip_0"), any(), anyString());
+  }
+
+  @Test
+  public void updateTripStatus_doesNotRetryOpenCircuit() throws Exception {
+    CircuitBreaker.OpenException openException = new CircuitBreaker.OpenException("update_trip");
+    when(restProviderMock.updateTrip(eq("trip_0"), any(), anyString()))
+        .thenReturn(immediateFailedFuture(openException));
+    long retries = DriverMetrics.MUTATION_RETRIES.get();
+
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class,
+            () -> retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS));
+
+    assertThat(thrown).hasCauseThat().isEqualTo(openException);
+    verify(restProviderMock, times(1)).updateTrip(eq("trip_0"), any(), anyString());
+    assertThat(DriverMetrics.MUTATION_RETRIES.get()).isEqualTo(retries);
+  }
+
+  @Test
+  public void updateTripStatus_retryExecutorShutDown_failsInsteadOfHanging() throws Exception {
+    when(restProviderMock.updateTrip(eq("trip_0"), any(), anyString()))
+        .thenReturn(immediateFailedFuture(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK));
+    retryExecutor.shutdown();
+
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class,
+            () -> retryingProviderService.updateTripStatus(TRIP_STATE).get(5, SECONDS));
+
+    assertThat(thrown).hasCauseThat().isInstanceOf(RejectedExecutionException.class);
+  }
+
+  @Test
+  public void updateTripStatus_lostResponse_appliesTransitionOnce() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider(new Random(1));
+    restProvider.createVehicle(VEHICLE_SETTINGS, /* idempotencyKey= */ null).get();
+    restProvider.dispatchTrip(/* intermediateDestinations= */ 0, /* backToBack= */ false);
+    // Every applied update times out, only the replies to repeated keys get through.
+    restProvider.setLostResponseRate(1);
+    int appliedMutations = restProvider.getAppliedMutationCount();
+
+    restProvider
+        .createLocalProviderService(Executors.newSingleThreadExecutor(), retryExecutor)
+        .updateTripStatus(TRIP_STATE)
+        .get(5, SECONDS);
+
+    assertThat(restProvider.getAppliedMutationCount()).isEqualTo(appliedMutations + 1);
+    assertThat(restProvider.getDeduplicatedMutationCount()).isEqualTo(1);
+    assertThat(restProvider.getVehicle(VEHICLE_ID).get().getWaypoints()).hasSize(1);
+  }
+
+  @Test
+  public void fetchVehicle_overloadedProvider_failsFastOnceCircuitOpens() throws Exception {
+    // A provider shedding every vehicle poll.
+    server.setFaults(
+        StandInProviderServer.Endpoint.GET_VEHICLE,
+        new StandInProviderServer.Faults().setErrorRate(1));
+    server.start();
+    LocalProviderService service =
+        new LocalProviderService(
+            LocalProviderService.createRestProvider(server.getBaseUrl(), new OkHttpClient()),
+            Executors.newSingleThreadExecutor());
+    SettableFuture<String> openedEndpoint = SettableFuture.create();
+    service.addCircuitBreakerListener(
+        (endpoint, state) -> {
+          if (state == CircuitBreaker.State.OPEN) {
+            openedEndpoint.set(endpoint);
+          }
+        });
+
+    for (int i = 0; i < CircuitBreaker.MIN_CALLS; i++) {
+      ExecutionException thrown =
+          assertThrows(
+              ExecutionException.class, () -> service.fetchVehicle(VEHICLE_ID).get(5, SECONDS));
+      assertThat(thrown).hasCauseThat().isInstanceOf(HttpException.class);
+    }
+    assertThat(openedEndpoint.get(5, SECONDS)).isEqualTo("get_vehicle");
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class, () -> service.fetchVehicle(VEHICLE_ID).get(5, SECONDS));
+
+    assertThat(thrown).hasCauseThat().isInstanceOf(CircuitBreaker.OpenException.class);
+    assertThat(server.getRequestCount(StandInProviderServer.Endpoint.GET_VEHICLE))
+        .isEqualTo(CircuitBreaker.MIN_CALLS);
+  }
+
+  @Test
+  public void isRetryable_onlyAcceptsTransientErrors() {
+    assertThat(LocalProviderService.isRetryable(new IOException("timeout"))).isTrue();
+    assertThat(LocalProviderService.isRetryable(HTTP_INTERNAL_SERVER_EXCEPTION_MOCK)).isTrue();
+    assertThat(LocalProviderService.isRetryable(httpException(429))).isTrue();
+    assertThat(LocalProviderService.isRetryable(HTTP_NOT_FOUND_EXCEPTION_MOCK)).isFalse();
+    assertThat(LocalProviderService.isRetryable(HTTP_BAD_REQUEST_EXCEPTION_MOCK)).isFalse();
+    assertThat(LocalProviderService.isRetryable(new IllegalStateException())).isFalse();
+  }
+
+  private static HttpException httpException(int code) {
+    return new HttpException(Response.error(code, RESPONSE_ERROR_MOCK));
+  }
 }
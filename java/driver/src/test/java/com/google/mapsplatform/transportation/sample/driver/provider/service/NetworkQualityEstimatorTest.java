@@ -0,0 +1,229 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator.Quality;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link NetworkQualityEstimator}. */
+@RunWith(AndroidJUnit4.class)
+public final class NetworkQualityEstimatorTest {
+  // Spread of the synthetic round trips, a quarter of them are over 1.4 times the median.
+  private static final double ROUND_TRIP_SIGMA = 0.5;
+
+  private final Random random = new Random(0);
+  private final NetworkQualityEstimator estimator = new NetworkQualityEstimator();
+  private final MockWebServer server = new MockWebServer();
+  private final OkHttpClient httpClient =
+      new OkHttpClient.Builder().eventListenerFactory(estimator.eventListenerFactory()).build();
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+  }
+
+  @Test
+  public void getQuality_withoutSamples_isGood() {
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    assertThat(estimator.getRoundTripMillis()).isEqualTo(0);
+  }
+
+  @Test
+  public void getQuality_fewSlowSamples_isGood() {
+    for (int i = 1; i < NetworkQualityEstimator.MIN_SAMPLES; i++) {
+      estimator.onRoundTrip(3_000);
+    }
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    estimator.onRoundTrip(3_000);
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.POOR);
+  }
+
+  @Test
+  public void getQuality_classifiesRoundTripDistributions() {
+    feedRoundTrips(/* medianMillis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+
+    feedRoundTrips(/* medianMillis= */ 500, NetworkQualityEstimator.WINDOW_SIZE);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.MODERATE);
+
+    feedRoundTrips(/* medianMillis= */ 2_500, NetworkQualityEstimator.WINDOW_SIZE);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.POOR);
+    assertThat(estimator.getRoundTripMillis())
+        .isAtLeast(NetworkQualityEstimator.MODERATE_ROUND_TRIP_MILLIS);
+  }
+
+  @Test
+  public void getQuality_goodLinkWithOccasionalStalls_staysGood() {
+    for (int i = 0; i < 10 * NetworkQualityEstimator.WINDOW_SIZE; i++) {
+      // One request in five stalls behind a retransmission.
+      estimator.onRoundTrip(i % 5 == 0 ? 3_000 : roundTrip(/* medianMillis= */ 80));
+      assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    }
+  }
+
+  @Test
+  public void getQuality_linkDegrades_followsWithinHalfAWindow() {
+    feedRoundTrips(/* medianMillis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+
+    int samples = 0;
+    while (estimator.getQuality() != Quality.POOR) {
+      estimator.onRoundTrip(roundTrip(/* medianMillis= */ 3_000));
+      samples++;
+    }
+
+    assertThat(samples).isAtMost(NetworkQualityEstimator.WINDOW_SIZE / 2 + 1);
+  }
+
+  @Test
+  public void getQuality_lowThroughput_downgradesGoodRoundTrips() {
+    feedRoundTrips(/* medianMillis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+
+    // Too small to measure.
+    feedResponseBodies(
+        /* bytes= */ 1_000, /* millis= */ 1_000, NetworkQualityEstimator.WINDOW_SIZE);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    // 64 KiB in 2 s, 262 kbps.
+    feedResponseBodies(
+        /* bytes= */ 64 * 1024, /* millis= */ 2_000, NetworkQualityEstimator.MIN_SAMPLES);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.MODERATE);
+    // 64 KiB in 10 s, 52 kbps.
+    feedResponseBodies(
+        /* bytes= */ 64 * 1024, /* millis= */ 10_000, NetworkQualityEstimator.MIN_SAMPLES + 1);
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.POOR);
+    assertThat(estimator.getThroughputKbps()).isEqualTo(64 * 1024 * 8 / 10_000);
+  }
+
+  @Test
+  public void getQuality_consecutiveFailures_isOfflineUntilResponse() {
+    feedRoundTrips(/* medianMillis= */ 80, NetworkQualityEstimator.WINDOW_SIZE);
+
+    for (int i = 1; i < NetworkQualityEstimator.OFFLINE_CONSECUTIVE_FAILURES; i++) {
+      estimator.onNetworkFailure();
+    }
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+    estimator.onNetworkFailure();
+    assertThat(estimator.getQuality()).isEqualTo(Quality.OFFLINE);
+    estimator.onRoundTrip(roundTrip(/* medianMillis= */ 80));
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+  }
+
+  @Test
+  public void listener_getsEachChange() {
+    List<Quality> changes = new ArrayList<>();
+    estimator.addListener(changes::add);
+
+    for (int i = 0; i < NetworkQualityEstimator.OFFLINE_CONSECUTIVE_FAILURES + 2; i++) {
+      estimator.onNetworkFailure();
+    }
+    estimator.onRoundTrip(roundTrip(/* medianMillis= */ 80));
+
+    assertThat(changes).containsExactly(Quality.OFFLINE, Quality.GOOD).inOrder();
+  }
+
+  @Test
+  public void eventListener_measuresRoundTripOfCalls() throws Exception {
+    server.enqueue(new MockResponse().setHeadersDelay(400, MILLISECONDS).setBody("{}"));
+
+    try (Response response = execute()) {
+      assertThat(response.code()).isEqualTo(200);
+    }
+
+    assertThat(estimator.getRoundTripMillis()).isAtLeast(400);
+  }
+
+  @Test
+  public void eventListener_unreachableServer_isOffline() throws Exception {
+    server.start();
+    server.shutdown();
+
+    for (int i = 0; i < NetworkQualityEstimator.OFFLINE_CONSECUTIVE_FAILURES; i++) {
+      assertThrows(IOException.class, this::execute);
+    }
+
+    assertThat(estimator.getQuality()).isEqualTo(Quality.OFFLINE);
+  }
+
+  @Test
+  public void eventListener_callCancelledEarly_isIgnored() throws Exception {
+    server.enqueue(new MockResponse().setHeadersDelay(10, SECONDS));
+    Call call = httpClient.newCall(new Request.Builder().url(server.url("/vehicle/1")).build());
+    SettableFuture<IOException> failure = SettableFuture.create();
+    call.enqueue(
+        new Callback() {
+          @Override
+          public void onFailure(Call call, IOException e) {
+            failure.set(e);
+          }
+
+          @Override
+          public void onResponse(Call call, Response response) {
+            response.close();
+          }
+        });
+
+    server.takeRequest(5, SECONDS);
+    call.cancel();
+    failure.get(5, SECONDS);
+
+    assertThat(estimator.getRoundTripMillis()).isEqualTo(0);
+    assertThat(estimator.getQuality()).isEqualTo(Quality.GOOD);
+  }
+
+  private Response execute() throws IOException {
+    return httpClient
+        .newCall(new Request.Builder().url(server.url("/vehicle/1")).build())
+        .execute();
+  }
+
+  private void feedRoundTrips(long medianMillis, int count) {
+    for (int i = 0; i < count; i++) {
+      estimator.onRoundTrip(roundTrip(medianMillis));
+    }
+  }
+
+  private void feedResponseBodies(long bytes, long millis, int count) {
+    for (int i = 0; i < count; i++) {
+      estimator.onResponseBody(bytes, millis);
+    }
+  }
+
+  // Log-normal round trip, as measured on mobile links.
+  private long roundTrip(long medianMillis) {
+    return Math.round(medianMillis * Math.exp(ROUND_TRIP_SIGMA * random.nextGaussian()));
+  }
+}
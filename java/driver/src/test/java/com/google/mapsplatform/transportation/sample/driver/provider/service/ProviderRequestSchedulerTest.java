@@ -0,0 +1,159 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.ProviderRequestScheduler.Priority;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProviderRequestScheduler}. */
+@RunWith(JUnit4.class)
+public final class ProviderRequestSchedulerTest {
+  private static final long DEADLINE_MILLIS = 10_000;
+
+  private final ScheduledExecutorService deadlineExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  // Names of the started requests, in start order, and their pending responses.
+  private final List<String> started = new ArrayList<>();
+  private final Map<String, SettableFuture<String>> responses = new HashMap<>();
+
+  @After
+  public void tearDown() {
+    deadlineExecutor.shutdownNow();
+  }
+
+  @Test
+  public void submit_startsQueuedRequestsByPriorityThenInOrder() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(1, deadlineExecutor);
+    submit(scheduler, Priority.POLL, "poll_1");
+    submit(scheduler, Priority.POLL, "poll_2");
+    submit(scheduler, Priority.TOKEN, "token_1");
+    submit(scheduler, Priority.TOKEN, "token_2");
+
+    respond("poll_1");
+    respond("token_1");
+    respond("token_2");
+
+    assertThat(started).containsExactly("poll_1", "token_1", "token_2", "poll_2").inOrder();
+    assertThat(scheduler.getInFlightCount()).isEqualTo(1);
+    assertThat(scheduler.getQueuedCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void submit_mutation_cancelsQueuedAndInFlightPolls() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(1, deadlineExecutor);
+    ListenableFuture<String> inFlightPoll = submit(scheduler, Priority.POLL, "poll_1");
+    ListenableFuture<String> queuedPoll = submit(scheduler, Priority.POLL, "poll_2");
+
+    ListenableFuture<String> mutation = submit(scheduler, Priority.MUTATION, "mutation");
+
+    assertThat(inFlightPoll.isCancelled()).isTrue();
+    assertThat(queuedPoll.isCancelled()).isTrue();
+    // The call of the poll was aborted, which frees its slot for the mutation.
+    assertThat(responses.get("poll_1").isCancelled()).isTrue();
+    assertThat(started).containsExactly("poll_1", "mutation").inOrder();
+    respond("mutation");
+    assertThat(mutation.get()).isEqualTo("mutation");
+  }
+
+  @Test
+  public void submit_pollWhileMutationPending_isCancelledWithoutStarting() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(2, deadlineExecutor);
+    submit(scheduler, Priority.MUTATION, "mutation");
+
+    ListenableFuture<String> poll = submit(scheduler, Priority.POLL, "poll_1");
+
+    assertThat(poll.isCancelled()).isTrue();
+    respond("mutation");
+    submit(scheduler, Priority.POLL, "poll_2");
+    assertThat(started).containsExactly("mutation", "poll_2").inOrder();
+  }
+
+  @Test
+  public void submit_deadlinePassedInQueue_failsWithoutStarting() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(1, deadlineExecutor);
+    submit(scheduler, Priority.TOKEN, "token");
+    ListenableFuture<String> poll =
+        scheduler.submit(Priority.POLL, /* deadlineMillis= */ 50, () -> call("poll"));
+
+    ExecutionException thrown = assertThrows(ExecutionException.class, () -> poll.get(5, SECONDS));
+
+    assertThat(thrown).hasCauseThat().isInstanceOf(InterruptedIOException.class);
+    awaitDeadlineListeners();
+    assertThat(scheduler.getQueuedCount()).isEqualTo(0);
+    respond("token");
+    assertThat(started).containsExactly("token");
+  }
+
+  @Test
+  public void submit_deadlinePassedInFlight_cancelsCall() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(1, deadlineExecutor);
+    ListenableFuture<String> mutation =
+        scheduler.submit(Priority.MUTATION, /* deadlineMillis= */ 50, () -> call("mutation"));
+
+    assertThrows(ExecutionException.class, () -> mutation.get(5, SECONDS));
+    awaitDeadlineListeners();
+
+    assertThat(responses.get("mutation").isCancelled()).isTrue();
+    assertThat(scheduler.getInFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void submit_recordsQueueDelayOfPriority() throws Exception {
+    ProviderRequestScheduler scheduler = new ProviderRequestScheduler(1, deadlineExecutor);
+    long tokenCount = Priority.TOKEN.queueDelay.getCount();
+
+    submit(scheduler, Priority.TOKEN, "token");
+
+    assertThat(Priority.TOKEN.queueDelay.getCount()).isEqualTo(tokenCount + 1);
+  }
+
+  private ListenableFuture<String> submit(
+      ProviderRequestScheduler scheduler, Priority priority, String name) {
+    return scheduler.submit(priority, DEADLINE_MILLIS, () -> call(name));
+  }
+
+  // The result of a request is released before its listeners ran on the deadline thread.
+  private void awaitDeadlineListeners() throws Exception {
+    deadlineExecutor.submit(() -> {}).get();
+  }
+
+  private synchronized ListenableFuture<String> call(String name) {
+    started.add(name);
+    SettableFuture<String> response = SettableFuture.create();
+    responses.put(name, response);
+    return response;
+  }
+
+  private void respond(String name) {
+    responses.get(name).set(name);
+  }
+}
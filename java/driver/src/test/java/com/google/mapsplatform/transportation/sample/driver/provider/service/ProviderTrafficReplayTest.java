@@ -0,0 +1,205 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.gson.Gson;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.TripUpdateBody;
+import com.google.mapsplatform.transportation.sample.driver.state.TripProgress;
+import com.google.mapsplatform.transportation.sample.driver.state.TripState;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture.Exchange;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficRecorder;
+import com.google.mapsplatform.transportation.sample.testing.ProviderTrafficReplayServer;
+import com.google.mapsplatform.transportation.sample.testing.ProviderTrafficReplayServer.RecordedResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for {@link ProviderTrafficRecorder} and {@link ProviderTrafficReplayServer}, with the
+ * captures in {@code src/test/resources/captures} as regression fixtures.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class ProviderTrafficReplayTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final String TRIP_RESPONSE =
+      "{\"name\":\"providers/sample-provider/trips/trip_1\",\"tripStatus\":\"ENROUTE_TO_PICKUP\"}";
+
+  private final Gson gson = new Gson();
+  private final OkHttpClient httpClient = new OkHttpClient();
+  private ProviderTrafficReplayServer replayServer;
+
+  @After
+  public void tearDown() throws Exception {
+    if (replayServer != null) {
+      replayServer.close();
+    }
+  }
+
+  @Test
+  public void recorder_recordsRequestsAndResponses() throws Exception {
+    File capture = temporaryFolder.newFile();
+    try (MockWebServer server = new MockWebServer()) {
+      server.enqueue(new MockResponse().setBody(TRIP_RESPONSE));
+      server.start();
+      LocalProviderService providerService =
+          new LocalProviderService(
+              LocalProviderService.createRestProvider(
+                  server.url("/").toString(),
+                  httpClient
+                      .newBuilder()
+                      .addInterceptor(new ProviderTrafficRecorder(capture, directExecutor()))
+                      .build()),
+              directExecutor());
+
+      providerService
+          .updateTripStatus(TripState.create("trip_1", TripStatus.ENROUTE_TO_PICKUP))
+          .get();
+    }
+
+    ImmutableList<Exchange> exchanges;
+    try (Reader reader = Files.newReader(capture, StandardCharsets.UTF_8)) {
+      exchanges = ProviderTrafficCapture.read(reader);
+    }
+    assertThat(exchanges).hasSize(1);
+    Exchange exchange = exchanges.get(0);
+    assertThat(exchange.method()).isEqualTo("PUT");
+    assertThat(exchange.path()).isEqualTo("/trip/trip_1");
+    assertThat(exchange.code()).isEqualTo(200);
+    assertThat(exchange.requestBody()).isEqualTo("{\"status\":\"ENROUTE_TO_PICKUP\"}");
+    assertThat(exchange.responseBody()).isEqualTo(TRIP_RESPONSE);
+  }
+
+  @Test
+  public void replay_idle_keepsVehicleWithoutTrips() throws Exception {
+    TripProgress tripProgress = replay("captures/idle.capture");
+
+    assertThat(tripProgress.getCurrentWaypoint()).isNull();
+    assertThat(tripProgress.getMatchedTripIds()).isEmpty();
+  }
+
+  @Test
+  public void replay_singleTrip_completesTrip() throws Exception {
+    TripProgress tripProgress = replay("captures/single_trip.capture");
+
+    assertThat(tripProgress.getTripState("trip_1").tripStatus()).isEqualTo(TripStatus.COMPLETE);
+    assertThat(tripProgress.getWaypoints()).isEmpty();
+  }
+
+  @Test
+  public void replay_backToBack_completesBothTrips() throws Exception {
+    TripProgress tripProgress = replay("captures/back_to_back.capture");
+
+    assertThat(tripProgress.getTripState("trip_1").tripStatus()).isEqualTo(TripStatus.COMPLETE);
+    assertThat(tripProgress.getTripState("trip_2").tripStatus()).isEqualTo(TripStatus.COMPLETE);
+    assertThat(tripProgress.getWaypoints()).isEmpty();
+  }
+
+  @Test
+  public void replay_sharedPool_completesTripsWithIntermediateStop() throws Exception {
+    TripProgress tripProgress = replay("captures/shared_pool.capture");
+
+    assertThat(tripProgress.getTripState("trip_1").tripStatus()).isEqualTo(TripStatus.COMPLETE);
+    assertThat(tripProgress.getTripState("trip_2").tripStatus()).isEqualTo(TripStatus.COMPLETE);
+    assertThat(tripProgress.getWaypoints()).isEmpty();
+  }
+
+  /**
+   * Sends the recorded requests of a capture through {@link LocalProviderService}, in their
+   * original order, and follows the responses like {@code VehicleController} does.
+   */
+  private TripProgress replay(String captureName) throws Exception {
+    ImmutableList<Exchange> exchanges = loadCapture(captureName);
+    startReplayServer(exchanges);
+    LocalProviderService providerService =
+        new LocalProviderService(
+            LocalProviderService.createRestProvider(replayServer.getBaseUrl(), httpClient),
+            directExecutor());
+    TripProgress tripProgress = new TripProgress();
+
+    for (Exchange exchange : exchanges) {
+      String id = exchange.path().substring(exchange.path().lastIndexOf('/') + 1);
+      if (exchange.path().startsWith("/vehicle/")) {
+        tripProgress.onVehicleStateUpdate(providerService.fetchVehicle(id).get());
+      } else if (exchange.path().startsWith("/token/driver/")) {
+        assertThat(providerService.fetchAuthToken(id).get().getToken()).isNotEmpty();
+      } else if (exchange.path().startsWith("/trip/")) {
+        TripUpdateBody body = gson.fromJson(exchange.requestBody(), TripUpdateBody.class);
+        TripStatus status = TripStatus.valueOf(body.getStatus());
+        TripState tripState =
+            body.getIntermediateDestinationIndex() == null
+                ? TripState.create(id, status)
+                : TripState.create(id, status, body.getIntermediateDestinationIndex());
+        providerService.updateTripStatus(tripState).get();
+        tripProgress.putTripState(tripState);
+      }
+    }
+
+    assertThat(replayServer.getRequestCount()).isEqualTo(exchanges.size());
+    return tripProgress;
+  }
+
+  private void startReplayServer(ImmutableList<Exchange> exchanges) throws IOException {
+    replayServer =
+        new ProviderTrafficReplayServer(toRecordedResponses(exchanges), /* timeScale= */ 0);
+    replayServer.start();
+  }
+
+  /** Reads a capture from the test resources. */
+  private static ImmutableList<Exchange> loadCapture(String resourceName) throws IOException {
+    InputStream stream =
+        ProviderTrafficReplayTest.class.getClassLoader().getResourceAsStream(resourceName);
+    if (stream == null) {
+      throw new IOException("Missing capture " + resourceName);
+    }
+    try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+      return ProviderTrafficCapture.read(reader);
+    }
+  }
+
+  private static ImmutableList<RecordedResponse> toRecordedResponses(
+      ImmutableList<Exchange> exchanges) {
+    ImmutableList.Builder<RecordedResponse> responses = ImmutableList.builder();
+    for (Exchange exchange : exchanges) {
+      responses.add(
+          new RecordedResponse(
+              exchange.method(),
+              exchange.path(),
+              exchange.code(),
+              exchange.responseBody(),
+              exchange.latencyMillis()));
+    }
+    return responses.build();
+  }
+}
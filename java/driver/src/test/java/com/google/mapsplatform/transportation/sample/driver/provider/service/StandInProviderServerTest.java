@@ -0,0 +1,195 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.state.TripState;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer.Endpoint;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer.Faults;
+import com.google.mapsplatform.transportation.sample.testing.StandInProviderServer.Latency;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import retrofit2.HttpException;
+
+/** Unit tests for {@link StandInProviderServer}, through {@link LocalProviderService}. */
+@RunWith(AndroidJUnit4.class)
+public final class StandInProviderServerTest {
+  private static final String VEHICLE_ID = "vehicle_1";
+
+  private final StandInProviderServer server = new StandInProviderServer(new Random(0));
+  private final OkHttpClient httpClient = new OkHttpClient();
+  private final ScheduledExecutorService retryExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private LocalProviderService providerService;
+
+  @Before
+  public void setUp() throws IOException {
+    server.start();
+    providerService =
+        new LocalProviderService(
+            LocalProviderService.createRestProvider(server.getBaseUrl(), httpClient),
+            Executors.newSingleThreadExecutor(),
+            retryExecutor);
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    retryExecutor.shutdownNow();
+    server.close();
+  }
+
+  @Test
+  public void registeredVehicle_isMatchedAndCompletesTrip() throws Exception {
+    providerService.registerVehicle(VEHICLE_ID).get(5, SECONDS);
+    String tripId = server.addTrip(/* intermediateDestinations= */ 1);
+
+    VehicleModel vehicle = providerService.fetchVehicle(VEHICLE_ID).get(5, SECONDS);
+    assertThat(vehicle.getCurrentTripsIds()).containsExactly(tripId);
+    assertThat(vehicle.getWaypoints()).hasSize(3);
+
+    updateTripStatuses(
+        tripId,
+        TripStatus.ENROUTE_TO_PICKUP,
+        TripStatus.ARRIVED_AT_PICKUP,
+        TripStatus.ENROUTE_TO_INTERMEDIATE_DESTINATION);
+    assertThat(providerService.fetchVehicle(VEHICLE_ID).get(5, SECONDS).getWaypoints()).hasSize(2);
+    updateTripStatuses(
+        tripId,
+        TripStatus.ARRIVED_AT_INTERMEDIATE_DESTINATION,
+        TripStatus.ENROUTE_TO_DROPOFF,
+        TripStatus.COMPLETE);
+
+    vehicle = providerService.fetchVehicle(VEHICLE_ID).get(5, SECONDS);
+    assertThat(vehicle.getCurrentTripsIds()).isEmpty();
+    assertThat(vehicle.getWaypoints()).isEmpty();
+    assertThat(server.getTripStatus(tripId)).isEqualTo("COMPLETE");
+  }
+
+  @Test
+  public void backToBackVehicle_isMatchedWithSecondTrip() throws Exception {
+    server.addVehicle(VEHICLE_ID, /* backToBackEnabled= */ true);
+    server.addVehicle("vehicle_2", /* backToBackEnabled= */ false);
+    String firstTripId = server.addTrip(/* intermediateDestinations= */ 0);
+    String secondTripId = server.addTrip(/* intermediateDestinations= */ 0);
+    String thirdTripId = server.addTrip(/* intermediateDestinations= */ 0);
+
+    assertThat(providerService.fetchVehicle(VEHICLE_ID).get(5, SECONDS).getCurrentTripsIds())
+        .containsExactly(firstTripId, thirdTripId)
+        .inOrder();
+    assertThat(providerService.fetchVehicle("vehicle_2").get(5, SECONDS).getCurrentTripsIds())
+        .containsExactly(secondTripId);
+  }
+
+  @Test
+  public void faults_sameSeed_sameResponses() throws Exception {
+    Faults faults = new Faults().setErrorRate(0.2).setNotFoundRate(0.1);
+    server.setFaults(faults);
+    List<Integer> codes = getTokenResponseCodes(server, 50);
+
+    try (StandInProviderServer otherServer = new StandInProviderServer(new Random(0))) {
+      otherServer.setFaults(faults).start();
+
+      assertThat(getTokenResponseCodes(otherServer, 50)).isEqualTo(codes);
+    }
+    assertThat(codes).containsAtLeast(200, 404, 503);
+    assertThat(server.getRequestCount(Endpoint.GET_DRIVER_TOKEN)).isEqualTo(50);
+  }
+
+  @Test
+  public void connectionResets_retriedMutationsAreAppliedOnce() throws Exception {
+    server.addVehicle(VEHICLE_ID, /* backToBackEnabled= */ false);
+    String tripId = server.addTrip(/* intermediateDestinations= */ 0);
+    server.setFaults(Endpoint.UPDATE_TRIP, new Faults().setConnectionResetRate(0.5));
+
+    updateTripStatuses(
+        tripId,
+        TripStatus.ENROUTE_TO_PICKUP,
+        TripStatus.ARRIVED_AT_PICKUP,
+        TripStatus.ENROUTE_TO_DROPOFF,
+        TripStatus.COMPLETE);
+
+    int requests = server.getRequestCount(Endpoint.UPDATE_TRIP);
+    assertThat(requests).isGreaterThan(4);
+    assertThat(server.getAppliedMutationCount()).isEqualTo(4);
+    assertThat(server.getDeduplicatedMutationCount()).isEqualTo(requests - 4);
+    assertThat(providerService.fetchVehicle(VEHICLE_ID).get(5, SECONDS).getWaypoints()).isEmpty();
+  }
+
+  @Test
+  public void latencyAndSlowBodies_delayResponses() throws Exception {
+    server.setFaults(new Faults().setLatency(Latency.fixed(200)).setBodyBytesPerSecond(100));
+    long startNanos = System.nanoTime();
+
+    // About 110 bytes.
+    assertThat(providerService.fetchAuthToken(VEHICLE_ID).get(10, SECONDS).getToken())
+        .isNotEmpty();
+
+    assertThat(NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isAtLeast(1_000);
+  }
+
+  @Test
+  public void unknownIdsAndPaths_areNotFound() throws Exception {
+    ExecutionException thrown =
+        assertThrows(
+            ExecutionException.class,
+            () -> providerService.fetchVehicle("unknown").get(5, SECONDS));
+
+    assertThat(((HttpException) thrown.getCause()).code()).isEqualTo(404);
+    assertThat(getResponseCode(server, "trip/unknown")).isEqualTo(404);
+    assertThat(getResponseCode(server, "unknown/path/here")).isEqualTo(404);
+  }
+
+  private void updateTripStatuses(String tripId, TripStatus... statuses) throws Exception {
+    for (TripStatus status : statuses) {
+      providerService.updateTripStatus(TripState.create(tripId, status)).get(10, SECONDS);
+    }
+  }
+
+  private List<Integer> getTokenResponseCodes(StandInProviderServer server, int count)
+      throws IOException {
+    List<Integer> codes = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      codes.add(getResponseCode(server, "token/driver/" + VEHICLE_ID));
+    }
+    return codes;
+  }
+
+  private int getResponseCode(StandInProviderServer server, String path) throws IOException {
+    Request request = new Request.Builder().url(server.getBaseUrl() + path).build();
+    try (Response response = httpClient.newCall(request).execute()) {
+      return response.code();
+    }
+  }
+}
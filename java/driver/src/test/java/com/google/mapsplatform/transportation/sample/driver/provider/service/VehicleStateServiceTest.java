@@ -0,0 +1,138 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.provider.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator.Quality;
+import com.google.mapsplatform.transportation.sample.driver.state.TripState;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import com.google.mapsplatform.transportation.sample.driver.tracing.SpanData;
+import com.google.mapsplatform.transportation.sample.driver.tracing.Tracer;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link VehicleStateService}. */
+@RunWith(AndroidJUnit4.class)
+public final class VehicleStateServiceTest {
+  private static final String VEHICLE_ID = "vehicle_1";
+
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  private final FakeRestProvider restProvider = new FakeRestProvider(new Random(0));
+  private final LocalProviderService providerService =
+      restProvider.createLocalProviderService(directExecutor());
+  // The service only keeps a weak reference to its listener.
+  private VehicleStateService.VehicleStateListener listener;
+
+  @Before
+  public void setUp() throws Exception {
+    restProvider
+        .createVehicle(
+            new VehicleSettings(VEHICLE_ID, false, 4, ImmutableList.of("EXCLUSIVE")),
+            /* idempotencyKey= */ null)
+        .get();
+    restProvider.dispatchTrip(/* intermediateDestinations= */ 0, /* backToBack= */ false);
+    Tracer.getInstance().getRingBuffer().clear();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void poll_tracesFetchAndListenerWorkUnderOneTrace() throws Exception {
+    SettableFuture<Void> notified = SettableFuture.create();
+    listener =
+        (vehicle, revision) -> {
+          providerService.updateTripStatus(
+              TripState.create("trip_0", TripStatus.ENROUTE_TO_PICKUP));
+          notified.set(null);
+        };
+    VehicleStateService service =
+        new VehicleStateService(providerService, VEHICLE_ID, listener, executor);
+
+    service.startAsync();
+    notified.get(5, SECONDS);
+    service.stopAsync().awaitTerminated(5, SECONDS);
+    // The poll span ends once the callback returns, on the same thread.
+    executor.submit(() -> {}).get(5, SECONDS);
+
+    ImmutableList<SpanData> spans = Tracer.getInstance().getRingBuffer().getSpans();
+    SpanData poll = findSpan(spans, "VehicleStateService.poll");
+    SpanData fetch = findSpan(spans, "LocalProviderService.fetchVehicle");
+    SpanData update = findSpan(spans, "LocalProviderService.updateTrip");
+    assertThat(poll.parentSpanId()).isEqualTo(SpanData.NO_PARENT);
+    assertThat(fetch.traceId()).isEqualTo(poll.traceId());
+    assertThat(fetch.parentSpanId()).isEqualTo(poll.spanId());
+    assertThat(update.traceId()).isEqualTo(poll.traceId());
+    assertThat(update.parentSpanId()).isEqualTo(poll.spanId());
+    assertThat(update.attributes()).containsEntry("tripId", "trip_0");
+    assertThat(update.attributes()).doesNotContainKey("error");
+  }
+
+  @Test
+  public void poll_handsBackRevisionOfWhenItWasSent() throws Exception {
+    SettableFuture<Long> notifiedRevision = SettableFuture.create();
+    listener =
+        new VehicleStateService.VehicleStateListener() {
+          @Override
+          public void onVehicleStateUpdate(VehicleModel vehicleModel, long revision) {
+            notifiedRevision.set(revision);
+          }
+
+          @Override
+          public long getRevision() {
+            return 42;
+          }
+        };
+    VehicleStateService service =
+        new VehicleStateService(providerService, VEHICLE_ID, listener, executor);
+
+    service.startAsync();
+
+    assertThat(notifiedRevision.get(5, SECONDS)).isEqualTo(42);
+    service.stopAsync().awaitTerminated(5, SECONDS);
+  }
+
+  @Test
+  public void getPollDelayMillis_pollsLessOftenOnDegradedLink() {
+    long goodDelayMillis = VehicleStateService.getPollDelayMillis(Quality.GOOD);
+
+    assertThat(VehicleStateService.getPollDelayMillis(Quality.MODERATE)).isEqualTo(goodDelayMillis);
+    assertThat(VehicleStateService.getPollDelayMillis(Quality.POOR)).isGreaterThan(goodDelayMillis);
+    assertThat(VehicleStateService.getPollDelayMillis(Quality.OFFLINE))
+        .isGreaterThan(VehicleStateService.getPollDelayMillis(Quality.POOR));
+  }
+
+  private static SpanData findSpan(ImmutableList<SpanData> spans, String name) {
+    return spans.stream()
+        .filter(span -> span.name().equals(name))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No span named " + name + " in " + spans));
+  }
+}
@@ -0,0 +1,359 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.reporting;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.NetworkQualityEstimator.Quality;
+import com.google.mapsplatform.transportation.sample.driver.simulation.Route;
+import com.google.mapsplatform.transportation.sample.driver.simulation.RouteSimulation;
+import com.google.mapsplatform.transportation.sample.driver.state.TripStatus;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LocationReportingPolicy}. */
+@RunWith(JUnit4.class)
+public final class LocationReportingPolicyTest {
+  private static final double START_LATITUDE = 37.0;
+  private static final double LONGITUDE = -122.0;
+  private static final double METERS_PER_DEGREE_LATITUDE =
+      Route.distanceMeters(0, LONGITUDE, 1, LONGITUDE);
+
+  private static final double HIGHWAY_SPEED_METERS_PER_SECOND = 25;
+  private static final double CITY_SPEED_METERS_PER_SECOND = 12;
+
+  // Intervals of the fixed policy the adaptive one replaced.
+  private static final long TRIP_INTERVAL_SECONDS_BEFORE = 5;
+  private static final long IDLE_INTERVAL_SECONDS_BEFORE = 10;
+
+  private final List<Long> changedIntervals = new ArrayList<>();
+  private final LocationReportingPolicy policy =
+      new LocationReportingPolicy(changedIntervals::add);
+
+  @Test
+  public void getIntervalSeconds_parkedWithoutTrip_relaxes() {
+    simulatedDrive().idle(60);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.PARKED_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_movingWithoutTrip_usesIdleInterval() {
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 1_000);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.IDLE_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_enrouteInCity_usesEnrouteInterval() {
+    policy.setTrip(TripStatus.ENROUTE_TO_DROPOFF, latitudeAfter(START_LATITUDE, 5_000), LONGITUDE);
+
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 1_000);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_enrouteOnHighway_relaxes() {
+    policy.setTrip(TripStatus.ENROUTE_TO_PICKUP, latitudeAfter(START_LATITUDE, 5_000), LONGITUDE);
+
+    simulatedDrive().drive(HIGHWAY_SPEED_METERS_PER_SECOND, 1_000);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.HIGHWAY_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_finalApproachToPickup_usesMinimum() {
+    policy.setTrip(TripStatus.ENROUTE_TO_PICKUP, latitudeAfter(START_LATITUDE, 1_000), LONGITUDE);
+    SimulatedDrive drive = simulatedDrive();
+
+    drive.drive(CITY_SPEED_METERS_PER_SECOND, 400);
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+    drive.drive(CITY_SPEED_METERS_PER_SECOND, 200);
+
+    assertThat(policy.getIntervalSeconds()).isEqualTo(LocationReportingPolicy.MIN_INTERVAL_SECONDS);
+    assertThat(changedIntervals)
+        .containsExactly(
+            LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS,
+            LocationReportingPolicy.MIN_INTERVAL_SECONDS)
+        .inOrder();
+  }
+
+  @Test
+  public void getIntervalSeconds_finalApproachToDropoff_keepsEnrouteInterval() {
+    policy.setTrip(TripStatus.ENROUTE_TO_DROPOFF, latitudeAfter(START_LATITUDE, 600), LONGITUDE);
+
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 500);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_waitingAtPickup_usesAtStopInterval() {
+    policy.setTrip(TripStatus.ARRIVED_AT_PICKUP, START_LATITUDE, LONGITUDE);
+
+    simulatedDrive().idle(60);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.AT_STOP_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_lowBatteryNotCharging_doubles() {
+    policy.setTrip(TripStatus.ENROUTE_TO_DROPOFF, latitudeAfter(START_LATITUDE, 5_000), LONGITUDE);
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 1_000);
+
+    policy.setBattery(LocationReportingPolicy.LOW_BATTERY_PERCENT, /* charging= */ true);
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+    policy.setBattery(LocationReportingPolicy.LOW_BATTERY_PERCENT, /* charging= */ false);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(2 * LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_offline_quadruples() {
+    policy.setTrip(TripStatus.ENROUTE_TO_DROPOFF, latitudeAfter(START_LATITUDE, 5_000), LONGITUDE);
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 1_000);
+
+    policy.setNetworkQuality(Quality.MODERATE);
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+    policy.setNetworkQuality(Quality.OFFLINE);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(4 * LocationReportingPolicy.EN_ROUTE_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_poorNetworkAndLowBattery_clampsToMaximum() {
+    simulatedDrive().idle(60);
+
+    policy.setNetworkQuality(Quality.POOR);
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(2 * LocationReportingPolicy.PARKED_INTERVAL_SECONDS);
+    policy.setBattery(/* batteryPercent= */ 5, /* charging= */ false);
+
+    assertThat(policy.getIntervalSeconds())
+        .isEqualTo(LocationReportingPolicy.MAX_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void getIntervalSeconds_finalApproachOnPoorNetwork_keepsMinimum() {
+    policy.setTrip(TripStatus.ENROUTE_TO_PICKUP, latitudeAfter(START_LATITUDE, 300), LONGITUDE);
+    simulatedDrive().drive(CITY_SPEED_METERS_PER_SECOND, 100);
+
+    policy.setNetworkQuality(Quality.POOR);
+    policy.setBattery(/* batteryPercent= */ 5, /* charging= */ false);
+
+    assertThat(policy.getIntervalSeconds()).isEqualTo(LocationReportingPolicy.MIN_INTERVAL_SECONDS);
+  }
+
+  @Test
+  public void onLocation_smoothsSpeed() {
+    SimulatedDrive drive = simulatedDrive();
+
+    drive.drive(HIGHWAY_SPEED_METERS_PER_SECOND, 2 * HIGHWAY_SPEED_METERS_PER_SECOND);
+    assertThat(policy.getSpeedMetersPerSecond()).isLessThan(HIGHWAY_SPEED_METERS_PER_SECOND);
+    drive.drive(HIGHWAY_SPEED_METERS_PER_SECOND, 1_000);
+
+    assertThat(policy.getSpeedMetersPerSecond()).isWithin(0.1).of(HIGHWAY_SPEED_METERS_PER_SECOND);
+  }
+
+  /**
+   * Replays a shift through the fixed and the adaptive policy: parked for 10 minutes, 6 km to the
+   * pickup, half on a highway, a minute at the pickup and 8 km to the drop-off.
+   */
+  @Test
+  public void simulatedTrip_reportsLessPerTripKilometer() {
+    ShiftReport before = replayShift(/* adaptive= */ false);
+    ShiftReport after = replayShift(/* adaptive= */ true);
+
+    assertThat(after.updatesPerTripKilometer()).isLessThan(0.6 * before.updatesPerTripKilometer());
+    // The rider watching the car arrive sees no difference.
+    assertThat(after.finalApproachLongestGapSeconds)
+        .isAtMost(LocationReportingPolicy.MIN_INTERVAL_SECONDS);
+    assertThat(after.finalApproachUpdates).isAtLeast(before.finalApproachUpdates - 1);
+  }
+
+  private ShiftReport replayShift(boolean adaptive) {
+    ShiftReport report = new ShiftReport();
+    LocationReportingPolicy shiftPolicy = new LocationReportingPolicy(intervalSeconds -> {});
+    SimulatedReporter reporter =
+        new SimulatedReporter(
+            () -> {
+              if (adaptive) {
+                return shiftPolicy.getIntervalSeconds();
+              }
+              return report.tripStatus != null
+                  ? TRIP_INTERVAL_SECONDS_BEFORE
+                  : IDLE_INTERVAL_SECONDS_BEFORE;
+            },
+            report);
+    SimulatedDrive drive = new SimulatedDrive(shiftPolicy, reporter);
+
+    drive.idle(600);
+
+    double pickupLatitude = latitudeAfter(drive.latitude, 6_000);
+    report.setTrip(shiftPolicy, TripStatus.ENROUTE_TO_PICKUP, pickupLatitude);
+    drive.drive(HIGHWAY_SPEED_METERS_PER_SECOND, 3_000);
+    drive.drive(
+        CITY_SPEED_METERS_PER_SECOND, 3_000 - LocationReportingPolicy.FINAL_APPROACH_METERS);
+    report.inFinalApproach = true;
+    drive.drive(CITY_SPEED_METERS_PER_SECOND, LocationReportingPolicy.FINAL_APPROACH_METERS);
+    report.inFinalApproach = false;
+
+    report.setTrip(shiftPolicy, TripStatus.ARRIVED_AT_PICKUP, pickupLatitude);
+    drive.idle(60);
+
+    double dropoffLatitude = latitudeAfter(drive.latitude, 8_000);
+    report.setTrip(shiftPolicy, TripStatus.ENROUTE_TO_DROPOFF, dropoffLatitude);
+    drive.drive(13.9, 8_000);
+
+    report.setTrip(shiftPolicy, null, Double.NaN);
+    report.tripMeters = 14_000;
+    return report;
+  }
+
+  private SimulatedDrive simulatedDrive() {
+    return new SimulatedDrive(policy, /* reporter= */ null);
+  }
+
+  private static double latitudeAfter(double latitude, double meters) {
+    return latitude + meters / METERS_PER_DEGREE_LATITUDE;
+  }
+
+  private interface IntervalSupplier {
+    long getIntervalSeconds();
+  }
+
+  /** Vehicle driving due north, emitting a location every second. */
+  private static final class SimulatedDrive {
+    final LocationReportingPolicy policy;
+    @Nullable final SimulatedReporter reporter;
+    double latitude = START_LATITUDE;
+    long elapsedMillis;
+    boolean skipLocation;
+
+    SimulatedDrive(LocationReportingPolicy policy, @Nullable SimulatedReporter reporter) {
+      this.policy = policy;
+      this.reporter = reporter;
+    }
+
+    void drive(double speedMetersPerSecond, double meters) {
+      Route route =
+          Route.fromPoints(
+              ImmutableList.of(
+                  point(latitude, LONGITUDE), point(latitudeAfter(latitude, meters), LONGITUDE)));
+      RouteSimulation simulation =
+          RouteSimulation.builder(route)
+              .setSpeedMetersPerSecond(speedMetersPerSecond)
+              .setTickInterval(1, SECONDS)
+              .build(this::onLocation);
+      // The start of the route was the last location of the previous leg.
+      skipLocation = true;
+      while (simulation.tick()) {}
+    }
+
+    void idle(long seconds) {
+      for (long i = 0; i < seconds; i++) {
+        onLocation(latitude, LONGITUDE);
+      }
+    }
+
+    private void onLocation(double latitude, double longitude) {
+      if (skipLocation) {
+        skipLocation = false;
+        return;
+      }
+      this.latitude = latitude;
+      elapsedMillis += 1_000;
+      policy.onLocation(latitude, longitude, elapsedMillis);
+      if (reporter != null) {
+        reporter.onLocation(elapsedMillis);
+      }
+    }
+  }
+
+  /** Sends a location update once the reporting interval passed since the previous one. */
+  private static final class SimulatedReporter {
+    final IntervalSupplier interval;
+    final ShiftReport report;
+    long lastUpdateMillis = Long.MIN_VALUE / 2;
+
+    SimulatedReporter(IntervalSupplier interval, ShiftReport report) {
+      this.interval = interval;
+      this.report = report;
+    }
+
+    void onLocation(long elapsedMillis) {
+      if (elapsedMillis - lastUpdateMillis < SECONDS.toMillis(interval.getIntervalSeconds())) {
+        return;
+      }
+      if (report.inFinalApproach) {
+        if (report.finalApproachUpdates > 0) {
+          report.finalApproachLongestGapSeconds =
+              Math.max(
+                  report.finalApproachLongestGapSeconds,
+                  (elapsedMillis - lastUpdateMillis) / 1_000);
+        }
+        report.finalApproachUpdates++;
+      }
+      report.updates++;
+      lastUpdateMillis = elapsedMillis;
+    }
+  }
+
+  /** Location updates sent during a simulated shift. */
+  private static final class ShiftReport {
+    @Nullable TripStatus tripStatus;
+    boolean inFinalApproach;
+    double tripMeters;
+    int updates;
+    int finalApproachUpdates;
+    long finalApproachLongestGapSeconds;
+
+    void setTrip(
+        LocationReportingPolicy policy, @Nullable TripStatus tripStatus, double waypointLatitude) {
+      this.tripStatus = tripStatus;
+      policy.setTrip(tripStatus, waypointLatitude, LONGITUDE);
+    }
+
+    double updatesPerTripKilometer() {
+      return updates * 1_000 / tripMeters;
+    }
+  }
+
+  private static Waypoint.Point point(double latitude, double longitude) {
+    Waypoint.Point point = new Waypoint.Point();
+    point.setLatitude(latitude);
+    point.setLongitude(longitude);
+    return point;
+  }
+}
@@ -0,0 +1,235 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.location.Location;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.android.libraries.navigation.RoadSnappedLocationProvider;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/**
+ * Unit tests for {@link LocationTraceWriter}, {@link LocationTraceReader}, {@link
+ * LocationTraceReplay} and {@link LocationTraceRecorder}.
+ */
+@RunWith(AndroidJUnit4.class)
+public final class LocationTraceTest {
+  private static final long START_TIME_MILLIS = 1_650_000_000_000L;
+  private static final int ONE_HOUR_OF_LOCATIONS = 3600;
+  private static final double TOLERANCE_DEGREES = 1e-7;
+
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void reader_readsWrittenLocations() throws Exception {
+    byte[] trace = writeTrace(ONE_HOUR_OF_LOCATIONS);
+    LocationTraceReader reader = new LocationTraceReader(ByteBuffer.wrap(trace));
+
+    for (int i = 0; i < ONE_HOUR_OF_LOCATIONS; i++) {
+      assertThat(reader.next()).isTrue();
+      assertThat(reader.getTimeMillis()).isEqualTo(timeMillis(i));
+      assertThat(reader.getLatitude()).isWithin(TOLERANCE_DEGREES).of(latitude(i));
+      assertThat(reader.getLongitude()).isWithin(TOLERANCE_DEGREES).of(longitude(i));
+    }
+    assertThat(reader.next()).isFalse();
+  }
+
+  @Test
+  public void writer_takesAboutSixBytesPerLocation() throws Exception {
+    byte[] trace = writeTrace(ONE_HOUR_OF_LOCATIONS);
+
+    assertThat(trace.length).isLessThan(ONE_HOUR_OF_LOCATIONS * 7);
+  }
+
+  @Test
+  public void reader_rejectsOtherFiles() {
+    assertThrows(
+        IOException.class, () -> new LocationTraceReader(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+  }
+
+  @Test
+  public void reader_ignoresTruncatedLastBlock() throws Exception {
+    byte[] trace = writeTrace(LocationTraceWriter.MAX_LOCATIONS_PER_BLOCK + 10);
+    LocationTraceReader reader =
+        new LocationTraceReader(ByteBuffer.wrap(Arrays.copyOf(trace, trace.length - 1)));
+
+    int count = 0;
+    while (reader.next()) {
+      count++;
+    }
+
+    assertThat(count).isEqualTo(LocationTraceWriter.MAX_LOCATIONS_PER_BLOCK);
+  }
+
+  @Test
+  public void seekTo_movesToFirstLocationAtOrAfterTime() throws Exception {
+    LocationTraceReader reader =
+        new LocationTraceReader(ByteBuffer.wrap(writeTrace(ONE_HOUR_OF_LOCATIONS)));
+
+    assertThat(reader.seekTo(timeMillis(1000) - 1)).isTrue();
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.getTimeMillis()).isEqualTo(timeMillis(1000));
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.getTimeMillis()).isEqualTo(timeMillis(1001));
+
+    assertThat(reader.seekTo(timeMillis(3))).isTrue();
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.getLatitude()).isWithin(TOLERANCE_DEGREES).of(latitude(3));
+
+    assertThat(reader.seekTo(timeMillis(ONE_HOUR_OF_LOCATIONS))).isFalse();
+  }
+
+  @Test
+  public void open_mapsTraceFile() throws Exception {
+    File file = temporaryFolder.newFile();
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(writeTrace(10));
+    }
+
+    LocationTraceReader reader = LocationTraceReader.open(file);
+
+    assertThat(reader.seekTo(timeMillis(9))).isTrue();
+    assertThat(reader.next()).isTrue();
+    assertThat(reader.getLongitude()).isWithin(TOLERANCE_DEGREES).of(longitude(9));
+  }
+
+  @Test
+  public void replay_compressesRecordedTime() throws Exception {
+    LocationTraceReader reader = new LocationTraceReader(ByteBuffer.wrap(writeTrace(5)));
+    CountDownLatch replayed = new CountDownLatch(5);
+    LocationTraceReplay replay =
+        new LocationTraceReplay(
+            reader, /* timeCompression= */ 100, (latitude, longitude) -> replayed.countDown());
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    try {
+      long startNanos = System.nanoTime();
+      replay.start(scheduler);
+
+      // 4 seconds of recorded locations replayed in about 40 ms.
+      assertThat(replayed.await(1, TimeUnit.SECONDS)).isTrue();
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)).isAtLeast(40);
+    } finally {
+      scheduler.shutdownNow();
+    }
+    assertThat(replay.isComplete()).isTrue();
+  }
+
+  @Test
+  public void replay_resumesWhereStopped() throws Exception {
+    LocationTraceReader reader = new LocationTraceReader(ByteBuffer.wrap(writeTrace(3)));
+    AtomicInteger count = new AtomicInteger();
+    CountDownLatch firstLocation = new CountDownLatch(1);
+    CountDownLatch allLocations = new CountDownLatch(3);
+    LocationTraceReplay replay =
+        new LocationTraceReplay(
+            reader,
+            /* timeCompression= */ 5,
+            (latitude, longitude) -> {
+              count.incrementAndGet();
+              firstLocation.countDown();
+              allLocations.countDown();
+            });
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    try {
+      replay.start(scheduler);
+      assertThat(firstLocation.await(1, TimeUnit.SECONDS)).isTrue();
+      replay.stop();
+      assertThat(count.get()).isEqualTo(1);
+
+      replay.start(scheduler);
+      assertThat(allLocations.await(1, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      scheduler.shutdownNow();
+    }
+    assertThat(count.get()).isEqualTo(3);
+    assertThat(replay.isComplete()).isTrue();
+  }
+
+  @Test
+  public void recorder_writesRoadSnappedLocations() throws Exception {
+    RoadSnappedLocationProvider locationProvider = mock(RoadSnappedLocationProvider.class);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    LocationTraceRecorder recorder = new LocationTraceRecorder(out, directExecutor());
+
+    recorder.start(locationProvider);
+    verify(locationProvider).addLocationListener(recorder);
+    for (int i = 0; i < 3; i++) {
+      recorder.onLocationChanged(location(i));
+    }
+    recorder.stop();
+    verify(locationProvider).removeLocationListener(recorder);
+
+    LocationTraceReader reader = new LocationTraceReader(ByteBuffer.wrap(out.toByteArray()));
+    for (int i = 0; i < 3; i++) {
+      assertThat(reader.next()).isTrue();
+      assertThat(reader.getTimeMillis()).isEqualTo(timeMillis(i));
+      assertThat(reader.getLatitude()).isWithin(TOLERANCE_DEGREES).of(latitude(i));
+    }
+    assertThat(reader.next()).isFalse();
+  }
+
+  // Locations one second apart, driving north-east at about 14 m/s.
+  private static byte[] writeTrace(int count) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (LocationTraceWriter writer = new LocationTraceWriter(out)) {
+      for (int i = 0; i < count; i++) {
+        writer.append(timeMillis(i), latitude(i), longitude(i));
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static Location location(int index) {
+    Location location = mock(Location.class);
+    when(location.getTime()).thenReturn(timeMillis(index));
+    when(location.getLatitude()).thenReturn(latitude(index));
+    when(location.getLongitude()).thenReturn(longitude(index));
+    return location;
+  }
+
+  private static long timeMillis(int index) {
+    return START_TIME_MILLIS + index * 1000L;
+  }
+
+  private static double latitude(int index) {
+    return 37.4220 + index * 0.0001;
+  }
+
+  private static double longitude(int index) {
+    return -122.0841 + index * 0.0001;
+  }
+}
@@ -0,0 +1,198 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.simulation;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.Waypoint;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Route} and {@link RouteSimulation}. */
+@RunWith(JUnit4.class)
+public final class RouteSimulationTest {
+  // Example of the encoded polyline format documentation.
+  private static final String ENCODED_POLYLINE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+
+  private static final double SPEED_METERS_PER_SECOND = 13.9;
+  private static final double TOLERANCE_DEGREES = 1e-9;
+
+  @Test
+  public void fromEncodedPolyline_decodesPoints() {
+    Route route = Route.fromEncodedPolyline(ENCODED_POLYLINE);
+
+    assertThat(route.getPointCount()).isEqualTo(3);
+    assertThat(route.getLatitude(0)).isWithin(TOLERANCE_DEGREES).of(38.5);
+    assertThat(route.getLongitude(0)).isWithin(TOLERANCE_DEGREES).of(-120.2);
+    assertThat(route.getLatitude(1)).isWithin(TOLERANCE_DEGREES).of(40.7);
+    assertThat(route.getLongitude(1)).isWithin(TOLERANCE_DEGREES).of(-120.95);
+    assertThat(route.getLatitude(2)).isWithin(TOLERANCE_DEGREES).of(43.252);
+    assertThat(route.getLongitude(2)).isWithin(TOLERANCE_DEGREES).of(-126.453);
+  }
+
+  @Test
+  public void fromEncodedPolyline_rejectsTruncatedPolyline() {
+    assertThrows(IllegalArgumentException.class, () -> Route.fromEncodedPolyline("_p~iF~ps|U_"));
+  }
+
+  @Test
+  public void setTickInterval_rejectsSubMillisecondInterval() {
+    RouteSimulation.Builder builder =
+        RouteSimulation.builder(Route.fromPoints(ImmutableList.of(point(0, 0), point(0, 0.001))));
+
+    assertThrows(
+        IllegalArgumentException.class, () -> builder.setTickInterval(500, TimeUnit.MICROSECONDS));
+  }
+
+  @Test
+  public void tick_interpolatesAlongSegments() {
+    Route route = Route.fromPoints(ImmutableList.of(point(0, 0), point(0, 0.001), point(0, 0.002)));
+    double[] location = new double[2];
+    RouteSimulation simulation =
+        RouteSimulation.builder(route)
+            .setSpeedMetersPerSecond(route.getLengthMeters() / 4)
+            .build(
+                (latitude, longitude) -> {
+                  location[0] = latitude;
+                  location[1] = longitude;
+                });
+
+    simulation.tick();
+    assertThat(location[1]).isWithin(TOLERANCE_DEGREES).of(0);
+    simulation.tick();
+    assertThat(location[1]).isWithin(TOLERANCE_DEGREES).of(0.0005);
+    simulation.tick();
+    assertThat(location[1]).isWithin(TOLERANCE_DEGREES).of(0.001);
+    simulation.tick();
+    assertThat(location[1]).isWithin(TOLERANCE_DEGREES).of(0.0015);
+    assertThat(simulation.tick()).isFalse();
+    assertThat(location[1]).isWithin(TOLERANCE_DEGREES).of(0.002);
+    assertThat(simulation.isComplete()).isTrue();
+  }
+
+  @Test
+  public void tick_drivesOneHourTripInUnderASecond() {
+    Route route = oneHourRoute();
+    AtomicInteger locationCount = new AtomicInteger();
+    double[] lastLocation = new double[2];
+    RouteSimulation simulation =
+        RouteSimulation.builder(route)
+            .setSpeedMetersPerSecond(SPEED_METERS_PER_SECOND)
+            .build(
+                (latitude, longitude) -> {
+                  locationCount.incrementAndGet();
+                  lastLocation[0] = latitude;
+                  lastLocation[1] = longitude;
+                });
+
+    long startNanos = System.nanoTime();
+    while (simulation.tick()) {}
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+    assertThat(elapsedMillis).isLessThan(1000);
+    // One location per simulated second, plus the start.
+    assertThat(locationCount.get()).isEqualTo(3601);
+    assertThat(lastLocation[0]).isWithin(TOLERANCE_DEGREES).of(route.getLatitude(2));
+    assertThat(lastLocation[1]).isWithin(TOLERANCE_DEGREES).of(route.getLongitude(2));
+  }
+
+  @Test
+  public void tick_speedMultiplierShortensTrip() {
+    AtomicInteger locationCount = new AtomicInteger();
+    RouteSimulation simulation =
+        RouteSimulation.builder(oneHourRoute())
+            .setSpeedMetersPerSecond(SPEED_METERS_PER_SECOND)
+            .setSpeedMultiplier(5)
+            .build((latitude, longitude) -> locationCount.incrementAndGet());
+
+    while (simulation.tick()) {}
+
+    assertThat(locationCount.get()).isEqualTo(721);
+  }
+
+  @Test
+  public void tick_addsGpsNoise() {
+    Route route = Route.fromPoints(ImmutableList.of(point(37.4, -122.1), point(37.5, -122.1)));
+    double[] maxErrorMeters = new double[1];
+    double[] sumErrorMeters = new double[1];
+    AtomicInteger locationCount = new AtomicInteger();
+    RouteSimulation simulation =
+        RouteSimulation.builder(route)
+            .setGpsNoiseMeters(5)
+            .setSeed(1)
+            .build(
+                (latitude, longitude) -> {
+                  double errorMeters = Route.distanceMeters(latitude, -122.1, latitude, longitude);
+                  maxErrorMeters[0] = Math.max(maxErrorMeters[0], errorMeters);
+                  sumErrorMeters[0] += errorMeters;
+                  locationCount.incrementAndGet();
+                });
+
+    while (simulation.tick()) {}
+
+    assertThat(sumErrorMeters[0] / locationCount.get()).isGreaterThan(1);
+    assertThat(maxErrorMeters[0]).isLessThan(50);
+  }
+
+  @Test
+  public void start_ticksOnSchedulerUntilComplete() throws Exception {
+    ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    AtomicInteger locationCount = new AtomicInteger();
+    Route route = Route.fromPoints(ImmutableList.of(point(0, 0), point(0, 0.001)));
+    RouteSimulation simulation =
+        RouteSimulation.builder(route)
+            .setSpeedMetersPerSecond(route.getLengthMeters() / 2)
+            .setTickInterval(1, TimeUnit.MILLISECONDS)
+            .setSpeedMultiplier(1000)
+            .build((latitude, longitude) -> locationCount.incrementAndGet());
+
+    simulation.start(scheduler);
+    long deadlineMillis = System.currentTimeMillis() + 5_000;
+    while (locationCount.get() < 3 && System.currentTimeMillis() < deadlineMillis) {
+      Thread.sleep(5);
+    }
+    // Leaves time for more ticks, which must not happen once the route is complete.
+    Thread.sleep(50);
+    scheduler.shutdownNow();
+
+    assertThat(simulation.isComplete()).isTrue();
+    assertThat(locationCount.get()).isEqualTo(3);
+  }
+
+  // Straight route due north as long as an hour of driving.
+  private static Route oneHourRoute() {
+    double lengthMeters = SPEED_METERS_PER_SECOND * 3600;
+    double latitudeDelta = Math.toDegrees(lengthMeters / Route.EARTH_RADIUS_METERS);
+    return Route.fromPoints(
+        ImmutableList.of(
+            point(37.0, -122.0),
+            point(37.0 + latitudeDelta / 2, -122.0),
+            point(37.0 + latitudeDelta, -122.0)));
+  }
+
+  private static Waypoint.Point point(double latitude, double longitude) {
+    Waypoint.Point point = new Waypoint.Point();
+    point.setLatitude(latitude);
+    point.setLongitude(longitude);
+    return point;
+  }
+}
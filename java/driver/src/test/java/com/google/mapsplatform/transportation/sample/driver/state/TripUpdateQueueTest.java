@@ -0,0 +1,246 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.state;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static com.google.mapsplatform.transportation.sample.driver.provider.service.InterleavingRestProvider.GET_VEHICLE;
+import static com.google.mapsplatform.transportation.sample.driver.provider.service.InterleavingRestProvider.UPDATE_TRIP;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mapsplatform.transportation.sample.driver.provider.request.VehicleSettings;
+import com.google.mapsplatform.transportation.sample.driver.provider.response.VehicleModel;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.FakeRestProvider;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.InterleavingRestProvider;
+import com.google.mapsplatform.transportation.sample.driver.provider.service.LocalProviderService;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link TripUpdateQueue}. */
+@RunWith(AndroidJUnit4.class)
+public final class TripUpdateQueueTest {
+  private static final String VEHICLE_ID = "vehicle_1";
+  private static final String TRIP_ID = "trip_0";
+  private static final long PROVIDER_DELAY_MILLIS = 2000;
+
+  private final TripProgress tripProgress = new TripProgress();
+  private final List<TripState> sentStates = new ArrayList<>();
+  private final List<SettableFuture<Void>> responses = new ArrayList<>();
+  private final List<TripState> restoredStates = new ArrayList<>();
+
+  private final TripUpdateQueue queue =
+      new TripUpdateQueue(
+          tripProgress,
+          tripState -> {
+            SettableFuture<Void> response = SettableFuture.create();
+            sentStates.add(tripState);
+            responses.add(response);
+            return response;
+          },
+          directExecutor(),
+          (rejectedState, restoredState, cause) -> restoredStates.add(restoredState));
+
+  @Test
+  public void submit_withSlowProvider_appliesStateBeforeProviderResponds() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider(new Random(0));
+    trackTripFrom(restProvider);
+    restProvider.setLatencyMillis(PROVIDER_DELAY_MILLIS);
+    LocalProviderService providerService =
+        restProvider.createLocalProviderService(directExecutor());
+    TripUpdateQueue slowQueue = createQueue(providerService);
+
+    // A tap on the action button, until the new status can be shown.
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    ListenableFuture<Void> update = slowQueue.submit(tripProgress.getNextStateOfCurrentTrip());
+    TripStatus shownStatus = tripProgress.getTripState(TRIP_ID).tripStatus();
+    long tapToFeedbackMillis = stopwatch.elapsed(MILLISECONDS);
+    update.get(PROVIDER_DELAY_MILLIS * 2, MILLISECONDS);
+
+    assertThat(shownStatus).isEqualTo(TripStatus.ENROUTE_TO_PICKUP);
+    assertThat(tapToFeedbackMillis).isLessThan(100);
+    assertThat(stopwatch.elapsed(MILLISECONDS)).isAtLeast(PROVIDER_DELAY_MILLIS);
+    assertThat(restoredStates).isEmpty();
+  }
+
+  @Test
+  public void submit_sendsUpdatesOneAtATimeInOrder() {
+    tripProgress.putTripState(TripState.create(TRIP_ID, TripStatus.NEW));
+
+    ListenableFuture<Void> first =
+        queue.submit(TripState.create(TRIP_ID, TripStatus.ENROUTE_TO_PICKUP));
+    queue.submit(TripState.create(TRIP_ID, TripStatus.ARRIVED_AT_PICKUP));
+
+    assertThat(sentStates).hasSize(1);
+    assertThat(tripProgress.getTripState(TRIP_ID).tripStatus())
+        .isEqualTo(TripStatus.ARRIVED_AT_PICKUP);
+
+    responses.get(0).set(null);
+
+    assertThat(first.isDone()).isTrue();
+    assertThat(sentStates.stream().map(TripState::tripStatus))
+        .containsExactly(TripStatus.ENROUTE_TO_PICKUP, TripStatus.ARRIVED_AT_PICKUP)
+        .inOrder();
+    assertThat(queue.hasPendingUpdates(TRIP_ID)).isTrue();
+
+    responses.get(1).set(null);
+
+    assertThat(queue.hasPendingUpdates(TRIP_ID)).isFalse();
+  }
+
+  @Test
+  public void rejectedUpdate_rollsBackTripAndDropsItsQueuedUpdates() {
+    tripProgress.putTripState(TripState.create(TRIP_ID, TripStatus.ENROUTE_TO_PICKUP));
+    tripProgress.putTripState(TripState.create("trip_1", TripStatus.NEW));
+
+    ListenableFuture<Void> arrived =
+        queue.submit(TripState.create(TRIP_ID, TripStatus.ARRIVED_AT_PICKUP));
+    ListenableFuture<Void> dropoff =
+        queue.submit(TripState.create(TRIP_ID, TripStatus.ENROUTE_TO_DROPOFF));
+    queue.submit(TripState.create("trip_1", TripStatus.ENROUTE_TO_PICKUP));
+
+    responses.get(0).setException(new IOException("rejected"));
+
+    assertThat(arrived.isDone()).isTrue();
+    assertThat(dropoff.isCancelled()).isTrue();
+    assertThat(tripProgress.getTripState(TRIP_ID).tripStatus())
+        .isEqualTo(TripStatus.ENROUTE_TO_PICKUP);
+    assertThat(restoredStates)
+        .containsExactly(TripState.create(TRIP_ID, TripStatus.ENROUTE_TO_PICKUP));
+    // Updates of other trips are still sent.
+    assertThat(sentStates).hasSize(2);
+    assertThat(sentStates.get(1).tripId()).isEqualTo("trip_1");
+    assertThat(queue.hasPendingUpdates(TRIP_ID)).isFalse();
+  }
+
+  @Test
+  public void rejectedUpdate_restoresLastAcceptedState() {
+    tripProgress.putTripState(TripState.create(TRIP_ID, TripStatus.NEW));
+
+    queue.submit(TripState.create(TRIP_ID, TripStatus.ENROUTE_TO_PICKUP));
+    queue.submit(TripState.create(TRIP_ID, TripStatus.ARRIVED_AT_PICKUP));
+    responses.get(0).set(null);
+    responses.get(1).setException(new IOException("rejected"));
+
+    assertThat(tripProgress.getTripState(TRIP_ID).tripStatus())
+        .isEqualTo(TripStatus.ENROUTE_TO_PICKUP);
+  }
+
+  @Test
+  public void pollSentBeforeUpdate_answeredAfterIt_isStale() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider(new Random(0));
+    trackTripFrom(restProvider);
+    InterleavingRestProvider interleavingProvider = new InterleavingRestProvider(restProvider);
+    LocalProviderService providerService =
+        interleavingProvider.createLocalProviderService(directExecutor());
+    TripUpdateQueue providerQueue = createQueue(providerService);
+    advanceTo(providerQueue, interleavingProvider, TripStatus.ARRIVED_AT_PICKUP);
+
+    long observedRevision = providerQueue.getAnsweredRevision();
+    ListenableFuture<VehicleModel> poll = providerService.fetchVehicle(VEHICLE_ID);
+    providerQueue.submit(tripProgress.getNextStateOfCurrentTrip());
+    interleavingProvider.release(UPDATE_TRIP);
+    interleavingProvider.release(GET_VEHICLE);
+
+    // Still lists the pickup the driver moved past.
+    assertThat(poll.get().getWaypoints()).hasSize(2);
+    assertThat(providerQueue.isStale(observedRevision)).isTrue();
+
+    long nextObservedRevision = providerQueue.getAnsweredRevision();
+    ListenableFuture<VehicleModel> nextPoll = providerService.fetchVehicle(VEHICLE_ID);
+    interleavingProvider.release(GET_VEHICLE);
+
+    assertThat(nextPoll.get().getWaypoints()).hasSize(1);
+    assertThat(providerQueue.isStale(nextObservedRevision)).isFalse();
+  }
+
+  @Test
+  public void pollSentWhileUpdatePending_isStaleEvenIfAnsweredFirst() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider(new Random(0));
+    trackTripFrom(restProvider);
+    InterleavingRestProvider interleavingProvider = new InterleavingRestProvider(restProvider);
+    LocalProviderService providerService =
+        interleavingProvider.createLocalProviderService(directExecutor());
+    TripUpdateQueue providerQueue = createQueue(providerService);
+
+    providerQueue.submit(tripProgress.getNextStateOfCurrentTrip());
+    long observedRevision = providerQueue.getAnsweredRevision();
+    ListenableFuture<VehicleModel> poll = providerService.fetchVehicle(VEHICLE_ID);
+    interleavingProvider.release(GET_VEHICLE);
+    interleavingProvider.release(UPDATE_TRIP);
+
+    assertThat(poll.isDone()).isTrue();
+    assertThat(providerQueue.isStale(observedRevision)).isTrue();
+    assertThat(providerQueue.isStale(providerQueue.getAnsweredRevision())).isFalse();
+  }
+
+  @Test
+  public void pollWithoutLocalUpdates_isCurrent() throws Exception {
+    FakeRestProvider restProvider = new FakeRestProvider(new Random(0));
+    trackTripFrom(restProvider);
+    InterleavingRestProvider interleavingProvider = new InterleavingRestProvider(restProvider);
+    LocalProviderService providerService =
+        interleavingProvider.createLocalProviderService(directExecutor());
+    TripUpdateQueue providerQueue = createQueue(providerService);
+    advanceTo(providerQueue, interleavingProvider, TripStatus.ENROUTE_TO_PICKUP);
+
+    long observedRevision = providerQueue.getAnsweredRevision();
+    providerService.fetchVehicle(VEHICLE_ID);
+    interleavingProvider.release(GET_VEHICLE);
+
+    assertThat(observedRevision).isEqualTo(1);
+    assertThat(providerQueue.isStale(observedRevision)).isFalse();
+  }
+
+  private TripUpdateQueue createQueue(LocalProviderService providerService) {
+    return new TripUpdateQueue(
+        tripProgress,
+        providerService::updateTripStatus,
+        directExecutor(),
+        (rejectedState, restoredState, cause) -> restoredStates.add(restoredState));
+  }
+
+  // Moves the tracked trip forward until it reaches 'status', each update answered right away.
+  private void advanceTo(
+      TripUpdateQueue updates, InterleavingRestProvider provider, TripStatus status)
+      throws Exception {
+    while (tripProgress.getTripState(TRIP_ID).tripStatus() != status) {
+      ListenableFuture<Void> update = updates.submit(tripProgress.getNextStateOfCurrentTrip());
+      provider.release(UPDATE_TRIP);
+      update.get();
+    }
+  }
+
+  // Tracks the trip dispatched to a new vehicle, like the first poll of the vehicle does.
+  private void trackTripFrom(FakeRestProvider restProvider) throws Exception {
+    restProvider
+        .createVehicle(
+            new VehicleSettings(VEHICLE_ID, false, 4, ImmutableList.of("EXCLUSIVE")),
+            /* idempotencyKey= */ null)
+        .get(5, SECONDS);
+    restProvider.dispatchTrip(/* intermediateDestinations= */ 0, /* backToBack= */ false);
+    VehicleModel vehicle = restProvider.getVehicle(VEHICLE_ID).get(5, SECONDS);
+    tripProgress.onVehicleStateUpdate(vehicle);
+  }
+}
@@ -0,0 +1,151 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.driver.tracing;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Tracer}, {@link Span} and {@link SpanRingBuffer}. */
+@RunWith(JUnit4.class)
+public final class TracerTest {
+  private final SpanRingBuffer ringBuffer = new SpanRingBuffer(/* capacity= */ 4);
+  private final Tracer tracer = new Tracer(ringBuffer);
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void startSpan_withoutCurrentSpan_startsTrace() {
+    tracer.startSpan("root").end();
+
+    SpanData span = ringBuffer.getSpans().get(0);
+    assertThat(span.name()).isEqualTo("root");
+    assertThat(span.traceId()).isEqualTo(span.spanId());
+    assertThat(span.parentSpanId()).isEqualTo(SpanData.NO_PARENT);
+  }
+
+  @Test
+  public void startSpan_insideScope_isChildOfCurrentSpan() {
+    Span root = tracer.startTrace("root");
+    try (Span.Scope scope = root.makeCurrent()) {
+      tracer.startSpan("child").end();
+    }
+    root.end();
+
+    SpanData child = ringBuffer.getSpans().get(0);
+    assertThat(child.traceId()).isEqualTo(root.getTraceId());
+    assertThat(child.parentSpanId()).isEqualTo(root.getSpanId());
+    assertThat(tracer.getCurrentSpan()).isNull();
+  }
+
+  @Test
+  public void makeCurrent_restoresPreviousSpanOnClose() {
+    Span outer = tracer.startTrace("outer");
+    Span inner = tracer.startTrace("inner");
+
+    try (Span.Scope outerScope = outer.makeCurrent()) {
+      try (Span.Scope innerScope = inner.makeCurrent()) {
+        assertThat(tracer.getCurrentSpan()).isSameInstanceAs(inner);
+      }
+      assertThat(tracer.getCurrentSpan()).isSameInstanceAs(outer);
+    }
+  }
+
+  @Test
+  public void wrap_runsInChildOfSpanCurrentWhenWrapped() throws Exception {
+    Span root = tracer.startTrace("root");
+    Runnable task;
+    try (Span.Scope scope = root.makeCurrent()) {
+      task = tracer.wrap("task", () -> tracer.startSpan("nested").end());
+    }
+
+    executor.submit(task).get();
+
+    SpanData nested = ringBuffer.getSpans().get(0);
+    SpanData wrapped = ringBuffer.getSpans().get(1);
+    assertThat(wrapped.name()).isEqualTo("task");
+    assertThat(wrapped.parentSpanId()).isEqualTo(root.getSpanId());
+    assertThat(nested.traceId()).isEqualTo(root.getTraceId());
+    assertThat(nested.parentSpanId()).isEqualTo(wrapped.spanId());
+  }
+
+  @Test
+  public void wrapExecutor_propagatesSpanToTasks() throws Exception {
+    Span root = tracer.startTrace("root");
+
+    root.wrap(executor).execute(() -> tracer.startSpan("task").end());
+    executor.submit(() -> {}).get(1, TimeUnit.SECONDS);
+
+    assertThat(ringBuffer.getSpans().get(0).parentSpanId()).isEqualTo(root.getSpanId());
+  }
+
+  @Test
+  public void endWhenDone_recordsFailure() {
+    SettableFuture<String> future = SettableFuture.create();
+    tracer.startTrace("request").setAttribute("id", 7).endWhenDone(future);
+    assertThat(ringBuffer.getSpans()).isEmpty();
+
+    future.setException(new IOException("offline"));
+
+    SpanData span = ringBuffer.getSpans().get(0);
+    assertThat(span.attributes()).containsEntry("id", "7");
+    assertThat(span.attributes()).containsEntry("error", "java.io.IOException: offline");
+  }
+
+  @Test
+  public void end_exportsOnce() {
+    Span span = tracer.startTrace("once");
+
+    span.end();
+    span.end();
+
+    assertThat(ringBuffer.getSpans()).hasSize(1);
+  }
+
+  @Test
+  public void ringBuffer_keepsLatestSpansInOrder() {
+    for (int i = 0; i < 6; i++) {
+      tracer.startTrace("span" + i).end();
+    }
+
+    assertThat(ringBuffer.getSpans().stream().map(SpanData::name))
+        .containsExactly("span2", "span3", "span4", "span5")
+        .inOrder();
+  }
+
+  @Test
+  public void ringBuffer_getTrace_filtersByTraceId() {
+    Span first = tracer.startTrace("first");
+    first.startChild("child").end();
+    first.end();
+    tracer.startTrace("second").end();
+
+    assertThat(ringBuffer.getTrace(first.getTraceId()).stream().map(SpanData::name))
+        .containsExactly("child", "first")
+        .inOrder();
+  }
+}
@@ -0,0 +1,68 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Writes to {@code android.util.Log}, looked up at runtime so that the module builds and runs on
+ * the JVM. Only logged lines and the tag check of each {@link LogSite} go through reflection.
+ */
+final class AndroidLogSink implements AppLog.Sink {
+  private final Method println;
+  private final Method getStackTraceString;
+  private final Method isLoggable;
+
+  private AndroidLogSink(Class<?> log) throws NoSuchMethodException {
+    println = log.getMethod("println", int.class, String.class, String.class);
+    getStackTraceString = log.getMethod("getStackTraceString", Throwable.class);
+    isLoggable = log.getMethod("isLoggable", String.class, int.class);
+  }
+
+  /** Returns the sink, or null when not running on Android. */
+  static @Nullable AndroidLogSink create() {
+    try {
+      return new AndroidLogSink(Class.forName("android.util.Log"));
+    } catch (ClassNotFoundException | NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public void write(int priority, String tag, String line, @Nullable Throwable cause) {
+    String message = cause == null ? line : line + '\n' + invoke(getStackTraceString, cause);
+    invoke(println, priority, tag, message);
+  }
+
+  @Override
+  public boolean isLoggable(String tag, int priority) {
+    return (Boolean) invoke(isLoggable, tag, priority);
+  }
+
+  private static Object invoke(Method method, Object... args) {
+    try {
+      return method.invoke(/* obj= */ null, args);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException(e);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
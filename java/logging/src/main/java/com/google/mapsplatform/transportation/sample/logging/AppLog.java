@@ -0,0 +1,111 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * Logging facade shared by the apps. Call sites log through a {@link LogSite}, which checks the
+ * priority and its rate limit before anything is formatted, so a disabled log allocates nothing.
+ *
+ * <p>Lines are the message followed by {@code key=value} fields, for instance {@code Updated trip
+ * tripId=trip_1 status=COMPLETE}. They go to {@code android.util.Log} on Android, and to {@code
+ * java.util.logging} on the JVM.
+ */
+public final class AppLog {
+  // Same values as the android.util.Log priorities, which call sites can pass as well.
+  public static final int VERBOSE = 2;
+  public static final int DEBUG = 3;
+  public static final int INFO = 4;
+  public static final int WARN = 5;
+  public static final int ERROR = 6;
+
+  /** Receives the formatted log lines. */
+  public interface Sink {
+    void write(int priority, String tag, String line, @Nullable Throwable cause);
+
+    /** Whether {@code tag} is enabled at {@code priority} below the minimum priority. */
+    default boolean isLoggable(String tag, int priority) {
+      return false;
+    }
+  }
+
+  private static final Sink JAVA_LOGGING =
+      new Sink() {
+        @Override
+        public void write(int priority, String tag, String line, @Nullable Throwable cause) {
+          Logger.getLogger(tag).log(toLevel(priority), line, cause);
+        }
+
+        @Override
+        public boolean isLoggable(String tag, int priority) {
+          return Logger.getLogger(tag).isLoggable(toLevel(priority));
+        }
+      };
+
+  private static final Sink PLATFORM_SINK = createPlatformSink();
+
+  private static volatile int minPriority = INFO;
+  private static volatile Sink sink = PLATFORM_SINK;
+
+  /** Logs at {@code priority} and above are written, {@link #INFO} by default. */
+  public static void setMinPriority(int priority) {
+    minPriority = priority;
+  }
+
+  public static boolean isLoggable(int priority) {
+    return priority >= minPriority;
+  }
+
+  /** Replaces the sink, {@code null} restores the platform one. */
+  @VisibleForTesting
+  public static void setSink(@Nullable Sink newSink) {
+    sink = newSink != null ? newSink : PLATFORM_SINK;
+  }
+
+  static boolean isLoggableByTag(String tag, int priority) {
+    return sink.isLoggable(tag, priority);
+  }
+
+  static void write(int priority, String tag, String line, @Nullable Throwable cause) {
+    sink.write(priority, tag, line, cause);
+  }
+
+  private static Sink createPlatformSink() {
+    Sink androidLog = AndroidLogSink.create();
+    return androidLog != null ? androidLog : JAVA_LOGGING;
+  }
+
+  private static Level toLevel(int priority) {
+    if (priority >= ERROR) {
+      return Level.SEVERE;
+    }
+    switch (priority) {
+      case WARN:
+        return Level.WARNING;
+      case INFO:
+        return Level.INFO;
+      case DEBUG:
+        return Level.FINE;
+      default:
+        return Level.FINEST;
+    }
+  }
+
+  private AppLog() {}
+}
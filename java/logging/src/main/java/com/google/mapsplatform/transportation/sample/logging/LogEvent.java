@@ -0,0 +1,83 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+/**
+ * A log line being built, returned by {@link LogSite#event}. When the call is not logged, the
+ * shared no-op event ignores the fields without formatting them, so values should be passed as
+ * they are rather than turned into strings first.
+ */
+public final class LogEvent {
+  static final LogEvent DISABLED = new LogEvent(null, 0);
+
+  @Nullable private final LogSite site;
+  @Nullable private final StringBuilder fields;
+  private final long skipped;
+  @Nullable private Throwable cause;
+
+  LogEvent(@Nullable LogSite site, long skipped) {
+    this.site = site;
+    fields = site != null ? new StringBuilder() : null;
+    this.skipped = skipped;
+  }
+
+  /** Whether the event is logged, to skip gathering fields that are costly to get. */
+  public boolean isEnabled() {
+    return site != null;
+  }
+
+  /** Adds a field, {@code value} is only turned into a string if the event is logged. */
+  public LogEvent with(String key, @Nullable Object value) {
+    if (fields != null) {
+      fields.append(' ').append(key).append('=').append(value);
+    }
+    return this;
+  }
+
+  /** Adds a numeric field without boxing it. */
+  public LogEvent with(String key, long value) {
+    if (fields != null) {
+      fields.append(' ').append(key).append('=').append(value);
+    }
+    return this;
+  }
+
+  /** Adds the stack trace of {@code cause}, which the shared no-op event doesn't keep. */
+  public LogEvent withCause(Throwable cause) {
+    if (site != null) {
+      this.cause = cause;
+    }
+    return this;
+  }
+
+  @VisibleForTesting
+  @Nullable Throwable getCause() {
+    return cause;
+  }
+
+  /** Writes {@code message} followed by the fields and the number of calls skipped before. */
+  public void log(String message) {
+    if (site == null) {
+      return;
+    }
+    if (skipped > 0) {
+      with("skipped", skipped);
+    }
+    AppLog.write(site.getPriority(), site.getTag(), message + fields, cause);
+  }
+}
@@ -0,0 +1,131 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A place in the code that logs, kept in a constant. It decides whether a call is logged before
+ * any field is formatted: the priority must be enabled, see {@link AppLog#setMinPriority}, and
+ * the call must pass the rate limit or sampling of the site. Calls skipped by the rate limit or
+ * sampling are counted into the {@code skipped} field of the next logged one.
+ *
+ * <p>A tag can also be enabled with {@code adb shell setprop log.tag.<TAG> DEBUG}, which is read
+ * by the first call below the minimum priority.
+ */
+public final class LogSite {
+  private static final long UNSET = Long.MIN_VALUE;
+  private static final int TAG_UNCHECKED = 0;
+  private static final int TAG_ENABLED = 1;
+  private static final int TAG_DISABLED = 2;
+
+  private final String tag;
+  private final int priority;
+  private final long intervalNanos;
+  private final long sampleRate;
+  private final Ticker ticker;
+
+  private final AtomicLong nextLogNanos = new AtomicLong(UNSET);
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  // Asked on first use rather than when the constant is created, so a replaced sink answers.
+  private volatile int tagState = TAG_UNCHECKED;
+
+  /** Logs every call. */
+  public static LogSite create(String tag, int priority) {
+    return new LogSite(
+        tag, priority, /* intervalNanos= */ 0, /* sampleRate= */ 1, Ticker.systemTicker());
+  }
+
+  /** Logs at most one call every {@code interval}. */
+  public static LogSite rateLimited(String tag, int priority, long interval, TimeUnit unit) {
+    return rateLimited(tag, priority, interval, unit, Ticker.systemTicker());
+  }
+
+  @VisibleForTesting
+  static LogSite rateLimited(
+      String tag, int priority, long interval, TimeUnit unit, Ticker ticker) {
+    checkArgument(interval > 0, "interval must be positive");
+    return new LogSite(tag, priority, unit.toNanos(interval), /* sampleRate= */ 1, ticker);
+  }
+
+  /** Logs one call out of {@code sampleRate}, starting with the first. */
+  public static LogSite sampled(String tag, int priority, int sampleRate) {
+    checkArgument(sampleRate > 0, "sampleRate must be positive");
+    return new LogSite(tag, priority, /* intervalNanos= */ 0, sampleRate, Ticker.systemTicker());
+  }
+
+  private LogSite(String tag, int priority, long intervalNanos, long sampleRate, Ticker ticker) {
+    this.tag = tag;
+    this.priority = priority;
+    this.intervalNanos = intervalNanos;
+    this.sampleRate = sampleRate;
+    this.ticker = ticker;
+  }
+
+  /**
+   * Returns the event to add fields to and log, or a no-op event if this call is not logged. Only
+   * enabled calls count towards the rate limit and sampling.
+   */
+  public LogEvent event() {
+    if (!AppLog.isLoggable(priority) && !isEnabledByTag()) {
+      return LogEvent.DISABLED;
+    }
+    if (!passesSampling() || !passesRateLimit()) {
+      skipped.incrementAndGet();
+      return LogEvent.DISABLED;
+    }
+    return new LogEvent(this, skipped.getAndSet(0));
+  }
+
+  String getTag() {
+    return tag;
+  }
+
+  int getPriority() {
+    return priority;
+  }
+
+  private boolean isEnabledByTag() {
+    int state = tagState;
+    if (state == TAG_UNCHECKED) {
+      state = AppLog.isLoggableByTag(tag, priority) ? TAG_ENABLED : TAG_DISABLED;
+      tagState = state;
+    }
+    return state == TAG_ENABLED;
+  }
+
+  private boolean passesSampling() {
+    return sampleRate == 1 || calls.getAndIncrement() % sampleRate == 0;
+  }
+
+  private boolean passesRateLimit() {
+    if (intervalNanos == 0) {
+      return true;
+    }
+    long nowNanos = ticker.read();
+    long next = nextLogNanos.get();
+    if (next != UNSET && nowNanos - next < 0) {
+      return false;
+    }
+    // Only one of the concurrent callers past the deadline logs.
+    return nextLogNanos.compareAndSet(next, nowNanos + intervalNanos);
+  }
+}
@@ -0,0 +1,172 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Ticker;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LogSite} and {@link LogEvent}. */
+@RunWith(JUnit4.class)
+public final class LogSiteTest {
+  private static final String TAG = "LogSiteTest";
+
+  private final List<String> lines = new ArrayList<>();
+  private final AtomicLong nowNanos = new AtomicLong();
+  private final Ticker ticker =
+      new Ticker() {
+        @Override
+        public long read() {
+          return nowNanos.get();
+        }
+      };
+
+  @Before
+  public void setUp() {
+    AppLog.setSink(
+        (priority, tag, line, cause) ->
+            lines.add(tag + " " + line + (cause != null ? " cause=" + cause.getMessage() : "")));
+  }
+
+  @After
+  public void tearDown() {
+    AppLog.setSink(null);
+    AppLog.setMinPriority(AppLog.INFO);
+  }
+
+  @Test
+  public void event_writesMessageAndFields() {
+    LogSite site = LogSite.create(TAG, AppLog.INFO);
+
+    site.event()
+        .with("tripId", "trip_1")
+        .with("index", 2)
+        .withCause(new IllegalStateException("boom"))
+        .log("Updated trip");
+
+    assertThat(lines).containsExactly("LogSiteTest Updated trip tripId=trip_1 index=2 cause=boom");
+  }
+
+  @Test
+  public void event_doesNotFormatFieldsBelowMinPriority() {
+    LogSite site = LogSite.create(TAG, AppLog.DEBUG);
+    CountingValue value = new CountingValue();
+
+    LogEvent event = site.event();
+    event.with("value", value).log("Debug");
+
+    assertThat(event.isEnabled()).isFalse();
+    assertThat(value.toStringCalls).isEqualTo(0);
+    assertThat(lines).isEmpty();
+  }
+
+  @Test
+  public void event_logsOnceMinPriorityIsLowered() {
+    LogSite site = LogSite.create(TAG, AppLog.DEBUG);
+
+    AppLog.setMinPriority(AppLog.DEBUG);
+    site.event().log("Debug");
+
+    assertThat(lines).containsExactly("LogSiteTest Debug");
+  }
+
+  @Test
+  public void event_logsBelowMinPriorityWhenTagIsEnabled() {
+    AppLog.setSink(
+        new AppLog.Sink() {
+          @Override
+          public void write(int priority, String tag, String line, Throwable cause) {
+            lines.add(tag + " " + line);
+          }
+
+          @Override
+          public boolean isLoggable(String tag, int priority) {
+            return tag.equals(TAG);
+          }
+        });
+    LogSite site = LogSite.create(TAG, AppLog.DEBUG);
+
+    site.event().log("Debug");
+
+    assertThat(lines).containsExactly("LogSiteTest Debug");
+  }
+
+  @Test
+  public void event_disabledOrRateLimited_returnsSharedEventWithoutCause() {
+    LogSite disabledSite = LogSite.create(TAG, AppLog.DEBUG);
+    LogSite rateLimitedSite = LogSite.rateLimited(TAG, AppLog.INFO, 30, SECONDS, ticker);
+    rateLimitedSite.event().log("Poll");
+
+    LogEvent disabled = disabledSite.event().with("index", 2).withCause(new IOException());
+    LogEvent rateLimited = rateLimitedSite.event().with("index", 2).withCause(new IOException());
+
+    assertThat(disabled).isSameInstanceAs(LogEvent.DISABLED);
+    assertThat(rateLimited).isSameInstanceAs(LogEvent.DISABLED);
+    assertThat(LogEvent.DISABLED.getCause()).isNull();
+    assertThat(lines).containsExactly("LogSiteTest Poll");
+  }
+
+  @Test
+  public void rateLimited_logsOncePerIntervalWithSkippedCount() {
+    LogSite site = LogSite.rateLimited(TAG, AppLog.INFO, 30, SECONDS, ticker);
+
+    site.event().log("Poll");
+    nowNanos.set(SECONDS.toNanos(10));
+    site.event().log("Poll");
+    site.event().log("Poll");
+    nowNanos.set(SECONDS.toNanos(30));
+    site.event().with("vehicleId", "vehicle_1").log("Poll");
+
+    assertThat(lines)
+        .containsExactly("LogSiteTest Poll", "LogSiteTest Poll vehicleId=vehicle_1 skipped=2")
+        .inOrder();
+  }
+
+  @Test
+  public void sampled_logsOneCallOutOfRate() {
+    LogSite site = LogSite.sampled(TAG, AppLog.INFO, 3);
+
+    for (int i = 0; i < 7; i++) {
+      site.event().with("i", i).log("Sample");
+    }
+
+    assertThat(lines)
+        .containsExactly(
+            "LogSiteTest Sample i=0",
+            "LogSiteTest Sample i=3 skipped=2",
+            "LogSiteTest Sample i=6 skipped=2")
+        .inOrder();
+  }
+
+  private static final class CountingValue {
+    int toStringCalls;
+
+    @Override
+    public String toString() {
+      toStringCalls++;
+      return "value";
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.logging;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import com.google.common.base.Ticker;
+
+/**
+ * Compares a per-poll log line formatted up front, as the polling code used to do, with the same
+ * line through a {@link LogSite} that is disabled, rate limited or enabled.
+ *
+ * <p>The work is counted rather than timed, so the results are the same on every machine: how
+ * many times a field was turned into a string, how many events were created and how many lines
+ * reached the sink. Run with {@code ./gradlew :java:logging:loggingBenchmark}.
+ */
+public final class LoggingBenchmark {
+  private static final String TAG = "LoggingBenchmark";
+  private static final int ITERATIONS = 10_000;
+  // One simulated poll per second.
+  private static final long POLL_INTERVAL_NANOS = SECONDS.toNanos(1);
+
+  private final CountingValue tripId = new CountingValue("trip_1");
+  private final CountingValue waypointType = new CountingValue("PICKUP_WAYPOINT_TYPE");
+  private long nowNanos;
+  private long events;
+  private long lines;
+
+  public static void main(String[] args) {
+    new LoggingBenchmark().run();
+  }
+
+  private void run() {
+    Ticker ticker =
+        new Ticker() {
+          @Override
+          public long read() {
+            return nowNanos;
+          }
+        };
+    LogSite disabledSite = LogSite.create(TAG, AppLog.DEBUG);
+    LogSite rateLimitedSite = LogSite.rateLimited(TAG, AppLog.INFO, 30, SECONDS, ticker);
+    LogSite enabledSite = LogSite.create(TAG, AppLog.INFO);
+    AppLog.setSink((priority, tag, line, cause) -> lines++);
+    try {
+      Result eager = measure(this::logEagerly);
+      Result disabled = measure(() -> logThrough(disabledSite));
+      Result rateLimited = measure(() -> logThrough(rateLimitedSite));
+      Result enabled = measure(() -> logThrough(enabledSite));
+
+      System.out.printf("%d polls, one per second%n", ITERATIONS);
+      System.out.printf("%-13s %10s %8s %8s%n", "", "formatted", "events", "lines");
+      print("eager", eager);
+      print("disabled", disabled);
+      print("rate limited", rateLimited);
+      print("enabled", enabled);
+
+      if (disabled.formatted != 0 || disabled.events != 0) {
+        throw new IllegalStateException("A disabled site formatted its fields: " + disabled);
+      }
+      if (rateLimited.formatted >= eager.formatted / 10) {
+        throw new IllegalStateException("The rate limit didn't skip the fields: " + rateLimited);
+      }
+    } finally {
+      AppLog.setSink(null);
+    }
+  }
+
+  private void logEagerly() {
+    String line = String.format("Waypoint tripId=%s type=%s", tripId, waypointType);
+    if (AppLog.isLoggable(AppLog.INFO)) {
+      AppLog.write(AppLog.INFO, TAG, line, /* cause= */ null);
+    }
+  }
+
+  private void logThrough(LogSite site) {
+    LogEvent event = site.event();
+    if (event != LogEvent.DISABLED) {
+      events++;
+    }
+    event.with("tripId", tripId).with("type", waypointType).log("Waypoint");
+  }
+
+  private Result measure(Runnable logLine) {
+    tripId.count = 0;
+    waypointType.count = 0;
+    events = 0;
+    lines = 0;
+    for (int i = 0; i < ITERATIONS; i++) {
+      logLine.run();
+      nowNanos += POLL_INTERVAL_NANOS;
+    }
+    return new Result(tripId.count + waypointType.count, events, lines);
+  }
+
+  private static void print(String name, Result result) {
+    System.out.printf(
+        "%-13s %10d %8d %8d%n", name, result.formatted, result.events, result.lines);
+  }
+
+  /** Counts how many times the value is turned into a string. */
+  private static final class CountingValue {
+    private final String value;
+    long count;
+
+    CountingValue(String value) {
+      this.value = value;
+    }
+
+    @Override
+    public String toString() {
+      count++;
+      return value;
+    }
+  }
+
+  private static final class Result {
+    final long formatted;
+    final long events;
+    final long lines;
+
+    Result(long formatted, long events, long lines) {
+      this.formatted = formatted;
+      this.events = events;
+      this.lines = lines;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("formatted=%d events=%d lines=%d", formatted, events, lines);
+    }
+  }
+}
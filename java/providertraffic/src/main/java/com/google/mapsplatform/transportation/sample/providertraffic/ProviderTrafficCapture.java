@@ -0,0 +1,179 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.providertraffic;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Compact text format of the provider traffic recorded by {@link ProviderTrafficRecorder}.
+ *
+ * <p>A capture starts with the {@link #HEADER} line, followed by one line per exchange with tab
+ * separated fields: start offset and latency in milliseconds, method, path, response code, request
+ * body and response body. Bodies are kept as sent, with backslashes, tabs and line breaks escaped,
+ * and are empty when there is none.
+ */
+public final class ProviderTrafficCapture {
+  public static final String HEADER = "#provider-traffic v1";
+
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final int FIELD_COUNT = 7;
+
+  /** One request sent to the provider and its response. */
+  @AutoValue
+  public abstract static class Exchange {
+    /** Time the request was sent, relative to the start of the capture. */
+    public abstract long startMillis();
+
+    /** Time until the response headers were received. */
+    public abstract long latencyMillis();
+
+    public abstract String method();
+
+    /** Encoded path of the request, including the query if any. */
+    public abstract String path();
+
+    public abstract int code();
+
+    public abstract String requestBody();
+
+    public abstract String responseBody();
+
+    public static Exchange create(
+        long startMillis,
+        long latencyMillis,
+        String method,
+        String path,
+        int code,
+        String requestBody,
+        String responseBody) {
+      return new AutoValue_ProviderTrafficCapture_Exchange(
+          startMillis, latencyMillis, method, path, code, requestBody, responseBody);
+    }
+  }
+
+  /** Writes one exchange as a line of the capture. */
+  public static void writeExchange(Writer writer, Exchange exchange) throws IOException {
+    writer.write(
+        String.join(
+            FIELD_SEPARATOR,
+            Long.toString(exchange.startMillis()),
+            Long.toString(exchange.latencyMillis()),
+            exchange.method(),
+            exchange.path(),
+            Integer.toString(exchange.code()),
+            escape(exchange.requestBody()),
+            escape(exchange.responseBody())));
+    writer.write('\n');
+  }
+
+  /**
+   * Reads every exchange of a capture, in the order they were recorded.
+   *
+   * @throws IOException if the capture cannot be read or is malformed.
+   */
+  public static ImmutableList<Exchange> read(Reader reader) throws IOException {
+    BufferedReader lines = new BufferedReader(reader);
+    if (!HEADER.equals(lines.readLine())) {
+      throw new IOException("Not a provider traffic capture.");
+    }
+
+    ImmutableList.Builder<Exchange> exchanges = ImmutableList.builder();
+    String line;
+    int lineNumber = 1;
+    while ((line = lines.readLine()) != null) {
+      lineNumber++;
+      if (line.isEmpty()) {
+        continue;
+      }
+
+      String[] fields = line.split(FIELD_SEPARATOR, -1);
+      if (fields.length != FIELD_COUNT) {
+        throw new IOException(String.format("Malformed exchange on line %d.", lineNumber));
+      }
+      try {
+        exchanges.add(
+            Exchange.create(
+                Long.parseLong(fields[0]),
+                Long.parseLong(fields[1]),
+                fields[2],
+                fields[3],
+                Integer.parseInt(fields[4]),
+                unescape(fields[5]),
+                unescape(fields[6])));
+      } catch (NumberFormatException e) {
+        throw new IOException(String.format("Malformed exchange on line %d.", lineNumber), e);
+      }
+    }
+    return exchanges.build();
+  }
+
+  private static String escape(String body) {
+    StringBuilder escaped = new StringBuilder(body.length());
+    for (int i = 0; i < body.length(); i++) {
+      char c = body.charAt(i);
+      switch (c) {
+        case '\\':
+          escaped.append("\\\\");
+          break;
+        case '\t':
+          escaped.append("\\t");
+          break;
+        case '\n':
+          escaped.append("\\n");
+          break;
+        case '\r':
+          escaped.append("\\r");
+          break;
+        default:
+          escaped.append(c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private static String unescape(String field) {
+    StringBuilder body = new StringBuilder(field.length());
+    for (int i = 0; i < field.length(); i++) {
+      char c = field.charAt(i);
+      if (c != '\\' || i == field.length() - 1) {
+        body.append(c);
+        continue;
+      }
+
+      char escaped = field.charAt(++i);
+      switch (escaped) {
+        case 't':
+          body.append('\t');
+          break;
+        case 'n':
+          body.append('\n');
+          break;
+        case 'r':
+          body.append('\r');
+          break;
+        default:
+          body.append(escaped);
+      }
+    }
+    return body.toString();
+  }
+
+  private ProviderTrafficCapture() {}
+}
@@ -0,0 +1,152 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.providertraffic;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture.Exchange;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+
+/**
+ * Records every request sent to the provider and its response into a {@link
+ * ProviderTrafficCapture}, so that the session can later be replayed with its original timing.
+ *
+ * <p>A failed request is recorded with the response code 0. Exchanges are written in order on a
+ * background executor, so provider calls do no disk I/O, and the file is only open while an
+ * exchange is written.
+ */
+public final class ProviderTrafficRecorder implements Interceptor {
+  private static final Logger logger = Logger.getLogger(ProviderTrafficRecorder.class.getName());
+
+  // Larger bodies are truncated, provider responses are a few KB.
+  private static final long MAX_BODY_BYTES = 1024 * 1024;
+
+  private final File file;
+  private final Executor fileExecutor;
+  private final long startNanos = System.nanoTime();
+  // Only accessed on the file executor.
+  private boolean headerWritten;
+  private boolean failed;
+
+  /**
+   * Records into {@code file}, replacing any previous capture. The file is only created once the
+   * first exchange is recorded.
+   */
+  public ProviderTrafficRecorder(File file, Executor ioExecutor) {
+    this.file = file;
+    fileExecutor = MoreExecutors.newSequentialExecutor(ioExecutor);
+  }
+
+  @Override
+  public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    String requestBody = readRequestBody(request);
+    long requestNanos = System.nanoTime();
+
+    Response response;
+    try {
+      response = chain.proceed(request);
+    } catch (IOException e) {
+      record(request, requestBody, requestNanos, System.nanoTime(), /* code= */ 0, "");
+      throw e;
+    }
+    // The chain returns once the headers were received, the body is still to be read.
+    long responseNanos = System.nanoTime();
+
+    record(
+        request,
+        requestBody,
+        requestNanos,
+        responseNanos,
+        response.code(),
+        response.peekBody(MAX_BODY_BYTES).string());
+    return response;
+  }
+
+  private void record(
+      Request request,
+      String requestBody,
+      long requestNanos,
+      long responseNanos,
+      int code,
+      String responseBody) {
+    HttpUrl url = request.url();
+    String path = url.encodedPath();
+    if (url.encodedQuery() != null) {
+      path += "?" + url.encodedQuery();
+    }
+    Exchange exchange =
+        Exchange.create(
+            TimeUnit.NANOSECONDS.toMillis(requestNanos - startNanos),
+            TimeUnit.NANOSECONDS.toMillis(responseNanos - requestNanos),
+            request.method(),
+            path,
+            code,
+            requestBody,
+            responseBody);
+    try {
+      fileExecutor.execute(() -> write(exchange));
+    } catch (RejectedExecutionException e) {
+      // The shared pool is saturated, the capture misses this exchange.
+    }
+  }
+
+  private void write(Exchange exchange) {
+    if (failed) {
+      return;
+    }
+    // The first exchange replaces the previous capture, the following ones are appended.
+    try (Writer writer =
+        new BufferedWriter(
+            new OutputStreamWriter(
+                new FileOutputStream(file, /* append= */ headerWritten),
+                StandardCharsets.UTF_8))) {
+      if (!headerWritten) {
+        writer.write(ProviderTrafficCapture.HEADER);
+        writer.write('\n');
+        headerWritten = true;
+      }
+      ProviderTrafficCapture.writeExchange(writer, exchange);
+    } catch (IOException e) {
+      // Recording is a diagnostic, it must not fail provider calls.
+      logger.log(Level.WARNING, "Stopped recording provider traffic.", e);
+      failed = true;
+    }
+  }
+
+  private static String readRequestBody(Request request) throws IOException {
+    if (request.body() == null) {
+      return "";
+    }
+    Buffer buffer = new Buffer();
+    request.body().writeTo(buffer);
+    return buffer.readUtf8();
+  }
+}
@@ -0,0 +1,53 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.providertraffic;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture.Exchange;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProviderTrafficCapture}. */
+@RunWith(JUnit4.class)
+public final class ProviderTrafficCaptureTest {
+
+  @Test
+  public void keepsBodiesWithTabsAndLineBreaks() throws Exception {
+    Exchange exchange =
+        Exchange.create(
+            10, 20, "POST", "/vehicle/new", 400, "{\n\t\"a\": \"\\\\\"\n}", "error\r\n");
+    StringWriter capture = new StringWriter();
+    capture.write(ProviderTrafficCapture.HEADER + "\n");
+
+    ProviderTrafficCapture.writeExchange(capture, exchange);
+
+    assertThat(capture.toString().split("\n")).hasLength(2);
+    assertThat(ProviderTrafficCapture.read(new StringReader(capture.toString())))
+        .containsExactly(exchange);
+  }
+
+  @Test
+  public void read_withoutHeader_fails() {
+    assertThrows(
+        IOException.class,
+        () -> ProviderTrafficCapture.read(new StringReader("0\t1\tGET\t/vehicle/v\t200\t\t{}\n")));
+  }
+}
@@ -0,0 +1,141 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.providertraffic;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import com.google.mapsplatform.transportation.sample.providertraffic.ProviderTrafficCapture.Exchange;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProviderTrafficRecorder}. */
+@RunWith(JUnit4.class)
+public final class ProviderTrafficRecorderTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final MockWebServer server = new MockWebServer();
+  private File capture;
+
+  @Before
+  public void setUp() throws IOException {
+    server.start();
+    capture = temporaryFolder.newFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.close();
+  }
+
+  @Test
+  public void replacesPreviousCaptureThenAppendsEachExchange() throws Exception {
+    Files.asCharSink(capture, StandardCharsets.UTF_8).write("previous capture");
+    server.enqueue(new MockResponse().setBody("{\"a\":1}"));
+    server.enqueue(new MockResponse().setBody("{\"a\":2}"));
+    OkHttpClient httpClient = newHttpClient(directExecutor());
+
+    send(httpClient, "/vehicle/vehicle_1");
+    send(httpClient, "/vehicle/vehicle_1?filter=trips");
+
+    // Readable without closing the recorder, the file is closed after every exchange.
+    ImmutableList<Exchange> exchanges = readCapture();
+    assertThat(exchanges).hasSize(2);
+    assertThat(exchanges.get(0).responseBody()).isEqualTo("{\"a\":1}");
+    assertThat(exchanges.get(1).path()).isEqualTo("/vehicle/vehicle_1?filter=trips");
+    assertThat(exchanges.get(1).responseBody()).isEqualTo("{\"a\":2}");
+  }
+
+  @Test
+  public void writesOnTheFileExecutor() throws Exception {
+    Queue<Runnable> fileTasks = new ArrayDeque<>();
+    server.enqueue(new MockResponse().setBody("{}"));
+
+    send(newHttpClient(fileTasks::add), "/vehicle/vehicle_1");
+
+    assertThat(capture.length()).isEqualTo(0L);
+    while (!fileTasks.isEmpty()) {
+      fileTasks.remove().run();
+    }
+    assertThat(readCapture()).hasSize(1);
+  }
+
+  @Test
+  public void latencyExcludesTheBodyRead() throws Exception {
+    // The headers come right away, the 4 KB body takes about 2 seconds.
+    server.enqueue(
+        new MockResponse()
+            .setBody(new String(new char[4096]).replace('\0', 'a'))
+            .throttleBody(1024, 500, TimeUnit.MILLISECONDS));
+
+    send(newHttpClient(directExecutor()), "/vehicle/vehicle_1");
+
+    assertThat(readCapture().get(0).latencyMillis()).isLessThan(1000);
+  }
+
+  @Test
+  public void failedRequest_isRecordedWithCodeZero() throws Exception {
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+    OkHttpClient httpClient = newHttpClient(directExecutor());
+
+    assertThrows(IOException.class, () -> send(httpClient, "/trip/trip_1"));
+
+    Exchange exchange = readCapture().get(0);
+    assertThat(exchange.code()).isEqualTo(0);
+    assertThat(exchange.responseBody()).isEmpty();
+  }
+
+  private OkHttpClient newHttpClient(Executor ioExecutor) {
+    return new OkHttpClient.Builder()
+        .retryOnConnectionFailure(false)
+        .addInterceptor(new ProviderTrafficRecorder(capture, ioExecutor))
+        .build();
+  }
+
+  private void send(OkHttpClient httpClient, String path) throws IOException {
+    Request request = new Request.Builder().url(server.url(path)).build();
+    try (Response response = httpClient.newCall(request).execute()) {
+      response.body().string();
+    }
+  }
+
+  private ImmutableList<Exchange> readCapture() throws IOException {
+    try (Reader reader = Files.newReader(capture, StandardCharsets.UTF_8)) {
+      return ProviderTrafficCapture.read(reader);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.common.collect.ImmutableList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Stand-in provider serving recorded responses, such as those of the provider traffic captures of
+ * the apps.
+ *
+ * <p>Requests are matched on method and path, and each match is answered with the next recorded
+ * response for it; the last one is repeated once they are all served, as an idle provider answers
+ * polls. Responses are delayed by their recorded latency times the time scale, 0 serves them
+ * immediately. Unmatched requests get a 404.
+ */
+public final class ProviderTrafficReplayServer implements Closeable {
+  /** A recorded response, with the method and path of its request. A code of 0 is no response. */
+  public static final class RecordedResponse {
+    final String method;
+    final String path;
+    final int code;
+    final String body;
+    final long latencyMillis;
+
+    public RecordedResponse(String method, String path, int code, String body, long latencyMillis) {
+      this.method = method;
+      this.path = path;
+      this.code = code;
+      this.body = body;
+      this.latencyMillis = latencyMillis;
+    }
+  }
+
+  private final MockWebServer server = new MockWebServer();
+  private final Map<String, Queue<RecordedResponse>> pendingResponses = new HashMap<>();
+  private final Map<String, RecordedResponse> lastResponses = new HashMap<>();
+  private final double timeScale;
+
+  public ProviderTrafficReplayServer(ImmutableList<RecordedResponse> responses, double timeScale) {
+    checkArgument(timeScale >= 0, "timeScale must not be negative");
+    this.timeScale = timeScale;
+    for (RecordedResponse response : responses) {
+      pendingResponses
+          .computeIfAbsent(key(response.method, response.path), k -> new ArrayDeque<>())
+          .add(response);
+    }
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            return respond(request);
+          }
+        });
+  }
+
+  public void start() throws IOException {
+    server.start();
+  }
+
+  /** Base URL to give {@code LocalProviderService.createRestProvider()} of either app. */
+  public String getBaseUrl() {
+    return server.url("/").toString();
+  }
+
+  /** Number of requests received so far. */
+  public int getRequestCount() {
+    return server.getRequestCount();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.shutdown();
+  }
+
+  private synchronized MockResponse respond(RecordedRequest request) {
+    String key = key(request.getMethod(), request.getPath());
+    Queue<RecordedResponse> pending = pendingResponses.get(key);
+    RecordedResponse response =
+        pending != null && !pending.isEmpty() ? pending.poll() : lastResponses.get(key);
+    if (response == null) {
+      return new MockResponse().setResponseCode(404);
+    }
+    lastResponses.put(key, response);
+
+    if (response.code == 0) {
+      return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START);
+    }
+    return new MockResponse()
+        .setResponseCode(response.code)
+        .setHeader("Content-Type", "application/json")
+        .setBody(response.body)
+        .setHeadersDelay(Math.round(response.latencyMillis * timeScale), MILLISECONDS);
+  }
+
+  private static String key(String method, String path) {
+    return method + " " + path;
+  }
+}
@@ -0,0 +1,549 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.testing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.function.ToLongFunction;
+import javax.annotation.Nullable;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Stand-in provider serving every endpoint of the driver and consumer apps from in-memory state,
+ * with injectable faults.
+ *
+ * <p>Vehicles are created by the driver app or {@link #addVehicle}, trips by the consumer app or
+ * {@link #addTrip}. Before every request, the trips not matched yet are matched in creation order
+ * with the first vehicle without trips, or with a single trip and back-to-back enabled. Trips
+ * follow the sample provider semantics: a vehicle lists the remaining waypoints of its trips, and a
+ * waypoint is removed once its trip moves past it. A mutation carrying an idempotency key already
+ * seen is answered with the response of the first one, without being applied again.
+ *
+ * <p>Faults are drawn from a seeded {@link Random}, so the same sequence of requests gets the same
+ * faults on every run, concurrent requests draw theirs in the order they arrive. See {@link
+ * Faults}.
+ */
+public final class StandInProviderServer implements Closeable {
+  public static final String PROVIDER_ID = "stand-in-provider";
+
+  /** Endpoints of the driver and consumer apps. */
+  public enum Endpoint {
+    GET_VEHICLE,
+    CREATE_VEHICLE,
+    UPDATE_VEHICLE,
+    GET_DRIVER_TOKEN,
+    CREATE_TRIP,
+    GET_TRIP,
+    UPDATE_TRIP,
+    GET_CONSUMER_TOKEN
+  }
+
+  /** Distribution of the time before the response headers. */
+  public static final class Latency {
+    private final ToLongFunction<Random> sampler;
+
+    private Latency(ToLongFunction<Random> sampler) {
+      this.sampler = sampler;
+    }
+
+    public static Latency fixed(long millis) {
+      return new Latency(random -> millis);
+    }
+
+    public static Latency uniform(long minMillis, long maxMillis) {
+      checkArgument(minMillis <= maxMillis, "minMillis must not exceed maxMillis");
+      return new Latency(
+          random -> minMillis + Math.round(random.nextDouble() * (maxMillis - minMillis)));
+    }
+
+    /** Log-normal, as measured on mobile links. A sigma of 0.5 puts a quarter over 1.4 medians. */
+    public static Latency logNormal(long medianMillis, double sigma) {
+      return new Latency(
+          random -> Math.round(medianMillis * Math.exp(sigma * random.nextGaussian())));
+    }
+  }
+
+  /**
+   * Faults injected into the responses, none by default. Rates are shares of the requests:
+   *
+   * <ul>
+   *   <li>errors are answered with an HTTP 503 and not applied.
+   *   <li>not found are answered with an HTTP 404, as for an unknown id, and not applied.
+   *   <li>connection resets are applied, then the connection closes without a response, as when a
+   *       response is lost.
+   * </ul>
+   */
+  public static final class Faults {
+    private Latency latency = Latency.fixed(0);
+    private double errorRate;
+    private double notFoundRate;
+    private double connectionResetRate;
+    private long bodyBytesPerSecond;
+
+    public Faults setLatency(Latency latency) {
+      this.latency = latency;
+      return this;
+    }
+
+    public Faults setErrorRate(double errorRate) {
+      this.errorRate = errorRate;
+      return this;
+    }
+
+    public Faults setNotFoundRate(double notFoundRate) {
+      this.notFoundRate = notFoundRate;
+      return this;
+    }
+
+    public Faults setConnectionResetRate(double connectionResetRate) {
+      this.connectionResetRate = connectionResetRate;
+      return this;
+    }
+
+    /** Sends the response bodies at this rate, 0 sends them at once. */
+    public Faults setBodyBytesPerSecond(long bodyBytesPerSecond) {
+      this.bodyBytesPerSecond = bodyBytesPerSecond;
+      return this;
+    }
+  }
+
+  private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+  private static final long TOKEN_LIFETIME_MILLIS = 60 * 60 * 1000;
+  // Chunks per second of a slow body.
+  private static final int BODY_CHUNKS_PER_SECOND = 10;
+
+  private final Gson gson = new Gson();
+  private final MockWebServer server = new MockWebServer();
+  private final Random random;
+  private final Map<String, JsonObject> vehicles = new LinkedHashMap<>();
+  private final Map<String, JsonObject> trips = new LinkedHashMap<>();
+  private final Queue<String> unmatchedTripIds = new ArrayDeque<>();
+  private final Map<String, String> responsesByIdempotencyKey = new HashMap<>();
+  private final Map<Endpoint, Faults> endpointFaults = new EnumMap<>(Endpoint.class);
+  private final Map<Endpoint, Integer> requestCounts = new EnumMap<>(Endpoint.class);
+
+  private Faults faults = new Faults();
+  private int nextTripNumber = 1;
+  private int appliedMutationCount;
+  private int deduplicatedMutationCount;
+
+  public StandInProviderServer(Random random) {
+    this.random = random;
+    server.setDispatcher(
+        new Dispatcher() {
+          @Override
+          public MockResponse dispatch(RecordedRequest request) {
+            return respond(request);
+          }
+        });
+  }
+
+  /** Injects {@code faults} into the responses of the endpoints without faults of their own. */
+  public synchronized StandInProviderServer setFaults(Faults faults) {
+    this.faults = faults;
+    return this;
+  }
+
+  /** Injects {@code faults} into the responses of {@code endpoint}. */
+  public synchronized StandInProviderServer setFaults(Endpoint endpoint, Faults faults) {
+    endpointFaults.put(endpoint, faults);
+    return this;
+  }
+
+  public void start() throws IOException {
+    server.start();
+  }
+
+  /** Base URL to give {@code LocalProviderService.createRestProvider()} of either app. */
+  public String getBaseUrl() {
+    return server.url("/").toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    server.shutdown();
+  }
+
+  /** Adds a vehicle, as the driver app registering it. */
+  public synchronized void addVehicle(String vehicleId, boolean backToBackEnabled) {
+    JsonObject settings = new JsonObject();
+    settings.addProperty("vehicleId", vehicleId);
+    settings.addProperty("backToBackEnabled", backToBackEnabled);
+    createVehicle(settings);
+  }
+
+  /**
+   * Adds a trip around Mountain View, as the consumer app requesting it.
+   *
+   * @param intermediateDestinations number of stops between pickup and drop-off.
+   * @return the id of the trip.
+   */
+  public synchronized String addTrip(int intermediateDestinations) {
+    JsonObject request = new JsonObject();
+    JsonArray stops = new JsonArray();
+    for (int i = 0; i < intermediateDestinations; i++) {
+      stops.add(randomLatLng());
+    }
+    request.add("intermediateDestinations", stops);
+    return createTrip(request).get("name").getAsString().replaceFirst(".*/", "");
+  }
+
+  /** Returns the status of a trip, null if it doesn't exist. */
+  @Nullable
+  public synchronized String getTripStatus(String tripId) {
+    JsonObject trip = trips.get(tripId);
+    return trip == null ? null : trip.get("tripStatus").getAsString();
+  }
+
+  /** Number of requests received for an endpoint so far. */
+  public synchronized int getRequestCount(Endpoint endpoint) {
+    return requestCounts.getOrDefault(endpoint, 0);
+  }
+
+  /** Mutations applied to the provider state, deduplicated ones excluded. */
+  public synchronized int getAppliedMutationCount() {
+    return appliedMutationCount;
+  }
+
+  /** Mutations answered from an earlier request with the same idempotency key. */
+  public synchronized int getDeduplicatedMutationCount() {
+    return deduplicatedMutationCount;
+  }
+
+  private synchronized MockResponse respond(RecordedRequest request) {
+    matchTrips();
+    String[] segments = request.getPath().substring(1).split("/");
+    Endpoint endpoint = route(request.getMethod(), segments);
+    if (endpoint == null) {
+      return new MockResponse().setResponseCode(404);
+    }
+    requestCounts.merge(endpoint, 1, Integer::sum);
+
+    Faults faults = endpointFaults.getOrDefault(endpoint, this.faults);
+    MockResponse response;
+    if (shouldInject(faults.errorRate)) {
+      response = new MockResponse().setResponseCode(503);
+    } else if (shouldInject(faults.notFoundRate)) {
+      response = new MockResponse().setResponseCode(404);
+    } else {
+      response = serve(endpoint, segments[segments.length - 1], request);
+      if (shouldInject(faults.connectionResetRate)) {
+        return new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST);
+      }
+    }
+
+    long latencyMillis = faults.latency.sampler.applyAsLong(random);
+    response.setHeadersDelay(Math.max(0, latencyMillis), MILLISECONDS);
+    if (faults.bodyBytesPerSecond > 0) {
+      response.throttleBody(
+          Math.max(1, faults.bodyBytesPerSecond / BODY_CHUNKS_PER_SECOND),
+          1000 / BODY_CHUNKS_PER_SECOND,
+          MILLISECONDS);
+    }
+    return response;
+  }
+
+  private MockResponse serve(Endpoint endpoint, String id, RecordedRequest request) {
+    String idempotencyKey = request.getHeader(IDEMPOTENCY_KEY_HEADER);
+    if (idempotencyKey != null && responsesByIdempotencyKey.containsKey(idempotencyKey)) {
+      deduplicatedMutationCount++;
+      return json(responsesByIdempotencyKey.get(idempotencyKey));
+    }
+
+    JsonElement response;
+    try {
+      response = serve(endpoint, id, request.getBody().readUtf8());
+    } catch (RuntimeException e) {
+      // A body the stand-in can't read.
+      return new MockResponse().setResponseCode(400);
+    }
+    if (response == null) {
+      return new MockResponse().setResponseCode(404);
+    }
+    String body = gson.toJson(response);
+    if (endpoint == Endpoint.CREATE_VEHICLE
+        || endpoint == Endpoint.UPDATE_VEHICLE
+        || endpoint == Endpoint.CREATE_TRIP
+        || endpoint == Endpoint.UPDATE_TRIP) {
+      appliedMutationCount++;
+      if (idempotencyKey != null) {
+        responsesByIdempotencyKey.put(idempotencyKey, body);
+      }
+    }
+    return json(body);
+  }
+
+  // Returns null for an unknown id.
+  @Nullable
+  private JsonElement serve(Endpoint endpoint, String id, String body) {
+    switch (endpoint) {
+      case GET_VEHICLE:
+        return vehicles.get(id);
+      case CREATE_VEHICLE:
+        return createVehicle(gson.fromJson(body, JsonObject.class));
+      case UPDATE_VEHICLE:
+        JsonObject vehicle = vehicles.get(id);
+        if (vehicle != null) {
+          applySettings(vehicle, gson.fromJson(body, JsonObject.class));
+        }
+        return vehicle;
+      case GET_DRIVER_TOKEN:
+        return token("driver." + id);
+      case CREATE_TRIP:
+        return createTrip(gson.fromJson(body, JsonObject.class));
+      case GET_TRIP:
+        JsonObject trip = trips.get(id);
+        if (trip == null) {
+          return null;
+        }
+        JsonObject response = new JsonObject();
+        response.add("trip", trip);
+        return response;
+      case UPDATE_TRIP:
+        return updateTrip(id, gson.fromJson(body, JsonObject.class).get("status").getAsString());
+      case GET_CONSUMER_TOKEN:
+        return trips.containsKey(id) ? token("consumer." + id) : null;
+    }
+    throw new AssertionError(endpoint);
+  }
+
+  private JsonObject createVehicle(JsonObject settings) {
+    String vehicleId = settings.get("vehicleId").getAsString();
+    JsonObject vehicle = vehicles.get(vehicleId);
+    if (vehicle == null) {
+      vehicle = new JsonObject();
+      vehicle.addProperty(
+          "name", String.format("providers/%s/vehicles/%s", PROVIDER_ID, vehicleId));
+      vehicle.addProperty("vehicleState", "ONLINE");
+      vehicle.add("currentTripsIds", new JsonArray());
+      vehicle.addProperty("backToBackEnabled", false);
+      vehicle.add("supportedTripTypes", new JsonArray());
+      vehicle.addProperty("maximumCapacity", 5);
+      vehicle.add("waypoints", new JsonArray());
+      vehicles.put(vehicleId, vehicle);
+    }
+    applySettings(vehicle, settings);
+    return vehicle;
+  }
+
+  private JsonObject createTrip(JsonObject request) {
+    String tripId = "trip_" + nextTripNumber++;
+    JsonArray waypoints = new JsonArray();
+    waypoints.add(waypoint(tripId, "PICKUP_WAYPOINT_TYPE", latLngOf(request, "pickup")));
+    if (request.has("intermediateDestinations")) {
+      for (JsonElement stop : request.getAsJsonArray("intermediateDestinations")) {
+        waypoints.add(
+            waypoint(tripId, "INTERMEDIATE_DESTINATION_WAYPOINT_TYPE", stop.getAsJsonObject()));
+      }
+    }
+    waypoints.add(waypoint(tripId, "DROP_OFF_WAYPOINT_TYPE", latLngOf(request, "dropoff")));
+
+    JsonObject trip = new JsonObject();
+    trip.addProperty("name", String.format("providers/%s/trips/%s", PROVIDER_ID, tripId));
+    trip.addProperty("tripStatus", "NEW");
+    trip.add("waypoints", waypoints);
+    trip.addProperty("vehicleId", "");
+    trips.put(tripId, trip);
+    unmatchedTripIds.add(tripId);
+    return trip;
+  }
+
+  @Nullable
+  private JsonObject updateTrip(String tripId, String status) {
+    JsonObject trip = trips.get(tripId);
+    if (trip == null) {
+      return null;
+    }
+    String vehicleId = trip.get("vehicleId").getAsString();
+    boolean statusChanged = !status.equals(trip.get("tripStatus").getAsString());
+    if (statusChanged && !vehicleId.isEmpty()) {
+      JsonObject vehicle = vehicles.get(vehicleId);
+      if (status.equals("CANCELED")) {
+        removeWaypoints(vehicle, tripId, Integer.MAX_VALUE);
+      } else if (movesPastWaypoint(status)) {
+        removeWaypoints(vehicle, tripId, 1);
+      }
+    }
+    trip.addProperty("tripStatus", status);
+    return trip;
+  }
+
+  private void matchTrips() {
+    for (Iterator<String> iterator = unmatchedTripIds.iterator(); iterator.hasNext(); ) {
+      String tripId = iterator.next();
+      JsonObject trip = trips.get(tripId);
+      String vehicleId = findVehicle();
+      if (vehicleId == null) {
+        return;
+      }
+      JsonObject vehicle = vehicles.get(vehicleId);
+      vehicle.getAsJsonArray("currentTripsIds").add(tripId);
+      vehicle.getAsJsonArray("waypoints").addAll(trip.getAsJsonArray("waypoints").deepCopy());
+      trip.addProperty("vehicleId", vehicleId);
+      iterator.remove();
+    }
+  }
+
+  @Nullable
+  private String findVehicle() {
+    String backToBackVehicleId = null;
+    for (Map.Entry<String, JsonObject> entry : vehicles.entrySet()) {
+      JsonObject vehicle = entry.getValue();
+      int tripCount = vehicle.getAsJsonArray("currentTripsIds").size();
+      if (tripCount == 0) {
+        return entry.getKey();
+      }
+      if (tripCount == 1
+          && vehicle.get("backToBackEnabled").getAsBoolean()
+          && backToBackVehicleId == null) {
+        backToBackVehicleId = entry.getKey();
+      }
+    }
+    return backToBackVehicleId;
+  }
+
+  // Removes the first waypoints of a trip, and the trip once none is left.
+  private static void removeWaypoints(JsonObject vehicle, String tripId, int count) {
+    JsonArray waypoints = vehicle.getAsJsonArray("waypoints");
+    JsonArray remainingWaypoints = new JsonArray();
+    int removed = 0;
+    boolean tripHasWaypoints = false;
+    for (JsonElement waypoint : waypoints) {
+      boolean ofTrip = tripId.equals(waypoint.getAsJsonObject().get("tripId").getAsString());
+      if (ofTrip && removed < count) {
+        removed++;
+      } else {
+        remainingWaypoints.add(waypoint);
+        tripHasWaypoints |= ofTrip;
+      }
+    }
+    vehicle.add("waypoints", remainingWaypoints);
+    if (!tripHasWaypoints) {
+      vehicle.getAsJsonArray("currentTripsIds").remove(new JsonPrimitive(tripId));
+    }
+  }
+
+  // Leaving a waypoint removes it from the vehicle.
+  private static boolean movesPastWaypoint(String status) {
+    return status.equals("ENROUTE_TO_INTERMEDIATE_DESTINATION")
+        || status.equals("ENROUTE_TO_DROPOFF")
+        || status.equals("COMPLETE");
+  }
+
+  private static void applySettings(JsonObject vehicle, JsonObject settings) {
+    if (settings.has("backToBackEnabled") && !settings.get("backToBackEnabled").isJsonNull()) {
+      vehicle.add("backToBackEnabled", settings.get("backToBackEnabled"));
+    }
+    if (settings.has("maximumCapacity")) {
+      vehicle.add("maximumCapacity", settings.get("maximumCapacity"));
+    }
+    if (settings.has("supportedTripTypes")) {
+      vehicle.add("supportedTripTypes", settings.get("supportedTripTypes"));
+    }
+  }
+
+  private static JsonObject waypoint(String tripId, String waypointType, JsonObject latLng) {
+    JsonObject location = new JsonObject();
+    location.add("point", latLng);
+    JsonObject waypoint = new JsonObject();
+    waypoint.add("location", location);
+    waypoint.addProperty("waypointType", waypointType);
+    waypoint.addProperty("tripId", tripId);
+    return waypoint;
+  }
+
+  // The requests of the consumer app may leave out the points, the stand-in then picks them.
+  private JsonObject latLngOf(JsonObject request, String name) {
+    return request.has(name) ? request.getAsJsonObject(name) : randomLatLng();
+  }
+
+  private JsonObject randomLatLng() {
+    JsonObject latLng = new JsonObject();
+    latLng.addProperty("latitude", 37.4 + random.nextDouble() / 10);
+    latLng.addProperty("longitude", -122.1 + random.nextDouble() / 10);
+    return latLng;
+  }
+
+  private static JsonObject token(String subject) {
+    long nowMillis = System.currentTimeMillis();
+    JsonObject token = new JsonObject();
+    token.addProperty("jwt", "stand-in." + subject + ".signature");
+    token.addProperty("creationTimestamp", nowMillis);
+    token.addProperty("expirationTimestamp", nowMillis + TOKEN_LIFETIME_MILLIS);
+    return token;
+  }
+
+  private boolean shouldInject(double rate) {
+    return rate > 0 && random.nextDouble() < rate;
+  }
+
+  @Nullable
+  private static Endpoint route(String method, String[] segments) {
+    if (segments.length == 3 && segments[0].equals("token") && method.equals("GET")) {
+      switch (segments[1]) {
+        case "driver":
+          return Endpoint.GET_DRIVER_TOKEN;
+        case "consumer":
+          return Endpoint.GET_CONSUMER_TOKEN;
+        default:
+          return null;
+      }
+    }
+    if (segments.length != 2) {
+      return null;
+    }
+    boolean isNew = segments[1].equals("new");
+    switch (segments[0] + " " + method) {
+      case "vehicle POST":
+        return isNew ? Endpoint.CREATE_VEHICLE : null;
+      case "vehicle GET":
+        return Endpoint.GET_VEHICLE;
+      case "vehicle PUT":
+        return Endpoint.UPDATE_VEHICLE;
+      case "trip POST":
+        return isNew ? Endpoint.CREATE_TRIP : null;
+      case "trip GET":
+        return Endpoint.GET_TRIP;
+      case "trip PUT":
+        return Endpoint.UPDATE_TRIP;
+      default:
+        return null;
+    }
+  }
+
+  private static MockResponse json(String body) {
+    return new MockResponse().setHeader("Content-Type", "application/json").setBody(body);
+  }
+}
@@ -0,0 +1,113 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.testing;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import com.google.mapsplatform.transportation.sample.testing.ProviderTrafficReplayServer.RecordedResponse;
+import java.io.IOException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ProviderTrafficReplayServer}. */
+@RunWith(JUnit4.class)
+public final class ProviderTrafficReplayServerTest {
+  private final OkHttpClient httpClient = new OkHttpClient();
+  private ProviderTrafficReplayServer replayServer;
+
+  @After
+  public void tearDown() throws IOException {
+    if (replayServer != null) {
+      replayServer.close();
+    }
+  }
+
+  @Test
+  public void servesRecordedResponsesInOrderThenRepeatsTheLast() throws Exception {
+    startReplayServer(
+        ImmutableList.of(
+            new RecordedResponse("GET", "/vehicle/vehicle_1", 200, "{\"a\":1}", 0),
+            new RecordedResponse("PUT", "/trip/trip_1", 200, "{}", 0),
+            new RecordedResponse("GET", "/vehicle/vehicle_1", 200, "{\"a\":2}", 0)),
+        /* timeScale= */ 0);
+
+    assertThat(send("GET", "/vehicle/vehicle_1")).isEqualTo("{\"a\":1}");
+    assertThat(send("GET", "/vehicle/vehicle_1")).isEqualTo("{\"a\":2}");
+    assertThat(send("PUT", "/trip/trip_1")).isEqualTo("{}");
+    assertThat(send("GET", "/vehicle/vehicle_1")).isEqualTo("{\"a\":2}");
+    assertThat(replayServer.getRequestCount()).isEqualTo(4);
+  }
+
+  @Test
+  public void delaysResponsesByScaledLatency() throws Exception {
+    startReplayServer(
+        ImmutableList.of(new RecordedResponse("GET", "/vehicle/vehicle_1", 200, "{}", 400)),
+        /* timeScale= */ 0.5);
+
+    long startMillis = System.currentTimeMillis();
+    send("GET", "/vehicle/vehicle_1");
+
+    assertThat(System.currentTimeMillis() - startMillis).isAtLeast(200);
+  }
+
+  @Test
+  public void recordedFailure_closesConnectionWithoutResponse() throws Exception {
+    startReplayServer(
+        ImmutableList.of(new RecordedResponse("PUT", "/trip/trip_1", 0, "", 0)),
+        /* timeScale= */ 0);
+
+    assertThrows(IOException.class, () -> send("PUT", "/trip/trip_1"));
+  }
+
+  @Test
+  public void answersUnknownRequestsWithNotFound() throws Exception {
+    startReplayServer(ImmutableList.of(), /* timeScale= */ 0);
+
+    try (Response response = execute("GET", "/vehicle/x")) {
+      assertThat(response.code()).isEqualTo(404);
+    }
+  }
+
+  private void startReplayServer(ImmutableList<RecordedResponse> responses, double timeScale)
+      throws IOException {
+    replayServer = new ProviderTrafficReplayServer(responses, timeScale);
+    replayServer.start();
+  }
+
+  private String send(String method, String path) throws IOException {
+    try (Response response = execute(method, path)) {
+      return response.body().string();
+    }
+  }
+
+  private Response execute(String method, String path) throws IOException {
+    Request.Builder request =
+        new Request.Builder().url(replayServer.getBaseUrl() + path.substring(1));
+    if (method.equals("GET")) {
+      request.get();
+    } else {
+      request.method(method, RequestBody.create(null, "{}"));
+    }
+    return httpClient.newCall(request.build()).execute();
+  }
+}
@@ -0,0 +1,60 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer
+
+import android.content.Context
+import android.util.Log
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.state.ActiveTripSnapshot
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+
+/**
+ * Persists the [ActiveTripSnapshot] of the trip being journey shared so it survives process
+ * restarts. Writes are applied asynchronously and reads run on the IO dispatcher.
+ */
+class ActiveTripStore(context: Context) {
+  private val sharedPrefs =
+    context.applicationContext.getSharedPreferences(SHARED_PREFS_NAME, Context.MODE_PRIVATE)
+  private val gson = Gson()
+
+  /** Returns the persisted snapshot, or null if there is no active trip. */
+  suspend fun load(): ActiveTripSnapshot? =
+    withContext(Dispatchers.IO) {
+      val json = sharedPrefs.getString(SNAPSHOT_KEY, null) ?: return@withContext null
+      try {
+        gson.fromJson(json, ActiveTripSnapshot::class.java)
+      } catch (e: JsonParseException) {
+        Log.e(TAG, "Discarding unreadable active trip snapshot.", e)
+        clear()
+        null
+      }
+    }
+
+  fun save(snapshot: ActiveTripSnapshot) {
+    sharedPrefs.edit().putString(SNAPSHOT_KEY, gson.toJson(snapshot)).apply()
+  }
+
+  fun clear() {
+    sharedPrefs.edit().remove(SNAPSHOT_KEY).apply()
+  }
+
+  private companion object {
+    const val TAG = "ActiveTripStore"
+    const val SHARED_PREFS_NAME = "active_trip"
+    const val SNAPSHOT_KEY = "SNAPSHOT"
+  }
+}
@@ -25,12 +25,35 @@ import com.google.android.gms.maps.model.MarkerOptions
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.MarkerType
 import com.google.android.libraries.mapsplatform.transportation.consumer.view.ConsumerController
 import java.lang.IllegalArgumentException
+import java.util.concurrent.ConcurrentHashMap
 
 /** Marker util class to get the correct image based on the marker types. */
 object ConsumerMarkerUtils {
   /** Anchor value for the markers to display on the map. */
   private const val ANCHOR_VALUE = 0.5f
 
+  /** Drawables used as marker icons by this app. */
+  private val MARKER_DRAWABLES =
+    listOf(
+      R.drawable.ic_custom_pickup,
+      R.drawable.ic_custom_dropoff,
+      R.drawable.ic_intermediate_waypoint,
+      R.drawable.ic_intermediate_destination,
+      R.drawable.ic_custommarker_pickup,
+      R.drawable.ic_custommarker_destination,
+    )
+
+  /** Rasterized marker icons by drawable resource id. */
+  private val markerBitmaps = ConcurrentHashMap<Int, Bitmap>()
+
+  /**
+   * Rasterizes the marker icons ahead of time so building marker options once the map is ready
+   * does not have to. Safe to call from a background thread.
+   */
+  fun prewarmMarkerBitmaps(context: Context) {
+    MARKER_DRAWABLES.forEach { getBitmap(context, it) }
+  }
+
   /**
    * Based on ConsumerMarkerType, get the MarkerOptions to display on the map with the corresponding
    * images.
@@ -67,8 +90,14 @@ object ConsumerMarkerUtils {
   private fun toBitmapDescriptor(
     context: Context?,
     @DrawableRes resourceId: Int
-  ): BitmapDescriptor {
-    val vectorDrawable = AppCompatResources.getDrawable(context!!, resourceId)
+  ): BitmapDescriptor = BitmapDescriptorFactory.fromBitmap(getBitmap(context!!, resourceId))
+
+  private fun getBitmap(context: Context, @DrawableRes resourceId: Int): Bitmap =
+    markerBitmaps[resourceId]
+      ?: toBitmap(context, resourceId).let { markerBitmaps.putIfAbsent(resourceId, it) ?: it }
+
+  private fun toBitmap(context: Context, @DrawableRes resourceId: Int): Bitmap {
+    val vectorDrawable = AppCompatResources.getDrawable(context, resourceId)
     val bitmap =
       Bitmap.createBitmap(
         vectorDrawable!!.intrinsicWidth,
@@ -78,7 +107,7 @@ object ConsumerMarkerUtils {
     val canvas = Canvas(bitmap)
     vectorDrawable.setBounds(0, 0, canvas.width, canvas.height)
     vectorDrawable.draw(canvas)
-    return BitmapDescriptorFactory.fromBitmap(bitmap)
+    return bitmap
   }
 
   /** Customize the pickup and drop-off markers. */
@@ -0,0 +1,145 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer
+
+import android.app.Application
+import android.util.Log
+import com.google.android.libraries.mapsplatform.transportation.consumer.ConsumerApi
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.ProviderUtils
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.service.LocalProviderService
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.suspendCancellableCoroutine
+
+/**
+ * Runs the parts of the Consumer SDK setup that do not need the map, once per process: token
+ * factory construction, [ConsumerApi] initialization and marker icon rasterization. Started from
+ * the splash screen so they overlap with the map loading in [SampleAppActivity].
+ */
+internal class ConsumerStartup private constructor(application: Application) {
+  /** Lives as long as the process, like the SDK instances it initializes. */
+  private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main)
+  private val startupTimer = StartupTimer()
+
+  /** Phase timings are only reported for the first activity. */
+  private var reported = false
+
+  private val tokenFactory: Deferred<TripAuthTokenFactory> =
+    scope.async(Dispatchers.Default) {
+      startupTimer.time(PHASE_TOKEN_FACTORY) {
+        TripAuthTokenFactory.getInstance(
+          LocalProviderService(
+            LocalProviderService.createRestProvider(
+              ProviderUtils.getProviderBaseUrl(application)
+            )
+          )
+        )
+      }
+    }
+
+  /** The initialized [ConsumerApi]. */
+  private val consumerApi: Deferred<ConsumerApi> =
+    scope.async {
+      startupTimer.time(PHASE_CONSUMER_API) {
+        initializeConsumerApi(application, tokenFactory.await())
+      }
+    }
+
+  init {
+    scope.launch(Dispatchers.Default) {
+      startupTimer.time(PHASE_MARKERS) { ConsumerMarkerUtils.prewarmMarkerBitmaps(application) }
+    }
+  }
+
+  /** Calls [onReady] on the main thread once the [ConsumerApi] is initialized. */
+  fun whenConsumerApiReady(onReady: (ConsumerApi) -> Unit) {
+    scope.launch {
+      try {
+        onReady(consumerApi.await())
+      } catch (e: CancellationException) {
+        throw e
+      } catch (e: Exception) {
+        Log.e(TAG, "ConsumerApi Initialization Error.", e)
+      }
+    }
+  }
+
+  /** Records that the map finished loading. Must be called on the main thread. */
+  fun onMapReady() {
+    if (!reported) {
+      startupTimer.mark(PHASE_MAP)
+    }
+  }
+
+  /**
+   * Records that journey sharing can start and logs the startup phases. Must be called on the main
+   * thread.
+   */
+  fun onReady() {
+    if (reported) {
+      return
+    }
+    reported = true
+    startupTimer.mark(PHASE_READY)
+    Log.i(TAG, "Startup phases:\n${startupTimer.summary()}")
+  }
+
+  companion object {
+    private const val TAG = "ConsumerStartup"
+
+    // Startup phases.
+    const val PHASE_TOKEN_FACTORY = "token_factory"
+    const val PHASE_CONSUMER_API = "consumer_api_init"
+    const val PHASE_MARKERS = "marker_prewarm"
+    const val PHASE_MAP = "map_ready"
+    const val PHASE_READY = "consumer_ready"
+
+    private var instance: ConsumerStartup? = null
+
+    /** Starts the setup if it is not already running (or failed) and returns it. */
+    @Synchronized
+    fun start(application: Application): ConsumerStartup =
+      instance?.takeUnless { it.consumerApi.isCancelled }
+        ?: ConsumerStartup(application).also { instance = it }
+
+    private suspend fun initializeConsumerApi(
+      application: Application,
+      tokenFactory: TripAuthTokenFactory
+    ): ConsumerApi {
+      val cachedTask = ConsumerApi.getInstance()
+      val consumerApiTask =
+        if (cachedTask?.isSuccessful == true) {
+          cachedTask
+        } else {
+          ConsumerApi.initialize(
+            application,
+            ProviderUtils.getProviderId(application),
+            tokenFactory,
+          )
+        }
+      return suspendCancellableCoroutine { continuation ->
+        consumerApiTask.addOnSuccessListener { continuation.resume(it) }
+        consumerApiTask.addOnFailureListener { continuation.resumeWithException(it) }
+      }
+    }
+  }
+}
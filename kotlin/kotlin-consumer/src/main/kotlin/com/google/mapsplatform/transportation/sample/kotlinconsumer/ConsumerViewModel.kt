@@ -18,6 +18,9 @@
 
 package com.google.mapsplatform.transportation.sample.kotlinconsumer
 
+import android.os.Build
+import android.os.Process
+import android.os.SystemClock
 import android.util.Log
 import androidx.lifecycle.MutableLiveData
 import androidx.lifecycle.ViewModel
@@ -27,7 +30,6 @@ import com.google.android.gms.maps.model.LatLng
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo
-import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.VehicleLocation
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.CreateTripRequest
@@ -36,14 +38,18 @@ import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.mod
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.response.TripResponse
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.response.WaypointResponse
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.service.LocalProviderService
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.state.ActiveTripSnapshot
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.state.AppStates
 import java.lang.ref.WeakReference
 import java.net.ConnectException
-import java.util.Timer
-import kotlin.concurrent.timerTask
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.cancellation.CancellationException
 import kotlin.reflect.KProperty
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 
 /** Defined to use 'MutableLiveData' as delegate. */
 private inline operator fun <T> MutableLiveData<T>.getValue(
@@ -66,11 +72,25 @@ private inline operator fun <T> MutableLiveData<T>.setValue(
  * including eta, distance remaining and waypoint data.
  *
  * @property providerService object used to communicate with the remote sample provider.
+ * @property activeTripStore persists the journey shared trip to restore it on the next launch.
  */
 class ConsumerViewModel(
   private val providerService: LocalProviderService,
+  private val activeTripStore: ActiveTripStore? = null,
 ) : ViewModel() {
   interface JourneySharingListener {
+    /**
+     * Called as soon as the trip is created, while it still waits to be matched, so expensive
+     * journey sharing setup (trip model, auth token) can run concurrently with matching.
+     */
+    fun prepareJourneySharing(tripName: String)
+
+    /**
+     * Renders a trip persisted by a previous process before journey sharing resumes, centering on
+     * the last known vehicle location if any.
+     */
+    fun showRestoredTrip(tripData: TripData, vehicleLocation: LatLng?)
+
     /** Starts journey sharing rendering and return that [TripModel]. */
     fun startJourneySharing(tripData: TripData): TripModel
 
@@ -85,6 +105,37 @@ class ConsumerViewModel(
   val errorMessage = SingleLiveEvent<Int>()
   private var journeySharingListener = WeakReference<JourneySharingListener?>(null)
 
+  /** Trip creation, loading or matching in progress, cancelled when no longer needed. */
+  private var pendingTripJob: Job? = null
+
+  /** Delayed reset to INITIALIZED after journey sharing stopped. */
+  private var idleStateResetJob: Job? = null
+
+  /** Background computation of the latest remaining waypoints update. */
+  private var otherTripWaypointsJob: Job? = null
+
+  private val tripCallbackProcessor = TripCallbackProcessor()
+
+  /** Last known state of the journey shared trip, persisted to restore it on the next launch. */
+  private var activeTripSnapshot: ActiveTripSnapshot? = null
+
+  /** Trip restored from a previous process, waiting for the SDK to resume journey sharing. */
+  private var restoredTripData: TripData? = null
+
+  /** Whether the listener is able to start journey sharing (SDK initialized). */
+  private var journeySharingReady = false
+
+  /** Time from process start until a restored trip was rendered, or -1 if none was restored. */
+  var coldStartToTripVisibleMillis = -1L
+    private set
+
+  /**
+   * Time from process start until the first live vehicle location of a restored trip, or -1 if it
+   * was not received yet.
+   */
+  var coldStartToVehicleVisibleMillis = -1L
+    private set
+
   /** Checks if a trip is matched (i.e. vehicleId is present in the trip info. */
   val isTripMatched: Boolean
     get() = tripInfoLiveData.value?.vehicleId?.isNotEmpty() ?: false
@@ -167,11 +218,64 @@ class ConsumerViewModel(
 
   init {
     appState = AppStates.UNINITIALIZED
+    activeTripStore?.let { restoreActiveTrip(it) }
+  }
+
+  /** Loads the trip persisted by a previous process off the main thread and renders it. */
+  private fun restoreActiveTrip(store: ActiveTripStore) =
+    viewModelScope.launch {
+      val snapshot = store.load() ?: return@launch
+      if (appState != AppStates.UNINITIALIZED) {
+        // The user already started something else.
+        return@launch
+      }
+      if (System.currentTimeMillis() - snapshot.updatedAtMillis > MAX_RESTORED_TRIP_AGE_MILLIS) {
+        Log.i(TAG, "Discarding stale trip ${snapshot.tripData.tripName}.")
+        store.clear()
+        return@launch
+      }
+      val tripData = snapshot.tripData
+      activeTripSnapshot = snapshot
+      restoredTripData = tripData
+      tripIdLiveData.value = tripData.tripId
+      tripStatusLiveData.value = tripData.tripStatus
+      remainingDistanceMetersLiveData.value = snapshot.remainingDistanceMeters
+      nextWaypointEtaLiveData.value = snapshot.nextWaypointEtaMillis
+      appState = AppStates.JOURNEY_SHARING
+
+      journeySharingListener.get()?.showRestoredTrip(tripData, snapshot.vehicleLocation)
+      coldStartToTripVisibleMillis = millisSinceProcessStart()
+      Log.i(
+        TAG,
+        "Restored trip ${tripData.tripName} visible $coldStartToTripVisibleMillis ms after " +
+          "process start."
+      )
+      maybeResumeJourneySharing()
+    }
+
+  /**
+   * Called once the listener is able to start journey sharing. Resumes journey sharing of a
+   * restored trip, if any.
+   */
+  fun onJourneySharingReady() {
+    journeySharingReady = true
+    maybeResumeJourneySharing()
+  }
+
+  private fun maybeResumeJourneySharing() {
+    if (!journeySharingReady) {
+      return
+    }
+    val tripData = restoredTripData ?: return
+    restoredTripData = null
+    if (appState == AppStates.JOURNEY_SHARING) {
+      beginJourneySharing(tripData)
+    }
   }
 
   /** Creates a trip in the sample provider and waits for it to be matched. */
   fun createTrip() =
-    viewModelScope.launch {
+    launchPendingTrip {
       val createTripRequest =
         CreateTripRequest(
           pickup = pickupLocation,
@@ -188,23 +292,28 @@ class ConsumerViewModel(
 
         tripStatusLiveData.postValue(TripStatus.parse(tripResponse.tripStatus))
 
+        journeySharingListener.get()?.prepareJourneySharing(tripName)
         val matchedTripResponse = providerService.fetchMatchedTrip(tripName)
 
         Log.i(TAG, "Successfully matched trip $tripName.")
 
         executeOnMainThread { startJourneySharing(matchedTripResponse) }
+      } catch (e: CancellationException) {
+        Log.i(TAG, "Trip creation cancelled.")
+        throw e
       } catch (e: Throwable) {
         Log.e(TAG, "Failed to create trip.", e)
         setErrorMessage(e)
       }
     }
 
-    /** Loads an existing trip from the sample provider and starts journey sharing for it. */
+  /** Loads an existing trip from the sample provider and starts journey sharing for it. */
   fun loadTrip(tripName: String) =
-    viewModelScope.launch {
+    launchPendingTrip {
       try {
         Log.i(TAG, "Attempting to load trip $tripName")
 
+        journeySharingListener.get()?.prepareJourneySharing(tripName)
         val matchedTripResponse = providerService.fetchMatchedTrip(tripName)
 
         Log.i(TAG, "Successfully loaded trip $tripName")
@@ -212,22 +321,48 @@ class ConsumerViewModel(
         tripStatusLiveData.postValue(matchedTripResponse.tripStatus)
 
         executeOnMainThread { startJourneySharing(matchedTripResponse) }
+      } catch (e: CancellationException) {
+        Log.i(TAG, "Trip loading cancelled.")
+        throw e
       } catch (e: Throwable) {
         Log.e(TAG, "Failed to load trip.", e)
         setErrorMessage(e)
       }
     }
 
+  /** Stops trip creation, loading and matching polling, if any is in progress. */
+  fun cancelPendingTrip() {
+    pendingTripJob?.cancel()
+    pendingTripJob = null
+  }
+
+  /** Replaces any trip work in progress with [block], scoped to this ViewModel. */
+  private fun launchPendingTrip(block: suspend () -> Unit): Job {
+    cancelPendingTrip()
+    return viewModelScope.launch { block() }.also { pendingTripJob = it }
+  }
+
   fun startJourneySharing(tripData: TripData) {
+    if (beginJourneySharing(tripData)) {
+      activeTripSnapshot =
+        ActiveTripSnapshot(tripData = tripData, updatedAtMillis = System.currentTimeMillis()).also {
+          activeTripStore?.save(it)
+        }
+    }
+  }
+
+  /** Starts journey sharing of the given trip, returns false if it cannot be started. */
+  private fun beginJourneySharing(tripData: TripData): Boolean {
     val waypoints: List<WaypointResponse> = tripData.waypoints
     val listener = journeySharingListener.get()
     if (waypoints.size < 2 || listener == null) {
-      return
+      return false
     }
     val tripModel = listener.startJourneySharing(tripData)
     currentTripModel = tripModel
     appState = AppStates.JOURNEY_SHARING
     tripModel.registerTripCallback(tripCallback)
+    return true
   }
 
   /**
@@ -241,25 +376,68 @@ class ConsumerViewModel(
         status == TripInfo.TripStatus.CANCELED ||
         status == TripInfo.TripStatus.UNKNOWN_TRIP_STATUS
     ) {
+      clearActiveTrip()
       stopJourneySharing()
       intermediateDestinations = emptyList()
+    } else {
+      updateActiveTripSnapshot(force = true) {
+        it.copy(tripData = it.tripData.copy(tripStatus = status))
+      }
     }
   }
 
+  /**
+   * Applies [update] to the active trip snapshot and persists it. Unless forced, progress updates
+   * are written at most once per [ACTIVE_TRIP_SAVE_INTERVAL_MILLIS].
+   */
+  private fun updateActiveTripSnapshot(
+    force: Boolean,
+    update: (ActiveTripSnapshot) -> ActiveTripSnapshot
+  ) {
+    val snapshot = update(activeTripSnapshot ?: return)
+    val nowMillis = System.currentTimeMillis()
+    if (force || nowMillis - snapshot.updatedAtMillis >= ACTIVE_TRIP_SAVE_INTERVAL_MILLIS) {
+      activeTripSnapshot =
+        snapshot.copy(updatedAtMillis = nowMillis).also { activeTripStore?.save(it) }
+    } else {
+      activeTripSnapshot = snapshot
+    }
+  }
+
+  private fun clearActiveTrip() {
+    activeTripSnapshot = null
+    restoredTripData = null
+    activeTripStore?.clear()
+  }
+
   private fun stopJourneySharing() {
     unregisterTripCallback()
     val listener = journeySharingListener.get()
     listener?.stopJourneySharing()
 
-    Timer()
-      .schedule(
-        timerTask { executeOnMainThread { appState = AppStates.INITIALIZED } },
-        IDLE_STATE_RESET_DELAY_MILISECONDS
-      )
+    idleStateResetJob?.cancel()
+    idleStateResetJob =
+      viewModelScope.launch(Dispatchers.Main) {
+        delay(IDLE_STATE_RESET_DELAY_MILISECONDS)
+        appState = AppStates.INITIALIZED
+      }
+  }
+
+  /**
+   * Coroutines launched in [viewModelScope] (trip matching polling, idle state reset) are cancelled
+   * by the framework, this releases the trip callback and listener which are not.
+   */
+  override fun onCleared() {
+    pendingTripJob = null
+    idleStateResetJob = null
+    unregisterTripCallback()
+    journeySharingListener.clear()
+    super.onCleared()
   }
 
   /** Unregisters callback as part of cleanup. */
   fun unregisterTripCallback() {
+    otherTripWaypointsJob?.cancel()
     val tripModel = currentTripModel
     tripModel?.unregisterTripCallback(tripCallback)
     tripInfoLiveData.value = null
@@ -313,11 +491,23 @@ class ConsumerViewModel(
         distanceMeters: Int?
       ) {
         remainingDistanceMetersLiveData.value = distanceMeters
+        updateActiveTripSnapshot(force = false) {
+          it.copy(remainingDistanceMeters = distanceMeters)
+        }
       }
 
       override fun onTripUpdated(tripInfo: TripInfo) {
         this@ConsumerViewModel.tripInfoLiveData.value = tripInfo
-        tripIdLiveData.value = TripName.create(tripInfo.tripName).tripId
+        val currentTripId = tripCallbackProcessor.getTripId(tripInfo.tripName)
+        if (currentTripId != tripIdLiveData.value) {
+          tripIdLiveData.value = currentTripId
+        }
+        val vehicleId = tripInfo.vehicleId.orEmpty()
+        if (activeTripSnapshot?.let { it.tripData.vehicleId != vehicleId } == true) {
+          updateActiveTripSnapshot(force = true) {
+            it.copy(tripData = it.tripData.copy(vehicleId = vehicleId))
+          }
+        }
       }
 
       override fun onTripStatusUpdate(tripInfo: TripInfo, @TripInfo.TripStatus status: Int) {
@@ -326,6 +516,7 @@ class ConsumerViewModel(
 
       override fun onTripETAToNextWaypointUpdated(tripInfo: TripInfo, timestampMillis: Long?) {
         nextWaypointEtaLiveData.value = timestampMillis
+        updateActiveTripSnapshot(force = false) { it.copy(nextWaypointEtaMillis = timestampMillis) }
       }
 
       override fun onTripVehicleLocationUpdated(
@@ -339,15 +530,19 @@ class ConsumerViewModel(
         tripInfo: TripInfo,
         waypointList: List<TripWaypoint>
       ) {
-        val waypoints = mutableListOf<TripWaypoint>()
-        val currentTripId = TripName.create(tripInfo.tripName).tripId
-        for (tripWaypoint in waypointList) {
-          if (tripWaypoint.tripId == currentTripId) {
-            break
+        val tripName = tripInfo.tripName
+        // Only the latest update matters, a newer one supersedes any computation in progress.
+        otherTripWaypointsJob?.cancel()
+        otherTripWaypointsJob =
+          viewModelScope.launch {
+            val waypoints =
+              withContext(Dispatchers.Default) {
+                tripCallbackProcessor.getOtherTripWaypoints(tripName, waypointList)
+              }
+            if (waypoints != otherTripWaypoints) {
+              otherTripWaypoints = waypoints
+            }
           }
-          waypoints.add(tripWaypoint)
-        }
-        otherTripWaypoints = waypoints
       }
     }
 
@@ -356,6 +551,17 @@ class ConsumerViewModel(
     if (appState == AppStates.JOURNEY_SHARING && listener != null && vehicleLocation != null) {
       listener.updateCurrentLocation(vehicleLocation.latLng)
     }
+    if (vehicleLocation == null || activeTripSnapshot == null) {
+      return
+    }
+    if (coldStartToTripVisibleMillis >= 0 && coldStartToVehicleVisibleMillis < 0) {
+      coldStartToVehicleVisibleMillis = millisSinceProcessStart()
+      Log.i(
+        TAG,
+        "Restored trip vehicle visible $coldStartToVehicleVisibleMillis ms after process start."
+      )
+    }
+    updateActiveTripSnapshot(force = false) { it.withVehicleLocation(vehicleLocation.latLng) }
   }
 
   /** Takes a function as parameter that gets executed in the Main thread. */
@@ -366,20 +572,35 @@ class ConsumerViewModel(
   companion object {
     /** Amount of time until an idle state reset should be delayed before applying changes. */
     private const val IDLE_STATE_RESET_DELAY_MILISECONDS = 3000L
+
+    /** Minimum time between two writes of the active trip snapshot caused by progress updates. */
+    private const val ACTIVE_TRIP_SAVE_INTERVAL_MILLIS = 5_000L
+
+    /** Persisted trips older than this are considered over and are not restored. */
+    private val MAX_RESTORED_TRIP_AGE_MILLIS = TimeUnit.HOURS.toMillis(6)
     private const val TAG = "ConsumerViewModel"
     private const val SHARED_TRIP_TYPE = "SHARED"
     private const val EXCLUSIVE_TRIP_TYPE = "EXCLUSIVE"
+
+    /** Milliseconds since the process started, or -1 when the platform does not report it. */
+    private fun millisSinceProcessStart(): Long =
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+        SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()
+      } else {
+        -1L
+      }
   }
 
   /**
    * Factory class defined to allow creating 'ConsumerViewModel' instances passing a
-   * LocalProviderService.
+   * LocalProviderService and the store of the active trip.
    */
   class Factory(
     private val localProviderService: LocalProviderService,
+    private val activeTripStore: ActiveTripStore? = null,
   ) : ViewModelProvider.Factory {
     override fun <T : ViewModel> create(modelClass: Class<T>): T {
-      return modelClass.cast(ConsumerViewModel(localProviderService))
+      return modelClass.cast(ConsumerViewModel(localProviderService, activeTripStore))
         ?: throw IllegalArgumentException("Illegal ViewModel class: $modelClass")
     }
   }
@@ -52,6 +52,7 @@ import com.google.android.libraries.mapsplatform.transportation.consumer.manager
 import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelManager
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TerminalLocation
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint
 import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint.WaypointType
 import com.google.android.libraries.mapsplatform.transportation.consumer.sessions.JourneySharingSession
@@ -146,7 +147,10 @@ class SampleAppActivity : AppCompatActivity(), ConsumerViewModel.JourneySharingL
       )
 
     consumerViewModel =
-      ViewModelProvider(this, ConsumerViewModel.Factory(localProviderService))
+      ViewModelProvider(
+          this,
+          ConsumerViewModel.Factory(localProviderService, ActiveTripStore(applicationContext))
+        )
         .get(ConsumerViewModel::class.java)
 
     consumerViewModel.setJourneySharingListener(this)
@@ -161,36 +165,26 @@ class SampleAppActivity : AppCompatActivity(), ConsumerViewModel.JourneySharingL
    */
   private fun initializeSdk() {
     showStartupLocation()
+
+    // Usually already started by the splash screen, ConsumerApi initialization and marker
+    // rasterization run concurrently with the map loading.
+    val consumerStartup = ConsumerStartup.start(application)
     consumerMapView.getConsumerGoogleMapAsync(
       object : ConsumerMapReadyCallback() {
         override fun onConsumerMapReady(consumerGoogleMap: ConsumerGoogleMap) {
+          consumerStartup.onMapReady()
           // Safe to do so as controller will only be nullified during consumerMap's onDestroy()
           consumerController = consumerGoogleMap.consumerController!!
 
-          val consumerApiTask =
-            if (ConsumerApi.getInstance()?.isSuccessful == true) {
-              ConsumerApi.getInstance()
-            } else {
-              ConsumerApi.initialize(
-                this@SampleAppActivity,
-                ProviderUtils.getProviderId(this@SampleAppActivity),
-                TripAuthTokenFactory(localProviderService),
-              )
+          consumerStartup.whenConsumerApiReady { consumerApi: ConsumerApi ->
+            if (isDestroyed) {
+              return@whenConsumerApiReady
             }
-
-          consumerApiTask?.addOnSuccessListener { consumerApi: ConsumerApi ->
             tripModelManager = consumerApi.tripModelManager!!
+            consumerViewModel.onJourneySharingReady()
+            consumerStartup.onReady()
           }
-          consumerApiTask?.addOnFailureListener { task: Exception ->
-            Log.e(
-              TAG,
-              """
-               ConsumerApi Initialization Error:
-               ${task.message}
-               """
-                .trimIndent(),
-            )
-          }
+          // Uses the icons rasterized by the startup if ready, rasterizes them otherwise.
           ConsumerMarkerUtils.setCustomMarkers(consumerController, this@SampleAppActivity)
           setupViewBindings()
           googleMap = consumerGoogleMap
@@ -211,6 +205,29 @@ class SampleAppActivity : AppCompatActivity(), ConsumerViewModel.JourneySharingL
     )
   }
 
+  override fun prepareJourneySharing(tripName: String) {
+    TripAuthTokenFactory.getInstance(localProviderService)
+      .prefetchToken(TripName.create(tripName).tripId)
+    if (::tripModelManager.isInitialized) {
+      tripModelManager.getTripModel(tripName)
+    }
+  }
+
+  override fun showRestoredTrip(
+    tripData: com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.TripData,
+    vehicleLocation: LatLng?
+  ) {
+    val pickup = tripData.waypoints.firstOrNull()?.location?.point
+    val pickupLocation =
+      if (pickup?.latitude != null && pickup.longitude != null) {
+        LatLng(pickup.latitude.toDouble(), pickup.longitude.toDouble())
+      } else {
+        null
+      }
+    lastLocation = vehicleLocation ?: pickupLocation ?: lastLocation
+    googleMap?.also { centerCameraToLastLocation() }
+  }
+
   override fun startJourneySharing(
     tripData: com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.TripData
   ): TripModel {
@@ -250,6 +267,10 @@ class SampleAppActivity : AppCompatActivity(), ConsumerViewModel.JourneySharingL
   private fun showStartupLocation() {
     val fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(this)
     fusedLocationProviderClient.lastLocation.addOnCompleteListener { task: Task<Location?> ->
+      if (consumerViewModel.appState == AppStates.JOURNEY_SHARING) {
+        // Already centered on the restored trip.
+        return@addOnCompleteListener
+      }
       lastLocation =
         if (task.isSuccessful && task.result != null) {
           val location = task.result
@@ -27,6 +27,9 @@ class SplashScreenActivity : AppCompatActivity() {
   override fun onCreate(savedInstanceState: Bundle?) {
     super.onCreate(savedInstanceState)
 
+    // Map independent SDK setup runs while permissions are checked and the map loads.
+    ConsumerStartup.start(application)
+
     // Check for location permissions, prompting if not granted.
     if (!PermissionUtils.hasRequiredRuntimePermissions(this)) {
       ActivityCompat.requestPermissions(
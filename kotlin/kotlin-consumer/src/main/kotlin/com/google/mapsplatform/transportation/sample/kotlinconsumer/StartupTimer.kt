@@ -0,0 +1,63 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer
+
+import android.os.SystemClock
+
+/**
+ * Measures the phases of the app startup. Phases may overlap, each one records its own duration
+ * and the time it ended at relative to the startup begin.
+ *
+ * @property clock returns the current time in milliseconds.
+ */
+internal class StartupTimer(private val clock: () -> Long = SystemClock::elapsedRealtime) {
+  private class Phase(val durationMillis: Long, val endMillis: Long)
+
+  private val startMillis = clock()
+
+  // Guarded by this.
+  private val phases = LinkedHashMap<String, Phase>()
+
+  /** Runs [block] and records its duration as [phase], even if it fails. */
+  suspend fun <T> time(phase: String, block: suspend () -> T): T {
+    val phaseStartMillis = clock()
+    try {
+      return block()
+    } finally {
+      record(phase, phaseStartMillis)
+    }
+  }
+
+  /** Records a phase that started with the startup and ends now. */
+  fun mark(phase: String) = record(phase, startMillis)
+
+  /** Returns the duration of each finished phase in milliseconds, in completion order. */
+  @Synchronized
+  fun getPhaseDurationsMillis(): Map<String, Long> = phases.mapValues { it.value.durationMillis }
+
+  /** Returns a human readable line per finished phase, meant for logging. */
+  @Synchronized
+  fun summary(): String =
+    phases.entries.joinToString(separator = "\n") { (phase, timing) ->
+      "$phase: ${timing.durationMillis} ms (done at ${timing.endMillis} ms)"
+    }
+
+  private fun record(phase: String, phaseStartMillis: Long) {
+    val endMillis = clock()
+    synchronized(this) {
+      phases[phase] = Phase(endMillis - phaseStartMillis, endMillis - startMillis)
+    }
+  }
+}
@@ -18,39 +18,97 @@ import com.google.android.libraries.mapsplatform.transportation.consumer.auth.Au
 import com.google.android.libraries.mapsplatform.transportation.consumer.auth.AuthTokenFactory
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.response.TokenResponse
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.service.LocalProviderService
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
 import kotlinx.coroutines.runBlocking
 
 /**
  * A factory for returning auth tokens for the currently assigned trip.
  *
+ * The token for a trip can be prefetched with [prefetchToken] as soon as the trip is known, so the
+ * blocking [getToken] call made by the SDK when journey sharing starts is served without a provider
+ * round trip.
+ *
  * @property providerService object used to communicate with the remote sample provider.
  */
-internal class TripAuthTokenFactory(private val providerService: LocalProviderService) :
-  AuthTokenFactory {
+internal class TripAuthTokenFactory(
+  private val providerService: LocalProviderService,
+  private val prefetchScope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO),
+) : AuthTokenFactory {
   private var token: String? = null
   private var expiryTimeMs: Long = 0
   private var tripId: String? = null
 
+  /** Token request started ahead of [getToken] and the trip it was requested for. */
+  private var pendingTokenResponse: Deferred<TokenResponse>? = null
+  private var pendingTripId: String? = null
+
   override fun getToken(context: AuthTokenContext): String {
     val tripId = context.tripId!!
-    if (System.currentTimeMillis() > expiryTimeMs || tripId != this.tripId) {
-      fetchNewToken(tripId)
+    synchronized(this) {
+      if (hasValidToken(tripId)) {
+        return token!!
+      }
+    }
+    return fetchNewToken(tripId)
+  }
+
+  /** Starts fetching the token for the given trip unless a valid one is cached or in flight. */
+  @Synchronized
+  fun prefetchToken(tripId: String) {
+    if (hasValidToken(tripId) || tripId == pendingTripId) {
+      return
     }
-    return token!!
+    pendingTokenResponse = prefetchScope.async { providerService.fetchAuthToken(tripId) }
+    pendingTripId = tripId
   }
 
-  private fun fetchNewToken(tripId: String) = runBlocking {
+  private fun hasValidToken(tripId: String) =
+    System.currentTimeMillis() <= expiryTimeMs && tripId == this.tripId
+
+  /** Returns the prefetched token request for the trip if any. */
+  @Synchronized
+  private fun takePendingTokenResponse(tripId: String): Deferred<TokenResponse>? {
+    val tokenResponse = if (tripId == pendingTripId) pendingTokenResponse else null
+    pendingTokenResponse = null
+    pendingTripId = null
+    return tokenResponse
+  }
+
+  private fun fetchNewToken(tripId: String): String = runBlocking {
     try {
-      val tokenResponse: TokenResponse = providerService.fetchAuthToken(tripId)
-      token = tokenResponse.token!!
+      val tokenResponse: TokenResponse =
+        takePendingTokenResponse(tripId)?.await() ?: providerService.fetchAuthToken(tripId)
+      val newToken = tokenResponse.token!!
 
       // The expiry time could be an hour from now, but just to try and avoid
       // passing expired tokens, we subtract 10 minutes from that time.
       val tenMinutesInMillis = (10 * 60 * 1000).toLong()
-      expiryTimeMs = tokenResponse.expirationTimestamp.millis - tenMinutesInMillis
-      this@TripAuthTokenFactory.tripId = tripId
+      synchronized(this@TripAuthTokenFactory) {
+        token = newToken
+        expiryTimeMs = tokenResponse.expirationTimestamp.millis - tenMinutesInMillis
+        this@TripAuthTokenFactory.tripId = tripId
+      }
+      newToken
     } catch (e: Exception) {
       throw RuntimeException("Could not get auth token", e)
     }
   }
+
+  companion object {
+    @Volatile private var instance: TripAuthTokenFactory? = null
+
+    /**
+     * Returns the factory shared by the process. The ConsumerApi keeps the factory it was
+     * initialized with, so prefetching must go through that same instance.
+     */
+    fun getInstance(providerService: LocalProviderService): TripAuthTokenFactory =
+      instance
+        ?: synchronized(this) {
+          instance ?: TripAuthTokenFactory(providerService).also { instance = it }
+        }
+  }
 }
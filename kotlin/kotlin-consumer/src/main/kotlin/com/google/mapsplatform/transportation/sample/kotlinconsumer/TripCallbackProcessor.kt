@@ -0,0 +1,60 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer
+
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripName
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripWaypoint
+
+/**
+ * Computes state derived from trip callbacks (current trip id, waypoints of other trips ahead of
+ * the current one). Safe to use from a background thread.
+ *
+ * Trip name parsing is memoized: callbacks for the same trip repeat the same trip name, so only the
+ * first one pays for [TripName.create].
+ */
+internal class TripCallbackProcessor {
+  /** Last parsed trip name and its id, replaced together. */
+  private class ParsedTripName(val tripName: String, val tripId: String)
+
+  @Volatile private var lastParsedTripName: ParsedTripName? = null
+
+  /** Returns the trip id for the given trip name, parsing it only when the name changed. */
+  fun getTripId(tripName: String): String {
+    val parsed =
+      lastParsedTripName?.takeIf { it.tripName == tripName }
+        ?: ParsedTripName(tripName, TripName.create(tripName).tripId).also {
+          lastParsedTripName = it
+        }
+    return parsed.tripId
+  }
+
+  /**
+   * Returns the waypoints the driver goes through before reaching the next waypoint of the given
+   * trip (B2B or Shared pool).
+   */
+  fun getOtherTripWaypoints(
+    tripName: String,
+    waypointList: List<TripWaypoint>
+  ): List<TripWaypoint> {
+    val currentTripId = getTripId(tripName)
+    val otherTripWaypointCount = waypointList.indexOfFirst { it.tripId == currentTripId }
+
+    return when (otherTripWaypointCount) {
+      0 -> emptyList()
+      -1 -> waypointList.toList()
+      else -> waypointList.subList(0, otherTripWaypointCount).toList()
+    }
+  }
+}
@@ -0,0 +1,46 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer.state
+
+import com.google.android.gms.maps.model.LatLng
+import com.google.gson.annotations.SerializedName
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.TripData
+
+/**
+ * Persisted snapshot of the trip being journey shared: the [TripData] it was started with and the
+ * last known values reported by its `TripInfo`. Used to render the trip right away after a process
+ * restart while journey sharing resumes in the background.
+ */
+data class ActiveTripSnapshot(
+  @SerializedName("tripData") val tripData: TripData,
+  @SerializedName("remainingDistanceMeters") val remainingDistanceMeters: Int? = null,
+  @SerializedName("nextWaypointEtaMillis") val nextWaypointEtaMillis: Long? = null,
+  @SerializedName("vehicleLatitude") val vehicleLatitude: Double? = null,
+  @SerializedName("vehicleLongitude") val vehicleLongitude: Double? = null,
+  @SerializedName("updatedAtMillis") val updatedAtMillis: Long,
+) {
+  /** Last known vehicle location, if any. */
+  val vehicleLocation: LatLng?
+    get() =
+      if (vehicleLatitude != null && vehicleLongitude != null) {
+        LatLng(vehicleLatitude, vehicleLongitude)
+      } else {
+        null
+      }
+
+  /** Returns a copy with the given vehicle location. */
+  fun withVehicleLocation(location: LatLng): ActiveTripSnapshot =
+    copy(vehicleLatitude = location.latitude, vehicleLongitude = location.longitude)
+}
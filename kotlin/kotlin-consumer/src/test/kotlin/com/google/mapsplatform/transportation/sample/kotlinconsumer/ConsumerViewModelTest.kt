@@ -16,23 +16,34 @@ package com.google.mapsplatform.transportation.sample.kotlinconsumer
 
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.google.android.gms.maps.model.LatLng
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModel
+import com.google.android.libraries.mapsplatform.transportation.consumer.managers.TripModelCallback
+import com.google.android.libraries.mapsplatform.transportation.consumer.model.TripInfo
 import com.google.common.truth.Truth.assertThat
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.TripData
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.model.TripStatus
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.response.TripResponse
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.response.WaypointResponse
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.provider.service.LocalProviderService
+import com.google.mapsplatform.transportation.sample.kotlinconsumer.state.ActiveTripSnapshot
 import com.google.mapsplatform.transportation.sample.kotlinconsumer.state.AppStates
 import java.net.ConnectException
+import kotlinx.coroutines.awaitCancellation
 import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
 import org.junit.Before
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.doAnswer
 import org.mockito.kotlin.doReturn
+import org.mockito.kotlin.doSuspendableAnswer
 import org.mockito.kotlin.eq
+import org.mockito.kotlin.isNull
 import org.mockito.kotlin.mock
+import org.mockito.kotlin.never
 import org.mockito.kotlin.times
 import org.mockito.kotlin.verify
 import org.mockito.kotlin.verifyBlocking
@@ -142,6 +153,94 @@ class ConsumerViewModelTest {
       .isEqualTo(R.string.msg_provider_connection_error)
   }
 
+  @Test
+  fun cancelPendingTrip_stopsMatchingWithoutError() {
+    runBlocking {
+      whenever(providerServiceMock.fetchMatchedTrip(any())).doSuspendableAnswer {
+        awaitCancellation()
+      }
+    }
+    consumerViewModel.appState = AppStates.CONFIRMING_TRIP
+
+    val job = consumerViewModel.createTrip()
+    Robolectric.flushForegroundThreadScheduler()
+    consumerViewModel.cancelPendingTrip()
+    Robolectric.flushForegroundThreadScheduler()
+
+    assertThat(job.isCancelled).isTrue()
+    assertThat(consumerViewModel.errorMessage.value).isNull()
+    verify(journeySharingListenerMock, times(0)).startJourneySharing(any())
+  }
+
+  @Test
+  fun persistedTrip_isRenderedThenResumed() {
+    val snapshot =
+      ActiveTripSnapshot(
+        tripData = MOCKED_TRIP_DATA,
+        remainingDistanceMeters = 1200,
+        updatedAtMillis = System.currentTimeMillis(),
+      )
+    val viewModel = ConsumerViewModel(providerServiceMock, createStoreMock(snapshot))
+    viewModel.setJourneySharingListener(journeySharingListenerMock)
+
+    Robolectric.flushForegroundThreadScheduler()
+
+    // Rendered from the snapshot before the SDK is ready.
+    assertThat(viewModel.appState).isEqualTo(AppStates.JOURNEY_SHARING)
+    assertThat(viewModel.tripIdLiveData.value).isEqualTo(TRIP_ID)
+    assertThat(viewModel.remainingDistanceMetersLiveData.value).isEqualTo(1200)
+    verify(journeySharingListenerMock).showRestoredTrip(eq(MOCKED_TRIP_DATA), isNull())
+    verify(journeySharingListenerMock, never()).startJourneySharing(any())
+
+    viewModel.onJourneySharingReady()
+
+    verify(journeySharingListenerMock).startJourneySharing(eq(MOCKED_TRIP_DATA))
+  }
+
+  @Test
+  fun staleTrip_isNotRestored() {
+    val storeMock =
+      createStoreMock(ActiveTripSnapshot(tripData = MOCKED_TRIP_DATA, updatedAtMillis = 0L))
+    val viewModel = ConsumerViewModel(providerServiceMock, storeMock)
+    viewModel.setJourneySharingListener(journeySharingListenerMock)
+
+    Robolectric.flushForegroundThreadScheduler()
+
+    assertThat(viewModel.appState).isEqualTo(AppStates.UNINITIALIZED)
+    verify(storeMock).clear()
+    verify(journeySharingListenerMock, never()).showRestoredTrip(any(), anyOrNull())
+  }
+
+  @Test
+  fun completedTrip_clearsPersistedTrip() {
+    val tripModelMock = mock<TripModel>()
+    whenever(journeySharingListenerMock.startJourneySharing(any())).doReturn(tripModelMock)
+    val storeMock = createStoreMock(null)
+    val viewModel = ConsumerViewModel(providerServiceMock, storeMock)
+    viewModel.setJourneySharingListener(journeySharingListenerMock)
+    Robolectric.flushForegroundThreadScheduler()
+
+    viewModel.startJourneySharing(MOCKED_TRIP_DATA)
+    verify(storeMock).save(any())
+
+    val callback = argumentCaptor<TripModelCallback>()
+    verify(tripModelMock).registerTripCallback(callback.capture())
+    val tripInfo =
+      mock<TripInfo> { on { currentTripStatus } doReturn TripInfo.TripStatus.COMPLETE }
+    callback.firstValue.onTripStatusUpdate(tripInfo, TripInfo.TripStatus.COMPLETE)
+
+    verify(storeMock).clear()
+  }
+
+  /** Returns a store whose load suspends once, as reading from disk does. */
+  private fun createStoreMock(snapshot: ActiveTripSnapshot?): ActiveTripStore = mock {
+    onBlocking { load() } doSuspendableAnswer
+      {
+        yield()
+        snapshot
+      }
+  }
+
   private companion object {
     const val TRIP_ID = "testTrip"
     const val TRIP_NAME = "providers/provider/trips/$TRIP_ID"
@@ -0,0 +1,62 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.mapsplatform.transportation.sample.kotlinconsumer
+
+import com.google.common.truth.Truth.assertThat
+import kotlin.test.assertFailsWith
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+@RunWith(JUnit4::class)
+class StartupTimerTest {
+  private var nowMillis = 0L
+  private val startupTimer = StartupTimer { nowMillis }
+
+  @Test
+  fun time_overlappingPhasesEndBeforeTheSumOfTheirDurations() = runBlocking {
+    val mapReady = async { startupTimer.time("map") { repeat(5) { tick(100) } } }
+    val consumerApi = async { startupTimer.time("consumer_api") { repeat(3) { tick(100) } } }
+    mapReady.await()
+    consumerApi.await()
+    startupTimer.mark("ready")
+
+    val durations = startupTimer.getPhaseDurationsMillis()
+    assertThat(durations["ready"]).isLessThan(durations["map"]!! + durations["consumer_api"]!!)
+    assertThat(durations.keys).containsExactly("consumer_api", "map", "ready").inOrder()
+  }
+
+  @Test
+  fun time_recordsFailedPhases() = runBlocking {
+    assertFailsWith<IllegalStateException> {
+      startupTimer.time("phase") {
+        nowMillis += 40
+        throw IllegalStateException()
+      }
+    }
+
+    assertThat(startupTimer.getPhaseDurationsMillis()).containsExactly("phase", 40L)
+    assertThat(startupTimer.summary()).isEqualTo("phase: 40 ms (done at 40 ms)")
+  }
+
+  /** Advances the clock and lets the other phase run. */
+  private suspend fun tick(millis: Long) {
+    nowMillis += millis
+    yield()
+  }
+}
@@ -53,6 +53,23 @@ class TripAuthTokenFactoryTest {
     verifyBlocking(providerServiceMock, times(1)) { fetchAuthToken(TRIP_ID) }
   }
 
+  @Test
+  fun getToken_usesPrefetchedToken() {
+    tripAuthTokenFactory.prefetchToken(TRIP_ID)
+
+    assertThat(tripAuthTokenFactory.getToken(AUTH_TOKEN_CONTEXT)).isEqualTo(FETCHED_TOKEN)
+    verifyBlocking(providerServiceMock, times(1)) { fetchAuthToken(TRIP_ID) }
+  }
+
+  @Test
+  fun prefetchToken_ignoresRepeatedCallsForSameTrip() {
+    tripAuthTokenFactory.prefetchToken(TRIP_ID)
+    tripAuthTokenFactory.prefetchToken(TRIP_ID)
+    tripAuthTokenFactory.getToken(AUTH_TOKEN_CONTEXT)
+
+    verifyBlocking(providerServiceMock, times(1)) { fetchAuthToken(TRIP_ID) }
+  }
+
   @Test
   fun getToken_surfacesExceptionWhenProviderFails() {
     runBlocking {
@@ -40,7 +40,8 @@ import com.google.mapsplatform.transportation.sample.kotlindriver.provider.reque
 import com.google.mapsplatform.transportation.sample.kotlindriver.provider.service.LocalProviderService
 import com.google.mapsplatform.transportation.sample.kotlindriver.state.TripStatus
 import java.net.ConnectException
-import java.util.concurrent.Executors
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.asExecutor
 import kotlinx.coroutines.launch
 
 /*
@@ -49,7 +50,8 @@ import kotlinx.coroutines.launch
  */
 /** Main activity for the DriverSDK test app. */
 class MainActivity : AppCompatActivity(), Presenter {
-  private val executor = Executors.newCachedThreadPool()
+  // Shares the bounded IO pool of the coroutine dispatchers instead of an unbounded cached pool.
+  private val executor = Dispatchers.IO.asExecutor()
   private lateinit var localSettings: LocalSettings
   private lateinit var navFragment: SupportNavigationFragment
   private lateinit var simulationStatusText: TextView
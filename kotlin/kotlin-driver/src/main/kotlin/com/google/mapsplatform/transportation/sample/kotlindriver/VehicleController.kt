@@ -39,7 +39,6 @@ import com.google.mapsplatform.transportation.sample.kotlindriver.state.TripStat
 import com.google.mapsplatform.transportation.sample.kotlindriver.utils.TripUtils
 import java.lang.ref.WeakReference
 import java.util.concurrent.Executor
-import java.util.concurrent.ExecutorService
 import java.util.concurrent.TimeUnit
 import java.util.regex.Pattern
 import kotlinx.coroutines.CoroutineScope
@@ -53,7 +52,7 @@ import kotlinx.coroutines.launch
 @Suppress("UnstableApiUsage")
 class VehicleController(
   private val navigator: Navigator,
-  private val executor: ExecutorService,
+  private val executor: Executor,
   context: Context,
   private val coroutineScope: CoroutineScope,
   private val providerService: LocalProviderService,